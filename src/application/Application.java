@@ -8,11 +8,17 @@ import java.awt.Frame;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -23,6 +29,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
 import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.WindowConstants;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -36,6 +43,22 @@ import graph_interfaces.GraphNode;
 import map_data.Map;
 import map_data.Node;
 import map_data.OSMParser;
+import routing.CostProfile;
+import routing.Isochrone;
+import routing.RouteRequest;
+import routing.RoutingService;
+import routing.RoutingService.RoutingListener;
+import routing.RoutingService.RoutingTask;
+import tracking.EdgeIndex;
+import tracking.EdgePosition;
+import tracking.FixScheduler;
+import tracking.FixScheduler.FixHandler;
+import tracking.GeofenceEvent;
+import tracking.GeofenceIndex;
+import tracking.GeofenceMonitor;
+import tracking.MapMatcher;
+import tracking.SimulatedGPS;
+import tracking.TraceWriter;
 
 public class Application extends JFrame implements GPSListener, MapPanelListener{
 
@@ -45,20 +68,59 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	private Map map;
 	/** Panel that displays map data for the current map. */
 	private MapPanel mapPanel;
-	/** Used for finding directions from one position to another on a map. */
-	private Director dir;
-	/** Private list of the directions that are given to the map panel. */
-	private List<GraphEdge> directions;
+	/** Used for finding directions from one position to another on a map. Set on the event dispatch thread, read on the fix scheduler's. */
+	private volatile Director dir;
+	/** Private list of the directions that are given to the map panel. Set on the event dispatch thread, read on the fix scheduler's. */
+	private volatile List<GraphEdge> directions;
+	/** Whether drive there is on, for the fix scheduler, which can't ask the button. Set along with the button on the event dispatch thread. */
+	private volatile boolean navigating;
 	/** Starks implementation of the GPS. Also provides real time position updates. */
 	private GPSDevice gps;
+	/** Snaps the fixes from the gps onto the roads. Set with dir on the event dispatch thread, read on the fix scheduler's. */
+	private volatile MapMatcher matcher;
+	/** Says when the driver crosses one of the boundaries on the map. Set with dir on the event dispatch thread, read on the fix scheduler's. */
+	private volatile GeofenceMonitor geofences;
+	/** Sends made up fixes instead of the gps device when turned on in the menu. */
+	private SimulatedGPS sim;
+	private JCheckBoxMenuItem simulate;
+	/** Records the fixes from the gps when turned on in the menu. Set on the event dispatch thread, read on the gps's. */
+	private volatile TraceWriter recorder;
+	private JCheckBoxMenuItem record;
+	/** The seed of the simulated gps, so it drives the same way every time. */
+	private static final long SIM_SEED = 42;
 	/** Label for displaying system relevant messages, such as found a route, without popups, */
 	private JLabel messageDisplay;
 	private JTextArea dirDisplay;
+	/** The text last put in dirDisplay by a fix. */
+	private String shownDir;
 	private GPSEvent prevEvent = null;
 	
 	private JButton getDir;
+	private JButton reachable;
 	private JToggleButton driveThere;
 	private JToggleButton trackPos;
+	private JComboBox<CostProfile> profiles;
+	
+	/** The lane for routing requests that change the current directions. */
+	private static final String NAV_LANE = "navigation";
+	/** The lane for growing the shortest path tree from the start node before an end is picked. */
+	private static final String SPEC_LANE = "speculative";
+	/** The lane for reachable area searches. */
+	private static final String REACH_LANE = "reachable";
+	/** How far the reachable area goes with the shortest profile, in meters. */
+	private static final double REACH_DISTANCE = 5000;
+	/** How far the reachable area goes with the time profiles, in seconds. */
+	private static final double REACH_TIME = 600;
+	/** Runs direction searches and route checks off the event dispatch thread. */
+	private final RoutingService routing = new RoutingService();
+	/** Deals with the newest fix from the gps, dropping any that come in while it's busy. */
+	private final FixScheduler<TrackedFix> fixes = new FixScheduler<TrackedFix>(new FixTracker(),
+			FixScheduler.DEFAULT_INTERVAL, new Executor() {
+				@Override
+				public void execute(Runnable r) {
+					SwingUtilities.invokeLater(r);
+				}
+			});
 
 	/**
 	 * Constructor for the application which takes no argument.
@@ -66,6 +128,22 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	public Application() throws Exception {
 		setTitle("Map Application");
 		setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE); // Irritating
+		// Closing the window exits without any warning, so a trace being recorded gets finished here.
+		// The window may already be gone, so it only closes the file and doesn't touch any labels.
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				TraceWriter t = recorder;
+				recorder = null;
+				if(t != null) {
+					try {
+						t.close();
+					} catch (IOException e) {
+						System.err.println("Couldn't finish writing the trace: " + e.getMessage());
+					}
+				}
+			}
+		});
 		setPreferredSize(new Dimension(MapPanel.DEFAULT_WIDTH, MapPanel.DEFAULT_HEIGHT));
 		Container content = getContentPane();
 		content.setLayout(new BorderLayout());
@@ -131,6 +209,62 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
         fileMenu.add(loadMap);
         menuBar.add(fileMenu);
         
+        JMenu gpsMenu = new JMenu("GPS");
+        simulate = new JCheckBoxMenuItem("Simulated GPS");
+        simulate.setToolTipText("Drives around the map instead of listening to the gps device.");
+        // Swaps the gps device for a simulated one that drives around the loaded map, and back.
+        simulate.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				if(map == null) {
+					simulate.setSelected(false);
+					return;
+				}
+				if(simulate.isSelected()) {
+					gps.removeGPSListener(Application.this);
+					sim = new SimulatedGPS(map, SIM_SEED);
+					sim.addGPSListener(Application.this);
+					sim.start();
+					messageDisplay.setText("Simulating the gps.");
+				} else {
+					stopSimulation();
+					gps.addGPSListener(Application.this);
+					messageDisplay.setText("Listening to the gps device.");
+				}
+			}
+		});
+        gpsMenu.add(simulate);
+        
+        record = new JCheckBoxMenuItem("Record Trace");
+        record.setToolTipText("Records the fixes from the gps to a file, for replaying with TraceReplay.");
+        final JFileChooser traceChooser = new JFileChooser();
+        traceChooser.setFileFilter(new FileNameExtensionFilter("GPS traces", "gpst"));
+        // Starts recording to a file picked by the user, or stops.
+        record.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				if(!record.isSelected()) {
+					stopRecording();
+					messageDisplay.setText("Stopped recording.");
+					return;
+				}
+				if(traceChooser.showSaveDialog(Application.this) != JFileChooser.APPROVE_OPTION) {
+					record.setSelected(false);
+					return;
+				}
+				try {
+					recorder = new TraceWriter(traceChooser.getSelectedFile());
+					if(driveThere.isSelected()) {
+						recordDestination(dir.getEndNode());
+					}
+					messageDisplay.setText("Recording the gps.");
+				} catch (IOException x) {
+					record.setSelected(false);
+					JOptionPane.showMessageDialog(null, "Failed to start recording.");
+				}
+			}
+		});
+        gpsMenu.add(record);
+        menuBar.add(gpsMenu);
+        
         setJMenuBar(menuBar);
 	}
 
@@ -173,7 +307,7 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 				public void actionPerformed(ActionEvent e) {
 					// Gets directions from start to end.
 					if (e.getActionCommand().equals("directions")) {
-						SwingWorker<List<GraphEdge>, Object> task = new DirectionFinder();
+						DirectionFinder task = new DirectionFinder();
 						task.execute();
 					}
 					// Clears all the current selections.
@@ -181,14 +315,25 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 						getDir.setEnabled(false);
 						driveThere.setEnabled(true);
 						driveThere.setSelected(false);
+						fixes.cancel();
+						recordDestination(null);
+						routing.cancel(NAV_LANE);
+						routing.cancel(SPEC_LANE);
+						routing.cancel(REACH_LANE);
 						dir.clearDirections();
 						mapPanel.setDirections(null);
+						mapPanel.setIsochrone(null);
 						mapPanel.setStart(null);
 						mapPanel.setEnd(null);
 						mapPanel.repaint();
 						updateAppState();
 						messageDisplay.setText("All selections have been cleared.");
 					}
+					// Shows everything reachable from the start node.
+					if (e.getActionCommand().equals("reachable")) {
+						ReachFinder task = new ReachFinder();
+						task.execute();
+					}
 					// If we select drive there, set the state of everything to driving.
 					// Unless we can't enter driver there mode.
 					if (e.getActionCommand().equals("drive")) {
@@ -196,7 +341,7 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 							if(prevEvent != null) {
 								dir.setStartNode(map.getNearNode(prevEvent.getLongitude(), prevEvent.getLatitude()));
 								mapPanel.setStart(null);
-								DirectionFinder task = new DirectionFinder();
+								DirectionFinder task = new DirectionFinder(true);
 								task.execute();
 								updateAppState();
 								messageDisplay.setText("Drive there mode enabled.");
@@ -205,9 +350,19 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 								driveThere.setSelected(false);
 							}
 						} else {
+							fixes.cancel();
+							recordDestination(null);
 							messageDisplay.setText("Drive there mode disabled.");
 						}
 					}
+					// Switching profiles applies to the next route that gets found.
+					if (e.getActionCommand().equals("profile")) {
+						CostProfile p = (CostProfile) profiles.getSelectedItem();
+						if(dir != null) {
+							dir.setProfile(p);
+						}
+						messageDisplay.setText("Routes will be found with the " + p + " profile.");
+					}
 					// If we select the track button, set the state of the map panel to tracking.
 					if (e.getActionCommand().equals("track")) {
 						mapPanel.setTrackPos(trackPos.isSelected());
@@ -224,6 +379,12 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 			getDir.setEnabled(false);
 			getDir.setToolTipText("Must have selected a start and end node to get directions");
 			getDir.addActionListener(buttonPanelListener);
+			// Init the reachable area button
+			reachable = new JButton("Reachable area");
+			reachable.setActionCommand("reachable");
+			reachable.setEnabled(false);
+			reachable.setToolTipText("Must have selected a start node to find what's reachable from it");
+			reachable.addActionListener(buttonPanelListener);
 			// Init the clear directions button
 			clearDir = new JButton("Clear selections");
 			clearDir.setActionCommand("clear");
@@ -239,13 +400,75 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 			driveThere.setEnabled(false);
 			driveThere.setToolTipText("Must have selected an end node to get driving directions");
 			driveThere.addActionListener(buttonPanelListener);
+			// Covers the button being set from code as well as clicked.
+			driveThere.addItemListener(new ItemListener() {
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					navigating = driveThere.isSelected();
+				}
+			});
+			// Init the route profile chooser
+			profiles = new JComboBox<CostProfile>(Director.PROFILES);
+			profiles.setActionCommand("profile");
+			profiles.setToolTipText("What routes should minimize");
+			profiles.addActionListener(buttonPanelListener);
 			// Set up the button panel.
 			this.setLayout(new GridLayout(1, 0));
 			this.setBorder(BorderFactory.createLineBorder(Color.BLACK));
 			this.add(getDir);
+			this.add(reachable);
 			this.add(clearDir);
 			this.add(trackPos);
 			this.add(driveThere);
+			this.add(profiles);
+		}
+	}
+
+	/**
+	 * Routing work that runs on the routing service instead of its own swing worker.
+	 * Results are handed back to the event dispatch thread through done.
+	 * @author david
+	 *
+	 */
+	abstract class RouteJob implements RoutingTask<List<GraphEdge>>, RoutingListener<List<GraphEdge>> {
+		
+		/**
+		 * Submits this job on the navigation lane, superseding any job already there.
+		 */
+		public void execute() {
+			routing.submit(NAV_LANE, this, this);
+		}
+		
+		/**
+		 * Updates the application with the new directions.
+		 * Called on the event dispatch thread.
+		 * @param newDir The new directions, or null if there is no route.
+		 */
+		protected abstract void done(List<GraphEdge> newDir);
+		
+		@Override
+		public void routeFinished(RouteRequest req, List<GraphEdge> newDir) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					done(newDir);
+				}
+			});
+		}
+		
+		@Override
+		public void routeCancelled(RouteRequest req) {
+			// A newer request replaced this one, so it will do the updating.
+		}
+		
+		@Override
+		public void routeFailed(RouteRequest req, Exception e) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					messageDisplay.setText("An ERROR has occurred!");
+				}
+			});
 		}
 	}
 
@@ -254,67 +477,237 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	 * @author david
 	 *
 	 */
-	class DirectionFinder extends SwingWorker<List<GraphEdge>, Object> {
+	class DirectionFinder extends RouteJob {
+		private final Director d = dir;
+		/** True if this starts drive there mode, which prepares the director for rerouting. */
+		private final boolean navigate;
 
 		public DirectionFinder() {
+			this(false);
+		}
+		
+		public DirectionFinder(boolean navigate) {
+			this.navigate = navigate;
 			messageDisplay.setText("Searching for route...");
+			if(navigate) {
+				recordDestination(d.getEndNode());
+			}
 		}
 
 		@Override
-		protected List<GraphEdge> doInBackground() throws Exception {
-			return dir.getDirections();
+		public List<GraphEdge> run(RouteRequest req) throws Exception {
+			if(navigate) {
+				return d.startNavigation(req);
+			}
+			return d.getDirections(req);
 		}
 
 		@Override
-		protected void done() {
-			try {
-				directions = get();
-				mapPanel.setDirections(directions);
-				if(directions == null) {
-					messageDisplay.setText("No route exists.");;
-				} else {
-					messageDisplay.setText("Route found!");
-					dirDisplay.setText(dir.getDirString());
+		protected void done(List<GraphEdge> newDir) {
+			directions = newDir;
+			mapPanel.setDirections(directions);
+			if(directions == null) {
+				messageDisplay.setText("No route exists.");;
+			} else {
+				messageDisplay.setText("Route found!");
+				showDirString(d.getDirString());
+			}
+		}
+	}
+
+	/**
+	 * Deals with fixes from the gps on the fix scheduler's worker. Each fix gets snapped to
+	 * the road, and your route gets checked, and updated if you're off course.
+	 * @author david
+	 *
+	 */
+	class FixTracker implements FixHandler<TrackedFix> {
+		@Override
+		public TrackedFix process(GPSEvent e, RouteRequest req) throws Exception {
+			// Only the volatile fields are read here, the buttons belong to the event dispatch thread.
+			TrackedFix f = new TrackedFix(e, dir);
+			// The driver is shown on the road they're most likely on, not wherever the noise put them.
+			MapMatcher m = matcher;
+			EdgePosition p = m == null ? null : m.update(e);
+			f.lon = p == null ? e.getLongitude() : p.getLon();
+			f.lat = p == null ? e.getLatitude() : p.getLat();
+			GeofenceMonitor g = geofences;
+			f.crossings = g == null ? null : g.update(e);
+			if(navigating) {
+				f.oldDir = directions;
+				f.newDir = f.d.updateDirections(f.lat, f.lon, e.getHeading(), req);
+				f.routed = true;
+				f.dirString = f.d.getDirString();
+				f.remaining = f.d.getRemainingDistance();
+				f.time = f.d.getRemainingTime();
+			}
+			return f;
+		}
+
+		@Override
+		public void publish(TrackedFix f) {
+			prevEvent = f.event;
+			updateAppState();
+			if(trackPos.isSelected())
+				mapPanel.setCenter(f.lon, f.lat);
+			mapPanel.setDriver(f.lon, f.lat);
+			if(f.crossings != null && !f.crossings.isEmpty()) {
+				messageDisplay.setText(f.crossings.get(f.crossings.size() - 1).toString());
+			}
+			// Drive there mode could have been turned off, or a new map loaded, since the check.
+			if(!f.routed || f.d != dir || !driveThere.isSelected()) {
+				return;
+			}
+			directions = f.newDir;
+			mapPanel.setDirections(directions);
+			if(directions == null) {
+				messageDisplay.setText("No route exists.");;
+			} else if (f.oldDir == null || !Director.isProgress(f.oldDir, directions)){
+				messageDisplay.setText("Route updated.");
+				showDirString(f.dirString);
+			} else {
+				// The text is the same object until the driver moves on, so it's only set when it changes.
+				showDirString(f.dirString);
+				// Crossing a boundary is news for one fix, so it's left up instead of the usual message.
+				if(f.crossings == null || f.crossings.isEmpty()) {
+					messageDisplay.setText(String.format("On route to destination, %.2fkm and about %d min to go",
+							f.remaining / 1000, Math.round(f.time / 60)));
 				}
-			} catch (Exception e) {
-				messageDisplay.setText("An ERROR has occurred!");
 			}
 		}
+
+		@Override
+		public void fixFailed(GPSEvent e, Exception ex) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					messageDisplay.setText("An ERROR has occurred!");
+				}
+			});
+		}
 	}
 
 	/**
-	 * Checks your route in the background, and updates it if you're off course.
+	 * What came of a fix from the gps.
 	 * @author david
 	 *
 	 */
-	class RouteChecker extends SwingWorker<List<GraphEdge>, Object> {
-		GPSEvent event;
-		List<GraphEdge> oldDir = directions;
-		public RouteChecker(GPSEvent e) {
+	static class TrackedFix {
+		final GPSEvent event;
+		/** The director the fix was checked against. */
+		final Director d;
+		/** Where the fix was snapped to. */
+		double lon, lat;
+		/** True if the route was checked. */
+		boolean routed = false;
+		List<GraphEdge> oldDir, newDir;
+		/** The directions left after the fix. */
+		String dirString;
+		/** How far and how long is left to go after the fix, in meters and seconds. */
+		double remaining, time;
+		/** The boundaries the fix showed the driver crossing, or null. */
+		List<GeofenceEvent> crossings;
+
+		TrackedFix(GPSEvent e, Director d) {
 			event = e;
+			this.d = d;
+		}
+	}
+	
+	/**
+	 * Grows the shortest path tree from a newly picked start node in the background, so
+	 * getting directions is quick once the end is picked. Nothing is shown when it finishes.
+	 * @author david
+	 *
+	 */
+	class TreeBuilder implements RoutingTask<Void>, RoutingListener<Void> {
+		private final Director d = dir;
+		private final GraphNode start;
+		
+		public TreeBuilder(GraphNode start) {
+			this.start = start;
+		}
+		
+		/**
+		 * Submits this job on the speculative lane, superseding any tree already growing.
+		 */
+		public void execute() {
+			routing.submit(SPEC_LANE, this, this);
 		}
+		
 		@Override
-		protected List<GraphEdge> doInBackground() throws Exception {
-			return dir.updateDirections(event.getLatitude(), event.getLongitude(), event.getHeading());
+		public Void run(RouteRequest req) throws Exception {
+			d.precomputeFrom(start, req);
+			return null;
 		}
+		
 		@Override
-		protected void done() {
-			try {
-				directions = get();
-				mapPanel.setDirections(directions);
-				if(directions == null) {
-					messageDisplay.setText("No route exists.");;
-				} else if (!oldDir.equals(directions)){
-					messageDisplay.setText("Route updated.");
-					dirDisplay.setText(dir.getDirString());
-				} else {
-					dirDisplay.setText(dir.getDirString());
-					messageDisplay.setText("On route to destination");
+		public void routeFinished(RouteRequest req, Void result) {
+		}
+		
+		@Override
+		public void routeCancelled(RouteRequest req) {
+			// Either a new start was picked or whatever is left gets grown when the end is.
+		}
+		
+		@Override
+		public void routeFailed(RouteRequest req, Exception e) {
+			// Getting directions will search on its own, so there's nothing to tell anyone.
+		}
+	}
+	
+	/**
+	 * Finds the area reachable from the start node in the background.
+	 * 5km with the shortest profile, 10 minutes with the others.
+	 * @author david
+	 *
+	 */
+	class ReachFinder implements RoutingTask<Isochrone>, RoutingListener<Isochrone> {
+		private final Director d = dir;
+		private final GraphNode origin = dir.getStartNode();
+		private final double budget = dir.getProfile() == CostProfile.SHORTEST ? REACH_DISTANCE : REACH_TIME;
+		
+		public ReachFinder() {
+			messageDisplay.setText("Searching for reachable area...");
+		}
+		
+		/**
+		 * Submits this job on the reachable lane, superseding any search already there.
+		 */
+		public void execute() {
+			routing.submit(REACH_LANE, this, this);
+		}
+		
+		@Override
+		public Isochrone run(RouteRequest req) throws Exception {
+			return d.findReachable(origin, budget, req);
+		}
+		
+		@Override
+		public void routeFinished(RouteRequest req, Isochrone iso) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					mapPanel.setIsochrone(iso);
+					messageDisplay.setText(iso.getNodeCount() + " intersections are reachable.");
 				}
-			} catch (Exception e) {
-			}
+			});
+		}
+		
+		@Override
+		public void routeCancelled(RouteRequest req) {
+			// A newer search replaced this one.
+		}
+		
+		@Override
+		public void routeFailed(RouteRequest req, Exception e) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					messageDisplay.setText("An ERROR has occurred!");
+				}
+			});
 		}
-
 	}
 	
 	/**
@@ -325,9 +718,15 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	class MapLoader extends SwingWorker<Map, Object> {
 
 		private File file;
+		/** The matcher and geofences for the new map, swapped in along with the director once it's loaded. */
+		private MapMatcher newMatcher;
+		private GeofenceMonitor newGeofences;
 		public MapLoader(File f) {
 			file = f;
 			messageDisplay.setText("Loading map...");
+			// The simulation drives on the old map and belongs to the event dispatch thread,
+			// so it's stopped here before the loading starts.
+			stopSimulation();
 		}
 		@Override
 		protected Map doInBackground() throws Exception {
@@ -343,6 +742,12 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 					}
 				}
 			}
+			newMatcher = new MapMatcher(map, new EdgeIndex(map));
+			newGeofences = new GeofenceMonitor(GeofenceIndex.fromMap(map));
+			// Fixes from the new device go unmatched and unfenced until done swaps in the new
+			// ones, rather than being checked against the old map.
+			matcher = null;
+			geofences = null;
 			gps = new GPSDevice(file.getAbsolutePath());
 			prevEvent = null;
 			gps.addGPSListener(Application.this);
@@ -360,7 +765,18 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 			} catch (Exception e) {
 			}
 			messageDisplay.setText("Map loaded. Left click to select start, right click to select end.");
+			simulate.setSelected(false);
+			// A trace is only any good with the map it was driven on.
+			stopRecording();
+			record.setSelected(false);
+			fixes.cancel();
+			routing.cancel(NAV_LANE);
+			routing.cancel(SPEC_LANE);
+			routing.cancel(REACH_LANE);
 			dir = new Director(map);
+			dir.setProfile((CostProfile) profiles.getSelectedItem());
+			matcher = newMatcher;
+			geofences = newGeofences;
 			updateAppState();
 			getContentPane().add(mapPanel, BorderLayout.CENTER);
 			pack();
@@ -373,15 +789,12 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	 */
 	@Override
 	public void processEvent(GPSEvent e) {
-		prevEvent = e;
-		updateAppState();
-		if(trackPos.isSelected())
-			mapPanel.setCenter(e.getLongitude(), e.getLatitude());
-		mapPanel.setDriver(e.getLongitude(), e.getLatitude());
-		if(driveThere.isSelected()) {
-			RouteChecker task = new RouteChecker(e);
-			task.execute();
+		// Every fix gets recorded, even the ones dropped for coming in too fast.
+		TraceWriter t = recorder;
+		if(t != null) {
+			t.processEvent(e);
 		}
+		fixes.offer(e);
 	}
 	
 	/**
@@ -389,6 +802,7 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 	 */
 	@Override
 	public void processEvent(MapPanelEvent e) {
+		GraphNode oldStart = dir.getStartNode();
 		if(dir.getStartNode() != e.getStartNode())
 			messageDisplay.setText("Start node selected.");
 		if(dir.getEndNode() != e.getEndNode())
@@ -401,11 +815,18 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 			}
 			if(e.getEndNode() != null) {
 				dir.setStartNode(map.getNearNode(prevEvent.getLongitude(), prevEvent.getLatitude()));
-				DirectionFinder task = new DirectionFinder();
+				DirectionFinder task = new DirectionFinder(true);
 				task.execute();
 			}
 		} else {
 			dir.setStartNode(e.getStartNode());
+			// Start searching from a new start straight away, before the end is picked.
+			if(e.getStartNode() == null) {
+				routing.cancel(SPEC_LANE);
+			} else if(e.getStartNode() != oldStart) {
+				TreeBuilder task = new TreeBuilder(e.getStartNode());
+				task.execute();
+			}
 		}
 		if(e.movedMap()) {
 			if(trackPos.isSelected()) {
@@ -417,6 +838,76 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 		updateAppState();
 	}
 	
+	/**
+	 * Points the tree growing from the start node at whatever the mouse is over,
+	 * since that's probably where the end is going to be.
+	 */
+	@Override
+	public void processHover(Node n) {
+		if(dir != null) {
+			dir.setLikelyEnd(n);
+		}
+	}
+	
+	/**
+	 * Records where the driver is headed in the trace, if one is being recorded.
+	 * @param n The destination, or null if they've stopped heading anywhere.
+	 */
+	private void recordDestination(GraphNode n) {
+		TraceWriter t = recorder;
+		if(t == null) {
+			return;
+		}
+		try {
+			if(n == null) {
+				t.clearDestination();
+			} else {
+				t.recordDestination(((Node) n).getLon(), ((Node) n).getLat());
+			}
+		} catch (IOException e) {
+			messageDisplay.setText("Couldn't write to the trace.");
+		}
+	}
+	
+	/**
+	 * Stops recording the trace, if one is being recorded.
+	 */
+	private void stopRecording() {
+		TraceWriter t = recorder;
+		recorder = null;
+		if(t != null) {
+			try {
+				t.close();
+			} catch (IOException e) {
+				messageDisplay.setText("Couldn't finish writing the trace.");
+			}
+		}
+	}
+	
+	/**
+	 * Stops the simulated gps, if it's going.
+	 */
+	private void stopSimulation() {
+		SimulatedGPS s = sim;
+		if(s != null) {
+			s.stop();
+			s.removeGPSListener(this);
+			sim = null;
+		}
+	}
+	
+	/**
+	 * Shows directions, unless they're the ones already showing.
+	 * Only call this on the event dispatch thread.
+	 * @param text The directions.
+	 */
+	private void showDirString(String text) {
+		if(text != shownDir) {
+			dirDisplay.setText(text);
+			shownDir = text;
+		}
+	}
+	
 	/**
 	 * Updates the general state of the application to be consistent. Generally useful for buttons.
 	 */
@@ -428,6 +919,7 @@ public class Application extends JFrame implements GPSListener, MapPanelListener
 		trackPos.setEnabled(prevEvent != null);
 		driveThere.setEnabled(dir.getEndNode() != null && prevEvent != null);
 		getDir.setEnabled(dir.getStartNode() != null && dir.getEndNode() != null && !driveThere.isSelected());
+		reachable.setEnabled(dir.getStartNode() != null);
 
 		mapPanel.repaint();
 	}
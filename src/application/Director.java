@@ -1,15 +1,16 @@
 package application;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import graph_interfaces.GraphEdge;
 import graph_interfaces.GraphNode;
@@ -19,6 +20,28 @@ import map_data.HaversineDistance;
 import map_data.Map;
 import map_data.Node;
 import map_data.RoadSegment;
+import routing.AlternativeRoutes;
+import routing.CostProfile;
+import routing.DistanceOracle;
+import routing.EdgeBasedSearch;
+import routing.EdgeWeights;
+import routing.ForwardTree;
+import routing.HierarchyRule;
+import routing.HierarchySearch;
+import routing.IndexedHeap;
+import routing.Isochrone;
+import routing.IsochroneSearch;
+import routing.Maneuver;
+import routing.ReverseTree;
+import routing.Route;
+import routing.RouteCache;
+import routing.RouteRequest;
+import routing.SearchWorkspace;
+import routing.StopPlan;
+import routing.StopPlanner;
+import routing.TurnRestrictions;
+import routing.WeightOverlay;
+import tracking.RouteCorridor;
 
 /**
  * A class that will produce directions from a start point to an end point.
@@ -36,16 +59,22 @@ public class Director {
 	 * Default angle to search for the next node in the route in.
 	 */
 	private static final double DEFAULT_ANGLE = 120;
+	private final Map map;
 	/**
-	 * Default radius to search for the next node in the route in.
+	 * A list of edges to follow to reach a destination, which is a copy of routeEdges from the
+	 * cursor on. It never changes once handed out, since the panel draws it on the event
+	 * dispatch thread while the driver moves on.
 	 */
-	private static final double DEFAULT_RADIUS = 20;
-	private final Map map;
-	/** A list of edges to follow to reach a destination */
 	private List<GraphEdge> directions;
+	/** Every edge of the route being followed, including the ones already driven. */
+	private List<GraphEdge> routeEdges;
+	/** The index in routeEdges of the edge the driver is on. */
+	private int cursor;
+	/** The cells around routeEdges where a fix can be on course, and the edges it can be on there. */
+	private RouteCorridor corridor;
 	
-	private final DistanceStrategy strat = new HaversineDistance();
-	private static final double DEFAULT_DIST = .5;
+	/** The profiles whose weights are computed as soon as the director is made. */
+	public static final CostProfile[] PROFILES = {CostProfile.SHORTEST, CostProfile.FASTEST, CostProfile.AVOID_MOTORWAY};
 	
 	private List<RoadSegment> directionSegs;
 	/** A list of the nodes traversed by this map. */
@@ -54,18 +83,49 @@ public class Director {
 	private Set<GraphNode> nodeSet;
 	/** A list of the directions to follow in a human readable form. */
 	private String dirString;
+	/** The cursor dirString was last built for, so it's only built again when the driver moves on. */
+	private int dirCursor;
+	/** The route being followed, which has the running totals for what's left of it. */
+	private Route currRoute;
+	/** How much of the edge at the cursor is left, in meters, as of the latest fix. */
+	private double edgeLeft;
+	private final DistanceStrategy strat = new HaversineDistance();
 	
 	private GraphNode currNode;
 	
 	private GraphNode startNode;
 	
 	private GraphNode endNode;
-	/** Temporary segments used to simplify shortest path finding. */
-	private Set<GraphSegment> tempSegments;
+	/** Routes that have already been found, so repeated requests skip the search. */
+	private final RouteCache routeCache = new RouteCache();
+	/** Shortest path tree towards the end node, used to reroute without searching. */
+	private ReverseTree reverseTree;
+	/** Shortest path tree grown from the start node while the user picks an end. */
+	private ForwardTree forwardTree;
+	/** Where the user is likely to pick the end, which the forward tree grows towards. */
+	private GraphNode likelyEnd;
+	/** The precomputed segment weights of each profile, by profile name. */
+	private final HashMap<String, EdgeWeights> profileWeights = new HashMap<String, EdgeWeights>();
+	/** The weights of the profile routes are currently found with. */
+	private volatile EdgeWeights weights;
+	/** Live changes to way costs, like closures, applied on top of every profile. */
+	private WeightOverlay overlay = WeightOverlay.EMPTY;
+	/** True when the costs of the current directions changed, so they should be found again. */
+	private boolean directionsStale = false;
+	/** Prunes small roads far from the ends of a trip, or null to always find the cheapest route. */
+	private volatile HierarchySearch hierarchy;
+	/** Precomputed routes between every pair of intersections, for small maps. Null if there aren't any. */
+	private volatile DistanceOracle oracle;
+	/** The turn restrictions of the map. When there are any, searches have to be edge based. */
+	private final TurnRestrictions restrictions;
 	
 	public Director(Map m) {
 		map = m;
-		tempSegments = new HashSet<GraphSegment>();
+		restrictions = new TurnRestrictions(m);
+		for(CostProfile p : PROFILES) {
+			profileWeights.put(p.getName(), new EdgeWeights(m, p));
+		}
+		weights = profileWeights.get(CostProfile.SHORTEST.getName());
 		startNode = null;
 		endNode = null;
 	}
@@ -102,6 +162,168 @@ public class Director {
 		return endNode;
 	}
 	
+	/**
+	 * Sets the profile routes are found with. Switching between profiles only swaps
+	 * which precomputed weights are used. The current directions are left alone.
+	 * @param p The profile to use.
+	 */
+	public synchronized void setProfile(CostProfile p) {
+		EdgeWeights w = profileWeights.get(p.getName());
+		if(w == null || w.getProfile() != p) {
+			w = new EdgeWeights(map, p);
+		}
+		// Profiles that weren't in use when the overlay changed catch up now.
+		w = w.withOverlay(map, overlay);
+		profileWeights.put(p.getName(), w);
+		weights = w;
+	}
+	
+	/**
+	 * Turns hierarchical routing on or off. With it on, routes only use small roads near the
+	 * start and end, which is much quicker on long trips but can cost a little more than the
+	 * cheapest route. Maps with turn restrictions always get the cheapest legal route.
+	 * @param rule Which road classes can be used where, or null to turn it off.
+	 */
+	public void setHierarchy(HierarchyRule rule) {
+		hierarchy = rule == null ? null : new HierarchySearch(map, rule);
+	}
+	
+	/**
+	 * Returns the rule hierarchical routing prunes with.
+	 * @return The rule, or null if it's off.
+	 */
+	public HierarchyRule getHierarchy() {
+		HierarchySearch h = hierarchy;
+		return h == null ? null : h.getRule();
+	}
+	
+	/**
+	 * Precomputes the route between every pair of intersections under the current profile,
+	 * so finding routes is a table walk. Only for small maps. The tables are only used while
+	 * the profile and overlay are the same as when they were built.
+	 * @param maxNodes The most intersections to build for.
+	 * @param threads The number of threads to build on.
+	 * @return The oracle.
+	 * @throws IllegalArgumentException If the map has more intersections than maxNodes.
+	 * @throws InterruptedException If interrupted while building.
+	 * @throws ExecutionException If building fails.
+	 */
+	public DistanceOracle buildOracle(int maxNodes, int threads) throws InterruptedException, ExecutionException {
+		DistanceOracle o = DistanceOracle.build(map, weights, maxNodes, threads);
+		oracle = o;
+		return o;
+	}
+	
+	/**
+	 * Loads tables saved earlier for this map and the current profile and overlay.
+	 * @param f The saved tables.
+	 * @return The oracle.
+	 * @throws IOException If it can't be read, or was built for another map or other weights.
+	 */
+	public DistanceOracle loadOracle(File f) throws IOException {
+		DistanceOracle o = DistanceOracle.load(f, map, weights);
+		oracle = o;
+		return o;
+	}
+	
+	/**
+	 * Stops using precomputed tables.
+	 */
+	public void clearOracle() {
+		oracle = null;
+	}
+	
+	/**
+	 * Multiplies the cost of a way, for congestion or anything else that slows it down.
+	 * Routing keeps running while this applies. Searches already going finish with the old costs,
+	 * and only the cached routes and trees that could be affected are thrown away.
+	 * @param wayID The id of the way.
+	 * @param factor The multiplier. 1 puts the way back to normal.
+	 */
+	public void setWayFactor(String wayID, double factor) {
+		synchronized(this) {
+			applyOverlay(overlay.with(wayID, factor));
+		}
+	}
+	
+	/**
+	 * Closes a way, so no route will use it.
+	 * @param wayID The id of the way.
+	 */
+	public void blockWay(String wayID) {
+		setWayFactor(wayID, WeightOverlay.BLOCKED);
+	}
+	
+	/**
+	 * Puts a way back to its normal cost.
+	 * @param wayID The id of the way.
+	 */
+	public void clearWay(String wayID) {
+		setWayFactor(wayID, 1);
+	}
+	
+	/**
+	 * Puts every way back to its normal cost.
+	 */
+	public synchronized void clearOverlay() {
+		applyOverlay(WeightOverlay.EMPTY);
+	}
+	
+	/**
+	 * Returns the live changes to way costs.
+	 * @return The overlay.
+	 */
+	public synchronized WeightOverlay getOverlay() {
+		return overlay;
+	}
+	
+	/**
+	 * Swaps in a new overlay. Only the current profile's weights are recomputed straight away,
+	 * and only for the ways that changed. The other profiles catch up when they're picked.
+	 * If every change made ways more expensive, cached routes that avoid them are kept.
+	 * Must be called holding the lock.
+	 * @param next The new overlay.
+	 */
+	private void applyOverlay(WeightOverlay next) {
+		Set<String> changed = next.changedFrom(overlay);
+		if(changed.isEmpty()) {
+			return;
+		}
+		boolean onlyWorse = true;
+		for(String id : changed) {
+			if(next.getFactor(id) < overlay.getFactor(id)) {
+				onlyWorse = false;
+			}
+		}
+		overlay = next;
+		EdgeWeights w = weights.withOverlay(map, next);
+		profileWeights.put(w.getProfile().getName(), w);
+		weights = w;
+		if(onlyWorse) {
+			routeCache.invalidateWays(changed);
+		} else {
+			routeCache.invalidate();
+		}
+		reverseTree = null;
+		forwardTree = null;
+		if(directionSegs != null) {
+			for(RoadSegment seg : directionSegs) {
+				if(changed.contains(seg.getWay().getID())) {
+					directionsStale = true;
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the profile routes are found with.
+	 * @return The current profile.
+	 */
+	public CostProfile getProfile() {
+		return weights.getProfile();
+	}
+	
 	/**
 	 * Returns whether or not a certain node is in the route.
 	 * @param n
@@ -117,243 +339,533 @@ public class Director {
 	 * exists or the input nodes are null.
 	 */
 	public List<GraphEdge> getDirections() {
-		if(startNode != null && endNode != null) {
-			return calcDir();
+		return getDirections(null);
+	}
+	
+	/**
+	 * Returns an ordered list of the directions from start to end.
+	 * The search gives up as soon as the request is cancelled.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return An ordered list of GraphEdges from start to end, or null if no such list
+	 * exists or the input nodes are null.
+	 * @throws CancellationException If the request was cancelled before the directions were set.
+	 */
+	public List<GraphEdge> getDirections(RouteRequest req) {
+		GraphNode sn;
+		GraphNode en;
+		synchronized(this) {
+			sn = startNode;
+			en = endNode;
+		}
+		if(sn != null && en != null) {
+			return useRoute(findRoute(sn, en, req), req);
 		}
 		// If something goes wrong we return null.
 		return null;
 	}
 	
+	/**
+	 * Starts navigating from the start node to the end node.
+	 * Builds the shortest path tree towards the end node, so that going off course later on
+	 * can be answered by following the tree, and takes the first directions from it too.
+	 * @param req The request this runs for, or null if it can't be cancelled.
+	 * @return The directions from start to end, or null if no route exists or the nodes are null.
+	 * @throws CancellationException If the request was cancelled before the directions were set.
+	 */
+	public List<GraphEdge> startNavigation(RouteRequest req) {
+		GraphNode sn;
+		GraphNode en;
+		synchronized(this) {
+			sn = startNode;
+			en = endNode;
+		}
+		if(sn == null || en == null) {
+			return null;
+		}
+		return useRoute(routeToEnd(sn, en, req), req);
+	}
+	
+	/**
+	 * Finds the route to the end node while navigating. Follows the shortest path tree towards
+	 * the end, unless the map has turn restrictions, which the tree doesn't know about.
+	 * @param sn The node to start from.
+	 * @param en The end node.
+	 * @param req The request this runs for, or null if it can't be cancelled.
+	 * @return The route, or null if no route exists.
+	 */
+	private Route routeToEnd(GraphNode sn, GraphNode en, RouteRequest req) {
+		if(!restrictions.isEmpty()) {
+			return findRoute(sn, en, req);
+		}
+		return getReverseTree(en, req).routeFrom(sn);
+	}
+	
+	/**
+	 * Returns the shortest path tree towards a destination, building it if the current
+	 * tree is for a different destination, the profile has changed or the graph has changed since.
+	 * @param en The destination.
+	 * @param req The request this runs for, or null if it can't be cancelled.
+	 * @return The tree rooted at the destination.
+	 */
+	private ReverseTree getReverseTree(GraphNode en, RouteRequest req) {
+		EdgeWeights w = weights;
+		synchronized(this) {
+			if(reverseTree != null && reverseTree.getTarget().equals(en) && reverseTree.getWeights() == w) {
+				return reverseTree;
+			}
+		}
+		ReverseTree tree = new ReverseTree(map, en, w, req);
+		synchronized(this) {
+			if(en.equals(endNode)) {
+				reverseTree = tree;
+			}
+		}
+		return tree;
+	}
+	
+	/**
+	 * Starts growing the shortest path tree from a start node, so the route to whatever end
+	 * gets picked is already found or close to it. Runs until the tree is done or the request
+	 * is cancelled. A cancelled tree is kept, and routes from it grow it the rest of the way.
+	 * Does nothing if the map has turn restrictions, which the tree doesn't know about.
+	 * @param sn The start node.
+	 * @param req The request this runs for, or null if it can't be cancelled.
+	 * @throws CancellationException If the request is cancelled before the tree is done.
+	 */
+	public void precomputeFrom(GraphNode sn, RouteRequest req) {
+		if(!restrictions.isEmpty()) {
+			return;
+		}
+		ForwardTree tree = new ForwardTree(map, sn, weights);
+		synchronized(this) {
+			if(!sn.equals(startNode)) {
+				return;
+			}
+			tree.setHover(likelyEnd);
+			forwardTree = tree;
+		}
+		tree.build(req);
+	}
+	
+	/**
+	 * Tells the director where the user is likely to pick as the end, like the node under the
+	 * mouse, so the tree from the start node grows towards it first.
+	 * @param n The likely end node, or null if there isn't one.
+	 */
+	public void setLikelyEnd(GraphNode n) {
+		ForwardTree tree;
+		synchronized(this) {
+			likelyEnd = n;
+			tree = forwardTree;
+		}
+		if(tree != null) {
+			tree.setHover(n);
+		}
+	}
+	
+	/**
+	 * Returns the tree grown from a start node, if there is one for these weights.
+	 * @param sn The start node.
+	 * @param w The weights the route is wanted for.
+	 * @return The tree, or null if there isn't a usable one.
+	 */
+	private synchronized ForwardTree getForwardTree(GraphNode sn, EdgeWeights w) {
+		if(forwardTree != null && forwardTree.getSource().equals(sn) && forwardTree.getWeights() == w) {
+			return forwardTree;
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the route between two nodes without touching the current directions.
+	 * Nothing here writes to the director or the map, so any number of these can run at once.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The route from start to end, or null if no route exists.
+	 * @throws CancellationException If the request is cancelled during the search.
+	 */
+	public Route findRoute(GraphNode sn, GraphNode en, RouteRequest req) {
+		// The generation is read before the weights, so a route found with weights that get
+		// replaced during the search is never cached.
+		long gen = routeCache.getGeneration();
+		EdgeWeights w = weights;
+		HierarchySearch h = restrictions.isEmpty() ? hierarchy : null;
+		String profile = w.getProfile().getName();
+		if(h != null) {
+			// Pruned routes aren't always the cheapest, so they're cached apart from exact ones.
+			profile += "/" + h.getRule();
+		}
+		Route route = routeCache.get(sn, en, profile);
+		if(route == null) {
+			DistanceOracle o = oracle;
+			ForwardTree tree = getForwardTree(sn, w);
+			if(o != null && o.getWeights() == w && restrictions.isEmpty()) {
+				route = o.route(sn, en);
+			} else if(tree != null) {
+				route = tree.routeTo(en, req);
+			} else if(h != null) {
+				route = h.route(sn, en, w, req);
+			} else {
+				route = calcDir(sn, en, w, req);
+			}
+			if(route != null) {
+				routeCache.put(profile, route, gen);
+			}
+		}
+		return route;
+	}
+	
+	/**
+	 * Finds up to k different reasonable routes between the start and end nodes under the
+	 * current profile. The current directions are left alone.
+	 * @param k The most routes to find.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The routes, shortest first. Empty if there's no route or no start and end.
+	 * @throws CancellationException If the request is cancelled during the search.
+	 */
+	public List<Route> findAlternatives(int k, RouteRequest req) {
+		GraphNode sn;
+		GraphNode en;
+		synchronized(this) {
+			sn = startNode;
+			en = endNode;
+		}
+		if(sn == null || en == null) {
+			return new ArrayList<Route>();
+		}
+		return new AlternativeRoutes(map, weights).find(sn, en, k, req);
+	}
+	
+	/**
+	 * Plans the order to visit a list of stops in under the current profile, starting from the
+	 * first. The current directions are left alone, but the plan's edges can be drawn the same way.
+	 * @param stops The stops to visit. The first is where the plan starts.
+	 * @param roundTrip True to come back to the first stop at the end.
+	 * @param budget How long to spend improving the order, in milliseconds.
+	 * @param req The request this runs for, or null if it can't be cancelled.
+	 * @return The plan, or null if some stop can't be reached.
+	 * @throws InterruptedException If interrupted while planning.
+	 * @throws ExecutionException If planning fails.
+	 */
+	public StopPlan planStops(List<GraphNode> stops, boolean roundTrip, long budget, RouteRequest req)
+			throws InterruptedException, ExecutionException {
+		return new StopPlanner(map, weights, restrictions).plan(stops, roundTrip, budget, req);
+	}
+	
+	/**
+	 * Finds everything reachable from a node within a budget under the current profile.
+	 * @param origin The node to start from.
+	 * @param budget The most it can cost to reach something, in meters for the shortest
+	 * profile and seconds for the others.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The reachable area.
+	 * @throws CancellationException If the request is cancelled during the search.
+	 */
+	public Isochrone findReachable(GraphNode origin, double budget, RouteRequest req) {
+		return new IsochroneSearch(map, weights).search(origin, budget, req);
+	}
+	
 	/**
 	 * Returns the human-readable, line separated, direction string.
 	 * 
 	 * If the road has no name it suggests you travel on a road with no name.
+	 * It only covers what's left of the route, and only gets built again when the driver
+	 * has moved on to another edge since it was last asked for.
 	 * 
 	 * @return The string containing the directions.
 	 */
-	public String getDirString() {
-		String rtrnString = "";
-		RoadSegment initSeg = directionSegs.get(0);
-		String currName = initSeg.getName();
-		String finalName;
-		double currLen = 0;
-		for(RoadSegment seg : directionSegs) {
-			finalName = currName;
-			if(currName.isEmpty()) {
-				finalName = "A Road With No Name";
-			}
-			if(seg.getName().equals(currName)) {
-				currLen += seg.getLength();
-			} else {
-				String lenStr = String.format("%.2f", currLen/1000);	// Format to 4 points
-				rtrnString += "Travel on " + finalName + " for " + lenStr + "km.\n";
-				currName = seg.getName();
-				currLen = seg.getLength();
-			}
+	public synchronized String getDirString() {
+		if(currRoute != null && dirCursor != cursor) {
+			dirString = currRoute.getDirString(cursor);
+			dirCursor = cursor;
+		}
+		return dirString;
+	}
+	
+	/**
+	 * Returns how far is left to drive on the route being followed.
+	 * @return The distance in meters, or NaN if there's no route.
+	 */
+	public synchronized double getRemainingDistance() {
+		if(currRoute == null) {
+			return Double.NaN;
 		}
-		// I am too stupid to unfold this loop correctly so it finishes inside the loop
-		finalName = currName;
-		if(currName.isEmpty()) {
-			finalName = "A Road With No Name";
+		return currRoute.getDistanceFrom(cursor + 1) + edgeLeft;
+	}
+	
+	/**
+	 * Returns how long is left to drive on the route being followed, at the roads' usual speeds.
+	 * @return The time in seconds, or NaN if there's no route.
+	 */
+	public synchronized double getRemainingTime() {
+		if(currRoute == null) {
+			return Double.NaN;
 		}
-		String lenStr = String.format("%.2f", currLen/1000);	// Format to 4 points
-		rtrnString += "Travel on " + finalName + " for " + lenStr + "km.\n";
-		return rtrnString;
+		double len = routeEdges.get(cursor).getLength();
+		double onEdge = currRoute.getTimeFrom(cursor) - currRoute.getTimeFrom(cursor + 1);
+		return currRoute.getTimeFrom(cursor + 1) + (len == 0 ? 0 : onEdge * edgeLeft / len);
 	}
 	
 	/**
-	 * Calculates a set of directions based on the Directors start and end nodes.
-	 * Also writes the directions to the instance variable.
-	 * @return The list of directions for immediate use.
+	 * Returns the maneuver after the one the driver is on.
+	 * @return The next maneuver, or null if there's no route or it's the last one.
 	 */
-	private synchronized List<GraphEdge> calcDir() {
-		HashMap<GraphNode, GraphSegment> predSegs = new HashMap<GraphNode, GraphSegment>(8192);
-		HashSet<GraphNode> visited = new HashSet<GraphNode>(8192);
-		HashMap<GraphNode, Double> distances = new HashMap<GraphNode, Double>(8192);
-		// Comparator that compares the distances of nodes.
-		Comparator<GraphNode> distComp = new Comparator<GraphNode>() {
-			@Override
-			public int compare(GraphNode o1, GraphNode o2) {
-				return distances.get(o1).compareTo(distances.get(o2));
-			}
-		};
-		// I found a paper (from stony brook!) that claimed that just using an ordinary
-		// priority queue was actually more slightly more efficient than a decPriority queue.
-		// http://www3.cs.stonybrook.edu/~rezaul/papers/TR-07-54.pdf
-		// Really cool, although I admit I only skimmed it. This works by simply adding something 
-		// again if the distance decreases.
-		PriorityQueue<GraphNode> distQueue = new PriorityQueue<GraphNode>(distComp);
-		distances.put(startNode, 0.0);
-		distQueue.add(startNode);
+	public synchronized Maneuver getNextManeuver() {
+		if(currRoute == null) {
+			return null;
+		}
+		int m = currRoute.getManeuverIndex(cursor) + 1;
+		List<Maneuver> mans = currRoute.getManeuvers();
+		return m < mans.size() ? mans.get(m) : null;
+	}
+	
+	/**
+	 * Returns how far it is until the next maneuver, or until the end if there isn't one.
+	 * @return The distance in meters, or NaN if there's no route.
+	 */
+	public synchronized double getDistanceToNextManeuver() {
+		if(currRoute == null) {
+			return Double.NaN;
+		}
+		Maneuver m = currRoute.getManeuvers().get(currRoute.getManeuverIndex(cursor));
+		return currRoute.getDistanceFrom(cursor + 1) - currRoute.getDistanceFrom(m.getEndEdge()) + edgeLeft;
+	}
+	
+	/**
+	 * Returns the cache used to remember previously found routes.
+	 * @return The route cache.
+	 */
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+	
+	/**
+	 * Calculates the route between two nodes.
+	 * All the search state is local, and start or end nodes that aren't on an intersection
+	 * get temporary segments that only this search knows about.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param w The segment weights to minimize.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The route from start to end, or null if no route exists.
+	 * @throws CancellationException If the request is cancelled during the search.
+	 */
+	private Route calcDir(GraphNode sn, GraphNode en, EdgeWeights w, RouteRequest req) {
+		if(!restrictions.isEmpty()) {
+			// Turns depend on the segment a car came in on, which a node based search forgets.
+			return new EdgeBasedSearch(map, w, restrictions).route(sn, en, req);
+		}
+		// The distances, parents and visited flags live in this thread's workspace, which is
+		// reset by bumping its generation instead of allocating new hash maps every search.
+		SearchWorkspace ws = SearchWorkspace.forThread(map.getNodeSize());
+		ws.begin();
+		// The heap is keyed by node index and holds each node at most once, lowering its key
+		// when a shorter distance turns up.
+		IndexedHeap distHeap = ws.getHeap();
+		ws.reach(sn.getIndex(), 0.0, null);
+		distHeap.insert(sn.getIndex(), 0.0);
 		
-		if(!startNode.getSegmentIt().hasNext()) { splitStartSegment(); }
-		if(!endNode.getSegmentIt().hasNext()) { splitEndSegment(); }
+		HashMap<GraphNode, List<GraphSegment>> tempSegs = splitSegments(sn, en);
 		
-		while(!visited.contains(endNode)) {
+		while(!ws.isSettled(en.getIndex())) {
+			if(req != null) { req.checkCancelled(); }
 			// The index of the next node to visit
-			GraphNode visitNext = getVisitNext(visited, distQueue);
-			if(visitNext == null) {
+			int visitIndex = distHeap.poll();
+			if(visitIndex < 0) {
 				return null;
 			}
+			ws.settle(visitIndex);
+			double visitDist = ws.getDist(visitIndex);
 			// Iterator over the segments of the next node to visit.
-			Iterator<GraphSegment> segIt = visitNext.getSegmentIt();
+			Iterator<GraphSegment> segIt = getSegmentIt(map.getNode(visitIndex), tempSegs);
 			// Iterate for each segment
 			while(segIt.hasNext()) {
 				GraphSegment s = segIt.next();
-				GraphNode nextNode = s.getEndNode();
+				int nextIndex = s.getEndNode().getIndex();
 				// If a node is visited, don't bother.
-				if(!visited.contains(nextNode)) {
-					
-					double newDist =  distances.get(visitNext) + s.getLength();
-					if(distances.get(nextNode) == null || distances.get(nextNode) > newDist) {
-						distances.put(nextNode, newDist);
-						predSegs.put(nextNode, s);
-						distQueue.add(nextNode);
+				if(!ws.isSettled(nextIndex)) {
+					double newDist = visitDist + w.getWeight(s);
+					if(newDist < ws.getDist(nextIndex)) {
+						ws.reach(nextIndex, newDist, s);
+						distHeap.insertOrDecrease(nextIndex, newDist);
 					}
 				}
 				
 			}
-			visited.add(visitNext);
 		}
-		extractDirections(predSegs);
-		clearTempSegments();
-		return directions;
+		return extractDirections(sn, en, ws);
 		
 	}
 	
 	/**
-	 * Finds the next node to visit.
-	 * If there are no nodes to visit it probably returns null.
-	 * @param visited The set of visted nodes.
-	 * @param distQueue The queue to search through
-	 * @return The next node to visit if one exists, null otherwise.
-	 */
-	private GraphNode getVisitNext(Set<GraphNode> visited, PriorityQueue<GraphNode> distQueue) {
-		GraphNode nextNode = distQueue.poll();
-		while(visited.contains(nextNode) && nextNode != null) {
-			nextNode = distQueue.poll();
-		}
-		return nextNode;
-	}
-	
-	/**
-	 * Creates one or two new segments that go from the start node to the nearby
-	 * nodes with segments.
-	 * @precondition The start node must not have outgoing segments.
+	 * Returns an iterator over the outgoing segments of a node, including any temporary
+	 * segments the current search made for it.
+	 * @param n The node to get the segments of.
+	 * @param tempSegs The temporary segments, mapped by their start nodes.
+	 * @return An iterator over all the segments leaving the node.
 	 */
-	private void splitStartSegment() {
-		Iterator<GraphSegment> sIt = map.getSegmentIterator();
-		Set<GraphSegment> tempSegs = new HashSet<GraphSegment>();
-		while(sIt.hasNext()) {
-			GraphSegment s = sIt.next();
-			if(s.hasNode(startNode)) {
-				GraphSegment tempSeg = s.getPostSubsegment(startNode);
-				tempSegs.add(tempSeg);
-			}
+	private Iterator<GraphSegment> getSegmentIt(GraphNode n, HashMap<GraphNode, List<GraphSegment>> tempSegs) {
+		List<GraphSegment> temp = tempSegs.get(n);
+		if(temp == null) {
+			return n.getSegmentIt();
 		}
-		tempSegments.addAll(tempSegs);
-		for(GraphSegment seg : tempSegs) {
-			map.addSegment(seg);
+		ArrayList<GraphSegment> segs = new ArrayList<GraphSegment>(temp);
+		Iterator<GraphSegment> it = n.getSegmentIt();
+		while(it.hasNext()) {
+			segs.add(it.next());
 		}
+		return segs.iterator();
 	}
 	
 	/**
-	 * Similar to splitStartSegment but it splits the end segment.
-	 * Used for spltting the segment of the end node when it doesn't start
-	 * on an intersection.
-	 * @precondition endNode must not be on an intersection.
+	 * Creates the temporary segments needed when the start or end node isn't on an intersection.
+	 * The start gets segments to the nodes it can reach on its road, and the nodes that can reach
+	 * the end get segments that stop at the end. They're never added to the map, so any
+	 * number of searches can run at once.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @return The temporary segments, mapped by their start nodes.
 	 */
-	private void splitEndSegment() {
-		Iterator<GraphSegment> sIt = map.getSegmentIterator();
-		Set<GraphSegment> tempSegs = new HashSet<GraphSegment>();
-		while(sIt.hasNext()) {
-			GraphSegment s = sIt.next();
-			if(s.hasNode(endNode)) {
-				GraphSegment tempSeg = s.getPreSubsegment(endNode);
-				tempSegs.add(tempSeg);
+	private HashMap<GraphNode, List<GraphSegment>> splitSegments(GraphNode sn, GraphNode en) {
+		HashMap<GraphNode, List<GraphSegment>> tempSegs = new HashMap<GraphNode, List<GraphSegment>>();
+		boolean splitStart = !sn.getSegmentIt().hasNext();
+		boolean splitEnd = !en.getSegmentIt().hasNext();
+		if(!splitStart && !splitEnd) {
+			return tempSegs;
+		}
+		ArrayList<GraphSegment> segs = new ArrayList<GraphSegment>();
+		if(splitStart) {
+			ArrayList<GraphSegment> startSegs = new ArrayList<GraphSegment>();
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				startSegs.add(s.getPostSubsegment(sn));
 			}
+			tempSegs.put(sn, startSegs);
+			// The end might be on the same road as the start, in which case it's between them.
+			segs.addAll(startSegs);
 		}
-		tempSegments.addAll(tempSegs);
-		for(GraphSegment seg : tempSegs) {
-			map.addSegment(seg);
+		if(splitEnd) {
+			segs.addAll(map.getSegmentsWith(en));
+			for(GraphSegment s : segs) {
+				if(s.hasNode(en)) {
+					GraphSegment tempSeg = s.getPreSubsegment(en);
+					List<GraphSegment> fromSegs = tempSegs.get(tempSeg.getStartNode());
+					if(fromSegs == null) {
+						fromSegs = new ArrayList<GraphSegment>();
+						tempSegs.put(tempSeg.getStartNode(), fromSegs);
+					}
+					fromSegs.add(tempSeg);
+				}
+			}
 		}
+		return tempSegs;
 	}
 	
 	/**
-	 * clears temp segments cleanly.
+	 * Returns the route that the predecessor map describes.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param ws The workspace holding the parent segments of the search.
+	 * @return The route from start to end.
 	 */
-	private void clearTempSegments() {
-		for(GraphSegment s : tempSegments) {
-			map.removeSegment(s);
+	private Route extractDirections(GraphNode sn, GraphNode en, SearchWorkspace ws) {
+		LinkedList<RoadSegment> dirSegList = new LinkedList<>();
+		GraphNode currNode = en;
+		while(currNode != sn) {
+			GraphSegment predSeg = ws.getParent(currNode.getIndex());
+			dirSegList.addFirst((RoadSegment)predSeg);
+			currNode = predSeg.getStartNode();
 		}
-		tempSegments = new HashSet<GraphSegment>();
+		return new Route(sn, en, dirSegList);
 	}
 	
 	/**
-	 * Returns a list of edges that represent the directions.
-	 * @param predSegs The predecessor map.
-	 * @return List of directions.
+	 * Makes a route the current directions.
+	 * The route itself is immutable, so moving forward on it just moves the cursor.
+	 * @param route The route to follow, or null if there is no route.
+	 * @param req The request the route was found for, or null if it can't be cancelled.
+	 * @return The new directions.
+	 * @throws CancellationException If the request was cancelled, in which case nothing changes.
 	 */
-	private List<GraphEdge> extractDirections(HashMap<GraphNode, GraphSegment> predSegs) {
-		LinkedList<RoadSegment> dirSegList = new LinkedList<>();
-		GraphNode currNode = endNode;
-		while(currNode != startNode) {
-			GraphSegment predSeg = predSegs.get(currNode);
-			dirSegList.addFirst((RoadSegment)predSeg);
-			currNode = predSeg.getStartNode();
+	private synchronized List<GraphEdge> useRoute(Route route, RouteRequest req) {
+		if(req != null) { req.checkCancelled(); }
+		if(route == null) {
+			directionSegs = null;
+			directions = null;
+			routeEdges = null;
+			corridor = null;
+			dirString = null;
+			currRoute = null;
+			return null;
 		}
-		LinkedList<GraphEdge> dirList = new LinkedList<GraphEdge>();
-		for(GraphSegment s : dirSegList) {
-			dirList.addAll(s.getEdgeList());
-		}
-
-		directionSegs = new LinkedList<RoadSegment>((Collection<RoadSegment>) dirSegList);
-		directions = dirList;
-		return dirList;
+		directionsStale = false;
+		directionSegs = new LinkedList<RoadSegment>(route.getSegments());
+		routeEdges = new ArrayList<GraphEdge>(route.getEdges());
+		cursor = 0;
+		corridor = new RouteCorridor(routeEdges);
+		directions = Collections.unmodifiableList(routeEdges);
+		dirString = route.getDirString();
+		dirCursor = 0;
+		currRoute = route.getEdges().isEmpty() ? null : route;
+		edgeLeft = currRoute == null ? 0 : routeEdges.get(0).getLength();
+		return directions;
 	}
 	
 	/**
 	 * Determines whether someone is off course based on their lon, lat, and heading.
 	 * If on course, updates currNode to the nearest node that the user is heading towards.
+	 * Only the edges from the cursor up to RouteCorridor.PROGRESS_WINDOW past it count, and of
+	 * those only the ones the corridor has near the position get tested, so a fix off the route
+	 * doesn't get tested against anything.
 	 * @param lon The longitude of the position.
 	 * @param lat The latitdue of the position
 	 * @param heading The heading.
-	 * @return True if on course, false otherwise.
-	 */
-	private boolean onCourse(double lon, double lat, double heading) {
-		Iterator<GraphEdge> eIt = directions.iterator();
-		while(eIt.hasNext()) {
-			GraphEdge e = eIt.next();
-			Node n = (Node)e.getEndNode();
-			Node s = (Node)e.getStartNode();
-			double len = e.getLength();
-			double distStart = strat.getDistance(lon, lat, s.getLon(), s.getLat());
-			double distEnd = strat.getDistance(lon, lat, n.getLon(), n.getLat());
-			// Heading information was too unreliable, and after the fix I couldn't work
-			// out what trig to apply to get it into working shape. On edge detection seems
-			// to work much better.
-//			if( map.inCircularWedge(lon, lat, DEFAULT_ANGLE, heading, len * 1.2, (Node) n)
-//					|| (map.inCircle(lon, lat, DEFAULT_RADIUS,(Node) n))) {
-			if(distStart + distEnd - len < DEFAULT_DIST || map.inCircle(lon, lat, DEFAULT_RADIUS, n)) {
-				currNode = n;
-				return true;
-			}
+	 * @return The index of the edge the position is on, or -1 if it's off course.
+	 */
+	private int onCourse(double lon, double lat, double heading) {
+		// Heading information was too unreliable, and after the fix I couldn't work
+		// out what trig to apply to get it into working shape. On edge detection seems
+		// to work much better.
+//		if( map.inCircularWedge(lon, lat, DEFAULT_ANGLE, heading, len * 1.2, (Node) n)
+//				|| (map.inCircle(lon, lat, RouteCorridor.DEFAULT_RADIUS,(Node) n))) {
+		int i = corridor.findAhead(lon, lat, cursor);
+		currNode = i < 0 ? null : routeEdges.get(i).getEndNode();
+		if(i >= 0) {
+			Node n = (Node) currNode;
+			edgeLeft = Math.min(routeEdges.get(i).getLength(), strat.getDistance(lon, lat, n.getLon(), n.getLat()));
 		}
-		currNode = null;
-		return false;
+		return i;
 	}
 
 	/**
-	 * Removes elements from the directions until you reach the selected node.
-	 * @precondition The node must be in directions.
-	 * @param n The node to progress to.
+	 * Moves the cursor forward to an edge, so the directions start there.
+	 * The directions already handed out are left alone and new ones are copied from the route.
+	 * @param i The index of the edge to progress to.
 	 */
-	private void moveForwardTo(GraphNode n) {
-		while(!directions.get(0).getEndNode().equals(n)) {
-			directions.remove(0);
-		}
+	private void moveForwardTo(int i) {
+		cursor = i;
+		directions = Collections.unmodifiableList(new ArrayList<GraphEdge>(routeEdges.subList(i, routeEdges.size())));
 	}
 	
+	/**
+	 * Returns whether some directions are what's left of others after driving some of the way,
+	 * rather than a new route. Moving on hands out new directions, so telling a reroute from
+	 * progress takes comparing them.
+	 * @param old The earlier directions.
+	 * @param now The directions now.
+	 * @return True if now is the end of old.
+	 */
+	public static boolean isProgress(List<GraphEdge> old, List<GraphEdge> now) {
+		if(old == now) {
+			return true;
+		}
+		if(old == null || now == null) {
+			return false;
+		}
+		int skip = old.size() - now.size();
+		return skip >= 0 && old.subList(skip, old.size()).equals(now);
+	}
+
 	/**
 	 * Updates and returns the directions based on some current position and heading.
 	 * If the GPS indicates it is off course we recalculate new directions based
@@ -365,25 +877,55 @@ public class Director {
 	 * @return The new directions.
 	 */
 	public List<GraphEdge> updateDirections(double lat, double lon, double heading) {
-		Iterator<GraphEdge> eIt = directions.iterator();
-		while(eIt.hasNext()) {
-			GraphEdge e = eIt.next();
-			if(onCourse(lon, lat, heading)) {
-				moveForwardTo(currNode);
-				return directions;
+		return updateDirections(lat, lon, heading, null);
+	}
+	
+	/**
+	 * Updates and returns the directions based on some current position and heading.
+	 * If there are no directions yet, or the GPS indicates it is off course, we take
+	 * new directions from the nearest node by following the tree towards the end node.
+	 * The tree is only built once per destination.
+	 * @param lat The latitude of the position.
+	 * @param lon the longitude of the position.
+	 * @param heading The heading.
+	 * @param req The request this update is running for, or null if it can't be cancelled.
+	 * @return The new directions.
+	 * @throws CancellationException If the request was cancelled before the directions were set.
+	 */
+	public List<GraphEdge> updateDirections(double lat, double lon, double heading, RouteRequest req) {
+		GraphNode en;
+		synchronized(this) {
+			// Directions over a way that just closed or slowed down get found again even on course.
+			if(routeEdges != null && !directionsStale) {
+				int i = onCourse(lon, lat, heading);
+				if(i >= 0) {
+					if(i != cursor) {
+						moveForwardTo(i);
+					}
+					return directions;
+				}
 			}
+			en = endNode;
+		}
+		if(en == null) {
+			return null;
 		}
-		startNode = map.getNearNode(lon, lat);
-		return calcDir();
+		GraphNode sn = map.getNearNode(lon, lat);
+		setStartNode(sn);
+		return useRoute(routeToEnd(sn, en, req), req);
 	}
 	
 	/**
 	 * Clears the directions.
 	 */
-	public void clearDirections() {
+	public synchronized void clearDirections() {
 		startNode = null;
 		endNode = null;
 		directions = null;
+		routeEdges = null;
+		corridor = null;
+		currRoute = null;
+		forwardTree = null;
 	}
 
 }
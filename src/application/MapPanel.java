@@ -29,6 +29,8 @@ import map_data.Map;
 import map_data.Node;
 import map_data.Relation;
 import map_data.Way;
+import routing.Isochrone;
+import routing.Isochrone.PartialSegment;
 
 /**
  * Class that displays map data to a swing panel.
@@ -45,6 +47,7 @@ public class MapPanel extends JPanel {
 	public static final Color LEAST_COLOR = new Color(220,220,120);
 	public static final Color BOUND_COLOR = new Color(150,110,220);
 	public static final Color BACKGROUND_COLOR = new Color(7,40,74);
+	public static final Color REACH_COLOR = new Color(80,220,255,60);
 	
 	public static final int DEFAULT_WIDTH = 1420;
 	public static final int DEFAULT_HEIGHT = 800;
@@ -76,6 +79,8 @@ public class MapPanel extends JPanel {
 	private Node end = null;
 	
 	private List<GraphEdge> directions;
+	/** The reachable area drawn over the map, or null if there isn't one. */
+	private Isochrone isochrone = null;
 	private Double driverLon = null;
 	private Double driverLat = null;
 	private boolean trackPos = false;
@@ -117,7 +122,7 @@ public class MapPanel extends JPanel {
 			private int y;
 			
 			/**
-			 * The nearest node is kept highlighted.
+			 * The nearest node is kept highlighted, and listeners hear about it when it changes.
 			 */
 			@Override
 			public void mouseMoved(MouseEvent e) {
@@ -125,7 +130,10 @@ public class MapPanel extends JPanel {
 				double lon = screenToLon(e.getX(), e.getY());
 				Node n = map.getNearNodeInRadius(lon, lat, currentRad);
 //				GraphNode n = map.getNearNode(lon, lat);
-				hoveredNode = n;
+				if(n != hoveredNode) {
+					hoveredNode = n;
+					updateHover();
+				}
 				repaint();
 			}
 			
@@ -303,6 +311,10 @@ public class MapPanel extends JPanel {
 			}
 		}
 		
+		if(isochrone != null) {
+			drawIsochrone(isochrone, g);
+		}
+		
 		if(directions != null) {
 			g2.setStroke(most);
 			drawEdges(directions, Color.MAGENTA, g);
@@ -383,6 +395,37 @@ public class MapPanel extends JPanel {
 		g.setColor(currColor);
 	}
 	
+	/**
+	 * Draws a reachable area as a translucent outline, with the roads cut at its edge.
+	 * @param iso The reachable area.
+	 * @param g Graphics object
+	 */
+	private void drawIsochrone(Isochrone iso, Graphics g) {
+		Color currColor = g.getColor();
+		double[][] hull = iso.getHull();
+		int[] xs = new int[hull.length];
+		int[] ys = new int[hull.length];
+		for(int i = 0; i < hull.length; i++) {
+			xs[i] = lonToScreen(hull[i][0], hull[i][1]);
+			ys[i] = latToScreen(hull[i][1]);
+		}
+		g.setColor(REACH_COLOR);
+		g.fillPolygon(xs, ys, hull.length);
+		g.setColor(Color.CYAN);
+		g.drawPolygon(xs, ys, hull.length);
+		for(PartialSegment p : iso.getBoundary()) {
+			Node last = (Node) p.getSegment().getStartNode();
+			for(GraphEdge e : p.getReachedEdges()) {
+				drawEdge(e, g);
+				last = (Node) e.getEndNode();
+			}
+			// The road goes on past the last node reached to wherever the budget ran out.
+			g.drawLine(lonToScreen(last.getLon(), last.getLat()), latToScreen(last.getLat()),
+					lonToScreen(p.getCutLon(), p.getCutLat()), latToScreen(p.getCutLat()));
+		}
+		g.setColor(currColor);
+	}
+	
 	/**
 	 * Draws a node that scales with the zoom level.
 	 * @param n The node to be drawn
@@ -448,6 +491,15 @@ public class MapPanel extends JPanel {
 		repaint();
 	}
 	
+	/**
+	 * Sets the reachable area drawn over the map.
+	 * @param iso The reachable area, or null to stop drawing one.
+	 */
+	public void setIsochrone(Isochrone iso) {
+		isochrone = iso;
+		repaint();
+	}
+	
 	/**
 	 * Takes a given lat value and finds its relative position on the screen.
 	 * @param lat The lat value to find the position of.
@@ -536,6 +588,14 @@ public class MapPanel extends JPanel {
 			l.processEvent(e);
 		}
 	}
+	/**
+	 * Tells the listeners which node the mouse is over now.
+	 */
+	private void updateHover() {
+		for(MapPanelListener l : listeners) {
+			l.processHover(hoveredNode);
+		}
+	}
 	/**
 	 * Class describing map panel events.
 	 * @author david
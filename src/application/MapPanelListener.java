@@ -1,5 +1,7 @@
 package application;
 
+import map_data.Node;
+
 /**
  * Interface for objects that want to process events from the map panel.
  * @author david
@@ -12,5 +14,11 @@ public interface MapPanelListener {
 	 * @param e The event to be processed.
 	 */
 	public void processEvent(MapPanelEvent e);
+	
+	/**
+	 * Processes the mouse moving onto a different node.
+	 * @param n The node the mouse is over now, or null if it isn't near one.
+	 */
+	public void processHover(Node n);
 
 }
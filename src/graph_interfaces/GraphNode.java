@@ -21,6 +21,14 @@ public interface GraphNode {
 	 */
 	public String getID();
 	
+	/**
+	 * Returns the dense index of this node in its graph.
+	 * Indices run from 0 to the number of nodes in the graph, so they can be used to
+	 * index flat arrays during searches.
+	 * @return The index of this node, or -1 if the node isn't part of a graph.
+	 */
+	public int getIndex();
+	
 	/**
 	 * Returns an iterator over te edges moving away from the graph.
 	 * @return THe iterator for the graphs edges.
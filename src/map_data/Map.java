@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 import graph_interfaces.Graph;
@@ -33,6 +34,12 @@ public class Map implements Graph {
 	
 	private Set<RoadSegment> segments = new HashSet<RoadSegment>();
 	private Set<Node> roadNodes = new HashSet<Node>();
+	/** The road nodes, positioned by their dense index. */
+	private Node[] indexedNodes;
+	/** The segments of the map, positioned by their dense index. */
+	private RoadSegment[] indexedSegments;
+	/** The indices of the segments of each road way, by way id. */
+	private HashMap<String, int[]> waySegments;
 	private double lonMin, latMin, lonMax, latMax;
 	/** The strategy used for finding distances over area. */
 	private final static DistanceStrategy strat = new HaversineDistance();
@@ -70,7 +77,9 @@ public class Map implements Graph {
 			
 		});
 		edgeInit();
+		indexInit();
 		segmentInit();
+		segmentIndexInit();
 	}
 	
 	/**
@@ -197,6 +206,85 @@ public class Map implements Graph {
 		}
 	}
 	
+	/**
+	 * Gives every road node a dense index, so searches can keep their state in flat
+	 * arrays instead of hash maps.
+	 */
+	private void indexInit() {
+		indexedNodes = new Node[roadNodes.size()];
+		int i = 0;
+		for(Node n : roadNodes) {
+			n.setIndex(i);
+			indexedNodes[i] = n;
+			i++;
+		}
+	}
+	
+	/**
+	 * Returns the road node with a given dense index.
+	 * @param index The index of the node, from 0 to getNodeSize.
+	 * @return The node with that index.
+	 */
+	public Node getNode(int index) {
+		return indexedNodes[index];
+	}
+	
+	/**
+	 * Gives every segment a dense index, so per segment data such as costs can be kept in
+	 * flat arrays.
+	 */
+	private void segmentIndexInit() {
+		indexedSegments = new RoadSegment[segments.size()];
+		HashMap<String, ArrayList<Integer>> byWay = new HashMap<String, ArrayList<Integer>>();
+		int i = 0;
+		for(RoadSegment s : segments) {
+			s.setIndex(i);
+			indexedSegments[i] = s;
+			ArrayList<Integer> segs = byWay.get(s.getWay().getID());
+			if(segs == null) {
+				segs = new ArrayList<Integer>();
+				byWay.put(s.getWay().getID(), segs);
+			}
+			segs.add(i);
+			i++;
+		}
+		waySegments = new HashMap<String, int[]>();
+		for(java.util.Map.Entry<String, ArrayList<Integer>> e : byWay.entrySet()) {
+			int[] segs = new int[e.getValue().size()];
+			for(int j = 0; j < segs.length; j++) {
+				segs[j] = e.getValue().get(j);
+			}
+			waySegments.put(e.getKey(), segs);
+		}
+	}
+	
+	/**
+	 * Returns the indices of the segments a road way was split into.
+	 * @param wayID The id of the way.
+	 * @return The segment indices, in both directions. Empty if the way isn't a road in this map.
+	 */
+	public int[] getWaySegments(String wayID) {
+		int[] segs = waySegments.get(wayID);
+		return segs == null ? new int[0] : segs.clone();
+	}
+	
+	/**
+	 * Returns the segment with a given dense index.
+	 * @param index The index of the segment, from 0 to getSegmentCount.
+	 * @return The segment with that index.
+	 */
+	public RoadSegment getSegment(int index) {
+		return indexedSegments[index];
+	}
+	
+	/**
+	 * Returns the number of segments that were built with the map.
+	 * @return The number of indexed segments.
+	 */
+	public int getSegmentCount() {
+		return indexedSegments.length;
+	}
+	
 	/**
 	 * Initializes the segments for this map.
 	 * Segments are created only on ways. The possible cases for segments are as follows:
@@ -229,7 +317,7 @@ public class Map implements Graph {
 				// If we arrive at an intersection or dead end create a segment
 				if(((nn.getOutDegree() != 1 || nn.getInDegree() != 1) && w.isOneway()) 
 						|| ((nn.getOutDegree() != 2 || nn.getInDegree() != 2) && !w.isOneway()) || !nIt.hasNext()) {
-					RoadSegment seg = new RoadSegment(sn, nn, len, w.getName(), nodes);
+					RoadSegment seg = new RoadSegment(sn, nn, len, w, nodes);
 					addSegment(seg);
 					// If the segment is two way create the reverse segment
 					if(!w.isOneway())
@@ -275,6 +363,22 @@ public class Map implements Graph {
 		segments.remove(seg);
 	}
 	
+	/**
+	 * Returns the segments that contain a node anywhere along them.
+	 * Useful for nodes that aren't on an intersection, which have no segments of their own.
+	 * @param n The node to look for.
+	 * @return A list of the segments that contain the node.
+	 */
+	public List<GraphSegment> getSegmentsWith(GraphNode n) {
+		ArrayList<GraphSegment> rtrn = new ArrayList<GraphSegment>();
+		for(RoadSegment s : segments) {
+			if(s.hasNode(n)) {
+				rtrn.add(s);
+			}
+		}
+		return rtrn;
+	}
+	
 	/**
 	 * Returns the nearest node to some point for a given node iterator.
 	 * @param lon The longitude of the point to find a node near.
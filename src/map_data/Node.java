@@ -21,6 +21,8 @@ public class Node implements GraphNode {
 	private final double lon;
 	private final double lat;
 	private final String id;
+	/** Dense index of this node among the road nodes of its map. -1 if it isn't a road node. */
+	private int index = -1;
 	private int outDegree = 0;
 	private int inDegree = 0;
 	/** 
@@ -81,6 +83,23 @@ public class Node implements GraphNode {
 		return id;
 	}
 	
+	/**
+	 * Returns the dense index of this node among the road nodes of its map.
+	 * @return The index, or -1 if this isn't a road node.
+	 */
+	@Override
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Sets the dense index of this node. Only the map should assign these.
+	 * @param i The new index.
+	 */
+	void setIndex(int i) {
+		index = i;
+	}
+	
 	/**
 	 * Adds a graph edge to the node.
 	 * Determines the nature of the edge adds it appropriately to the node.
@@ -96,7 +96,7 @@ public class OSMParser {
 		/** Stores all the tags for the way currently being parsed */
 		private HashMap<String, String> wayTags = new HashMap<String, String>();
 //		private HashMap<String, String> relTags = new HashMap<String, String>();
-		private ArrayList<Way> relWays = new ArrayList<Way>();
+		private ArrayList<Relation.Member> relMembers = new ArrayList<Relation.Member>();
 
 		/**
 		 * Method called by SAX parser when start of document is encountered.
@@ -124,7 +124,7 @@ public class OSMParser {
 				storeWayID(atts); // Does what we want even though it says way.
 			}
 			else if(qName.equals("nd")) {storeWayNode(atts); }
-			else if(qName.equals("member")) {storeRelWay(atts); }
+			else if(qName.equals("member")) {storeRelMember(atts); }
 			// Note that parseWayTag parses tags for relations just fine.
 			else if(qName.equals("tag") && !id.isEmpty()) { parseWayTag(atts); }
 			else if(qName.equals("bounds") || qName.equals("bound")) { storeBounds(atts); }
@@ -150,16 +150,16 @@ public class OSMParser {
 				name = "";
 				oneway = false;
 				wayTags = new HashMap<String,String>();
-				relWays = new ArrayList<Way>();
+				relMembers = new ArrayList<Relation.Member>();
 			}
 			if(qName.equals("relation")) {
-				Relation rel = new Relation(id, relWays, wayTags);
+				Relation rel = new Relation(id, relMembers, wayTags);
 				rels.put(id, rel);
 				id = "";
 				name = "";
 				oneway = false;
 				wayTags = new HashMap<String,String>();
-				relWays = new ArrayList<Way>();
+				relMembers = new ArrayList<Relation.Member>();
 				
 			}
 		}
@@ -242,19 +242,26 @@ public class OSMParser {
 		}
 
 		/**
-		 * Adds the way to a temporary list of ways for the current relation.
+		 * Adds the way or node to a temporary list of members for the current relation.
+		 * Used to only keep ways, but turn restrictions need their via nodes.
 		 * @param atts
 		 */
-		private void storeRelWay(Attributes atts) {
-			String wayID = "";
-			if(atts.getValue("type").equals("way")) {
-			for (int i = 0; i < atts.getLength(); i++) {
-				if (atts.getQName(i).equals("ref"))
-					wayID = atts.getValue(i);
-			}
-			Way way = ways.get(wayID);
-			if(way != null)
-				relWays.add(way);
+		private void storeRelMember(Attributes atts) {
+			String type = atts.getValue("type");
+			String ref = atts.getValue("ref");
+			String role = atts.getValue("role");
+			if(role == null)
+				role = "";
+			if(type == null || ref == null)
+				return;
+			if(type.equals("way")) {
+				Way way = ways.get(ref);
+				if(way != null)
+					relMembers.add(new Relation.Member(way, role));
+			} else if(type.equals("node")) {
+				Node node = nodes.get(ref);
+				if(node != null)
+					relMembers.add(new Relation.Member(node, role));
 			}
 		}
 		
@@ -1,12 +1,13 @@
 package map_data;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 /**
- * Relations are currently not being used in my map.
- * This is a placeholder in case I decide to add them later.
+ * A relation between ways and nodes, like a turn restriction.
+ * Most relations are still ignored, but the members and their roles are kept for the ones that aren't.
  * @author david
  *
  */
@@ -15,13 +16,30 @@ public class Relation {
 	private String id;
 	/** The elements that are included in this Relation. */
 	private ArrayList<Way> ways;
+	/** Every member that was found in the map, ways and nodes, in order. */
+	private ArrayList<Member> members;
 	private HashMap<String, String> tags;
 	
-	public Relation(String idString, List<Way> elements, HashMap<String, String> tags) {
-		ways = new ArrayList<Way>(elements);
+	public Relation(String idString, List<Member> elements, HashMap<String, String> tags) {
+		id = idString;
+		members = new ArrayList<Member>(elements);
+		ways = new ArrayList<Way>();
+		for(Member m : members) {
+			if(m.getWay() != null) {
+				ways.add(m.getWay());
+			}
+		}
 		this.tags = tags;
 	}
 	
+	/**
+	 * Returns the ID of this relation.
+	 * @return The ID string.
+	 */
+	public String getID() {
+		return id;
+	}
+	
 	/**
 	 * Returns the value for some tag key in Relations tags.
 	 */
@@ -33,6 +51,44 @@ public class Relation {
 		return ways;
 	}
 	
+	/**
+	 * Returns the members of this relation that were found in the map.
+	 * @return An unmodifiable list of the members, in the order they were listed.
+	 */
+	public List<Member> getMembers() {
+		return Collections.unmodifiableList(members);
+	}
+	
+	/**
+	 * Returns the ways that have a certain role in this relation.
+	 * @param role The role, like "from" or "via".
+	 * @return The ways with that role.
+	 */
+	public List<Way> getWays(String role) {
+		ArrayList<Way> rtrn = new ArrayList<Way>();
+		for(Member m : members) {
+			if(m.getWay() != null && m.getRole().equals(role)) {
+				rtrn.add(m.getWay());
+			}
+		}
+		return rtrn;
+	}
+	
+	/**
+	 * Returns the nodes that have a certain role in this relation.
+	 * @param role The role, like "via".
+	 * @return The nodes with that role.
+	 */
+	public List<Node> getNodes(String role) {
+		ArrayList<Node> rtrn = new ArrayList<Node>();
+		for(Member m : members) {
+			if(m.getNode() != null && m.getRole().equals(role)) {
+				rtrn.add(m.getNode());
+			}
+		}
+		return rtrn;
+	}
+	
 	@Override
 	public boolean equals(Object other) {
 		if(other == null) { return false; }
@@ -46,5 +102,60 @@ public class Relation {
 	public int hashCode() {
 		return id.hashCode();
 	}
+	
+	/**
+	 * A way or node in a relation, along with the role it plays.
+	 */
+	public static class Member {
+		private final Way way;
+		private final Node node;
+		private final String role;
+		
+		/**
+		 * Constructs a way member.
+		 * @param way The way.
+		 * @param role Its role, or the empty string if it has none.
+		 */
+		public Member(Way way, String role) {
+			this.way = way;
+			this.node = null;
+			this.role = role;
+		}
+		
+		/**
+		 * Constructs a node member.
+		 * @param node The node.
+		 * @param role Its role, or the empty string if it has none.
+		 */
+		public Member(Node node, String role) {
+			this.way = null;
+			this.node = node;
+			this.role = role;
+		}
+		
+		/**
+		 * Returns the way, if this member is a way.
+		 * @return The way, or null for a node member.
+		 */
+		public Way getWay() {
+			return way;
+		}
+		
+		/**
+		 * Returns the node, if this member is a node.
+		 * @return The node, or null for a way member.
+		 */
+		public Node getNode() {
+			return node;
+		}
+		
+		/**
+		 * Returns the role this member plays in the relation.
+		 * @return The role.
+		 */
+		public String getRole() {
+			return role;
+		}
+	}
 
 }
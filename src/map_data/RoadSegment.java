@@ -29,6 +29,10 @@ public class RoadSegment implements GraphSegment {
 	private final Node startNode;
 	private final Node endNode;
 	private final String containedBy;
+	/** The way this segment is part of. */
+	private final Way way;
+	/** Dense index of this segment among the segments of its map. -1 for temporary segments. */
+	private int index = -1;
 	private double length;
 
 	/**
@@ -37,10 +41,12 @@ public class RoadSegment implements GraphSegment {
 	 * @param sn The start node.
 	 * @param en The end node.
 	 * @param len The length of the segment from start to finish.
+	 * @param way The way the segment is part of.
 	 * @param nodes The nodes that are in the segment.
 	 */
-	public RoadSegment(Node sn, Node en, double len, String wayName, List<Node> nodes) {
-		containedBy = wayName;
+	public RoadSegment(Node sn, Node en, double len, Way way, List<Node> nodes) {
+		this.way = way;
+		containedBy = way.getName();
 		startNode = sn;
 		endNode = en;
 		length = len;
@@ -62,10 +68,12 @@ public class RoadSegment implements GraphSegment {
 	 * Calculates the length of the segment based on the lengths of the component edges.
 	 * @param sn The start node.
 	 * @param en The end node.
+	 * @param way The way the segment is part of.
 	 * @param edges The component edges that make up the segment.
 	 */
-	public RoadSegment(Node sn, Node en, String wayName, List<GraphEdge> edges) {
-		containedBy = wayName;
+	public RoadSegment(Node sn, Node en, Way way, List<GraphEdge> edges) {
+		this.way = way;
+		containedBy = way.getName();
 		startNode = sn;
 		endNode = en;
 		length = 0;
@@ -145,7 +153,7 @@ public class RoadSegment implements GraphSegment {
 		while(it.hasNext()) {
 			revList.addFirst((Node) it.next().getEndNode());
 		}
-		return new RoadSegment(endNode, startNode, length, containedBy, revList);
+		return new RoadSegment(endNode, startNode, length, way, revList);
 	}
 	
 	/**
@@ -162,7 +170,7 @@ public class RoadSegment implements GraphSegment {
 			currEdge = edgeIt.next();
 			newList.add(currEdge);
 		}
-		return new RoadSegment(startNode, (Node) en, containedBy, newList);
+		return new RoadSegment(startNode, (Node) en, way, newList);
 	}
 	
 	/**
@@ -181,7 +189,7 @@ public class RoadSegment implements GraphSegment {
 			currEdge = edgeIt.next();
 			newList.add(currEdge);
 		}
-		return new RoadSegment((Node) sn, endNode, containedBy, newList);
+		return new RoadSegment((Node) sn, endNode, way, newList);
 	}
 
 	@Override
@@ -203,6 +211,31 @@ public class RoadSegment implements GraphSegment {
 	public String getName() {
 		return containedBy;
 	}
+	
+	/**
+	 * Returns the way this segment is part of.
+	 * @return The way.
+	 */
+	public Way getWay() {
+		return way;
+	}
+	
+	/**
+	 * Returns the dense index of this segment among the segments of its map.
+	 * Subsegments made during a search aren't part of the map and have no index.
+	 * @return The index, or -1 if the segment isn't part of a map.
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Sets the dense index of this segment. Only the map should assign these.
+	 * @param i The new index.
+	 */
+	void setIndex(int i) {
+		index = i;
+	}
 
 	@Override
 	public int hashCode() {
@@ -119,6 +119,33 @@ public class Way {
 		return rtrn;
 	}
 	
+	/**
+	 * Returns the posted speed limit of this way from its maxspeed tag.
+	 * Plain numbers are km/h and numbers followed by mph are converted.
+	 * Values like "none" or "signals" don't give a limit.
+	 * @return The speed limit in km/h, or -1 if there is no usable limit.
+	 */
+	public double getMaxSpeed() {
+		String speed = getTagVal("maxspeed");
+		if(speed == null) {
+			return -1;
+		}
+		speed = speed.trim();
+		double factor = 1;
+		if(speed.endsWith("mph")) {
+			factor = 1.609344;
+			speed = speed.substring(0, speed.length() - 3).trim();
+		} else if(speed.endsWith("km/h")) {
+			speed = speed.substring(0, speed.length() - 4).trim();
+		}
+		try {
+			double val = Double.parseDouble(speed) * factor;
+			return val > 0 ? val : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
 	/**
 	 * Returns the value for a given tag for this way.
 	 * @param tag The tage to get the value of
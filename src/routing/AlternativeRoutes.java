@@ -0,0 +1,322 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * Finds a handful of reasonable routes between two nodes instead of just the shortest one.
+ *
+ * Uses the plateau method. One search grows a shortest path tree forwards from the start and
+ * another grows one backwards from the end, both in this thread's workspaces. Wherever the two
+ * trees share a run of segments there's a plateau, and going start to plateau to end along the
+ * trees gives a route whose middle is a shortest path for at least as long as the plateau.
+ * Every alternative comes out of the same pair of searches, so asking for three routes costs
+ * about the same as asking for one, plus a bit extra because the searches keep going past
+ * the shortest route to the longest route that could still be accepted.
+ *
+ * Candidates are accepted cheapest first, as long as they're not too much longer than the
+ * shortest route, have a long enough plateau to not take silly detours, and don't overlap too
+ * much with a route already accepted.
+ * @author david
+ *
+ */
+public class AlternativeRoutes {
+
+	/** Default limit on how much longer than the shortest an alternative can be, as a fraction. */
+	public static final double DEFAULT_STRETCH = 0.3;
+	/** Default limit on how much of an alternative can be shared with an accepted route, as a fraction. */
+	public static final double DEFAULT_OVERLAP = 0.6;
+	/** Default shortest plateau, as a fraction of the shortest route. */
+	public static final double DEFAULT_PLATEAU = 0.2;
+
+	private final Map map;
+	private final EdgeWeights weights;
+	private final double stretch;
+	private final double overlap;
+	private final double plateau;
+
+	/**
+	 * Constructs an alternatives finder with the default limits.
+	 * @param m The map to search.
+	 * @param w The weights to minimize.
+	 */
+	public AlternativeRoutes(Map m, EdgeWeights w) {
+		this(m, w, DEFAULT_STRETCH, DEFAULT_OVERLAP, DEFAULT_PLATEAU);
+	}
+
+	/**
+	 * Constructs an alternatives finder.
+	 * @param m The map to search.
+	 * @param w The weights to minimize.
+	 * @param stretch How much longer than the shortest an alternative can be, as a fraction.
+	 * @param overlap How much of an alternative can be shared with an accepted route, as a fraction.
+	 * @param plateau The shortest plateau an alternative can have, as a fraction of the shortest route.
+	 */
+	public AlternativeRoutes(Map m, EdgeWeights w, double stretch, double overlap, double plateau) {
+		map = m;
+		weights = w;
+		this.stretch = stretch;
+		this.overlap = overlap;
+		this.plateau = plateau;
+	}
+
+	/**
+	 * Finds up to k routes from one node to another. The first is always the shortest.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param k The most routes to return.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The routes, cheapest first. Empty if there's no route at all.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled during the search.
+	 */
+	public List<Route> find(GraphNode sn, GraphNode en, int k, RouteRequest req) {
+		ArrayList<Route> routes = new ArrayList<Route>();
+		if(sn.equals(en)) {
+			routes.add(new Route(sn, en, new ArrayList<RoadSegment>()));
+			return routes;
+		}
+		SearchWorkspace fwd = SearchWorkspace.forThread(map.getNodeSize(), 0);
+		SearchWorkspace bwd = SearchWorkspace.forThread(map.getNodeSize(), 1);
+		fwd.begin();
+		bwd.begin();
+		seedForward(fwd, sn, en);
+		seedBackward(bwd, en);
+		// Only nodes settled by both searches can be the middle of a route.
+		ArrayList<Integer> meet = new ArrayList<Integer>();
+		double best = search(fwd, bwd, meet, req);
+		if(best == Double.POSITIVE_INFINITY) {
+			return routes;
+		}
+
+		final SearchWorkspace f = fwd;
+		final SearchWorkspace b = bwd;
+		Collections.sort(meet, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(f.getDist(i) + b.getDist(i), f.getDist(j) + b.getDist(j));
+			}
+		});
+		double limit = best * (1 + stretch);
+		HashSet<Integer> onPlateau = new HashSet<Integer>();
+		ArrayList<HashSet<GraphSegment>> accepted = new ArrayList<HashSet<GraphSegment>>();
+		for(int v : meet) {
+			if(routes.size() >= k) {
+				break;
+			}
+			double cost = fwd.getDist(v) + bwd.getDist(v);
+			if(cost > limit) {
+				break;
+			}
+			if(!onPlateau.add(v)) {
+				continue;
+			}
+			double plat = plateauLength(fwd, bwd, v, onPlateau, sn, en);
+			if(plat < plateau * best) {
+				continue;
+			}
+			List<RoadSegment> segs = viaSegments(fwd, bwd, v);
+			if(segs == null) {
+				continue;
+			}
+			HashSet<GraphSegment> segSet = new HashSet<GraphSegment>(segs);
+			if(overlapsTooMuch(segs, cost, accepted)) {
+				continue;
+			}
+			accepted.add(segSet);
+			routes.add(new Route(sn, en, segs));
+		}
+		return routes;
+	}
+
+	/**
+	 * Starts the forward search at the start node, or on the pieces of its road if it isn't on an intersection.
+	 */
+	private void seedForward(SearchWorkspace fwd, GraphNode sn, GraphNode en) {
+		fwd.reach(sn.getIndex(), 0, null);
+		if(sn.getSegmentIt().hasNext()) {
+			fwd.getHeap().insert(sn.getIndex(), 0);
+			return;
+		}
+		fwd.settle(sn.getIndex());
+		for(GraphSegment s : map.getSegmentsWith(sn)) {
+			GraphSegment post = s.getPostSubsegment(sn);
+			if(post.hasNode(en) && !post.getEndNode().equals(en)) {
+				// The end is between the start and the next intersection.
+				post = post.getPreSubsegment(en);
+			}
+			relax(fwd, 0, post, post.getEndNode().getIndex());
+		}
+	}
+
+	/**
+	 * Starts the backward search at the end node, or on the pieces of its road if it isn't on an intersection.
+	 */
+	private void seedBackward(SearchWorkspace bwd, GraphNode en) {
+		bwd.reach(en.getIndex(), 0, null);
+		if(en.getIncomingSegmentIt().hasNext() || en.getSegmentIt().hasNext()) {
+			bwd.getHeap().insert(en.getIndex(), 0);
+			return;
+		}
+		bwd.settle(en.getIndex());
+		for(GraphSegment s : map.getSegmentsWith(en)) {
+			GraphSegment pre = s.getPreSubsegment(en);
+			relax(bwd, 0, pre, pre.getStartNode().getIndex());
+		}
+	}
+
+	/**
+	 * Runs both searches, alternating on whichever frontier is closer, until neither can find
+	 * a node that would be on an acceptable route. Nodes settled by both are added to meet.
+	 * @return The cost of the shortest route, or infinity if there isn't one.
+	 */
+	private double search(SearchWorkspace fwd, SearchWorkspace bwd, List<Integer> meet, RouteRequest req) {
+		IndexedHeap fh = fwd.getHeap();
+		IndexedHeap bh = bwd.getHeap();
+		double best = Double.POSITIVE_INFINITY;
+		while(true) {
+			if(req != null) { req.checkCancelled(); }
+			double limit = best * (1 + stretch);
+			boolean fOpen = !fh.isEmpty() && fh.peekKey() <= limit;
+			boolean bOpen = !bh.isEmpty() && bh.peekKey() <= limit;
+			if(!fOpen && !bOpen) {
+				break;
+			}
+			boolean forward = fOpen && (!bOpen || fh.peekKey() <= bh.peekKey());
+			SearchWorkspace ws = forward ? fwd : bwd;
+			SearchWorkspace other = forward ? bwd : fwd;
+			int u = ws.getHeap().poll();
+			ws.settle(u);
+			double du = ws.getDist(u);
+			if(other.isReached(u)) {
+				best = Math.min(best, du + other.getDist(u));
+			}
+			// This includes a split start or end, which is settled as soon as it's seeded.
+			if(other.isSettled(u)) {
+				meet.add(u);
+			}
+			Iterator<GraphSegment> segIt = forward ? map.getNode(u).getSegmentIt()
+					: map.getNode(u).getIncomingSegmentIt();
+			while(segIt.hasNext()) {
+				GraphSegment s = segIt.next();
+				int v = forward ? s.getEndNode().getIndex() : s.getStartNode().getIndex();
+				relax(ws, du, s, v);
+				if(other.isReached(v)) {
+					best = Math.min(best, ws.getDist(v) + other.getDist(v));
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Lowers a node's distance through a segment if that's shorter.
+	 */
+	private void relax(SearchWorkspace ws, double du, GraphSegment s, int v) {
+		if(ws.isSettled(v)) {
+			return;
+		}
+		double dv = du + weights.getWeight(s);
+		if(dv < ws.getDist(v)) {
+			ws.reach(v, dv, s);
+			ws.getHeap().insertOrDecrease(v, dv);
+		}
+	}
+
+	/**
+	 * Measures the plateau through a node: the run of segments around it that are in both trees.
+	 * Every node on the plateau is marked so it isn't tried again, since it would give the same route.
+	 * Routes through the start or end are plain shortest paths, so their plateau is the whole route.
+	 * @return The cost of the plateau.
+	 */
+	private double plateauLength(SearchWorkspace fwd, SearchWorkspace bwd, int v, HashSet<Integer> onPlateau,
+			GraphNode sn, GraphNode en) {
+		if(v == sn.getIndex() || v == en.getIndex()) {
+			return fwd.getDist(v) + bwd.getDist(v);
+		}
+		double len = 0;
+		// Back towards the start, while the forward tree's segment is also the backward tree's.
+		int curr = v;
+		GraphSegment p = fwd.getParent(curr);
+		while(p != null) {
+			int u = p.getStartNode().getIndex();
+			if(!p.equals(bwd.getParent(u))) {
+				break;
+			}
+			len += weights.getWeight(p);
+			onPlateau.add(u);
+			curr = u;
+			p = fwd.getParent(curr);
+		}
+		// On towards the end, the same way round.
+		curr = v;
+		GraphSegment n = bwd.getParent(curr);
+		while(n != null) {
+			int w = n.getEndNode().getIndex();
+			if(!n.equals(fwd.getParent(w))) {
+				break;
+			}
+			len += weights.getWeight(n);
+			onPlateau.add(w);
+			curr = w;
+			n = bwd.getParent(curr);
+		}
+		return len;
+	}
+
+	/**
+	 * Puts together the route from the start to a node along the forward tree and on to the end
+	 * along the backward tree.
+	 * @return The segments in order, or null if the route goes through a node twice.
+	 */
+	private List<RoadSegment> viaSegments(SearchWorkspace fwd, SearchWorkspace bwd, int v) {
+		LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+		HashSet<Integer> seen = new HashSet<Integer>();
+		seen.add(v);
+		GraphSegment p = fwd.getParent(v);
+		while(p != null) {
+			segs.addFirst((RoadSegment) p);
+			if(!seen.add(p.getStartNode().getIndex())) {
+				return null;
+			}
+			p = fwd.getParent(p.getStartNode().getIndex());
+		}
+		GraphSegment n = bwd.getParent(v);
+		while(n != null) {
+			segs.addLast((RoadSegment) n);
+			if(!seen.add(n.getEndNode().getIndex())) {
+				return null;
+			}
+			n = bwd.getParent(n.getEndNode().getIndex());
+		}
+		return segs;
+	}
+
+	/**
+	 * Checks whether too much of a candidate is shared with any accepted route.
+	 */
+	private boolean overlapsTooMuch(List<RoadSegment> segs, double cost, List<HashSet<GraphSegment>> accepted) {
+		for(HashSet<GraphSegment> other : accepted) {
+			double shared = 0;
+			for(RoadSegment s : segs) {
+				if(other.contains(s)) {
+					shared += weights.getWeight(s);
+				}
+			}
+			if(shared > overlap * cost) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
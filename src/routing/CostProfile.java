@@ -0,0 +1,35 @@
+package routing;
+
+import map_data.RoadSegment;
+
+/**
+ * A way of putting a cost on a segment. Routes are found by minimizing the total cost.
+ *
+ * Profiles are only asked about each segment of the map once, when their weights are
+ * precomputed into an EdgeWeights, so the cost can be as involved as it needs to be.
+ * @author david
+ *
+ */
+public interface CostProfile {
+
+	/** Minimizes the distance traveled, in meters. */
+	public static final CostProfile SHORTEST = new DistanceProfile();
+	/** Minimizes the travel time, in seconds. */
+	public static final CostProfile FASTEST = new TravelTimeProfile("fastest", 1);
+	/** Minimizes the travel time, but treats motorways as much slower than they are. */
+	public static final CostProfile AVOID_MOTORWAY = new TravelTimeProfile("avoid-motorway", 10);
+
+	/**
+	 * Returns the name of this profile. Routes found with different profiles are told apart by name.
+	 * @return The name of the profile.
+	 */
+	public String getName();
+
+	/**
+	 * Returns the cost of traveling the length of a segment.
+	 * @param s The segment.
+	 * @return The non-negative cost of the segment.
+	 */
+	public double getCost(RoadSegment s);
+
+}
@@ -0,0 +1,331 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Parallel single source shortest paths by delta stepping, for jobs that need the distance to
+ * every node, like isochrones over the whole map or picking landmarks.
+ *
+ * Nodes are kept in buckets of width delta by their tentative distance. The lowest bucket is
+ * emptied over and over by relaxing the light edges, the ones no heavier than delta, of every
+ * node in it at once across the threads, since none of those nodes can improve each other by
+ * more than one bucket's worth. Once it stays empty the heavy edges of everything that passed
+ * through it are relaxed, also all at once, and the next bucket starts.
+ *
+ * A small delta does little wasted work but has lots of rounds to synchronize on. A big one
+ * has fewer rounds with more in each, but relaxes some nodes more than once. Somewhere around
+ * the average edge weight is a good start.
+ *
+ * No node waiting in a bucket can be more than the heaviest edge past the bucket being
+ * emptied, so only that many buckets' worth are kept, going round in a ring, and each is only
+ * made once something lands in it. A delta so small that the ring would be huge is refused.
+ *
+ * Distances are doubles stored as their bits in an atomic array. Non-negative doubles order the
+ * same way as their bits do as longs, so lowering a distance is one compare and set.
+ * @author david
+ *
+ */
+public class DeltaStepping {
+
+	/** Frontiers smaller than this are relaxed on the calling thread, since splitting costs more. */
+	private static final int PARALLEL_THRESHOLD = 512;
+	private static final long INFINITY_BITS = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+	/** The most buckets the ring can have. */
+	private static final int MAX_BUCKETS = 1 << 22;
+
+	private final SegmentGraph graph;
+	private final double delta;
+	/** The number of buckets in the ring, enough to hold everything within the heaviest edge. */
+	private final int bucketCount;
+	private final int threads;
+	private final ExecutorService pool;
+
+	/** Statistics from the most recent run: rounds of light relaxations and relaxations that lowered a distance. */
+	private long rounds, improvements;
+
+	/**
+	 * Constructs a delta stepping search with the average edge weight as the bucket width.
+	 * @param g The graph to search.
+	 * @param threads The number of threads to relax edges on.
+	 */
+	public DeltaStepping(SegmentGraph g, int threads) {
+		this(g, g.getAverageWeight(), threads);
+	}
+
+	/**
+	 * Constructs a delta stepping search.
+	 * @param g The graph to search.
+	 * @param delta The bucket width, in the units of the graph's weights.
+	 * @param threads The number of threads to relax edges on.
+	 * @throws IllegalArgumentException If delta isn't positive, or is so small next to the heaviest
+	 * edge that it would take more than MAX_BUCKETS buckets.
+	 */
+	public DeltaStepping(SegmentGraph g, double delta, int threads) {
+		if(!(delta > 0)) {
+			throw new IllegalArgumentException("Bucket width must be positive.");
+		}
+		double ring = Math.ceil(g.getMaxWeight() / delta) + 1;
+		if(ring > MAX_BUCKETS) {
+			throw new IllegalArgumentException("Bucket width " + delta + " would take " + (long) ring
+					+ " buckets, more than " + MAX_BUCKETS + ".");
+		}
+		graph = g;
+		this.delta = delta;
+		bucketCount = (int) ring;
+		this.threads = Math.max(1, threads);
+		pool = this.threads > 1 ? Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "delta-stepping-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		}) : null;
+	}
+
+	/**
+	 * Returns the bucket width.
+	 * @return Delta.
+	 */
+	public double getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Returns the number of rounds of light edge relaxations in the last run.
+	 * @return The number of rounds.
+	 */
+	public synchronized long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Returns the number of relaxations that lowered a distance in the last run.
+	 * Dijkstra would have exactly one per reachable node, more means nodes were redone.
+	 * @return The number of improvements.
+	 */
+	public synchronized long getImprovements() {
+		return improvements;
+	}
+
+	/**
+	 * Finds the distance from a node to every other node.
+	 * @param source The node to start from.
+	 * @return The distance to every node, infinity for those that can't be reached.
+	 * @throws InterruptedException If interrupted while waiting for the relaxing threads.
+	 * @throws ExecutionException If relaxing fails on one of the threads.
+	 */
+	public synchronized double[] distances(int source) throws InterruptedException, ExecutionException {
+		int n = graph.getNodeCount();
+		AtomicLongArray dist = new AtomicLongArray(n);
+		for(int i = 0; i < n; i++) {
+			dist.set(i, INFINITY_BITS);
+		}
+		rounds = 0;
+		improvements = 0;
+		// Bucket b is kept at b % bucketCount.
+		IntList[] buckets = new IntList[bucketCount];
+		// Stamps used to keep a node from being in the same frontier twice.
+		int[] mark = new int[n];
+		int stamp = 0;
+		dist.set(source, Double.doubleToLongBits(0));
+		buckets[0] = new IntList();
+		buckets[0].add(source);
+		// How many nodes are waiting in all the buckets, counting ones that went stale.
+		long queued = 1;
+		for(long b = 0; queued > 0; b++) {
+			int slot = (int) (b % bucketCount);
+			if(buckets[slot] == null) {
+				continue;
+			}
+			IntList passed = new IntList();
+			while(buckets[slot] != null) {
+				IntList raw = buckets[slot];
+				buckets[slot] = null;
+				queued -= raw.size();
+				stamp++;
+				IntList frontier = new IntList();
+				for(int i = 0; i < raw.size(); i++) {
+					int v = raw.get(i);
+					// Nodes that moved to a lower bucket since they were added are stale here.
+					if(mark[v] != stamp && bucketOf(dist, v) == b) {
+						mark[v] = stamp;
+						frontier.add(v);
+					}
+				}
+				if(frontier.isEmpty()) {
+					break;
+				}
+				rounds++;
+				passed.addAll(frontier);
+				queued += distribute(relax(dist, frontier, true), dist, buckets);
+			}
+			stamp++;
+			IntList heavy = new IntList();
+			for(int i = 0; i < passed.size(); i++) {
+				int v = passed.get(i);
+				if(mark[v] != stamp) {
+					mark[v] = stamp;
+					heavy.add(v);
+				}
+			}
+			queued += distribute(relax(dist, heavy, false), dist, buckets);
+		}
+		double[] rtrn = new double[n];
+		for(int i = 0; i < n; i++) {
+			rtrn[i] = Double.longBitsToDouble(dist.get(i));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Stops the relaxing threads.
+	 */
+	public void shutdown() {
+		if(pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the bucket a node's tentative distance falls in.
+	 */
+	private long bucketOf(AtomicLongArray dist, int v) {
+		return (long) (Double.longBitsToDouble(dist.get(v)) / delta);
+	}
+
+	/**
+	 * Puts every node whose distance dropped into the bucket it now belongs in.
+	 * @return The number of nodes put in buckets.
+	 */
+	private int distribute(List<IntList> improved, AtomicLongArray dist, IntList[] buckets) {
+		int rtrn = 0;
+		for(IntList list : improved) {
+			improvements += list.size();
+			rtrn += list.size();
+			for(int i = 0; i < list.size(); i++) {
+				int v = list.get(i);
+				int slot = (int) (bucketOf(dist, v) % bucketCount);
+				if(buckets[slot] == null) {
+					buckets[slot] = new IntList();
+				}
+				buckets[slot].add(v);
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Relaxes the light or heavy edges of a list of nodes, split across the threads if there are enough.
+	 * @return The nodes whose distance dropped, one list per piece of work.
+	 */
+	private List<IntList> relax(AtomicLongArray dist, IntList nodes, boolean light)
+			throws InterruptedException, ExecutionException {
+		ArrayList<IntList> rtrn = new ArrayList<IntList>();
+		if(pool == null || nodes.size() < PARALLEL_THRESHOLD) {
+			rtrn.add(relaxRange(dist, nodes, 0, nodes.size(), light));
+			return rtrn;
+		}
+		ArrayList<Callable<IntList>> tasks = new ArrayList<Callable<IntList>>();
+		int chunk = (nodes.size() + threads - 1) / threads;
+		for(int start = 0; start < nodes.size(); start += chunk) {
+			final int from = start;
+			final int to = Math.min(nodes.size(), start + chunk);
+			tasks.add(new Callable<IntList>() {
+				@Override
+				public IntList call() {
+					return relaxRange(dist, nodes, from, to, light);
+				}
+			});
+		}
+		for(Future<IntList> f : pool.invokeAll(tasks)) {
+			rtrn.add(f.get());
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Relaxes the light or heavy edges of part of a list of nodes.
+	 * @return The nodes whose distance dropped. A node can be in here more than once.
+	 */
+	private IntList relaxRange(AtomicLongArray dist, IntList nodes, int from, int to, boolean light) {
+		IntList improved = new IntList();
+		for(int i = from; i < to; i++) {
+			int u = nodes.get(i);
+			double du = Double.longBitsToDouble(dist.get(u));
+			for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				double w = graph.getWeight(e);
+				if((w <= delta) != light || w == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				int v = graph.getTarget(e);
+				if(lower(dist, v, du + w)) {
+					improved.add(v);
+				}
+			}
+		}
+		return improved;
+	}
+
+	/**
+	 * Lowers a node's distance if the new one is smaller, safely with other threads doing the same.
+	 * @return True if this call lowered it.
+	 */
+	private static boolean lower(AtomicLongArray dist, int v, double d) {
+		long bits = Double.doubleToLongBits(d);
+		while(true) {
+			long curr = dist.get(v);
+			if(bits >= curr) {
+				return false;
+			}
+			if(dist.compareAndSet(v, curr, bits)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A growable list of ints, so buckets and frontiers don't box every node.
+	 */
+	private static class IntList {
+		private int[] items = new int[16];
+		private int size = 0;
+
+		void add(int i) {
+			if(size == items.length) {
+				items = Arrays.copyOf(items, size * 2);
+			}
+			items[size++] = i;
+		}
+
+		void addAll(IntList other) {
+			for(int i = 0; i < other.size; i++) {
+				add(other.items[i]);
+			}
+		}
+
+		int get(int i) {
+			return items[i];
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+}
@@ -0,0 +1,505 @@
+package routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.OSMParser;
+import map_data.RoadSegment;
+
+/**
+ * The cost and first step from every intersection to every other, precomputed, so a route
+ * on a small map is a walk down a table with no search at all.
+ *
+ * It's only worth it for maps the size of a campus, since the tables grow with the square
+ * of the number of intersections, so building refuses maps over a limit. To keep them small:
+ * <ul>
+ * <li>The first step is which of a node's outgoing segments to take, packed into just
+ * enough bits for the busiest intersection. Each row starts on a new long so rows can be
+ * built by different threads.</li>
+ * <li>Costs are 16 bits each, in steps of 1/65534th of the most expensive entry in the row,
+ * so they're within half a step of the true cost. Routes are read off the first steps and
+ * costed exactly, so the rounding never changes a route between intersections.</li>
+ * </ul>
+ *
+ * The tables are for one set of weights. They can be saved and loaded again, and loading
+ * checks they were built for the same map and weights.
+ *
+ * Usage to build and save one: java routing.DistanceOracle map.osm out.oracle [threads]
+ * @author david
+ *
+ */
+public class DistanceOracle {
+
+	/** The most intersections built for when no limit is given. */
+	public static final int DEFAULT_MAX_NODES = 8000;
+	/** The cost entry for nodes that can't be reached. */
+	private static final int UNREACHABLE = 0xFFFF;
+	/** Marks saved oracles, with the format version in the low byte. */
+	private static final int MAGIC = 0x4F524301;
+
+	private final Map map;
+	private final EdgeWeights weights;
+	private final SegmentGraph graph;
+	/** The table row of each node, or -1 for nodes that aren't on an intersection. */
+	private final int[] row;
+	/** The number of rows and columns. */
+	private final int size;
+	/** Bits per first step, and how many longs each row of them takes. */
+	private final int bits, rowWords;
+	/** The first step entry meaning there isn't one, all ones. */
+	private final int none;
+	/** The first step from every row to every column, packed. */
+	private final long[] hops;
+	/** The cost from every row to every column, in steps of the row's quantum. */
+	private final char[] costs;
+	/** The cost of one step in each row. */
+	private final double[] quantum;
+
+	/**
+	 * Sets up empty tables for a map, sized from its intersections.
+	 */
+	private DistanceOracle(Map m, EdgeWeights w, int maxNodes) {
+		map = m;
+		weights = w;
+		graph = new SegmentGraph(m, w);
+		row = new int[m.getNodeSize()];
+		int count = 0;
+		int maxDegree = 0;
+		for(int i = 0; i < row.length; i++) {
+			GraphNode n = m.getNode(i);
+			if(n.getSegmentIt().hasNext() || n.getIncomingSegmentIt().hasNext()) {
+				row[i] = count++;
+				maxDegree = Math.max(maxDegree, graph.endEdge(i) - graph.firstEdge(i));
+			} else {
+				row[i] = -1;
+			}
+		}
+		if(count > maxNodes) {
+			throw new IllegalArgumentException("The map has " + count + " intersections, but the oracle is limited to "
+					+ maxNodes + ".");
+		}
+		size = count;
+		// Enough bits for every segment off the busiest node, plus one value left over for none.
+		bits = 32 - Integer.numberOfLeadingZeros(maxDegree);
+		none = (1 << bits) - 1;
+		rowWords = (int) (((long) size * bits + 63) / 64);
+		hops = new long[size * rowWords];
+		costs = new char[size * size];
+		quantum = new double[size];
+	}
+
+	/**
+	 * Builds the tables for a map, one search per intersection spread over a number of threads.
+	 * @param m The map.
+	 * @param w The weights to minimize.
+	 * @param maxNodes The most intersections to build for.
+	 * @param threads The number of threads to use.
+	 * @return The oracle.
+	 * @throws IllegalArgumentException If the map has more intersections than maxNodes.
+	 * @throws InterruptedException If interrupted while waiting for the searches.
+	 * @throws ExecutionException If a search fails.
+	 */
+	public static DistanceOracle build(Map m, EdgeWeights w, int maxNodes, int threads)
+			throws InterruptedException, ExecutionException {
+		DistanceOracle o = new DistanceOracle(m, w, maxNodes);
+		o.fill(Math.max(1, threads));
+		return o;
+	}
+
+	/**
+	 * Loads tables saved by save, for the map and weights they were built with.
+	 * @param f The file.
+	 * @param m The map.
+	 * @param w The weights.
+	 * @return The oracle.
+	 * @throws IOException If the file can't be read or was built for a different map or weights.
+	 */
+	public static DistanceOracle load(File f, Map m, EdgeWeights w) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(f + " isn't a saved distance oracle.");
+			}
+			int nodes = in.readInt();
+			int segs = in.readInt();
+			String profile = in.readUTF();
+			double checksum = in.readDouble();
+			if(nodes != m.getNodeSize() || segs != m.getSegmentCount()) {
+				throw new IOException(f + " was built for a different map.");
+			}
+			if(!profile.equals(w.getProfile().getName()) || checksum != checksum(w)) {
+				throw new IOException(f + " was built for different weights.");
+			}
+			DistanceOracle o = new DistanceOracle(m, w, Integer.MAX_VALUE);
+			if(in.readInt() != o.size || in.readInt() != o.bits) {
+				throw new IOException(f + " was built for a different map.");
+			}
+			for(int i = 0; i < o.size; i++) {
+				o.quantum[i] = in.readDouble();
+			}
+			for(int i = 0; i < o.costs.length; i++) {
+				o.costs[i] = in.readChar();
+			}
+			for(int i = 0; i < o.hops.length; i++) {
+				o.hops[i] = in.readLong();
+			}
+			return o;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves the tables, so they don't have to be built again for the same map and weights.
+	 * @param f The file to write.
+	 * @throws IOException If writing fails.
+	 */
+	public void save(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(map.getNodeSize());
+			out.writeInt(map.getSegmentCount());
+			out.writeUTF(weights.getProfile().getName());
+			out.writeDouble(checksum(weights));
+			out.writeInt(size);
+			out.writeInt(bits);
+			for(double q : quantum) {
+				out.writeDouble(q);
+			}
+			for(char c : costs) {
+				out.writeChar(c);
+			}
+			for(long l : hops) {
+				out.writeLong(l);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the weights the tables were built with.
+	 * @return The weights.
+	 */
+	public EdgeWeights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Returns the number of intersections the tables cover.
+	 * @return The number of rows.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns roughly how much memory the tables take.
+	 * @return The size in bytes.
+	 */
+	public long getTableBytes() {
+		return (long) hops.length * 8 + (long) costs.length * 2 + (long) quantum.length * 8;
+	}
+
+	/**
+	 * Returns the cost between two intersections, looked up in the table.
+	 * @param sn The start, which has to be on an intersection.
+	 * @param en The end, which has to be on an intersection.
+	 * @return The cost to within half a step of the start's row, or infinity if the end can't be reached.
+	 * @throws IllegalArgumentException If either node isn't on an intersection.
+	 */
+	public double getDistance(GraphNode sn, GraphNode en) {
+		int r = rowOf(sn);
+		int c = rowOf(en);
+		if(r < 0 || c < 0) {
+			throw new IllegalArgumentException("Only intersections are in the table.");
+		}
+		return cost(r, c);
+	}
+
+	/**
+	 * Returns the route between two nodes by following the first steps in the table.
+	 * Nodes that aren't on an intersection are joined on along the pieces of their road.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @return The route, or null if no route exists.
+	 */
+	public Route route(GraphNode sn, GraphNode en) {
+		if(sn.equals(en)) {
+			return new Route(sn, en, new LinkedList<RoadSegment>());
+		}
+		// Every way off the start's road and onto the end's, with what those pieces cost.
+		ArrayList<GraphSegment> heads = new ArrayList<GraphSegment>();
+		ArrayList<GraphSegment> tails = new ArrayList<GraphSegment>();
+		List<Route> direct = new ArrayList<Route>();
+		boolean splitEnd = rowOf(en) < 0;
+		if(rowOf(sn) >= 0) {
+			heads.add(null);
+		} else {
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				GraphSegment post = s.getPostSubsegment(sn);
+				if(splitEnd && post.hasNode(en) && !post.getEndNode().equals(en)) {
+					LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+					segs.add((RoadSegment) post.getPreSubsegment(en));
+					direct.add(new Route(sn, en, segs));
+				}
+				heads.add(post);
+			}
+		}
+		if(!splitEnd) {
+			tails.add(null);
+		} else {
+			for(GraphSegment s : map.getSegmentsWith(en)) {
+				tails.add(s.getPreSubsegment(en));
+			}
+		}
+		Route best = null;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(Route r : direct) {
+			double c = costOf(r);
+			if(c < bestCost) {
+				best = r;
+				bestCost = c;
+			}
+		}
+		// There are only ever a few of these, so each is walked and costed exactly.
+		for(GraphSegment head : heads) {
+			GraphNode from = head == null ? sn : head.getEndNode();
+			for(GraphSegment tail : tails) {
+				GraphNode to = tail == null ? en : tail.getStartNode();
+				LinkedList<RoadSegment> segs = walk(from, to);
+				if(segs == null) {
+					continue;
+				}
+				if(head != null) {
+					segs.addFirst((RoadSegment) head);
+				}
+				if(tail != null) {
+					segs.addLast((RoadSegment) tail);
+				}
+				Route r = new Route(sn, en, segs);
+				double c = costOf(r);
+				if(c < bestCost) {
+					best = r;
+					bestCost = c;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Follows the first steps from one intersection to another.
+	 * @return The segments, or null if there's no way.
+	 */
+	private LinkedList<RoadSegment> walk(GraphNode from, GraphNode to) {
+		LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+		int c = rowOf(to);
+		int u = from.getIndex();
+		while(u != to.getIndex()) {
+			int h = hop(row[u], c);
+			// Zero cost segments could let ties send the walk round in circles.
+			if(h == none || segs.size() > size) {
+				return null;
+			}
+			int e = graph.firstEdge(u) + h;
+			segs.add(map.getSegment(graph.getSegment(e)));
+			u = graph.getTarget(e);
+		}
+		return segs;
+	}
+
+	/**
+	 * Returns the exact cost of a route under these weights.
+	 */
+	private double costOf(Route r) {
+		double rtrn = 0;
+		for(RoadSegment s : r.getSegments()) {
+			rtrn += weights.getWeight(s);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns a node's table row, or -1 if it isn't on an intersection.
+	 */
+	private int rowOf(GraphNode n) {
+		return n.getIndex() < 0 ? -1 : row[n.getIndex()];
+	}
+
+	/**
+	 * Returns the first step entry of a row and column.
+	 */
+	private int hop(int r, int c) {
+		long bit = (long) c * bits;
+		int word = r * rowWords + (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		long value = hops[word] >>> shift;
+		if(shift + bits > 64) {
+			value |= hops[word + 1] << (64 - shift);
+		}
+		return (int) (value & none);
+	}
+
+	/**
+	 * Sets the first step entry of a row and column. Only touches the row's own words.
+	 */
+	private void setHop(int r, int c, int h) {
+		long bit = (long) c * bits;
+		int word = r * rowWords + (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		hops[word] = (hops[word] & ~((long) none << shift)) | ((long) h << shift);
+		if(shift + bits > 64) {
+			int spill = 64 - shift;
+			hops[word + 1] = (hops[word + 1] & ~((long) none >>> spill)) | ((long) h >>> spill);
+		}
+	}
+
+	/**
+	 * Returns the cost of a row and column.
+	 */
+	private double cost(int r, int c) {
+		int q = costs[r * size + c];
+		return q == UNREACHABLE ? Double.POSITIVE_INFINITY : q * quantum[r];
+	}
+
+	/**
+	 * Fills every row, with each thread taking every so many rows.
+	 */
+	private void fill(int threads) throws InterruptedException, ExecutionException {
+		final int[] nodeOf = new int[size];
+		for(int i = 0; i < row.length; i++) {
+			if(row[i] >= 0) {
+				nodeOf[row[i]] = i;
+			}
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for(int t = 0; t < threads; t++) {
+				final int first = t;
+				futures.add(pool.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						RowSearch search = new RowSearch();
+						for(int r = first; r < size; r += threads) {
+							search.fillRow(r, nodeOf[r], nodeOf);
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> f : futures) {
+				f.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a number that changes if any weight does, to tell whether saved tables still fit.
+	 */
+	private static double checksum(EdgeWeights w) {
+		double rtrn = 0;
+		for(int i = 0; i < w.size(); i++) {
+			double x = w.getWeight(i);
+			if(x < Double.POSITIVE_INFINITY) {
+				rtrn += x * ((i % 7) + 1);
+			} else {
+				rtrn += i;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * One thread's search state, reused for every row it fills.
+	 */
+	private class RowSearch {
+		private final int n = graph.getNodeCount();
+		private final double[] dist = new double[n];
+		private final int[] first = new int[n];
+		private final boolean[] settled = new boolean[n];
+		private final IndexedHeap heap = new IndexedHeap(n);
+
+		/**
+		 * Runs Dijkstra from a row's node, remembering which segment off it each node was reached by.
+		 */
+		void fillRow(int r, int source, int[] nodeOf) {
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(settled, false);
+			dist[source] = 0;
+			first[source] = none;
+			heap.insert(source, 0);
+			while(!heap.isEmpty()) {
+				int u = heap.poll();
+				settled[u] = true;
+				for(int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					int v = graph.getTarget(e);
+					double nd = dist[u] + graph.getWeight(e);
+					if(!settled[v] && nd < dist[v]) {
+						dist[v] = nd;
+						first[v] = u == source ? e - graph.firstEdge(source) : first[u];
+						heap.insertOrDecrease(v, nd);
+					}
+				}
+			}
+			double max = 0;
+			for(int c = 0; c < size; c++) {
+				double d = dist[nodeOf[c]];
+				if(d < Double.POSITIVE_INFINITY) {
+					max = Math.max(max, d);
+				}
+			}
+			quantum[r] = max > 0 ? max / (UNREACHABLE - 1) : 1;
+			for(int c = 0; c < size; c++) {
+				int v = nodeOf[c];
+				if(dist[v] == Double.POSITIVE_INFINITY) {
+					costs[r * size + c] = UNREACHABLE;
+					setHop(r, c, none);
+				} else {
+					costs[r * size + c] = (char) Math.round(dist[v] / quantum[r]);
+					setHop(r, c, first[v]);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.out.println("Usage: java routing.DistanceOracle map.osm out.oracle [threads]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		EdgeWeights w = new EdgeWeights(m, CostProfile.SHORTEST);
+		long start = System.nanoTime();
+		DistanceOracle o = build(m, w, DEFAULT_MAX_NODES, threads);
+		System.out.println(String.format("Built %d intersections in %.1f s with %d threads, %.1f MB",
+				o.getSize(), (System.nanoTime() - start) / 1e9, threads, o.getTableBytes() / 1e6));
+		start = System.nanoTime();
+		o.save(new File(args[1]));
+		System.out.println(String.format("Saved in %.1f s", (System.nanoTime() - start) / 1e9));
+	}
+
+}
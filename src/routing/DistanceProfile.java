@@ -0,0 +1,28 @@
+package routing;
+
+import map_data.RoadSegment;
+
+/**
+ * A cost profile where the cost of a segment is its length in meters.
+ * This is what the director always used to minimize.
+ * @author david
+ *
+ */
+public class DistanceProfile implements CostProfile {
+
+	@Override
+	public String getName() {
+		return "shortest";
+	}
+
+	@Override
+	public double getCost(RoadSegment s) {
+		return s.getLength();
+	}
+
+	@Override
+	public String toString() {
+		return "Shortest";
+	}
+
+}
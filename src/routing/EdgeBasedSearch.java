@@ -0,0 +1,321 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * Point to point search that obeys turn restrictions.
+ *
+ * It's Dijkstra's algorithm over the states of the restriction table instead of over nodes, so
+ * the search knows which segment it came in on when it decides where it can turn. Apart from
+ * that it's the same search as the director's, with the same handling of start and end nodes
+ * that aren't on an intersection, so without restrictions it finds routes of the same cost.
+ * It can also find the costs from one node to many, for planners that need a table of them.
+ * @author david
+ *
+ */
+public class EdgeBasedSearch {
+
+	private final Map map;
+	private final EdgeWeights weights;
+	private final TurnRestrictions restrictions;
+
+	/**
+	 * Constructs a search.
+	 * @param m The map to search.
+	 * @param w The weights to minimize.
+	 * @param r The turn restrictions of the map.
+	 */
+	public EdgeBasedSearch(Map m, EdgeWeights w, TurnRestrictions r) {
+		map = m;
+		weights = w;
+		restrictions = r;
+	}
+
+	/**
+	 * Finds the route from one node to another without any banned turns.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The route, or null if no legal route exists.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled during the search.
+	 */
+	public Route route(GraphNode sn, GraphNode en, RouteRequest req) {
+		if(sn.equals(en)) {
+			return new Route(sn, en, new LinkedList<RoadSegment>());
+		}
+		// One extra state past the last one stands for having arrived part way along a road.
+		int goal = restrictions.getStateCount();
+		SearchWorkspace ws = SearchWorkspace.forThread(goal + 1, SearchWorkspace.EDGE_SLOT);
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		boolean splitEnd = !en.getSegmentIt().hasNext();
+		// The segments the end is part way along, if it isn't on an intersection.
+		HashSet<Integer> endSegs = new HashSet<Integer>();
+		if(splitEnd) {
+			for(GraphSegment s : map.getSegmentsWith(en)) {
+				endSegs.add(((RoadSegment) s).getIndex());
+			}
+		}
+
+		if(sn.getSegmentIt().hasNext()) {
+			Iterator<GraphSegment> it = sn.getSegmentIt();
+			while(it.hasNext()) {
+				relax(ws, -1, 0, it.next(), splitEnd, endSegs, en, goal);
+			}
+		} else {
+			// Starting part way along a road is like having driven the rest of it.
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				GraphSegment post = s.getPostSubsegment(sn);
+				if(splitEnd && post.hasNode(en) && !post.getEndNode().equals(en)) {
+					GraphSegment direct = post.getPreSubsegment(en);
+					reach(ws, goal, weights.getWeight(direct), direct, -1);
+				}
+				reach(ws, ((RoadSegment) s).getIndex(), weights.getWeight(post), post, -1);
+			}
+		}
+
+		while(true) {
+			if(req != null) { req.checkCancelled(); }
+			int state = heap.poll();
+			if(state < 0) {
+				return null;
+			}
+			ws.settle(state);
+			if(state == goal) {
+				break;
+			}
+			GraphNode at = ws.getParent(state).getEndNode();
+			if(at.equals(en)) {
+				goal = state;
+				break;
+			}
+			double d = ws.getDist(state);
+			Iterator<GraphSegment> it = at.getSegmentIt();
+			while(it.hasNext()) {
+				relax(ws, state, d, it.next(), splitEnd, endSegs, en, goal);
+			}
+		}
+
+		LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+		int curr = goal;
+		while(curr >= 0) {
+			segs.addFirst((RoadSegment) ws.getParent(curr));
+			curr = ws.getFrom(curr);
+		}
+		return new Route(sn, en, segs);
+	}
+
+	/**
+	 * Finds the cost from one node to each of a list of others without any banned turns, with one
+	 * search that stops as soon as every one of them is known.
+	 * @param sn The start node.
+	 * @param targets The nodes to find the costs to.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The cost to each target, in the order given. Infinity if there's no legal route.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled during the search.
+	 */
+	public double[] costsTo(GraphNode sn, List<GraphNode> targets, RouteRequest req) {
+		Targets t = new Targets(sn, targets);
+		// The same size as a point to point search, so the two share the workspace.
+		SearchWorkspace ws = SearchWorkspace.forThread(restrictions.getStateCount() + 1, SearchWorkspace.EDGE_SLOT);
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		if(sn.getSegmentIt().hasNext()) {
+			Iterator<GraphSegment> it = sn.getSegmentIt();
+			while(it.hasNext()) {
+				relax(ws, -1, 0, it.next(), t);
+			}
+		} else {
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				GraphSegment post = s.getPostSubsegment(sn);
+				int seg = ((RoadSegment) s).getIndex();
+				t.reachAlong(seg, post, 0);
+				reach(ws, seg, weights.getWeight(post), post, -1);
+			}
+		}
+
+		while(t.left > 0) {
+			if(req != null) { req.checkCancelled(); }
+			int state = heap.poll();
+			t.settleAlong(state < 0 ? Double.POSITIVE_INFINITY : ws.getDist(state));
+			if(state < 0) {
+				break;
+			}
+			ws.settle(state);
+			double d = ws.getDist(state);
+			GraphNode at = ws.getParent(state).getEndNode();
+			t.settleAt(at, d);
+			Iterator<GraphSegment> it = at.getSegmentIt();
+			while(it.hasNext()) {
+				relax(ws, state, d, it.next(), t);
+			}
+		}
+		return t.costs;
+	}
+
+	/**
+	 * Moves from a state onto a segment if the turn is allowed, for a one to many search.
+	 */
+	private void relax(SearchWorkspace ws, int state, double d, GraphSegment s, Targets t) {
+		int seg = ((RoadSegment) s).getIndex();
+		int next = state < 0 ? seg : restrictions.move(state, seg);
+		if(next < 0) {
+			return;
+		}
+		t.reachAlong(seg, s, d);
+		reach(ws, next, d + weights.getWeight(s), s, state);
+	}
+
+	/**
+	 * Moves from a state onto a segment if the turn is allowed, and onto the end if it's part way along.
+	 */
+	private void relax(SearchWorkspace ws, int state, double d, GraphSegment s, boolean splitEnd,
+			HashSet<Integer> endSegs, GraphNode en, int goal) {
+		int seg = ((RoadSegment) s).getIndex();
+		int next = state < 0 ? seg : restrictions.move(state, seg);
+		if(next < 0) {
+			return;
+		}
+		if(splitEnd && endSegs.contains(seg)) {
+			GraphSegment pre = s.getPreSubsegment(en);
+			reach(ws, goal, d + weights.getWeight(pre), pre, state);
+		}
+		reach(ws, next, d + weights.getWeight(s), s, state);
+	}
+
+	/**
+	 * Lowers a state's distance if it's shorter.
+	 */
+	private void reach(SearchWorkspace ws, int state, double d, GraphSegment s, int from) {
+		if(!ws.isSettled(state) && d < ws.getDist(state)) {
+			ws.reach(state, d, s, from);
+			ws.getHeap().insertOrDecrease(state, d);
+		}
+	}
+
+	/**
+	 * The targets of a one to many search. A target on an intersection is known as soon as a
+	 * segment into it is settled. One part way along a road is offered a cost every time a
+	 * segment it's on is driven onto, and is known once nothing left in the heap is cheaper.
+	 */
+	private class Targets {
+		private final List<GraphNode> nodes;
+		private final double[] costs;
+		private final boolean[] known;
+		/** True for the targets part way along a road. */
+		private final boolean[] along;
+		/** The targets on intersections, by node index. */
+		private final HashMap<Integer, List<Integer>> atNode = new HashMap<Integer, List<Integer>>();
+		/** The targets part way along a road, by the index of each segment they're on. */
+		private final HashMap<Integer, List<Integer>> onSeg = new HashMap<Integer, List<Integer>>();
+		private int left = 0;
+		/** The cheapest cost offered to a target part way along a road that isn't known yet. */
+		private double cheapest = Double.POSITIVE_INFINITY;
+
+		Targets(GraphNode sn, List<GraphNode> targets) {
+			nodes = targets;
+			costs = new double[targets.size()];
+			known = new boolean[targets.size()];
+			along = new boolean[targets.size()];
+			Arrays.fill(costs, Double.POSITIVE_INFINITY);
+			for(int j = 0; j < targets.size(); j++) {
+				GraphNode n = targets.get(j);
+				if(n.equals(sn)) {
+					costs[j] = 0;
+					known[j] = true;
+					continue;
+				}
+				left++;
+				if(n.getSegmentIt().hasNext()) {
+					add(atNode, n.getIndex(), j);
+				} else {
+					along[j] = true;
+					for(GraphSegment s : map.getSegmentsWith(n)) {
+						add(onSeg, ((RoadSegment) s).getIndex(), j);
+					}
+				}
+			}
+		}
+
+		private void add(HashMap<Integer, List<Integer>> m, int key, int j) {
+			List<Integer> l = m.get(key);
+			if(l == null) {
+				l = new ArrayList<Integer>();
+				m.put(key, l);
+			}
+			l.add(j);
+		}
+
+		/**
+		 * Offers the targets on a segment the cost of driving onto it as far as them.
+		 * @param seg The index of the segment.
+		 * @param s The segment, or the part of it that's driven.
+		 * @param d The cost so far.
+		 */
+		void reachAlong(int seg, GraphSegment s, double d) {
+			List<Integer> here = onSeg.get(seg);
+			if(here == null) {
+				return;
+			}
+			for(int j : here) {
+				GraphNode n = nodes.get(j);
+				if(!known[j] && s.hasNode(n) && !s.getStartNode().equals(n)) {
+					double c = d + weights.getWeight(s.getPreSubsegment(n));
+					if(c < costs[j]) {
+						costs[j] = c;
+						cheapest = Math.min(cheapest, c);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Marks the targets part way along roads that nothing cheaper than a cost can reach anymore.
+		 */
+		void settleAlong(double d) {
+			if(d < cheapest) {
+				return;
+			}
+			cheapest = Double.POSITIVE_INFINITY;
+			for(int j = 0; j < costs.length; j++) {
+				if(along[j] && !known[j]) {
+					if(costs[j] <= d) {
+						known[j] = true;
+						left--;
+					} else {
+						cheapest = Math.min(cheapest, costs[j]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Marks the targets on an intersection the search just settled a segment into.
+		 */
+		void settleAt(GraphNode at, double d) {
+			List<Integer> here = atNode.get(at.getIndex());
+			if(here == null) {
+				return;
+			}
+			for(int j : here) {
+				if(!known[j]) {
+					costs[j] = d;
+					known[j] = true;
+					left--;
+				}
+			}
+		}
+	}
+
+}
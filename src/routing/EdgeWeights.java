@@ -0,0 +1,114 @@
+package routing;
+
+import java.util.Set;
+
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * The cost of every segment of a map under one profile, computed once and kept in a flat array
+ * indexed by segment index.
+ *
+ * Searches read weights from here, so they never look at tags or road types. Temporary
+ * segments made during a search aren't part of the map, and are asked of the profile directly.
+ *
+ * Weights never change once made. Applying a new overlay copies the array and recomputes only
+ * the segments of the ways that changed, so searches already running keep their old weights.
+ * @author david
+ *
+ */
+public class EdgeWeights {
+
+	private final CostProfile profile;
+	private final double[] weights;
+	/** The changes to way costs these weights include. */
+	private final WeightOverlay overlay;
+
+	/**
+	 * Precomputes the weights of a map's segments for a profile.
+	 * @param m The map.
+	 * @param profile The profile.
+	 */
+	public EdgeWeights(Map m, CostProfile profile) {
+		this.profile = profile;
+		overlay = WeightOverlay.EMPTY;
+		weights = new double[m.getSegmentCount()];
+		for(int i = 0; i < weights.length; i++) {
+			weights[i] = profile.getCost(m.getSegment(i));
+		}
+	}
+	
+	private EdgeWeights(CostProfile profile, double[] weights, WeightOverlay overlay) {
+		this.profile = profile;
+		this.weights = weights;
+		this.overlay = overlay;
+	}
+	
+	/**
+	 * Returns weights for the same profile with a different overlay applied.
+	 * Only the segments of ways whose factor changed are recomputed.
+	 * @param m The map these weights are for.
+	 * @param next The overlay to apply.
+	 * @return The new weights, or these if nothing changed.
+	 */
+	public EdgeWeights withOverlay(Map m, WeightOverlay next) {
+		Set<String> changed = next.changedFrom(overlay);
+		if(changed.isEmpty()) {
+			return this;
+		}
+		double[] w = weights.clone();
+		for(String id : changed) {
+			double factor = next.getFactor(id);
+			for(int i : m.getWaySegments(id)) {
+				w[i] = profile.getCost(m.getSegment(i)) * factor;
+			}
+		}
+		return new EdgeWeights(profile, w, next);
+	}
+	
+	/**
+	 * Returns the overlay these weights include.
+	 * @return The overlay.
+	 */
+	public WeightOverlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * Returns the profile these weights came from.
+	 * @return The profile.
+	 */
+	public CostProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the weight of a segment.
+	 * @param s The segment.
+	 * @return The weight of the segment. Infinite if its way is blocked.
+	 */
+	public double getWeight(GraphSegment s) {
+		RoadSegment rs = (RoadSegment) s;
+		int i = rs.getIndex();
+		return i >= 0 ? weights[i] : profile.getCost(rs) * overlay.getFactor(rs.getWay().getID());
+	}
+
+	/**
+	 * Returns the weight of the segment with a given index.
+	 * @param i The segment index.
+	 * @return The weight of the segment.
+	 */
+	public double getWeight(int i) {
+		return weights[i];
+	}
+
+	/**
+	 * Returns the number of segments these weights cover.
+	 * @return The number of weights.
+	 */
+	public int size() {
+		return weights.length;
+	}
+
+}
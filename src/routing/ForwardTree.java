@@ -0,0 +1,339 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.DistanceStrategy;
+import map_data.HaversineDistance;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadSegment;
+
+/**
+ * A shortest path tree rooted at a start, grown a bit at a time so it can be used before it's done.
+ *
+ * The idea is to start searching as soon as a start is picked, while the user is still looking
+ * for where to go. By the time they pick the end it's usually settled already and the route is
+ * just read off the tree. If it isn't, asking for the route grows the tree towards the end
+ * until it is, so nothing searched so far is wasted.
+ *
+ * The tree can be focused on a node, like whatever the mouse is over. Focused, it grows like A*
+ * towards that node, with the straight line distance times the cheapest cost per meter of any
+ * segment as the estimate. That estimate never overshoots and works out the same from either
+ * end of a segment, so every node is still settled at its true distance, whatever the focus
+ * is when it gets settled. Changing the focus only re-keys the nodes waiting in the heap.
+ *
+ * Growing and reading are synchronized, so one thread can grow the tree in the background
+ * while others read routes off it or grow it towards their own ends. Setting the hover doesn't
+ * take the lock, since the mouse moves on the event dispatch thread. The latest hover is just
+ * left for the tree to pick up before it grows the next chunk, so a burst of mouse moves only
+ * re-keys the heap once.
+ * @author david
+ *
+ */
+public class ForwardTree {
+
+	/** The most nodes settled in one go before letting another thread at the tree. */
+	private static final int CHUNK = 256;
+	/** Shaves a little off the estimate so rounding can never make it overshoot. */
+	private static final double ESTIMATE_SLACK = .999;
+
+	private final Map map;
+	private final GraphNode source;
+	private final EdgeWeights weights;
+	private final DistanceStrategy strat = new HaversineDistance();
+	/** The least any segment costs per meter, which turns straight line distance into an estimate. */
+	private final double costPerMeter;
+	/** Cost from the source to each node. */
+	private final double[] dist;
+	/** The segment each node is reached by. */
+	private final GraphSegment[] parent;
+	private final boolean[] settled;
+	private final IndexedHeap heap;
+	/** The segments off the source's road, if it isn't on an intersection. */
+	private final List<GraphSegment> startSegs = new ArrayList<GraphSegment>();
+	private int settledCount = 0;
+
+	/** Where the mouse is, or null. Set without the lock, and picked up by grow. */
+	private volatile Node hover;
+	/** The end a route is being waited for, which beats the hover. Null if there isn't one. */
+	private Node goal;
+	/** The node the heap keys are estimated towards, or null if they're plain distances. */
+	private Node focus;
+
+	/**
+	 * Starts a tree at a node. Nothing is searched until the tree is grown.
+	 * @param m The map to search.
+	 * @param source The node the tree is rooted at.
+	 * @param w The weights to minimize.
+	 */
+	public ForwardTree(Map m, GraphNode source, EdgeWeights w) {
+		map = m;
+		this.source = source;
+		weights = w;
+		int n = m.getNodeSize();
+		dist = new double[n];
+		parent = new GraphSegment[n];
+		settled = new boolean[n];
+		heap = new IndexedHeap(n);
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		costPerMeter = cheapestCostPerMeter(m, w);
+		dist[source.getIndex()] = 0;
+		if(source.getSegmentIt().hasNext()) {
+			heap.insert(source.getIndex(), 0);
+		} else {
+			// The start isn't on an intersection, so the nodes on its road it can get to are the roots.
+			settled[source.getIndex()] = true;
+			for(GraphSegment s : m.getSegmentsWith(source)) {
+				GraphSegment post = s.getPostSubsegment(source);
+				startSegs.add(post);
+				reach(post.getEndNode().getIndex(), weights.getWeight(post), post);
+			}
+		}
+	}
+
+	/**
+	 * Returns the node this tree is rooted at.
+	 * @return The source.
+	 */
+	public GraphNode getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the weights this tree was built with.
+	 * @return The weights.
+	 */
+	public EdgeWeights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Returns the number of nodes settled so far.
+	 * @return The settled count.
+	 */
+	public synchronized int getSettledCount() {
+		return settledCount;
+	}
+
+	/**
+	 * Returns whether every node that can be reached has been settled.
+	 * @return True if the tree is done.
+	 */
+	public synchronized boolean isComplete() {
+		return heap.isEmpty();
+	}
+
+	/**
+	 * Sets the node the tree should grow towards while nobody is waiting on a route.
+	 * Doesn't wait for the tree, the new focus is taken up when it next grows.
+	 * @param n The node, usually the one under the mouse, or null to grow evenly.
+	 */
+	public void setHover(GraphNode n) {
+		hover = (Node) n;
+	}
+
+	/**
+	 * Grows the tree until it's done.
+	 * @param req The request the tree is built for, or null if it can't be cancelled.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled first.
+	 * The tree keeps what it has, and can still be grown by routeTo.
+	 */
+	public void build(RouteRequest req) {
+		while(grow(CHUNK)) {
+			if(req != null) { req.checkCancelled(); }
+		}
+	}
+
+	/**
+	 * Returns the route from the source to a node, growing the tree towards it first if it
+	 * hasn't been settled yet.
+	 * @param en The end node.
+	 * @param req The request the route is for, or null if it can't be cancelled.
+	 * @return The route, or null if the end can't be reached.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled first.
+	 */
+	public Route routeTo(GraphNode en, RouteRequest req) {
+		synchronized(this) {
+			goal = (Node) en;
+			refocus();
+		}
+		try {
+			while(true) {
+				synchronized(this) {
+					if(isSettled(en) || heap.isEmpty()) {
+						return extractRoute(en);
+					}
+					grow(CHUNK);
+				}
+				if(req != null) { req.checkCancelled(); }
+			}
+		} finally {
+			synchronized(this) {
+				if(goal == en) {
+					goal = null;
+					refocus();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Settles up to a number of nodes.
+	 * @param max The most nodes to settle.
+	 * @return True if there's still more to settle.
+	 */
+	public synchronized boolean grow(int max) {
+		refocus();
+		for(int i = 0; i < max && !heap.isEmpty(); i++) {
+			int u = heap.poll();
+			settled[u] = true;
+			settledCount++;
+			Iterator<GraphSegment> segIt = map.getNode(u).getSegmentIt();
+			while(segIt.hasNext()) {
+				GraphSegment s = segIt.next();
+				int v = s.getEndNode().getIndex();
+				if(!settled[v]) {
+					reach(v, dist[u] + weights.getWeight(s), s);
+				}
+			}
+		}
+		return !heap.isEmpty();
+	}
+
+	/**
+	 * Lowers the distance to a node if the new one is shorter.
+	 */
+	private void reach(int v, double d, GraphSegment s) {
+		if(d < dist[v]) {
+			dist[v] = d;
+			parent[v] = s;
+			heap.insertOrDecrease(v, d + estimate(v));
+		}
+	}
+
+	/**
+	 * Returns whether the distance to a node is final. A node that isn't on an intersection is
+	 * done once every node on its road that leads to it is.
+	 */
+	private boolean isSettled(GraphNode en) {
+		if(en.equals(source) || onGraph(en)) {
+			return settled[en.getIndex()];
+		}
+		for(GraphSegment s : map.getSegmentsWith(en)) {
+			if(!settled[s.getPreSubsegment(en).getStartNode().getIndex()]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the route to a settled node off the tree.
+	 * @return The route, or null if the node can't be reached.
+	 */
+	private Route extractRoute(GraphNode en) {
+		LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+		if(en.equals(source)) {
+			return new Route(source, en, segs);
+		}
+		GraphNode curr = en;
+		if(!onGraph(en)) {
+			// Pick the best way onto the end's road, which might be straight along the start's.
+			GraphSegment best = null;
+			double bestDist = Double.POSITIVE_INFINITY;
+			for(GraphSegment s : startSegs) {
+				if(s.hasNode(en) && !s.getEndNode().equals(en)) {
+					GraphSegment direct = s.getPreSubsegment(en);
+					if(weights.getWeight(direct) < bestDist) {
+						best = direct;
+						bestDist = weights.getWeight(direct);
+					}
+				}
+			}
+			for(GraphSegment s : map.getSegmentsWith(en)) {
+				GraphSegment pre = s.getPreSubsegment(en);
+				double d = dist[pre.getStartNode().getIndex()] + weights.getWeight(pre);
+				if(d < bestDist) {
+					best = pre;
+					bestDist = d;
+				}
+			}
+			if(best == null || bestDist == Double.POSITIVE_INFINITY) {
+				return null;
+			}
+			segs.addFirst((RoadSegment) best);
+			curr = best.getStartNode();
+		} else if(dist[en.getIndex()] == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+		while(!curr.equals(source)) {
+			GraphSegment s = parent[curr.getIndex()];
+			segs.addFirst((RoadSegment) s);
+			curr = s.getStartNode();
+		}
+		return new Route(source, en, segs);
+	}
+
+	/**
+	 * Returns whether a node is on an intersection, rather than partway along a segment.
+	 */
+	private boolean onGraph(GraphNode n) {
+		return n.getSegmentIt().hasNext() || n.getIncomingSegmentIt().hasNext();
+	}
+
+	/**
+	 * Points the estimate at the goal if there is one, otherwise at the hover, and re-keys
+	 * the heap if that changed anything.
+	 */
+	private void refocus() {
+		Node next = goal != null ? goal : hover;
+		if(next == focus || (next != null && next.equals(focus))) {
+			return;
+		}
+		focus = next;
+		if(heap.isEmpty()) {
+			return;
+		}
+		// The heap can only lower keys, so the waiting nodes are taken out and put back.
+		int[] waiting = new int[heap.size()];
+		for(int i = 0; i < waiting.length; i++) {
+			waiting[i] = heap.getItem(i);
+		}
+		heap.clear();
+		for(int v : waiting) {
+			heap.insert(v, dist[v] + estimate(v));
+		}
+	}
+
+	/**
+	 * Returns the least it could cost to get from a node to the focus.
+	 */
+	private double estimate(int v) {
+		if(focus == null) {
+			return 0;
+		}
+		Node n = map.getNode(v);
+		return strat.getDistance(n.getLon(), n.getLat(), focus.getLon(), focus.getLat()) * costPerMeter;
+	}
+
+	/**
+	 * Returns the least any segment of the map costs per meter, a little under to be safe.
+	 */
+	private static double cheapestCostPerMeter(Map m, EdgeWeights w) {
+		double rtrn = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < w.size(); i++) {
+			double len = m.getSegment(i).getLength();
+			if(len > 0) {
+				rtrn = Math.min(rtrn, w.getWeight(i) / len);
+			}
+		}
+		return rtrn == Double.POSITIVE_INFINITY ? 0 : rtrn * ESTIMATE_SLACK;
+	}
+
+}
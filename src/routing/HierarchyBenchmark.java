@@ -0,0 +1,154 @@
+package routing;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import graph_interfaces.GraphNode;
+import map_data.Map;
+import map_data.OSMParser;
+import map_data.RoadSegment;
+
+/**
+ * Measures what hierarchical routing gives up and what it gets back, against the same search
+ * with nothing pruned.
+ *
+ * For each rule it reports how many nodes get settled and how long the queries take, and
+ * how much more the routes cost than the cheapest ones: the average, the 95th percentile
+ * and the worst, and how often the route is exactly the cheapest. The long trips, the top
+ * quarter by cost, are reported on their own too since that's where pruning is meant to pay off.
+ * The default rule's radii are tried scaled down as well, since small maps barely prune with it.
+ *
+ * Usage: java routing.HierarchyBenchmark map.osm [queries] [seed]
+ * @author david
+ *
+ */
+public class HierarchyBenchmark {
+
+	/** Number of queries run before timing, so the JIT has settled. */
+	private static final int WARMUP = 200;
+	/** The scales of the default rule that are tried. */
+	private static final double[] SCALES = {1, .5, .25, .1, .05};
+	/** Routes costing less than this much over the cheapest count as the cheapest. */
+	private static final double SAME = 1e-9;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java routing.HierarchyBenchmark map.osm [queries] [seed]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		System.out.println("Nodes: " + m.getNodeSize() + ", queries: " + queries);
+		for(CostProfile p : new CostProfile[] {CostProfile.SHORTEST, CostProfile.FASTEST}) {
+			EdgeWeights w = new EdgeWeights(m, p);
+			GraphNode[][] pairs = pairs(m, queries, seed);
+			// A rule without any radii prunes nothing, so it's plain Dijkstra down the same code.
+			HierarchySearch exact = new HierarchySearch(m, new HierarchyRule());
+			run(m, exact, w, pairs(m, WARMUP, seed + 1), null);
+			long[] settled = new long[1];
+			long start = System.nanoTime();
+			double[] best = run(m, exact, w, pairs, settled);
+			double exactMs = (System.nanoTime() - start) / 1e6;
+			double[] sorted = best.clone();
+			Arrays.sort(sorted);
+			double longTrip = sorted.length == 0 ? 0 : sorted[sorted.length * 3 / 4];
+
+			System.out.println();
+			System.out.println("Profile " + p + ", long trips cost over " + String.format("%.0f", longTrip));
+			System.out.println(String.format("%-8s %10s %12s %8s %10s %10s %10s %10s %10s",
+					"scale", "ms", "settled", "speedup", "exact", "mean loss", "p95 loss", "max loss", "long mean"));
+			System.out.println(String.format("%-8s %10.1f %12d %8s %10s %10s %10s %10s %10s",
+					"none", exactMs, settled[0], "1.0", "100%", "-", "-", "-", "-"));
+			for(double scale : SCALES) {
+				HierarchySearch h = new HierarchySearch(m, HierarchyRule.DEFAULT.scale(scale));
+				run(m, h, w, pairs(m, WARMUP, seed + 1), null);
+				long[] hSettled = new long[1];
+				start = System.nanoTime();
+				double[] cost = run(m, h, w, pairs, hSettled);
+				double ms = (System.nanoTime() - start) / 1e6;
+				report(scale, ms, exactMs, hSettled[0], best, cost, longTrip);
+			}
+		}
+	}
+
+	/**
+	 * Prints one rule's line.
+	 */
+	private static void report(double scale, double ms, double exactMs, long settled, double[] best,
+			double[] cost, double longTrip) {
+		double[] loss = new double[best.length];
+		int n = 0;
+		int same = 0;
+		double longTotal = 0;
+		int longCount = 0;
+		for(int i = 0; i < best.length; i++) {
+			if(best[i] == Double.POSITIVE_INFINITY || best[i] == 0) {
+				continue;
+			}
+			double l = cost[i] / best[i] - 1;
+			loss[n++] = l;
+			if(l < SAME) {
+				same++;
+			}
+			if(best[i] >= longTrip) {
+				longTotal += l;
+				longCount++;
+			}
+		}
+		loss = Arrays.copyOf(loss, n);
+		Arrays.sort(loss);
+		double total = 0;
+		for(double l : loss) {
+			total += l;
+		}
+		System.out.println(String.format("%-8s %10.1f %12d %8.1f %9.1f%% %9.2f%% %9.2f%% %9.2f%% %9.2f%%",
+				scale, ms, settled, exactMs / ms, n == 0 ? 100 : 100.0 * same / n,
+				n == 0 ? 0 : 100 * total / n, n == 0 ? 0 : 100 * loss[(int) (n * .95)],
+				n == 0 ? 0 : 100 * loss[n - 1], longCount == 0 ? 0 : 100 * longTotal / longCount));
+	}
+
+	/**
+	 * Runs every query and returns the cost of each route, counting the nodes settled.
+	 * @param settled Where to add up the settled nodes, or null to not bother.
+	 */
+	private static double[] run(Map m, HierarchySearch h, EdgeWeights w, GraphNode[][] pairs, long[] settled) {
+		double[] rtrn = new double[pairs.length];
+		IndexedHeap heap = SearchWorkspace.forThread(m.getNodeSize()).getHeap();
+		for(int i = 0; i < pairs.length; i++) {
+			heap.resetCounters();
+			Route r = h.route(pairs[i][0], pairs[i][1], w, null);
+			if(settled != null) {
+				settled[0] += heap.getPolls();
+			}
+			rtrn[i] = r == null ? Double.POSITIVE_INFINITY : cost(r, w);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the total weight of a route.
+	 */
+	private static double cost(Route r, EdgeWeights w) {
+		double rtrn = 0;
+		for(RoadSegment s : r.getSegments()) {
+			rtrn += w.getWeight(s);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Picks random pairs of nodes.
+	 */
+	private static GraphNode[][] pairs(Map m, int count, long seed) {
+		Random rand = new Random(seed);
+		GraphNode[][] rtrn = new GraphNode[count][2];
+		for(int i = 0; i < count; i++) {
+			rtrn[i][0] = m.getNode(rand.nextInt(m.getNodeSize()));
+			rtrn[i][1] = m.getNode(rand.nextInt(m.getNodeSize()));
+		}
+		return rtrn;
+	}
+
+}
@@ -0,0 +1,84 @@
+package routing;
+
+import java.util.Arrays;
+
+import map_data.Map;
+import map_data.Way;
+
+/**
+ * Says which classes of road a hierarchical search may use how far from the ends of a trip.
+ *
+ * Road classes come from Map.wayToPri, 0 for residential streets up to 4 for motorways.
+ * Each class below the top gets a radius, and its roads are only used within that straight
+ * line distance of the start or the end. Far from both, only the bigger roads are left,
+ * which is most of how people drive anyway.
+ *
+ * Rules are immutable.
+ * @author david
+ *
+ */
+public class HierarchyRule {
+
+	/** The highest road class Map.wayToPri gives a road. */
+	public static final int MAX_CLASS = 4;
+	/** Residential within 1km of an end, secondary within 5km, primary within 20km, trunk within 50km. */
+	public static final HierarchyRule DEFAULT = new HierarchyRule(1000, 5000, 20000, 50000);
+
+	/** The radius of each class, in meters. Classes past the end can be used anywhere. */
+	private final double[] radii;
+
+	/**
+	 * Constructs a rule.
+	 * @param radii How far from the start or end each road class can be used, in meters,
+	 * starting with class 0. Classes without a radius can be used anywhere.
+	 */
+	public HierarchyRule(double... radii) {
+		for(double r : radii) {
+			if(!(r >= 0)) {
+				throw new IllegalArgumentException("Radii can't be negative.");
+			}
+		}
+		this.radii = radii.clone();
+	}
+
+	/**
+	 * Returns a rule with every radius multiplied by a factor.
+	 * @param factor The factor.
+	 * @return The scaled rule.
+	 */
+	public HierarchyRule scale(double factor) {
+		double[] r = radii.clone();
+		for(int i = 0; i < r.length; i++) {
+			r[i] *= factor;
+		}
+		return new HierarchyRule(r);
+	}
+
+	/**
+	 * Returns whether a road class can be used at some distance from the closer end of the trip.
+	 * @param roadClass The class of the road.
+	 * @param dist The straight line distance to the start or end, whichever is closer, in meters.
+	 * @return True if the road can be used.
+	 */
+	public boolean allows(int roadClass, double dist) {
+		return roadClass >= radii.length || dist <= radii[roadClass];
+	}
+
+	/**
+	 * Returns the class of a way's roads, with anything Map.wayToPri doesn't rank as a
+	 * road counted as the lowest class.
+	 * @param m The map.
+	 * @param w The way.
+	 * @return The class, between 0 and MAX_CLASS.
+	 */
+	public static int roadClass(Map m, Way w) {
+		int pri = m.wayToPri(w);
+		return Math.max(0, Math.min(MAX_CLASS, pri));
+	}
+
+	@Override
+	public String toString() {
+		return "HierarchyRule" + Arrays.toString(radii);
+	}
+
+}
@@ -0,0 +1,167 @@
+package routing;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.DistanceStrategy;
+import map_data.HaversineDistance;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadSegment;
+
+/**
+ * Finds routes that only use small roads near the start and end, and stay on the bigger
+ * roads in between, like a driver would.
+ *
+ * It's Dijkstra's algorithm that skips any segment whose road class the rule doesn't allow
+ * that far from both ends. On a long trip that leaves most of the residential streets out of
+ * the search. The price is that routes aren't always the cheapest. A shortcut down a side street
+ * in the middle of a trip is missed, so a route can cost a bit more than it has to.
+ * HierarchyBenchmark measures how much.
+ *
+ * If pruning cuts the start off from the end completely, the search is run again without it,
+ * so it never says there's no route when there is one.
+ * @author david
+ *
+ */
+public class HierarchySearch {
+
+	private final Map map;
+	private final HierarchyRule rule;
+	private final DistanceStrategy strat = new HaversineDistance();
+	/** The road class of every segment, by segment index. */
+	private final byte[] classes;
+
+	/**
+	 * Constructs a search over a map.
+	 * @param m The map.
+	 * @param rule Which road classes can be used where.
+	 */
+	public HierarchySearch(Map m, HierarchyRule rule) {
+		map = m;
+		this.rule = rule;
+		classes = new byte[m.getSegmentCount()];
+		for(int i = 0; i < classes.length; i++) {
+			classes[i] = (byte) HierarchyRule.roadClass(m, m.getSegment(i).getWay());
+		}
+	}
+
+	/**
+	 * Returns the rule this search prunes with.
+	 * @return The rule.
+	 */
+	public HierarchyRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Finds a route between two nodes, falling back on a full search if pruning leaves none.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param w The weights to minimize.
+	 * @param req The request this search is running for, or null if it can't be cancelled.
+	 * @return The route, or null if no route exists.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled during the search.
+	 */
+	public Route route(GraphNode sn, GraphNode en, EdgeWeights w, RouteRequest req) {
+		Route route = search(sn, en, w, true, req);
+		if(route == null) {
+			route = search(sn, en, w, false, req);
+		}
+		return route;
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm from the start until the end is settled.
+	 * @param prune False to use every road, which is plain Dijkstra.
+	 * @return The route, or null if the end wasn't reached.
+	 */
+	private Route search(GraphNode sn, GraphNode en, EdgeWeights w, boolean prune, RouteRequest req) {
+		if(sn.equals(en)) {
+			return new Route(sn, en, new LinkedList<RoadSegment>());
+		}
+		SearchWorkspace ws = SearchWorkspace.forThread(map.getNodeSize());
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		int goal = en.getIndex();
+		boolean splitEnd = !en.getSegmentIt().hasNext();
+		// The segments the end is part way along, if it isn't on an intersection.
+		HashSet<Integer> endSegs = new HashSet<Integer>();
+		if(splitEnd) {
+			for(GraphSegment s : map.getSegmentsWith(en)) {
+				endSegs.add(((RoadSegment) s).getIndex());
+			}
+		}
+		Node start = (Node) sn;
+		Node end = (Node) en;
+
+		ws.reach(sn.getIndex(), 0, null);
+		if(sn.getSegmentIt().hasNext()) {
+			heap.insert(sn.getIndex(), 0);
+		} else {
+			ws.settle(sn.getIndex());
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				GraphSegment post = s.getPostSubsegment(sn);
+				if(splitEnd && post.hasNode(en) && !post.getEndNode().equals(en)) {
+					GraphSegment direct = post.getPreSubsegment(en);
+					reach(ws, goal, w.getWeight(direct), direct);
+				}
+				reach(ws, post.getEndNode().getIndex(), w.getWeight(post), post);
+			}
+		}
+
+		while(!ws.isSettled(goal)) {
+			if(req != null) { req.checkCancelled(); }
+			int u = heap.poll();
+			if(u < 0) {
+				return null;
+			}
+			ws.settle(u);
+			if(u == goal) {
+				break;
+			}
+			double du = ws.getDist(u);
+			Node at = map.getNode(u);
+			// How far the closer end is decides which roads are left from here.
+			double near = Math.min(strat.getDistance(at.getLon(), at.getLat(), start.getLon(), start.getLat()),
+					strat.getDistance(at.getLon(), at.getLat(), end.getLon(), end.getLat()));
+			Iterator<GraphSegment> it = at.getSegmentIt();
+			while(it.hasNext()) {
+				GraphSegment s = it.next();
+				int seg = ((RoadSegment) s).getIndex();
+				if(splitEnd && endSegs.contains(seg)) {
+					// The end's own road is always fine, however small.
+					GraphSegment pre = s.getPreSubsegment(en);
+					reach(ws, goal, du + w.getWeight(pre), pre);
+				}
+				if(prune && !rule.allows(classes[seg], near)) {
+					continue;
+				}
+				reach(ws, s.getEndNode().getIndex(), du + w.getWeight(s), s);
+			}
+		}
+
+		LinkedList<RoadSegment> segs = new LinkedList<RoadSegment>();
+		GraphNode curr = en;
+		while(!curr.equals(sn)) {
+			GraphSegment s = ws.getParent(curr.getIndex());
+			segs.addFirst((RoadSegment) s);
+			curr = s.getStartNode();
+		}
+		return new Route(sn, en, segs);
+	}
+
+	/**
+	 * Lowers a node's distance if it's shorter.
+	 */
+	private void reach(SearchWorkspace ws, int v, double d, GraphSegment s) {
+		if(!ws.isSettled(v) && d < ws.getDist(v)) {
+			ws.reach(v, d, s);
+			ws.getHeap().insertOrDecrease(v, d);
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * A d-ary min heap of integer items with double keys, supporting true decrease-key.
+ *
+ * Items are dense indices, such as node indices, so the heap can keep each item's key and
+ * position in flat arrays. Nothing is boxed and a comparison is just two array reads.
+ * Every item is in the heap at most once, so the heap never holds stale entries.
+ *
+ * Keys stay readable after an item is polled, until the item is inserted again or the
+ * heap is cleared, which lets a search use the heap as its distance table.
+ * @author david
+ *
+ */
+public class IndexedHeap {
+
+	/** The arity used when none is given. Four is usually a little faster than binary. */
+	public static final int DEFAULT_ARITY = 4;
+
+	private final int arity;
+	/** The items in heap order. */
+	private int[] heap;
+	/** The position of each item in the heap, or -1 if it isn't in the heap. */
+	private int[] pos;
+	/** The key of each item. */
+	private double[] keys;
+	private int size = 0;
+
+	private long inserts = 0;
+	private long decreases = 0;
+	private long polls = 0;
+
+	/**
+	 * Constructs a heap for items from 0 up to capacity with the default arity.
+	 * @param capacity The number of distinct items.
+	 */
+	public IndexedHeap(int capacity) {
+		this(capacity, DEFAULT_ARITY);
+	}
+
+	/**
+	 * Constructs a heap for items from 0 up to capacity.
+	 * @param capacity The number of distinct items.
+	 * @param arity The number of children of each heap node. Must be at least 2.
+	 */
+	public IndexedHeap(int capacity, int arity) {
+		if(arity < 2) {
+			throw new IllegalArgumentException("Heap arity must be at least 2.");
+		}
+		this.arity = arity;
+		heap = new int[capacity];
+		pos = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(pos, -1);
+	}
+
+	/**
+	 * Returns the number of distinct items this heap can hold.
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return pos.length;
+	}
+
+	/**
+	 * Returns whether an item is currently in the heap.
+	 * @param item The item.
+	 * @return True if the item is in the heap, false otherwise.
+	 */
+	public boolean contains(int item) {
+		return pos[item] >= 0;
+	}
+
+	/**
+	 * Returns the last key given to an item.
+	 * @param item The item.
+	 * @return The key of the item.
+	 */
+	public double getKey(int item) {
+		return keys[item];
+	}
+
+	/**
+	 * Inserts an item that isn't in the heap.
+	 * @precondition The item must not be in the heap.
+	 * @param item The item.
+	 * @param key The key of the item.
+	 */
+	public void insert(int item, double key) {
+		inserts++;
+		keys[item] = key;
+		heap[size] = item;
+		pos[item] = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Lowers the key of an item already in the heap.
+	 * @precondition The item must be in the heap and the new key must not be larger.
+	 * @param item The item.
+	 * @param key The new key of the item.
+	 */
+	public void decreaseKey(int item, double key) {
+		decreases++;
+		keys[item] = key;
+		siftUp(pos[item]);
+	}
+
+	/**
+	 * Inserts an item, or lowers its key if it's already in the heap with a larger key.
+	 * @param item The item.
+	 * @param key The key of the item.
+	 * @return True if the heap changed, false if the item already had a key at least as small.
+	 */
+	public boolean insertOrDecrease(int item, double key) {
+		if(pos[item] < 0) {
+			insert(item, key);
+			return true;
+		}
+		if(key < keys[item]) {
+			decreaseKey(item, key);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes and returns the item with the smallest key.
+	 * @return The item with the smallest key, or -1 if the heap is empty.
+	 */
+	public int poll() {
+		if(size == 0) {
+			return -1;
+		}
+		polls++;
+		int top = heap[0];
+		pos[top] = -1;
+		size--;
+		if(size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			pos[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Returns the smallest key in the heap.
+	 * @return The smallest key, or infinity if the heap is empty.
+	 */
+	public double peekKey() {
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+	}
+
+	/**
+	 * Returns whether the heap is empty.
+	 * @return True if empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of items in the heap.
+	 * @return The size of the heap.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns an item in the heap by its place in the heap's own array, for going over
+	 * everything waiting without polling it. The order is the heap's, not the keys'.
+	 * @param i The place, from 0 up to size.
+	 * @return The item there.
+	 */
+	public int getItem(int i) {
+		if(i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return heap[i];
+	}
+
+	/**
+	 * Empties the heap. Only touches the items still in it, so it's cheap after a search.
+	 */
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			pos[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of inserts since the counters were last reset.
+	 * @return The insert count.
+	 */
+	public long getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * Returns the number of decrease-keys since the counters were last reset.
+	 * @return The decrease-key count.
+	 */
+	public long getDecreases() {
+		return decreases;
+	}
+
+	/**
+	 * Returns the number of polls since the counters were last reset.
+	 * @return The poll count.
+	 */
+	public long getPolls() {
+		return polls;
+	}
+
+	/**
+	 * Resets the operation counters.
+	 */
+	public void resetCounters() {
+		inserts = 0;
+		decreases = 0;
+		polls = 0;
+	}
+
+	/**
+	 * Moves the item at a position up until its parent is no larger.
+	 * @param i The position.
+	 */
+	private void siftUp(int i) {
+		int item = heap[i];
+		double key = keys[item];
+		while(i > 0) {
+			int parent = (i - 1) / arity;
+			int pItem = heap[parent];
+			if(keys[pItem] <= key) {
+				break;
+			}
+			heap[i] = pItem;
+			pos[pItem] = i;
+			i = parent;
+		}
+		heap[i] = item;
+		pos[item] = i;
+	}
+
+	/**
+	 * Moves the item at a position down until none of its children are smaller.
+	 * @param i The position.
+	 */
+	private void siftDown(int i) {
+		int item = heap[i];
+		double key = keys[item];
+		while(true) {
+			int first = i * arity + 1;
+			if(first >= size) {
+				break;
+			}
+			int last = Math.min(first + arity, size);
+			int min = first;
+			double minKey = keys[heap[first]];
+			for(int c = first + 1; c < last; c++) {
+				double cKey = keys[heap[c]];
+				if(cKey < minKey) {
+					min = c;
+					minKey = cKey;
+				}
+			}
+			if(minKey >= key) {
+				break;
+			}
+			int cItem = heap[min];
+			heap[i] = cItem;
+			pos[cItem] = i;
+			i = min;
+		}
+		heap[i] = item;
+		pos[item] = i;
+	}
+
+}
@@ -0,0 +1,240 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.Node;
+import map_data.RoadSegment;
+
+/**
+ * Everything reachable from an origin within a cost budget.
+ *
+ * Holds the reachable nodes with their costs, and the segments that the budget runs out
+ * part way along, cut at the point where it runs out. Can also give an outline of the area
+ * for drawing.
+ * @author david
+ *
+ */
+public class Isochrone {
+
+	/** Default number of angular sectors used for the outline. */
+	public static final int DEFAULT_SECTORS = 72;
+
+	private final GraphNode origin;
+	private final double budget;
+	private final Node[] nodes;
+	private final double[] costs;
+	private final List<PartialSegment> boundary;
+	/** The outline, made the first time someone asks for it. */
+	private double[][] hull;
+
+	/**
+	 * Constructs an isochrone.
+	 * @param origin The node the search started from.
+	 * @param budget The cost budget.
+	 * @param nodes The reachable nodes.
+	 * @param costs The cost of reaching each node, in the same order.
+	 * @param boundary The segments cut at the edge of the budget.
+	 */
+	public Isochrone(GraphNode origin, double budget, Node[] nodes, double[] costs, List<PartialSegment> boundary) {
+		this.origin = origin;
+		this.budget = budget;
+		this.nodes = nodes;
+		this.costs = costs;
+		this.boundary = Collections.unmodifiableList(new ArrayList<PartialSegment>(boundary));
+	}
+
+	/**
+	 * Returns the node the search started from.
+	 * @return The origin.
+	 */
+	public GraphNode getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Returns the cost budget.
+	 * @return The budget.
+	 */
+	public double getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of reachable nodes.
+	 * @return The number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns one of the reachable nodes.
+	 * @param i Which node, from 0 to getNodeCount.
+	 * @return The node.
+	 */
+	public Node getNode(int i) {
+		return nodes[i];
+	}
+
+	/**
+	 * Returns the cost of reaching one of the reachable nodes.
+	 * @param i Which node, from 0 to getNodeCount.
+	 * @return The cost.
+	 */
+	public double getCost(int i) {
+		return costs[i];
+	}
+
+	/**
+	 * Returns the segments cut at the edge of the budget.
+	 * @return An unmodifiable list of the partial segments.
+	 */
+	public List<PartialSegment> getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * Returns an outline of the reachable area with the default number of sectors.
+	 * @return The outline as an array of {lon, lat} points in order around the origin.
+	 */
+	public synchronized double[][] getHull() {
+		if(hull == null) {
+			hull = computeHull(DEFAULT_SECTORS);
+		}
+		return hull;
+	}
+
+	/**
+	 * Computes an outline of the reachable area.
+	 *
+	 * The area around the origin is split into equal angular sectors and the farthest reachable
+	 * point in each one becomes a corner. The result is star shaped around the origin, which
+	 * follows the dents in the area much better than a convex hull, for the price of one pass
+	 * over the points.
+	 * @param sectors The number of sectors.
+	 * @return The outline as an array of {lon, lat} points in order around the origin.
+	 */
+	public double[][] computeHull(int sectors) {
+		Node o = (Node) origin;
+		double cosLat = Math.cos(Math.toRadians(o.getLat()));
+		double[] far = new double[sectors];
+		double[][] corner = new double[sectors][];
+		for(int i = 0; i < nodes.length; i++) {
+			addHullPoint(o, cosLat, nodes[i].getLon(), nodes[i].getLat(), far, corner);
+		}
+		for(PartialSegment p : boundary) {
+			addHullPoint(o, cosLat, p.getCutLon(), p.getCutLat(), far, corner);
+		}
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for(int i = 0; i < sectors; i++) {
+			if(corner[i] != null) {
+				points.add(corner[i]);
+			}
+		}
+		return points.toArray(new double[points.size()][]);
+	}
+
+	/**
+	 * Keeps a point as its sector's corner if it's farther out than the current one.
+	 */
+	private static void addHullPoint(Node o, double cosLat, double lon, double lat, double[] far, double[][] corner) {
+		double x = (lon - o.getLon()) * cosLat;
+		double y = lat - o.getLat();
+		double d = x * x + y * y;
+		double angle = Math.atan2(y, x) + Math.PI;
+		int sector = Math.min(far.length - 1, (int) (angle / (2 * Math.PI) * far.length));
+		if(corner[sector] == null || d > far[sector]) {
+			far[sector] = d;
+			corner[sector] = new double[] {lon, lat};
+		}
+	}
+
+	/**
+	 * A segment that the budget runs out part way along.
+	 */
+	public static class PartialSegment {
+		private final RoadSegment segment;
+		private final double fraction;
+		private final double cutLon;
+		private final double cutLat;
+		private final List<GraphEdge> edges;
+
+		/**
+		 * Cuts a segment at a fraction of its length.
+		 * @param seg The segment.
+		 * @param fraction How much of the segment is reachable, between 0 and 1.
+		 */
+		public PartialSegment(RoadSegment seg, double fraction) {
+			segment = seg;
+			this.fraction = fraction;
+			double remaining = seg.getLength() * fraction;
+			ArrayList<GraphEdge> reached = new ArrayList<GraphEdge>();
+			Node cut = (Node) seg.getStartNode();
+			double lon = cut.getLon();
+			double lat = cut.getLat();
+			for(GraphEdge e : seg.getEdgeList()) {
+				Node s = (Node) e.getStartNode();
+				Node n = (Node) e.getEndNode();
+				if(remaining >= e.getLength()) {
+					reached.add(e);
+					remaining -= e.getLength();
+					lon = n.getLon();
+					lat = n.getLat();
+				} else {
+					double t = e.getLength() > 0 ? remaining / e.getLength() : 0;
+					lon = s.getLon() + (n.getLon() - s.getLon()) * t;
+					lat = s.getLat() + (n.getLat() - s.getLat()) * t;
+					break;
+				}
+			}
+			edges = Collections.unmodifiableList(reached);
+			cutLon = lon;
+			cutLat = lat;
+		}
+
+		/**
+		 * Returns the segment that was cut.
+		 * @return The segment.
+		 */
+		public RoadSegment getSegment() {
+			return segment;
+		}
+
+		/**
+		 * Returns how much of the segment is reachable.
+		 * @return The reachable fraction, between 0 and 1.
+		 */
+		public double getFraction() {
+			return fraction;
+		}
+
+		/**
+		 * Returns the edges of the segment that are reachable all the way along.
+		 * @return An unmodifiable list of edges.
+		 */
+		public List<GraphEdge> getReachedEdges() {
+			return edges;
+		}
+
+		/**
+		 * Returns the longitude of the point where the budget runs out.
+		 * @return The longitude.
+		 */
+		public double getCutLon() {
+			return cutLon;
+		}
+
+		/**
+		 * Returns the latitude of the point where the budget runs out.
+		 * @return The latitude.
+		 */
+		public double getCutLat() {
+			return cutLat;
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadSegment;
+import routing.Isochrone.PartialSegment;
+
+/**
+ * Finds everything reachable from an origin within a cost budget, like "everywhere within
+ * ten minutes" with the fastest profile or "everywhere within five kilometers" with the shortest.
+ *
+ * It's Dijkstra's algorithm that stops as soon as the cheapest unsettled node is over budget.
+ * The search state lives in the calling thread's SearchWorkspace, so running one search
+ * after another, or many at once on different threads, doesn't allocate per node.
+ * @author david
+ *
+ */
+public class IsochroneSearch {
+
+	private final Map map;
+	private final EdgeWeights weights;
+
+	/**
+	 * Constructs a search over a map.
+	 * @param m The map.
+	 * @param w The weights the budget is measured in.
+	 */
+	public IsochroneSearch(Map m, EdgeWeights w) {
+		map = m;
+		weights = w;
+	}
+
+	/**
+	 * Finds everything reachable from an origin within a budget.
+	 * @param origin The node to start from.
+	 * @param budget The most it can cost to reach something, in the units of the weights.
+	 * @return The reachable area.
+	 */
+	public Isochrone search(GraphNode origin, double budget) {
+		return search(origin, budget, null);
+	}
+
+	/**
+	 * Finds everything reachable from an origin within a budget.
+	 * @param origin The node to start from.
+	 * @param budget The most it can cost to reach something, in the units of the weights.
+	 * @param req The request the search is running for, or null if it can't be cancelled.
+	 * @return The reachable area.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled during the search.
+	 */
+	public Isochrone search(GraphNode origin, double budget, RouteRequest req) {
+		SearchWorkspace ws = SearchWorkspace.forThread(map.getNodeSize());
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		ArrayList<PartialSegment> boundary = new ArrayList<PartialSegment>();
+		int oi = origin.getIndex();
+		ws.reach(oi, 0, null);
+		heap.insert(oi, 0);
+		if(!origin.getSegmentIt().hasNext()) {
+			// The origin is part way along a road, so it starts out on the pieces of that road.
+			ws.settle(oi);
+			heap.poll();
+			for(GraphSegment s : map.getSegmentsWith(origin)) {
+				relax(ws, 0, s.getPostSubsegment(origin), budget, boundary);
+			}
+		}
+		Node[] nodes = new Node[16];
+		double[] costs = new double[16];
+		int count = 0;
+		if(ws.isSettled(oi)) {
+			nodes[count] = (Node) origin;
+			count++;
+		}
+		while(!heap.isEmpty() && heap.peekKey() <= budget) {
+			if(req != null) { req.checkCancelled(); }
+			int u = heap.poll();
+			ws.settle(u);
+			double du = ws.getDist(u);
+			if(count == nodes.length) {
+				nodes = Arrays.copyOf(nodes, count * 2);
+				costs = Arrays.copyOf(costs, count * 2);
+			}
+			nodes[count] = map.getNode(u);
+			costs[count] = du;
+			count++;
+			Iterator<GraphSegment> segIt = map.getNode(u).getSegmentIt();
+			while(segIt.hasNext()) {
+				relax(ws, du, segIt.next(), budget, boundary);
+			}
+		}
+		return new Isochrone(origin, budget, Arrays.copyOf(nodes, count),
+				Arrays.copyOf(costs, count), boundary);
+	}
+
+	/**
+	 * Finds the reachable areas of many origins at once, spread over a number of threads.
+	 * @param origins The nodes to start from.
+	 * @param budget The most it can cost to reach something, in the units of the weights.
+	 * @param threads The number of threads to use.
+	 * @return The reachable areas, in the same order as the origins.
+	 * @throws InterruptedException If interrupted while waiting for the searches.
+	 * @throws ExecutionException If a search fails.
+	 */
+	public List<Isochrone> searchAll(List<? extends GraphNode> origins, double budget, int threads)
+			throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Isochrone>> futures = new ArrayList<Future<Isochrone>>();
+			for(GraphNode o : origins) {
+				futures.add(pool.submit(new Callable<Isochrone>() {
+					@Override
+					public Isochrone call() {
+						return search(o, budget);
+					}
+				}));
+			}
+			ArrayList<Isochrone> rtrn = new ArrayList<Isochrone>();
+			for(Future<Isochrone> f : futures) {
+				rtrn.add(f.get());
+			}
+			return rtrn;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Relaxes a segment, or cuts it if the budget runs out along it.
+	 */
+	private void relax(SearchWorkspace ws, double du, GraphSegment s, double budget, List<PartialSegment> boundary) {
+		int v = s.getEndNode().getIndex();
+		if(ws.isSettled(v)) {
+			return;
+		}
+		double w = weights.getWeight(s);
+		double dv = du + w;
+		if(dv <= budget) {
+			if(dv < ws.getDist(v)) {
+				ws.reach(v, dv, s);
+				ws.getHeap().insertOrDecrease(v, dv);
+			}
+		} else if(w > 0 && w < Double.POSITIVE_INFINITY) {
+			boundary.add(new PartialSegment((RoadSegment) s, (budget - du) / w));
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package routing;
+
+/**
+ * One instruction of a route: keep on a road for some distance. Consecutive segments on
+ * the same road make up one maneuver, the same way they make up one line of directions.
+ *
+ * Maneuvers are immutable.
+ * @author david
+ *
+ */
+public class Maneuver {
+
+	private final String name;
+	private final double length;
+	private final double time;
+	/** The index in the route's edges of the first edge of the maneuver. */
+	private final int first;
+	/** The index in the route's edges just past the last edge of the maneuver. */
+	private final int end;
+
+	/**
+	 * Constructs a maneuver.
+	 * @param name The name of the road, empty if it has none.
+	 * @param length The distance along the road in meters.
+	 * @param time The time it takes to drive in seconds.
+	 * @param first The index of the first edge of the maneuver in its route.
+	 * @param end The index just past the last edge of the maneuver in its route.
+	 */
+	public Maneuver(String name, double length, double time, int first, int end) {
+		this.name = name;
+		this.length = length;
+		this.time = time;
+		this.first = first;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the name of the road.
+	 * @return The name, empty if the road has none.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the distance along the road.
+	 * @return The length in meters.
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the time it takes to drive the maneuver at the roads' usual speeds.
+	 * @return The time in seconds.
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns where the maneuver starts in its route.
+	 * @return The index of its first edge.
+	 */
+	public int getFirstEdge() {
+		return first;
+	}
+
+	/**
+	 * Returns where the maneuver ends in its route.
+	 * @return The index just past its last edge.
+	 */
+	public int getEndEdge() {
+		return end;
+	}
+
+	/**
+	 * Returns the instruction for some distance of this maneuver, like what's left of it.
+	 * @param len The distance in meters.
+	 * @return The instruction, ending in a new line.
+	 */
+	public String getInstruction(double len) {
+		return instruction(name, len);
+	}
+
+	@Override
+	public String toString() {
+		return getInstruction(length);
+	}
+
+	/**
+	 * Returns the instruction to travel on a road for a distance.
+	 * If the road has no name it suggests you travel on a road with no name.
+	 * @param name The name of the road.
+	 * @param len The distance in meters.
+	 * @return The instruction, ending in a new line.
+	 */
+	static String instruction(String name, double len) {
+		String finalName = name.isEmpty() ? "A Road With No Name" : name;
+		String lenStr = String.format("%.2f", len/1000);
+		return "Travel on " + finalName + " for " + lenStr + "km.\n";
+	}
+
+}
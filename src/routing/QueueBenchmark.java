@@ -0,0 +1,221 @@
+package routing;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.OSMParser;
+
+/**
+ * Compares the priority queues available to the director on random point to point searches.
+ *
+ * The old approach is a PriorityQueue of nodes with a comparator that looks distances up in
+ * a HashMap, re-adding a node whenever its distance drops. The others are the indexed heaps
+ * keyed by node index, with true decrease-key. The radix heap runs on lengths rounded to
+ * millimeters, which is why its route lengths can be off from the others by a hair.
+ *
+ * Usage: java routing.QueueBenchmark map.osm [queries] [seed]
+ * @author david
+ *
+ */
+public class QueueBenchmark {
+
+	/** Number of queries run before timing, so the JIT has settled. */
+	private static final int WARMUP = 200;
+
+	private final Map map;
+	private final int n;
+	/** Operation counts for the run in progress: pushes, decrease-keys, polls, stale polls. */
+	private long pushes, decreases, polls, stale;
+
+	/**
+	 * Constructs a benchmark over a map.
+	 * @param m The map to search.
+	 */
+	public QueueBenchmark(Map m) {
+		map = m;
+		n = m.getNodeSize();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java routing.QueueBenchmark map.osm [queries] [seed]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		QueueBenchmark bench = new QueueBenchmark(m);
+		System.out.println("Nodes: " + m.getNodeSize() + ", queries: " + queries);
+		System.out.println(String.format("%-22s %10s %12s %12s %12s %12s %14s",
+				"queue", "ms", "pushes", "decreases", "polls", "stale polls", "total length"));
+		for(int q = 0; q < 4; q++) {
+			bench.run(q, WARMUP, seed + 1);
+			bench.pushes = bench.decreases = bench.polls = bench.stale = 0;
+			long start = System.nanoTime();
+			double total = bench.run(q, queries, seed);
+			double ms = (System.nanoTime() - start) / 1e6;
+			System.out.println(String.format("%-22s %10.1f %12d %12d %12d %12d %14.1f",
+					name(q), ms, bench.pushes, bench.decreases, bench.polls, bench.stale, total));
+		}
+	}
+
+	/**
+	 * Returns the display name of a queue.
+	 * @param q The queue number.
+	 * @return The name.
+	 */
+	private static String name(int q) {
+		switch(q) {
+		case 0: return "PriorityQueue (old)";
+		case 1: return "IndexedHeap d=2";
+		case 2: return "IndexedHeap d=4";
+		default: return "RadixHeap (mm)";
+		}
+	}
+
+	/**
+	 * Runs a number of random queries with one of the queues.
+	 * @param q The queue number.
+	 * @param queries The number of queries.
+	 * @param seed The seed for picking start and end nodes.
+	 * @return The total length of all the routes found.
+	 */
+	private double run(int q, int queries, long seed) {
+		Random rand = new Random(seed);
+		double total = 0;
+		for(int i = 0; i < queries; i++) {
+			int s = rand.nextInt(n);
+			int t = rand.nextInt(n);
+			double d;
+			switch(q) {
+			case 0: d = searchOld(s, t); break;
+			case 1: d = searchIndexed(s, t, 2); break;
+			case 2: d = searchIndexed(s, t, 4); break;
+			default: d = searchRadix(s, t); break;
+			}
+			if(d < Double.POSITIVE_INFINITY) {
+				total += d;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * The search the director used to do.
+	 */
+	private double searchOld(int s, int t) {
+		HashSet<GraphNode> visited = new HashSet<GraphNode>(8192);
+		HashMap<GraphNode, Double> distances = new HashMap<GraphNode, Double>(8192);
+		PriorityQueue<GraphNode> queue = new PriorityQueue<GraphNode>(new Comparator<GraphNode>() {
+			@Override
+			public int compare(GraphNode o1, GraphNode o2) {
+				return distances.get(o1).compareTo(distances.get(o2));
+			}
+		});
+		GraphNode target = map.getNode(t);
+		distances.put(map.getNode(s), 0.0);
+		queue.add(map.getNode(s));
+		pushes++;
+		while(!queue.isEmpty()) {
+			GraphNode u = queue.poll();
+			polls++;
+			if(visited.contains(u)) {
+				stale++;
+				continue;
+			}
+			if(u == target) {
+				return distances.get(u);
+			}
+			visited.add(u);
+			Iterator<GraphSegment> it = u.getSegmentIt();
+			while(it.hasNext()) {
+				GraphSegment seg = it.next();
+				GraphNode v = seg.getEndNode();
+				if(!visited.contains(v)) {
+					double nd = distances.get(u) + seg.getLength();
+					Double old = distances.get(v);
+					if(old == null || old > nd) {
+						distances.put(v, nd);
+						queue.add(v);
+						pushes++;
+					}
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Search with an indexed d-ary heap.
+	 */
+	private double searchIndexed(int s, int t, int arity) {
+		IndexedHeap heap = new IndexedHeap(n, arity);
+		boolean[] visited = new boolean[n];
+		heap.insert(s, 0.0);
+		while(!heap.isEmpty()) {
+			int u = heap.poll();
+			double du = heap.getKey(u);
+			if(u == t) {
+				count(heap.getInserts(), heap.getDecreases(), heap.getPolls());
+				return du;
+			}
+			visited[u] = true;
+			Iterator<GraphSegment> it = map.getNode(u).getSegmentIt();
+			while(it.hasNext()) {
+				GraphSegment seg = it.next();
+				int v = seg.getEndNode().getIndex();
+				if(!visited[v]) {
+					heap.insertOrDecrease(v, du + seg.getLength());
+				}
+			}
+		}
+		count(heap.getInserts(), heap.getDecreases(), heap.getPolls());
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Search with a radix heap on lengths in millimeters.
+	 */
+	private double searchRadix(int s, int t) {
+		RadixHeap heap = new RadixHeap(n);
+		boolean[] visited = new boolean[n];
+		heap.insert(s, 0);
+		while(!heap.isEmpty()) {
+			int u = heap.poll();
+			long du = heap.getKey(u);
+			if(u == t) {
+				count(heap.getInserts(), heap.getDecreases(), heap.getPolls());
+				return du / 1000.0;
+			}
+			visited[u] = true;
+			Iterator<GraphSegment> it = map.getNode(u).getSegmentIt();
+			while(it.hasNext()) {
+				GraphSegment seg = it.next();
+				int v = seg.getEndNode().getIndex();
+				if(!visited[v]) {
+					heap.insertOrDecrease(v, du + Math.round(seg.getLength() * 1000));
+				}
+			}
+		}
+		count(heap.getInserts(), heap.getDecreases(), heap.getPolls());
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Adds a heap's operation counts to the run in progress.
+	 */
+	private void count(long ins, long dec, long pol) {
+		pushes += ins;
+		decreases += dec;
+		polls += pol;
+	}
+
+}
@@ -0,0 +1,283 @@
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * A monotone radix heap of integer items with non-negative long keys, supporting decrease-key.
+ *
+ * This is the alternative to IndexedHeap for integer weights, for example lengths rounded
+ * to millimeters. It only works for searches like Dijkstra's where no key is ever smaller
+ * than the last key polled. Items live in buckets by the highest bit their key differs from
+ * the last polled key, so an item moves down at most 64 times over a whole search.
+ * @author david
+ *
+ */
+public class RadixHeap {
+
+	/** One bucket for keys equal to the last polled key, and one for each differing bit. */
+	private static final int BUCKETS = 65;
+	private static final int INITIAL_BUCKET_SIZE = 16;
+
+	/** The items in each bucket, in no particular order. */
+	private final int[][] buckets = new int[BUCKETS][];
+	private final int[] bucketSizes = new int[BUCKETS];
+	/** The bucket of each item, or -1 if it isn't in the heap. */
+	private final int[] bucketOf;
+	/** The position of each item in its bucket. */
+	private final int[] slotOf;
+	/** The key of each item. */
+	private final long[] keys;
+	/** The last key polled. No key in the heap can be smaller. */
+	private long last = 0;
+	private int size = 0;
+
+	private long inserts = 0;
+	private long decreases = 0;
+	private long polls = 0;
+	/** Number of times an item was moved down a bucket while redistributing. */
+	private long moves = 0;
+
+	/**
+	 * Constructs a radix heap for items from 0 up to capacity.
+	 * @param capacity The number of distinct items.
+	 */
+	public RadixHeap(int capacity) {
+		bucketOf = new int[capacity];
+		slotOf = new int[capacity];
+		keys = new long[capacity];
+		Arrays.fill(bucketOf, -1);
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new int[INITIAL_BUCKET_SIZE];
+		}
+	}
+
+	/**
+	 * Returns whether an item is currently in the heap.
+	 * @param item The item.
+	 * @return True if the item is in the heap, false otherwise.
+	 */
+	public boolean contains(int item) {
+		return bucketOf[item] >= 0;
+	}
+
+	/**
+	 * Returns the last key given to an item.
+	 * @param item The item.
+	 * @return The key of the item.
+	 */
+	public long getKey(int item) {
+		return keys[item];
+	}
+
+	/**
+	 * Inserts an item that isn't in the heap.
+	 * @precondition The item must not be in the heap and the key must be at least the last polled key.
+	 * @param item The item.
+	 * @param key The key of the item.
+	 */
+	public void insert(int item, long key) {
+		if(key < last) {
+			throw new IllegalArgumentException("Radix heap keys must not be below the last polled key.");
+		}
+		inserts++;
+		keys[item] = key;
+		add(item, bucketFor(key));
+		size++;
+	}
+
+	/**
+	 * Lowers the key of an item already in the heap.
+	 * @precondition The item must be in the heap and the new key must be between the
+	 * last polled key and its current key.
+	 * @param item The item.
+	 * @param key The new key of the item.
+	 */
+	public void decreaseKey(int item, long key) {
+		if(key < last) {
+			throw new IllegalArgumentException("Radix heap keys must not be below the last polled key.");
+		}
+		decreases++;
+		keys[item] = key;
+		int b = bucketFor(key);
+		if(b != bucketOf[item]) {
+			remove(item);
+			add(item, b);
+		}
+	}
+
+	/**
+	 * Inserts an item, or lowers its key if it's already in the heap with a larger key.
+	 * @param item The item.
+	 * @param key The key of the item.
+	 * @return True if the heap changed, false if the item already had a key at least as small.
+	 */
+	public boolean insertOrDecrease(int item, long key) {
+		if(bucketOf[item] < 0) {
+			insert(item, key);
+			return true;
+		}
+		if(key < keys[item]) {
+			decreaseKey(item, key);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes and returns an item with the smallest key.
+	 * @return An item with the smallest key, or -1 if the heap is empty.
+	 */
+	public int poll() {
+		if(size == 0) {
+			return -1;
+		}
+		if(bucketSizes[0] == 0) {
+			redistribute();
+		}
+		polls++;
+		int item = buckets[0][bucketSizes[0] - 1];
+		remove(item);
+		size--;
+		return item;
+	}
+
+	/**
+	 * Returns whether the heap is empty.
+	 * @return True if empty, false otherwise.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of items in the heap.
+	 * @return The size of the heap.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the heap and resets the last polled key to 0.
+	 */
+	public void clear() {
+		for(int b = 0; b < BUCKETS; b++) {
+			for(int i = 0; i < bucketSizes[b]; i++) {
+				bucketOf[buckets[b][i]] = -1;
+			}
+			bucketSizes[b] = 0;
+		}
+		size = 0;
+		last = 0;
+	}
+
+	/**
+	 * Returns the number of inserts since the counters were last reset.
+	 * @return The insert count.
+	 */
+	public long getInserts() {
+		return inserts;
+	}
+
+	/**
+	 * Returns the number of decrease-keys since the counters were last reset.
+	 * @return The decrease-key count.
+	 */
+	public long getDecreases() {
+		return decreases;
+	}
+
+	/**
+	 * Returns the number of polls since the counters were last reset.
+	 * @return The poll count.
+	 */
+	public long getPolls() {
+		return polls;
+	}
+
+	/**
+	 * Returns the number of bucket moves made while redistributing.
+	 * @return The move count.
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Resets the operation counters.
+	 */
+	public void resetCounters() {
+		inserts = 0;
+		decreases = 0;
+		polls = 0;
+		moves = 0;
+	}
+
+	/**
+	 * Returns the bucket a key belongs in, relative to the last polled key.
+	 * @param key The key.
+	 * @return The bucket index.
+	 */
+	private int bucketFor(long key) {
+		return key == last ? 0 : 64 - Long.numberOfLeadingZeros(key ^ last);
+	}
+
+	/**
+	 * Finds the smallest key in the first non-empty bucket, makes it the last polled key,
+	 * and spreads that bucket over the lower buckets.
+	 * @precondition The heap is not empty and bucket 0 is empty.
+	 */
+	private void redistribute() {
+		int b = 1;
+		while(bucketSizes[b] == 0) {
+			b++;
+		}
+		int[] bucket = buckets[b];
+		int n = bucketSizes[b];
+		long min = Long.MAX_VALUE;
+		for(int i = 0; i < n; i++) {
+			min = Math.min(min, keys[bucket[i]]);
+		}
+		last = min;
+		// Take the bucket out before refilling, since every item goes to a lower bucket.
+		buckets[b] = new int[bucket.length];
+		bucketSizes[b] = 0;
+		for(int i = 0; i < n; i++) {
+			int item = bucket[i];
+			add(item, bucketFor(keys[item]));
+			moves++;
+		}
+	}
+
+	/**
+	 * Adds an item to the end of a bucket.
+	 * @param item The item.
+	 * @param b The bucket.
+	 */
+	private void add(int item, int b) {
+		int n = bucketSizes[b];
+		if(n == buckets[b].length) {
+			buckets[b] = Arrays.copyOf(buckets[b], n * 2);
+		}
+		buckets[b][n] = item;
+		bucketSizes[b] = n + 1;
+		bucketOf[item] = b;
+		slotOf[item] = n;
+	}
+
+	/**
+	 * Removes an item from its bucket by swapping the bucket's last item into its slot.
+	 * @param item The item.
+	 */
+	private void remove(int item) {
+		int b = bucketOf[item];
+		int slot = slotOf[item];
+		int lastSlot = bucketSizes[b] - 1;
+		int moved = buckets[b][lastSlot];
+		buckets[b][slot] = moved;
+		slotOf[moved] = slot;
+		bucketSizes[b] = lastSlot;
+		bucketOf[item] = -1;
+	}
+
+}
@@ -0,0 +1,172 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * A shortest path tree rooted at a destination, built by searching backwards over incoming segments.
+ *
+ * Every node that can reach the destination knows the segment to take next and how far it
+ * still has to go. Once the tree is built, the route from any node is found by following those
+ * segments, with no search at all. That makes it a good fit for rerouting a driver who keeps
+ * going off course on the way to the same destination.
+ * @author david
+ *
+ */
+public class ReverseTree {
+
+	private final Map map;
+	private final GraphNode target;
+	/** The weights the tree minimizes. */
+	private final EdgeWeights weights;
+	/** Cost from each node to the target. */
+	private final double[] dist;
+	/** The segment each node takes towards the target. */
+	private final GraphSegment[] next;
+
+	/**
+	 * Builds the tree for a destination.
+	 * @param m The map to search.
+	 * @param target The destination the tree is rooted at.
+	 * @param w The weights to minimize.
+	 * @param req The request the tree is built for, or null if it can't be cancelled.
+	 * @throws java.util.concurrent.CancellationException If the request is cancelled while building.
+	 */
+	public ReverseTree(Map m, GraphNode target, EdgeWeights w, RouteRequest req) {
+		map = m;
+		this.target = target;
+		weights = w;
+		int n = m.getNodeSize();
+		dist = new double[n];
+		next = new GraphSegment[n];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		build(req);
+	}
+
+	/**
+	 * Returns the destination this tree is rooted at.
+	 * @return The target node.
+	 */
+	public GraphNode getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the weights this tree was built with.
+	 * @return The weights.
+	 */
+	public EdgeWeights getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Returns the cost from a node to the target.
+	 * @param n The node.
+	 * @return The cost, or infinity if the target can't be reached from the node.
+	 */
+	public double getDist(GraphNode n) {
+		return dist[n.getIndex()];
+	}
+
+	/**
+	 * Returns the segment a node takes towards the target.
+	 * @param n The node.
+	 * @return The next segment, or null for the target or a node that can't reach it.
+	 */
+	public GraphSegment getNext(GraphNode n) {
+		return next[n.getIndex()];
+	}
+
+	/**
+	 * Returns the route from a node to the target by following the tree.
+	 * Nodes that aren't on an intersection are split onto the segments they're on first.
+	 * @param sn The start node.
+	 * @return The route, or null if the target can't be reached.
+	 */
+	public Route routeFrom(GraphNode sn) {
+		ArrayList<RoadSegment> segs = new ArrayList<RoadSegment>();
+		if(sn.equals(target)) {
+			return new Route(sn, target, segs);
+		}
+		GraphNode curr = sn;
+		if(!sn.getSegmentIt().hasNext()) {
+			// Pick the way off the start's road that ends up closest to the target.
+			GraphSegment best = null;
+			double bestDist = Double.POSITIVE_INFINITY;
+			for(GraphSegment s : map.getSegmentsWith(sn)) {
+				GraphSegment post = s.getPostSubsegment(sn);
+				if(post.hasNode(target)) {
+					GraphSegment direct = post.getPreSubsegment(target);
+					if(weights.getWeight(direct) < bestDist) {
+						best = direct;
+						bestDist = weights.getWeight(direct);
+					}
+				} else if(weights.getWeight(post) + dist[post.getEndNode().getIndex()] < bestDist) {
+					best = post;
+					bestDist = weights.getWeight(post) + dist[post.getEndNode().getIndex()];
+				}
+			}
+			if(best == null) {
+				return null;
+			}
+			segs.add((RoadSegment) best);
+			curr = best.getEndNode();
+		} else if(dist[sn.getIndex()] == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+		while(!curr.equals(target)) {
+			GraphSegment s = next[curr.getIndex()];
+			segs.add((RoadSegment) s);
+			curr = s.getEndNode();
+		}
+		return new Route(sn, target, segs);
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm backwards from the target.
+	 * If the target isn't on an intersection, the nodes on its road that lead to it become the roots.
+	 * @param req The request the tree is built for, or null if it can't be cancelled.
+	 */
+	private void build(RouteRequest req) {
+		IndexedHeap heap = new IndexedHeap(dist.length);
+		boolean[] settled = new boolean[dist.length];
+		if(target.getIncomingSegmentIt().hasNext() || target.getSegmentIt().hasNext()) {
+			dist[target.getIndex()] = 0;
+			heap.insert(target.getIndex(), 0);
+		} else {
+			for(GraphSegment s : map.getSegmentsWith(target)) {
+				GraphSegment pre = s.getPreSubsegment(target);
+				int i = pre.getStartNode().getIndex();
+				double w = weights.getWeight(pre);
+				if(w < dist[i]) {
+					dist[i] = w;
+					next[i] = pre;
+					heap.insertOrDecrease(i, w);
+				}
+			}
+		}
+		while(!heap.isEmpty()) {
+			if(req != null) { req.checkCancelled(); }
+			int u = heap.poll();
+			settled[u] = true;
+			Iterator<GraphSegment> segIt = map.getNode(u).getIncomingSegmentIt();
+			while(segIt.hasNext()) {
+				GraphSegment s = segIt.next();
+				int v = s.getStartNode().getIndex();
+				double newDist = dist[u] + weights.getWeight(s);
+				if(!settled[v] && newDist < dist[v]) {
+					dist[v] = newDist;
+					next[v] = s;
+					heap.insertOrDecrease(v, newDist);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.RoadSegment;
+
+/**
+ * An immutable result of a route search from one node to another.
+ * Holds the edges to follow, the segments they came from and the human readable directions.
+ * It also keeps running totals of distance and time over the edges and the maneuvers that
+ * make up the directions, so how much of the route is left after any edge can be looked up
+ * without walking the rest of it.
+ *
+ * Routes are shared between the director and the route cache, so nothing in here
+ * should ever be handed out in a form that can be modified.
+ * @author david
+ *
+ */
+public class Route {
+	/** Rough size of a reference in bytes, used for estimating the weight of a route. */
+	private static final int REF_BYTES = 8;
+	/** Rough fixed overhead of a route and its lists in bytes. */
+	private static final int BASE_BYTES = 128;
+
+	private final GraphNode startNode;
+	private final GraphNode endNode;
+	private final List<GraphEdge> edges;
+	private final List<RoadSegment> segments;
+	private final String dirString;
+	private final double length;
+	/** The distance in meters from the start to the start of each edge, and to the end last. */
+	private final double[] distance;
+	/** The same as distance, but the time in seconds at the roads' usual speeds. */
+	private final double[] time;
+	private final Maneuver[] maneuvers;
+	/** The index of the maneuver each edge belongs to. */
+	private final int[] maneuverOf;
+
+	/**
+	 * Constructs a route from the segments that make it up.
+	 * @param sn The start node of the route.
+	 * @param en The end node of the route.
+	 * @param segs The ordered segments from start to end.
+	 */
+	public Route(GraphNode sn, GraphNode en, List<RoadSegment> segs) {
+		startNode = sn;
+		endNode = en;
+		ArrayList<GraphEdge> edgeList = new ArrayList<GraphEdge>();
+		double len = 0;
+		for(RoadSegment s : segs) {
+			edgeList.addAll(s.getEdgeList());
+			len += s.getLength();
+		}
+		edges = Collections.unmodifiableList(edgeList);
+		segments = Collections.unmodifiableList(new ArrayList<RoadSegment>(segs));
+		length = len;
+		dirString = buildDirString(segments);
+		distance = new double[edgeList.size() + 1];
+		time = new double[edgeList.size() + 1];
+		maneuverOf = new int[edgeList.size()];
+		ArrayList<Maneuver> mans = new ArrayList<Maneuver>();
+		int i = 0;
+		int first = 0;
+		String currName = segments.isEmpty() ? null : segments.get(0).getName();
+		for(RoadSegment s : segments) {
+			if(!s.getName().equals(currName)) {
+				mans.add(new Maneuver(currName, distance[i] - distance[first], time[i] - time[first], first, i));
+				currName = s.getName();
+				first = i;
+			}
+			double speed = TravelTimeProfile.getSpeed(s.getWay()) / 3.6;
+			for(GraphEdge e : s.getEdgeList()) {
+				distance[i + 1] = distance[i] + e.getLength();
+				time[i + 1] = time[i] + e.getLength() / speed;
+				maneuverOf[i] = mans.size();
+				i++;
+			}
+		}
+		if(currName != null) {
+			mans.add(new Maneuver(currName, distance[i] - distance[first], time[i] - time[first], first, i));
+		}
+		maneuvers = mans.toArray(new Maneuver[mans.size()]);
+	}
+
+	/**
+	 * Returns the start node of the route.
+	 * @return The start node.
+	 */
+	public GraphNode getStartNode() {
+		return startNode;
+	}
+
+	/**
+	 * Returns the end node of the route.
+	 * @return The end node.
+	 */
+	public GraphNode getEndNode() {
+		return endNode;
+	}
+
+	/**
+	 * Returns the ordered, unmodifiable list of edges from start to end.
+	 * @return The edges of the route.
+	 */
+	public List<GraphEdge> getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Returns the ordered, unmodifiable list of segments from start to end.
+	 * @return The segments of the route.
+	 */
+	public List<RoadSegment> getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Returns the human-readable, line separated, direction string.
+	 * @return The string containing the directions.
+	 */
+	public String getDirString() {
+		return dirString;
+	}
+
+	/**
+	 * Returns the directions from the start of an edge to the end of the route.
+	 * The first line only counts what's left of its road.
+	 * @param edge The index of the edge.
+	 * @return The string containing the directions, empty past the end.
+	 */
+	public String getDirString(int edge) {
+		if(edge <= 0) {
+			return dirString;
+		}
+		if(edge >= maneuverOf.length) {
+			return "";
+		}
+		int m = maneuverOf[edge];
+		StringBuilder sb = new StringBuilder();
+		sb.append(maneuvers[m].getInstruction(distance[maneuvers[m].getEndEdge()] - distance[edge]));
+		for(m++; m < maneuvers.length; m++) {
+			sb.append(maneuvers[m].toString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the maneuvers that make up the route, in order.
+	 * @return The unmodifiable list of maneuvers.
+	 */
+	public List<Maneuver> getManeuvers() {
+		return Collections.unmodifiableList(Arrays.asList(maneuvers));
+	}
+
+	/**
+	 * Returns which maneuver an edge is part of.
+	 * @param edge The index of the edge.
+	 * @return The index of its maneuver.
+	 */
+	public int getManeuverIndex(int edge) {
+		return maneuverOf[edge];
+	}
+
+	/**
+	 * Returns the distance from the start of an edge to the end of the route.
+	 * @param edge The index of the edge, or the number of edges for the end.
+	 * @return The distance in meters.
+	 */
+	public double getDistanceFrom(int edge) {
+		return distance[distance.length - 1] - distance[edge];
+	}
+
+	/**
+	 * Returns the time it takes to drive from the start of an edge to the end of the route
+	 * at the roads' usual speeds.
+	 * @param edge The index of the edge, or the number of edges for the end.
+	 * @return The time in seconds.
+	 */
+	public double getTimeFrom(int edge) {
+		return time[time.length - 1] - time[edge];
+	}
+
+	/**
+	 * Returns the total length of the route in meters.
+	 * @return The length of the route.
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns an estimate of the memory held by this route in bytes.
+	 * The edges and segments themselves belong to the map, so only the references
+	 * to them, the running totals, the maneuvers and the direction text are counted.
+	 * @return The approximate weight of the route.
+	 */
+	public long getWeight() {
+		long refs = edges.size() + segments.size() + maneuvers.length;
+		long totals = 16L * distance.length + 4L * maneuverOf.length + 40L * maneuvers.length;
+		return BASE_BYTES + refs * REF_BYTES + totals + 2L * dirString.length();
+	}
+
+	/**
+	 * Builds the human-readable direction string for a list of segments.
+	 *
+	 * If the road has no name it suggests you travel on a road with no name.
+	 * Consecutive segments on the same road are merged into a single line.
+	 * @param segs The segments to describe.
+	 * @return The string containing the directions.
+	 */
+	public static String buildDirString(List<RoadSegment> segs) {
+		StringBuilder rtrnString = new StringBuilder();
+		if(segs.isEmpty()) {
+			return "";
+		}
+		String currName = segs.get(0).getName();
+		double currLen = 0;
+		for(RoadSegment seg : segs) {
+			if(seg.getName().equals(currName)) {
+				currLen += seg.getLength();
+			} else {
+				appendLine(rtrnString, currName, currLen);
+				currName = seg.getName();
+				currLen = seg.getLength();
+			}
+		}
+		appendLine(rtrnString, currName, currLen);
+		return rtrnString.toString();
+	}
+
+	/**
+	 * Appends a single "Travel on" line to a direction string.
+	 * @param sb The builder to append to.
+	 * @param name The name of the road.
+	 * @param len The distance to travel on the road in meters.
+	 */
+	private static void appendLine(StringBuilder sb, String name, double len) {
+		sb.append(Maneuver.instruction(name, len));
+	}
+
+}
@@ -0,0 +1,221 @@
+package routing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import graph_interfaces.GraphNode;
+import map_data.RoadSegment;
+
+/**
+ * A bounded cache of routes keyed by start node, end node and cost profile.
+ *
+ * Entries are evicted least recently used first, whenever the cache holds more than
+ * its maximum number of routes or its estimated memory weight goes over the limit.
+ * Everything is guarded by the cache's own lock, so it is safe to share between threads.
+ *
+ * The cache doesn't know when the graph changes. Whoever changes the graph is responsible
+ * for calling invalidate. Every invalidation starts a new generation, and routes found
+ * during an older generation are turned away, so a search that was running while costs
+ * changed can't put its outdated route back in.
+ * @author david
+ *
+ */
+public class RouteCache {
+
+	/** Default maximum number of routes to keep. */
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+	/** Default maximum estimated memory weight of all routes, in bytes. */
+	public static final long DEFAULT_MAX_WEIGHT = 8 * 1024 * 1024;
+
+	private final int maxEntries;
+	private final long maxWeight;
+	/** Access ordered map, so iteration starts at the least recently used route. */
+	private final LinkedHashMap<Key, Route> routes;
+	private long weight = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	/** Bumped by every invalidation. */
+	private long generation = 0;
+
+	/**
+	 * Constructs a route cache with the default bounds.
+	 */
+	public RouteCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * Constructs a route cache with the given bounds.
+	 * @param maxEntries The maximum number of routes to hold.
+	 * @param maxWeight The maximum estimated weight in bytes of all held routes.
+	 */
+	public RouteCache(int maxEntries, long maxWeight) {
+		if(maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("Route cache bounds must be positive.");
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		routes = new LinkedHashMap<Key, Route>(16, .75f, true);
+	}
+
+	/**
+	 * Returns the cached route between two nodes for a profile and counts a hit or a miss.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @param profile The name of the cost profile the route was found with.
+	 * @return The cached route, or null if there is none.
+	 */
+	public synchronized Route get(GraphNode sn, GraphNode en, String profile) {
+		Route r = routes.get(new Key(sn, en, profile));
+		if(r == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return r;
+	}
+
+	/**
+	 * Stores a route and evicts old routes until the cache is within its bounds again.
+	 * A route heavier than the whole cache is not stored.
+	 * @param profile The name of the cost profile the route was found with.
+	 * @param r The route to store.
+	 */
+	public synchronized void put(String profile, Route r) {
+		put(profile, r, generation);
+	}
+
+	/**
+	 * Stores a route found during a given generation, unless the cache has been invalidated since.
+	 * @param profile The name of the cost profile the route was found with.
+	 * @param r The route to store.
+	 * @param gen The generation from getGeneration when the search started.
+	 */
+	public synchronized void put(String profile, Route r, long gen) {
+		if(gen != generation || r.getWeight() > maxWeight) {
+			return;
+		}
+		Route old = routes.put(new Key(r.getStartNode(), r.getEndNode(), profile), r);
+		if(old != null) {
+			weight -= old.getWeight();
+		}
+		weight += r.getWeight();
+		Iterator<Entry<Key, Route>> it = routes.entrySet().iterator();
+		while((routes.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+			Route evicted = it.next().getValue();
+			it.remove();
+			weight -= evicted.getWeight();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops every cached route. Should be called whenever the graph or its costs change.
+	 */
+	public synchronized void invalidate() {
+		routes.clear();
+		weight = 0;
+		generation++;
+	}
+
+	/**
+	 * Drops the routes that use any of a set of ways. When ways only get more expensive this is
+	 * all that's needed, since a route that avoids them is still as good as it was.
+	 * @param wayIDs The ids of the ways.
+	 */
+	public synchronized void invalidateWays(Set<String> wayIDs) {
+		Iterator<Entry<Key, Route>> it = routes.entrySet().iterator();
+		while(it.hasNext()) {
+			Route r = it.next().getValue();
+			for(RoadSegment s : r.getSegments()) {
+				if(wayIDs.contains(s.getWay().getID())) {
+					it.remove();
+					weight -= r.getWeight();
+					break;
+				}
+			}
+		}
+		generation++;
+	}
+
+	/**
+	 * Returns the current generation. Searches should read it before they start.
+	 * @return The generation.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns the number of lookups that found a route.
+	 * @return The hit count.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find a route.
+	 * @return The miss count.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of routes evicted to stay within the bounds.
+	 * @return The eviction count.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of routes currently held.
+	 * @return The size of the cache.
+	 */
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Returns the estimated weight in bytes of all routes currently held.
+	 * @return The weight of the cache.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Key for a cached route. Nodes are compared the same way the rest of the graph compares them.
+	 */
+	private static class Key {
+		private final GraphNode start;
+		private final GraphNode end;
+		private final String profile;
+
+		Key(GraphNode sn, GraphNode en, String prof) {
+			start = sn;
+			end = en;
+			profile = prof;
+		}
+
+		@Override
+		public int hashCode() {
+			return (start.hashCode() * 31 + end.hashCode()) * 31 + profile.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(other == null) { return false; }
+			if(other == this) { return true; }
+			if(other.getClass() != this.getClass()) { return false; }
+			Key o = (Key) other;
+			return start.equals(o.start) && end.equals(o.end) && profile.equals(o.profile);
+		}
+	}
+
+}
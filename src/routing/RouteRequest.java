@@ -0,0 +1,72 @@
+package routing;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The state of a single routing request.
+ * Searches check their request as they go, so a request that has been superseded or shed
+ * stops doing work instead of running to completion.
+ * @author david
+ *
+ */
+public class RouteRequest {
+	/** Source of request ids, so requests can be told apart in order. */
+	private static final AtomicLong nextId = new AtomicLong();
+
+	private final long id;
+	/** The lane this request was submitted on. Newer requests on a lane supersede older ones. */
+	private final String lane;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructs a new request on a lane.
+	 * @param lane The lane the request belongs to.
+	 */
+	public RouteRequest(String lane) {
+		this.lane = lane;
+		id = nextId.incrementAndGet();
+	}
+
+	/**
+	 * Returns the id of this request. Later requests have larger ids.
+	 * @return The id of the request.
+	 */
+	public long getID() {
+		return id;
+	}
+
+	/**
+	 * Returns the lane this request was submitted on.
+	 * @return The lane of the request.
+	 */
+	public String getLane() {
+		return lane;
+	}
+
+	/**
+	 * Cancels the request. Any search running for it stops at its next check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether the request has been cancelled.
+	 * @return True if cancelled, false otherwise.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Throws if the request has been cancelled. Meant to be called from inside search loops.
+	 * @throws CancellationException If the request has been cancelled.
+	 */
+	public void checkCancelled() {
+		if(cancelled) {
+			throw new CancellationException("Route request " + id + " was cancelled.");
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package routing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs routing work on its own bounded pool of threads.
+ *
+ * Requests are submitted on a lane. A new request on a lane cancels whatever was submitted
+ * on that lane before it, since nobody wants the answer to an outdated question. When the
+ * queue is full the oldest waiting request is shed to make room for the new one.
+ * @author david
+ *
+ */
+public class RoutingService {
+
+	/** Default number of routing threads. */
+	public static final int DEFAULT_THREADS = 2;
+	/** Default number of requests that can wait for a thread. */
+	public static final int DEFAULT_QUEUE = 16;
+	/** How long idle routing threads stick around, in seconds. */
+	private static final long KEEP_ALIVE = 30;
+
+	private final ThreadPoolExecutor executor;
+	/** The most recent request on each lane. */
+	private final ConcurrentHashMap<String, RouteRequest> latest = new ConcurrentHashMap<String, RouteRequest>();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong shed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Constructs a routing service with the default number of threads and queue size.
+	 */
+	public RoutingService() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE, false);
+	}
+
+	/**
+	 * Constructs a routing service.
+	 * @param threads The number of threads that route at once.
+	 * @param queueSize The number of requests that can wait before the oldest gets shed.
+	 * @param virtualThreads True to run on virtual threads when the JVM has them.
+	 */
+	public RoutingService(int threads, int queueSize, boolean virtualThreads) {
+		executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), createThreadFactory(virtualThreads),
+				new ShedOldest());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Submits a routing task on a lane, cancelling the previous request on that lane.
+	 * @param lane The lane to submit on.
+	 * @param task The work to do.
+	 * @param listener Told about the outcome, on a routing thread, or on the thread submitting
+	 * if a request gets shed to make room in the queue.
+	 * @return The request, which can be used to cancel the task.
+	 */
+	public <T> RouteRequest submit(String lane, RoutingTask<T> task, RoutingListener<T> listener) {
+		RouteRequest req = new RouteRequest(lane);
+		RouteRequest prev = latest.put(lane, req);
+		if(prev != null) {
+			prev.cancel();
+		}
+		submitted.incrementAndGet();
+		executor.execute(new Job<T>(req, task, listener));
+		return req;
+	}
+
+	/**
+	 * Cancels whatever is running or waiting on a lane.
+	 * @param lane The lane to cancel.
+	 */
+	public void cancel(String lane) {
+		RouteRequest prev = latest.remove(lane);
+		if(prev != null) {
+			prev.cancel();
+		}
+	}
+
+	/**
+	 * Stops the routing threads. Waiting requests are dropped.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of requests submitted.
+	 * @return The submitted count.
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * Returns the number of requests that ran to completion.
+	 * @return The completed count.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the number of requests that were superseded or cancelled.
+	 * @return The cancelled count.
+	 */
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Returns the number of requests dropped because the queue was full.
+	 * @return The shed count.
+	 */
+	public long getShed() {
+		return shed.get();
+	}
+
+	/**
+	 * Returns the number of requests that threw an exception.
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of requests waiting for a thread.
+	 * @return The queue length.
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Creates the factory for routing threads.
+	 * Virtual threads are looked up reflectively so this still runs on JVMs without them,
+	 * in which case ordinary daemon threads are used.
+	 * @param virtual True to try for virtual threads.
+	 * @return The thread factory.
+	 */
+	private static ThreadFactory createThreadFactory(boolean virtual) {
+		if(virtual) {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "routing-", 0L);
+				return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			} catch (ReflectiveOperationException e) {
+				// No virtual threads on this JVM. Fall through to platform threads.
+			}
+		}
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "routing-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Work that can be done by the routing service.
+	 * @param <T> The type of result, usually directions.
+	 */
+	public interface RoutingTask<T> {
+		/**
+		 * Does the routing work. Long running work should check the request as it goes.
+		 * @param req The request the work is running for.
+		 * @return The result, such as the directions found, or null if there are none.
+		 * @throws Exception If anything goes wrong, including cancellation.
+		 */
+		public T run(RouteRequest req) throws Exception;
+	}
+
+	/**
+	 * Interface for objects that want to know how a routing request turned out.
+	 * Finished and failed are called on a routing thread. Cancelled usually is too, but when
+	 * the queue is full a waiting request is shed by whatever thread is submitting, and that
+	 * thread is told, so listeners shouldn't count on being on a routing thread.
+	 * @param <T> The type of result, usually directions.
+	 */
+	public interface RoutingListener<T> {
+		/**
+		 * Called when a request completes.
+		 * @param req The request.
+		 * @param result The result, such as the directions found, or null if there are none.
+		 */
+		public void routeFinished(RouteRequest req, T result);
+
+		/**
+		 * Called when a request is superseded, cancelled or shed. A shed request is told about
+		 * on the thread that submitted the request that pushed it out.
+		 * @param req The request.
+		 */
+		public void routeCancelled(RouteRequest req);
+
+		/**
+		 * Called when a request throws an exception.
+		 * @param req The request.
+		 * @param e The exception.
+		 */
+		public void routeFailed(RouteRequest req, Exception e);
+	}
+
+	/**
+	 * A submitted request waiting for, or running on, a routing thread.
+	 */
+	private class Job<T> implements Runnable {
+		private final RouteRequest req;
+		private final RoutingTask<T> task;
+		private final RoutingListener<T> listener;
+
+		Job(RouteRequest r, RoutingTask<T> t, RoutingListener<T> l) {
+			req = r;
+			task = t;
+			listener = l;
+		}
+
+		@Override
+		public void run() {
+			try {
+				req.checkCancelled();
+				T result = task.run(req);
+				req.checkCancelled();
+				completed.incrementAndGet();
+				listener.routeFinished(req, result);
+			} catch (CancellationException e) {
+				cancelled.incrementAndGet();
+				listener.routeCancelled(req);
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				listener.routeFailed(req, e);
+			} finally {
+				latest.remove(req.getLane(), req);
+			}
+		}
+
+		/**
+		 * Drops this job without running it. Runs on the thread that's submitting.
+		 */
+		void shed() {
+			req.cancel();
+			latest.remove(req.getLane(), req);
+			shed.incrementAndGet();
+			listener.routeCancelled(req);
+		}
+	}
+
+	/**
+	 * Makes room for a new job by shedding the oldest waiting one.
+	 */
+	private static class ShedOldest implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor ex) {
+			if(!ex.isShutdown()) {
+				Runnable oldest = ex.getQueue().poll();
+				if(oldest != null) {
+					((Job<?>) oldest).shed();
+				}
+				if(ex.getQueue().offer(r)) {
+					return;
+				}
+			}
+			((Job<?>) r).shed();
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+package routing;
+
+import java.util.Arrays;
+
+import graph_interfaces.GraphSegment;
+
+/**
+ * Reusable state for a shortest path search: distances, parent segments, settled flags and
+ * a heap, all in flat arrays indexed by node index.
+ *
+ * Instead of clearing the arrays between searches each entry is stamped with the generation
+ * it was written in, and starting a new search just bumps the generation. Anything stamped
+ * with an older generation reads as unreached, so a reset costs nothing no matter how much
+ * of the graph the last search explored.
+ *
+ * Workspaces aren't thread safe. Each thread gets its own through forThread.
+ * @author david
+ *
+ */
+public class SearchWorkspace {
+
+	/** The slot for edge based searches, which are sized by states instead of nodes. */
+	public static final int EDGE_SLOT = 2;
+	/**
+	 * The workspaces of each thread, a primary one, a secondary one for two-sided searches and
+	 * one for edge based searches so they don't keep replacing the node sized ones.
+	 */
+	private static final ThreadLocal<SearchWorkspace[]> workspaces = new ThreadLocal<SearchWorkspace[]>() {
+		@Override
+		protected SearchWorkspace[] initialValue() {
+			return new SearchWorkspace[3];
+		}
+	};
+
+	private final int size;
+	private final double[] dist;
+	private final GraphSegment[] parent;
+	/** The node or state each node was reached from, for searches where the segment doesn't say. */
+	private final int[] from;
+	/** The generation each node was last reached in. */
+	private final int[] reached;
+	/** The generation each node was last settled in. */
+	private final int[] settled;
+	private final IndexedHeap heap;
+	private int generation = 0;
+
+	/**
+	 * Constructs a workspace for a graph with a given number of nodes.
+	 * @param size The number of nodes.
+	 */
+	public SearchWorkspace(int size) {
+		this.size = size;
+		dist = new double[size];
+		parent = new GraphSegment[size];
+		from = new int[size];
+		reached = new int[size];
+		settled = new int[size];
+		heap = new IndexedHeap(size);
+	}
+
+	/**
+	 * Returns this thread's workspace for graphs with a given number of nodes.
+	 * The workspace is only replaced when the size changes, for example when a new map is loaded.
+	 * @param size The number of nodes.
+	 * @return The workspace.
+	 */
+	public static SearchWorkspace forThread(int size) {
+		return forThread(size, 0);
+	}
+
+	/**
+	 * Returns one of this thread's workspaces, for searches that need more than one at a time.
+	 * @param size The number of nodes.
+	 * @param slot Which workspace, 0, 1 or EDGE_SLOT.
+	 * @return The workspace.
+	 */
+	public static SearchWorkspace forThread(int size, int slot) {
+		SearchWorkspace[] local = workspaces.get();
+		SearchWorkspace ws = local[slot];
+		if(ws == null || ws.size != size) {
+			ws = new SearchWorkspace(size);
+			local[slot] = ws;
+		}
+		return ws;
+	}
+
+	/**
+	 * Starts a new search. Everything from the previous search reads as unreached.
+	 */
+	public void begin() {
+		generation++;
+		if(generation == Integer.MAX_VALUE) {
+			// Only happens after two billion searches, but stale stamps would look current.
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			Arrays.fill(parent, null);
+			generation = 1;
+		}
+		heap.clear();
+	}
+
+	/**
+	 * Returns the number of nodes this workspace is sized for.
+	 * @return The size.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether a node has been reached in this search.
+	 * @param i The node index.
+	 * @return True if the node has a distance, false otherwise.
+	 */
+	public boolean isReached(int i) {
+		return reached[i] == generation;
+	}
+
+	/**
+	 * Returns the distance to a node found so far in this search.
+	 * @param i The node index.
+	 * @return The distance, or infinity if the node hasn't been reached.
+	 */
+	public double getDist(int i) {
+		return reached[i] == generation ? dist[i] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the segment a node was reached through in this search.
+	 * @param i The node index.
+	 * @return The parent segment, or null if the node hasn't been reached or is the source.
+	 */
+	public GraphSegment getParent(int i) {
+		return reached[i] == generation ? parent[i] : null;
+	}
+
+	/**
+	 * Records a distance and parent segment for a node.
+	 * @param i The node index.
+	 * @param d The distance.
+	 * @param p The segment the node was reached through, or null for a source.
+	 */
+	public void reach(int i, double d, GraphSegment p) {
+		reach(i, d, p, -1);
+	}
+
+	/**
+	 * Records a distance, parent segment and the state it came from for a state.
+	 * @param i The state index.
+	 * @param d The distance.
+	 * @param p The segment the state was reached through.
+	 * @param f The state it was reached from, or -1 for a source.
+	 */
+	public void reach(int i, double d, GraphSegment p, int f) {
+		dist[i] = d;
+		parent[i] = p;
+		from[i] = f;
+		reached[i] = generation;
+	}
+
+	/**
+	 * Returns the state a state was reached from in this search.
+	 * @param i The state index.
+	 * @return The previous state, or -1 if it hasn't been reached or is a source.
+	 */
+	public int getFrom(int i) {
+		return reached[i] == generation ? from[i] : -1;
+	}
+
+	/**
+	 * Returns whether a node's distance is final in this search.
+	 * @param i The node index.
+	 * @return True if settled, false otherwise.
+	 */
+	public boolean isSettled(int i) {
+		return settled[i] == generation;
+	}
+
+	/**
+	 * Marks a node's distance as final.
+	 * @param i The node index.
+	 */
+	public void settle(int i) {
+		settled[i] = generation;
+	}
+
+	/**
+	 * Returns the heap that goes with this workspace. It's emptied by begin.
+	 * @return The heap.
+	 */
+	public IndexedHeap getHeap() {
+		return heap;
+	}
+
+}
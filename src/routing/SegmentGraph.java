@@ -0,0 +1,225 @@
+package routing;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * A compact copy of the segment graph of a map, for jobs that search the whole graph.
+ *
+ * The outgoing segments of every node are laid out one after another in flat arrays, with an
+ * offset array saying where each node's run starts. Walking them touches a few arrays instead
+ * of chasing iterators and segment objects around the heap, and nothing in here ever changes,
+ * so any number of threads can search it at once.
+ *
+ * It can also be built straight from arrays, which is how synthetic graphs for benchmarks are made.
+ * @author david
+ *
+ */
+public class SegmentGraph {
+
+	private final int nodes;
+	/** Where each node's edges start. The last entry is the number of edges. */
+	private final int[] offsets;
+	private final int[] targets;
+	private final double[] weights;
+	/** The map segment each edge came from, or -1 for synthetic graphs. */
+	private final int[] segments;
+
+	/**
+	 * Builds the compact graph of a map.
+	 * @param m The map.
+	 * @param w The weights of its segments.
+	 */
+	public SegmentGraph(Map m, EdgeWeights w) {
+		nodes = m.getNodeSize();
+		offsets = new int[nodes + 1];
+		for(int u = 0; u < nodes; u++) {
+			int degree = 0;
+			Iterator<GraphSegment> it = m.getNode(u).getSegmentIt();
+			while(it.hasNext()) {
+				it.next();
+				degree++;
+			}
+			offsets[u + 1] = offsets[u] + degree;
+		}
+		int edges = offsets[nodes];
+		targets = new int[edges];
+		weights = new double[edges];
+		segments = new int[edges];
+		int e = 0;
+		for(int u = 0; u < nodes; u++) {
+			Iterator<GraphSegment> it = m.getNode(u).getSegmentIt();
+			while(it.hasNext()) {
+				RoadSegment s = (RoadSegment) it.next();
+				targets[e] = s.getEndNode().getIndex();
+				weights[e] = w.getWeight(s.getIndex());
+				segments[e] = s.getIndex();
+				e++;
+			}
+		}
+	}
+
+	/**
+	 * Builds a graph from arrays.
+	 * @param offsets Where each node's edges start, with the number of edges as the last entry.
+	 * @param targets The node each edge leads to.
+	 * @param weights The weight of each edge.
+	 */
+	public SegmentGraph(int[] offsets, int[] targets, double[] weights) {
+		nodes = offsets.length - 1;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+		segments = new int[targets.length];
+		Arrays.fill(segments, -1);
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return The node count.
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the number of edges.
+	 * @return The edge count.
+	 */
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * Returns the first edge of a node.
+	 * @param u The node.
+	 * @return The index of its first edge.
+	 */
+	public int firstEdge(int u) {
+		return offsets[u];
+	}
+
+	/**
+	 * Returns the edge after the last edge of a node.
+	 * @param u The node.
+	 * @return One past the index of its last edge.
+	 */
+	public int endEdge(int u) {
+		return offsets[u + 1];
+	}
+
+	/**
+	 * Returns the node an edge leads to.
+	 * @param e The edge.
+	 * @return The target node.
+	 */
+	public int getTarget(int e) {
+		return targets[e];
+	}
+
+	/**
+	 * Returns the weight of an edge.
+	 * @param e The edge.
+	 * @return The weight.
+	 */
+	public double getWeight(int e) {
+		return weights[e];
+	}
+
+	/**
+	 * Returns the map segment an edge came from.
+	 * @param e The edge.
+	 * @return The segment index, or -1 for synthetic graphs.
+	 */
+	public int getSegment(int e) {
+		return segments[e];
+	}
+
+	/**
+	 * Returns the average weight of the edges that can be driven, a reasonable starting point
+	 * for the bucket width of delta stepping.
+	 * @return The average weight.
+	 */
+	public double getAverageWeight() {
+		double total = 0;
+		int count = 0;
+		for(double w : weights) {
+			if(w < Double.POSITIVE_INFINITY) {
+				total += w;
+				count++;
+			}
+		}
+		return count == 0 ? 1 : total / count;
+	}
+
+	/**
+	 * Returns the weight of the heaviest edge that can be driven.
+	 * @return The largest weight, or 0 if there are none.
+	 */
+	public double getMaxWeight() {
+		double rtrn = 0;
+		for(double w : weights) {
+			if(w < Double.POSITIVE_INFINITY) {
+				rtrn = Math.max(rtrn, w);
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Plain single threaded Dijkstra from a node to every other node, the same search the
+	 * director does but without stopping early.
+	 * @param source The node to start from.
+	 * @return The distance to every node, infinity for those that can't be reached.
+	 */
+	public double[] dijkstra(int source) {
+		double[] dist = new double[nodes];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		boolean[] settled = new boolean[nodes];
+		IndexedHeap heap = new IndexedHeap(nodes);
+		dist[source] = 0;
+		heap.insert(source, 0);
+		while(!heap.isEmpty()) {
+			int u = heap.poll();
+			settled[u] = true;
+			for(int e = offsets[u]; e < offsets[u + 1]; e++) {
+				int v = targets[e];
+				double nd = dist[u] + weights[e];
+				if(!settled[v] && nd < dist[v]) {
+					dist[v] = nd;
+					heap.insertOrDecrease(v, nd);
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Picks an edge into every reached node that's on a shortest path, given the distances.
+	 * Works for distances from any search, since it only checks which edges are tight.
+	 * @param source The node the search started from.
+	 * @param dist The distances from the search.
+	 * @return The edge into each node, or -1 for the source and nodes that weren't reached.
+	 */
+	public int[] parentEdges(int source, double[] dist) {
+		int[] parent = new int[nodes];
+		Arrays.fill(parent, -1);
+		for(int u = 0; u < nodes; u++) {
+			if(dist[u] == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			for(int e = offsets[u]; e < offsets[u + 1]; e++) {
+				int v = targets[e];
+				if(parent[v] < 0 && v != source && dist[u] + weights[e] == dist[v]) {
+					parent[v] = e;
+				}
+			}
+		}
+		return parent;
+	}
+
+}
@@ -0,0 +1,193 @@
+package routing;
+
+import java.io.File;
+import java.util.Random;
+
+import map_data.Map;
+import map_data.OSMParser;
+
+/**
+ * Compares delta stepping against Dijkstra for finding the distance from one node to every
+ * other, on a map and on a synthetic grid big enough for the threads to have something to do.
+ *
+ * The Dijkstra runs are the director's kind of search: once over the map's own node and segment
+ * objects, the way IsochroneSearch walks them, and once over the compact graph. Delta stepping
+ * runs over the compact graph with a few bucket widths, given as multiples of the average edge
+ * weight. Every delta stepping result is checked against Dijkstra.
+ *
+ * Usage: java routing.SsspBenchmark map.osm [grid side] [threads] [sources]
+ * @author david
+ *
+ */
+public class SsspBenchmark {
+
+	/** Bucket widths tried, as multiples of the average edge weight. */
+	private static final double[] DELTA_FACTORS = {0.25, 1, 4, 16};
+	/** Number of runs before timing, so the JIT has settled. */
+	private static final int WARMUP = 3;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java routing.SsspBenchmark map.osm [grid side] [threads] [sources]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int side = args.length > 1 ? Integer.parseInt(args[1]) : 700;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int sources = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		EdgeWeights w = new EdgeWeights(m, CostProfile.SHORTEST);
+
+		System.out.println("Threads: " + threads);
+		System.out.println(args[0] + ": " + m.getNodeSize() + " nodes");
+		SegmentGraph mapGraph = new SegmentGraph(m, w);
+		System.out.println(String.format("%-28s %10s %10s %12s %10s", "search", "ms/run", "rounds", "improvements", "max error"));
+		int[] mapSources = pickSources(mapGraph.getNodeCount(), sources);
+		runMapObjects(m, w, mapSources);
+		compare(mapGraph, mapSources, threads);
+
+		System.out.println();
+		SegmentGraph grid = grid(side, 42);
+		System.out.println("Grid " + side + "x" + side + ": " + grid.getNodeCount() + " nodes, "
+				+ grid.getEdgeCount() + " edges");
+		System.out.println(String.format("%-28s %10s %10s %12s %10s", "search", "ms/run", "rounds", "improvements", "max error"));
+		compare(grid, pickSources(grid.getNodeCount(), sources), threads);
+	}
+
+	/**
+	 * Times Dijkstra over the map's own objects, the same walk the other searches do.
+	 */
+	private static void runMapObjects(Map m, EdgeWeights w, int[] sources) {
+		IsochroneSearch search = new IsochroneSearch(m, w);
+		for(int i = 0; i < WARMUP; i++) {
+			search.search(m.getNode(sources[0]), Double.POSITIVE_INFINITY);
+		}
+		long start = System.nanoTime();
+		for(int s : sources) {
+			search.search(m.getNode(s), Double.POSITIVE_INFINITY);
+		}
+		double ms = (System.nanoTime() - start) / 1e6 / sources.length;
+		System.out.println(String.format("%-28s %10.2f %10s %12s %10s", "Dijkstra (map objects)", ms, "-", "-", "-"));
+	}
+
+	/**
+	 * Times Dijkstra and delta stepping with each bucket width over a compact graph.
+	 */
+	private static void compare(SegmentGraph g, int[] sources, int threads) throws Exception {
+		double[][] expected = new double[sources.length][];
+		for(int i = 0; i < WARMUP; i++) {
+			g.dijkstra(sources[0]);
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < sources.length; i++) {
+			expected[i] = g.dijkstra(sources[i]);
+		}
+		double ms = (System.nanoTime() - start) / 1e6 / sources.length;
+		System.out.println(String.format("%-28s %10.2f %10s %12d %10s", "Dijkstra (compact)", ms, "-",
+				reachable(expected), "-"));
+
+		double avg = g.getAverageWeight();
+		for(double f : DELTA_FACTORS) {
+			DeltaStepping ds = new DeltaStepping(g, avg * f, threads);
+			try {
+				for(int i = 0; i < WARMUP; i++) {
+					ds.distances(sources[0]);
+				}
+				long rounds = 0;
+				long improvements = 0;
+				double error = 0;
+				start = System.nanoTime();
+				for(int i = 0; i < sources.length; i++) {
+					double[] d = ds.distances(sources[i]);
+					rounds += ds.getRounds();
+					improvements += ds.getImprovements();
+					error = Math.max(error, maxError(expected[i], d));
+				}
+				ms = (System.nanoTime() - start) / 1e6 / sources.length;
+				System.out.println(String.format("%-28s %10.2f %10d %12d %10.2g",
+						"Delta stepping x" + f, ms, rounds / sources.length, improvements, error));
+			} finally {
+				ds.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Builds a square grid where every node leads to its four neighbors, with random weights
+	 * between 10 and 100 so it looks a bit like city blocks in meters.
+	 * @param side The number of nodes along each side.
+	 * @param seed The seed for the weights.
+	 * @return The grid.
+	 */
+	public static SegmentGraph grid(int side, long seed) {
+		Random rand = new Random(seed);
+		int n = side * side;
+		int[] offsets = new int[n + 1];
+		int[] targets = new int[n * 4];
+		double[] weights = new double[n * 4];
+		int e = 0;
+		int[][] steps = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+		for(int y = 0; y < side; y++) {
+			for(int x = 0; x < side; x++) {
+				int u = y * side + x;
+				offsets[u] = e;
+				for(int[] step : steps) {
+					int nx = x + step[0];
+					int ny = y + step[1];
+					if(nx >= 0 && ny >= 0 && nx < side && ny < side) {
+						targets[e] = ny * side + nx;
+						weights[e] = 10 + rand.nextDouble() * 90;
+						e++;
+					}
+				}
+			}
+		}
+		offsets[n] = e;
+		int[] t = new int[e];
+		double[] w = new double[e];
+		System.arraycopy(targets, 0, t, 0, e);
+		System.arraycopy(weights, 0, w, 0, e);
+		return new SegmentGraph(offsets, t, w);
+	}
+
+	/**
+	 * Picks evenly spread source nodes.
+	 */
+	private static int[] pickSources(int n, int count) {
+		Random rand = new Random(7);
+		int[] rtrn = new int[count];
+		for(int i = 0; i < count; i++) {
+			rtrn[i] = rand.nextInt(n);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the number of reachable nodes over all runs, which is how many improvements Dijkstra makes.
+	 */
+	private static long reachable(double[][] dists) {
+		long count = 0;
+		for(double[] d : dists) {
+			for(double x : d) {
+				if(x < Double.POSITIVE_INFINITY) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the largest difference between two distance arrays, or infinity if one reaches a node the other doesn't.
+	 */
+	private static double maxError(double[] a, double[] b) {
+		double err = 0;
+		for(int i = 0; i < a.length; i++) {
+			if(a[i] == b[i]) {
+				continue;
+			}
+			err = Math.max(err, Math.abs(a[i] - b[i]));
+		}
+		return err;
+	}
+
+}
@@ -0,0 +1,99 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+
+/**
+ * An immutable plan for visiting a list of stops: the order to visit them in and the route
+ * for each leg between them.
+ * @author david
+ *
+ */
+public class StopPlan {
+
+	private final List<GraphNode> stops;
+	private final int[] order;
+	private final List<Route> legs;
+	private final List<GraphEdge> edges;
+	private final double cost;
+	private final double length;
+
+	/**
+	 * Constructs a plan.
+	 * @param stops The stops in the order they were given.
+	 * @param order The indices of the stops in the order they're visited.
+	 * @param legs The route of each leg, in the order they're driven.
+	 * @param cost The total cost of the plan, in the units of the weights it was planned with.
+	 */
+	public StopPlan(List<GraphNode> stops, int[] order, List<Route> legs, double cost) {
+		this.stops = Collections.unmodifiableList(new ArrayList<GraphNode>(stops));
+		this.order = order.clone();
+		this.legs = Collections.unmodifiableList(new ArrayList<Route>(legs));
+		this.cost = cost;
+		ArrayList<GraphEdge> edgeList = new ArrayList<GraphEdge>();
+		double len = 0;
+		for(Route r : legs) {
+			edgeList.addAll(r.getEdges());
+			len += r.getLength();
+		}
+		edges = Collections.unmodifiableList(edgeList);
+		length = len;
+	}
+
+	/**
+	 * Returns the indices of the stops in the order they're visited.
+	 * @return A copy of the order.
+	 */
+	public int[] getOrder() {
+		return order.clone();
+	}
+
+	/**
+	 * Returns the stops in the order they're visited.
+	 * @return The ordered stops.
+	 */
+	public List<GraphNode> getOrderedStops() {
+		ArrayList<GraphNode> rtrn = new ArrayList<GraphNode>();
+		for(int i : order) {
+			rtrn.add(stops.get(i));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the route of each leg.
+	 * @return An unmodifiable list of the legs, in the order they're driven.
+	 */
+	public List<Route> getLegs() {
+		return legs;
+	}
+
+	/**
+	 * Returns every edge of every leg, joined into one path that can be drawn like directions.
+	 * @return An unmodifiable list of the edges.
+	 */
+	public List<GraphEdge> getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Returns the total cost of the plan.
+	 * @return The cost, in the units of the weights it was planned with.
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * Returns the total length of the plan.
+	 * @return The length in meters.
+	 */
+	public double getLength() {
+		return length;
+	}
+
+}
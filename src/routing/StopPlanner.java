@@ -0,0 +1,481 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.RoadSegment;
+
+/**
+ * Plans the order to visit a list of stops in, starting from the first one.
+ *
+ * First the cost between every pair of stops is found, with one search per stop that stops
+ * as soon as every other stop is settled, spread over a pool of threads. When the map has
+ * turn restrictions those searches are edge based, like the ones that route the legs. Then each thread
+ * improves its own ordering with 2-opt and Or-opt moves, kicking it with a random double
+ * bridge whenever it gets stuck, until the time budget runs out. The best ordering found by
+ * any thread wins, and its legs are routed for real.
+ *
+ * Costs between stops can differ by direction because of one way streets, so every move is
+ * scored by the full cost of the ordering rather than by the usual symmetric shortcut.
+ * @author david
+ *
+ */
+public class StopPlanner {
+
+	/** Default time to spend improving the order, in milliseconds. */
+	public static final long DEFAULT_BUDGET = 2000;
+	/** The longest run of stops Or-opt moves at once. */
+	private static final int OR_OPT_LENGTH = 3;
+
+	private final Map map;
+	private final EdgeWeights weights;
+	private final TurnRestrictions restrictions;
+	private final int threads;
+
+	/**
+	 * Constructs a planner that uses every core.
+	 * @param m The map.
+	 * @param w The weights to minimize.
+	 * @param r The turn restrictions the legs have to obey.
+	 */
+	public StopPlanner(Map m, EdgeWeights w, TurnRestrictions r) {
+		this(m, w, r, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a planner.
+	 * @param m The map.
+	 * @param w The weights to minimize.
+	 * @param r The turn restrictions the legs have to obey.
+	 * @param threads The number of threads to plan with.
+	 */
+	public StopPlanner(Map m, EdgeWeights w, TurnRestrictions r, int threads) {
+		map = m;
+		weights = w;
+		restrictions = r;
+		this.threads = threads;
+	}
+
+	/**
+	 * Plans a visit to every stop, starting at the first.
+	 * @param stops The stops. The first is where the plan starts.
+	 * @param roundTrip True if the plan has to come back to the first stop at the end.
+	 * @param budget How long to spend improving the order, in milliseconds.
+	 * @param req The request the plan is made for, or null if it can't be cancelled.
+	 * @return The plan, or null if some stop can't be reached.
+	 * @throws InterruptedException If interrupted while waiting for the other threads.
+	 * @throws ExecutionException If planning fails on one of the threads.
+	 */
+	public StopPlan plan(List<GraphNode> stops, boolean roundTrip, long budget, RouteRequest req)
+			throws InterruptedException, ExecutionException {
+		long deadline = System.currentTimeMillis() + budget;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			double[][] cost = costMatrix(stops, pool, req);
+			int[] order = bestOrder(cost, roundTrip, deadline, pool, req);
+			if(orderCost(cost, order, roundTrip) == Double.POSITIVE_INFINITY) {
+				return null;
+			}
+			EdgeBasedSearch search = new EdgeBasedSearch(map, weights, restrictions);
+			ArrayList<Route> legs = new ArrayList<Route>();
+			// The cost handed back is what the legs actually cost to drive.
+			double total = 0;
+			int legCount = roundTrip ? order.length : order.length - 1;
+			for(int i = 0; i < legCount; i++) {
+				Route leg = search.route(stops.get(order[i]), stops.get(order[(i + 1) % order.length]), req);
+				if(leg == null) {
+					return null;
+				}
+				legs.add(leg);
+				for(RoadSegment seg : leg.getSegments()) {
+					total += weights.getWeight(seg);
+				}
+			}
+			return new StopPlan(stops, order, legs, total);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds the cost from every stop to every other stop, one search per stop.
+	 * @param stops The stops.
+	 * @param req The request this is for, or null if it can't be cancelled.
+	 * @return The costs, where [i][j] is from stop i to stop j. Infinity if there's no route.
+	 * @throws InterruptedException If interrupted while waiting for the searches.
+	 * @throws ExecutionException If a search fails.
+	 */
+	public double[][] costMatrix(List<GraphNode> stops, RouteRequest req)
+			throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			return costMatrix(stops, pool, req);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds the cost matrix on a pool.
+	 */
+	private double[][] costMatrix(List<GraphNode> stops, ExecutorService pool, RouteRequest req)
+			throws InterruptedException, ExecutionException {
+		final Targets targets = new Targets(stops);
+		ArrayList<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		for(GraphNode s : stops) {
+			futures.add(pool.submit(new Callable<double[]>() {
+				@Override
+				public double[] call() {
+					return costsFrom(s, targets, req);
+				}
+			}));
+		}
+		double[][] rtrn = new double[stops.size()][];
+		for(int i = 0; i < rtrn.length; i++) {
+			rtrn[i] = futures.get(i).get();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Runs one search from a stop until every other stop is settled.
+	 * With turn restrictions the search has to be edge based, or the costs would be for
+	 * routes the legs aren't allowed to take.
+	 * @return The cost to each stop.
+	 */
+	private double[] costsFrom(GraphNode source, Targets targets, RouteRequest req) {
+		if(!restrictions.isEmpty()) {
+			return new EdgeBasedSearch(map, weights, restrictions).costsTo(source, targets.stops, req);
+		}
+		SearchWorkspace ws = SearchWorkspace.forThread(map.getNodeSize());
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		double[] rtrn = new double[targets.size()];
+		Arrays.fill(rtrn, Double.POSITIVE_INFINITY);
+		int si = source.getIndex();
+		ws.reach(si, 0, null);
+		if(source.getSegmentIt().hasNext()) {
+			heap.insert(si, 0);
+		} else {
+			ws.settle(si);
+			for(GraphSegment s : map.getSegmentsWith(source)) {
+				GraphSegment post = s.getPostSubsegment(source);
+				// Stops between the source and the next intersection are reached directly.
+				for(int j = 0; j < targets.size(); j++) {
+					GraphNode t = targets.stops.get(j);
+					if(!t.equals(source) && !t.equals(post.getEndNode()) && post.hasNode(t)) {
+						rtrn[j] = Math.min(rtrn[j], weights.getWeight(post.getPreSubsegment(t)));
+					}
+				}
+				relax(ws, 0, post);
+			}
+		}
+		HashSet<Integer> pending = new HashSet<Integer>(targets.needed);
+		pending.remove(si);
+		while(!pending.isEmpty()) {
+			if(req != null) { req.checkCancelled(); }
+			int u = heap.poll();
+			if(u < 0) {
+				break;
+			}
+			ws.settle(u);
+			pending.remove(u);
+			double du = ws.getDist(u);
+			Iterator<GraphSegment> segIt = map.getNode(u).getSegmentIt();
+			while(segIt.hasNext()) {
+				relax(ws, du, segIt.next());
+			}
+		}
+		for(int j = 0; j < targets.size(); j++) {
+			if(targets.stops.get(j).equals(source)) {
+				rtrn[j] = 0;
+				continue;
+			}
+			for(int k = 0; k < targets.nodes[j].length; k++) {
+				int n = targets.nodes[j][k];
+				if(ws.isSettled(n)) {
+					rtrn[j] = Math.min(rtrn[j], ws.getDist(n) + targets.extra[j][k]);
+				}
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Lowers a node's distance through a segment if that's shorter.
+	 */
+	private void relax(SearchWorkspace ws, double du, GraphSegment s) {
+		int v = s.getEndNode().getIndex();
+		if(ws.isSettled(v)) {
+			return;
+		}
+		double dv = du + weights.getWeight(s);
+		if(dv < ws.getDist(v)) {
+			ws.reach(v, dv, s);
+			ws.getHeap().insertOrDecrease(v, dv);
+		}
+	}
+
+	/**
+	 * Improves the order on every thread until the deadline and returns the best.
+	 */
+	private int[] bestOrder(double[][] cost, boolean roundTrip, long deadline, ExecutorService pool, RouteRequest req)
+			throws InterruptedException, ExecutionException {
+		int n = cost.length;
+		ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		for(int t = 0; t < threads; t++) {
+			final long seed = t;
+			futures.add(pool.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					Random rand = new Random(seed);
+					int[] start = seed == 0 ? nearestNeighbor(cost) : shuffled(n, rand);
+					return improve(cost, start, roundTrip, deadline, rand, req);
+				}
+			}));
+		}
+		int[] best = null;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for(Future<int[]> f : futures) {
+			int[] order = f.get();
+			double c = orderCost(cost, order, roundTrip);
+			if(best == null || c < bestCost) {
+				best = order;
+				bestCost = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Local search from a starting order: 2-opt and Or-opt until neither helps, then a random
+	 * double bridge kick and again, keeping the best order seen, until the deadline.
+	 * The first stop never moves.
+	 */
+	private static int[] improve(double[][] cost, int[] start, boolean roundTrip, long deadline,
+			Random rand, RouteRequest req) {
+		int[] best = start.clone();
+		localSearch(cost, best, roundTrip, deadline, req);
+		double bestCost = orderCost(cost, best, roundTrip);
+		// A double bridge needs four stops to cut between, besides the first.
+		while(best.length > 4 && System.currentTimeMillis() < deadline) {
+			int[] order = doubleBridge(best, rand);
+			localSearch(cost, order, roundTrip, deadline, req);
+			double c = orderCost(cost, order, roundTrip);
+			if(c < bestCost) {
+				best = order;
+				bestCost = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Applies improving 2-opt and Or-opt moves to an order in place until there are none left.
+	 */
+	private static void localSearch(double[][] cost, int[] order, boolean roundTrip, long deadline, RouteRequest req) {
+		int n = order.length;
+		double curr = orderCost(cost, order, roundTrip);
+		boolean improved = true;
+		while(improved && System.currentTimeMillis() < deadline) {
+			if(req != null) { req.checkCancelled(); }
+			improved = false;
+			// 2-opt: reverse a run of stops.
+			for(int i = 1; i < n - 1; i++) {
+				for(int j = i + 1; j < n; j++) {
+					reverse(order, i, j);
+					double c = orderCost(cost, order, roundTrip);
+					if(c < curr - 1e-9) {
+						curr = c;
+						improved = true;
+					} else {
+						reverse(order, i, j);
+					}
+				}
+			}
+			// Or-opt: move a short run of stops somewhere else, keeping its direction.
+			for(int len = 1; len <= OR_OPT_LENGTH; len++) {
+				for(int i = 1; i + len <= n; i++) {
+					for(int p = 1; p <= n - len; p++) {
+						if(p == i) {
+							continue;
+						}
+						int[] moved = moveRun(order, i, len, p);
+						double c = orderCost(cost, moved, roundTrip);
+						if(c < curr - 1e-9) {
+							System.arraycopy(moved, 0, order, 0, n);
+							curr = c;
+							improved = true;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the total cost of visiting the stops in an order.
+	 */
+	private static double orderCost(double[][] cost, int[] order, boolean roundTrip) {
+		double c = 0;
+		for(int i = 0; i + 1 < order.length; i++) {
+			c += cost[order[i]][order[i + 1]];
+		}
+		if(roundTrip && order.length > 1) {
+			c += cost[order[order.length - 1]][order[0]];
+		}
+		return c;
+	}
+
+	/**
+	 * Reverses the stops from i to j, inclusive.
+	 */
+	private static void reverse(int[] order, int i, int j) {
+		while(i < j) {
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+			i++;
+			j--;
+		}
+	}
+
+	/**
+	 * Returns a copy of an order with the run of len stops at i moved so it starts at p.
+	 */
+	private static int[] moveRun(int[] order, int i, int len, int p) {
+		int n = order.length;
+		int[] rest = new int[n - len];
+		int k = 0;
+		for(int x = 0; x < n; x++) {
+			if(x < i || x >= i + len) {
+				rest[k++] = order[x];
+			}
+		}
+		int[] rtrn = new int[n];
+		System.arraycopy(rest, 0, rtrn, 0, p);
+		System.arraycopy(order, i, rtrn, p, len);
+		System.arraycopy(rest, p, rtrn, p + len, n - len - p);
+		return rtrn;
+	}
+
+	/**
+	 * Cuts an order into four pieces after the first stop and puts them back together as A C B D.
+	 */
+	private static int[] doubleBridge(int[] order, Random rand) {
+		int n = order.length;
+		int[] cuts = new int[3];
+		for(int i = 0; i < 3; i++) {
+			cuts[i] = 2 + rand.nextInt(n - 2);
+		}
+		Arrays.sort(cuts);
+		int a = cuts[0];
+		int b = Math.max(cuts[1], a + 1);
+		int c = Math.max(cuts[2], b + 1);
+		if(c >= n) {
+			return order.clone();
+		}
+		int[] rtrn = new int[n];
+		int k = 0;
+		for(int x = 0; x < a; x++) { rtrn[k++] = order[x]; }
+		for(int x = b; x < c; x++) { rtrn[k++] = order[x]; }
+		for(int x = a; x < b; x++) { rtrn[k++] = order[x]; }
+		for(int x = c; x < n; x++) { rtrn[k++] = order[x]; }
+		return rtrn;
+	}
+
+	/**
+	 * Returns the order made by always going to the cheapest stop not yet visited.
+	 */
+	private static int[] nearestNeighbor(double[][] cost) {
+		int n = cost.length;
+		int[] order = new int[n];
+		boolean[] used = new boolean[n];
+		used[0] = true;
+		for(int i = 1; i < n; i++) {
+			int prev = order[i - 1];
+			int next = -1;
+			for(int j = 0; j < n; j++) {
+				if(!used[j] && (next < 0 || cost[prev][j] < cost[prev][next])) {
+					next = j;
+				}
+			}
+			order[i] = next;
+			used[next] = true;
+		}
+		return order;
+	}
+
+	/**
+	 * Returns a random order that starts with the first stop.
+	 */
+	private static int[] shuffled(int n, Random rand) {
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		for(int i = n - 1; i > 1; i--) {
+			int j = 1 + rand.nextInt(i);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		return order;
+	}
+
+	/**
+	 * Where each stop can be reached from. A stop on an intersection is reached at its own node,
+	 * and one part way along a road is reached from the start of each segment it's on.
+	 */
+	private class Targets {
+		private final List<GraphNode> stops;
+		/** For each stop, the nodes it's reached from. */
+		private final int[][] nodes;
+		/** For each stop, the extra cost from each of those nodes. */
+		private final double[][] extra;
+		/** Every node that has to be settled before all the stops are known. */
+		private final HashSet<Integer> needed = new HashSet<Integer>();
+
+		Targets(List<GraphNode> stops) {
+			this.stops = stops;
+			nodes = new int[stops.size()][];
+			extra = new double[stops.size()][];
+			for(int j = 0; j < stops.size(); j++) {
+				GraphNode t = stops.get(j);
+				if(t.getSegmentIt().hasNext() || t.getIncomingSegmentIt().hasNext()) {
+					nodes[j] = new int[] {t.getIndex()};
+					extra[j] = new double[] {0};
+				} else {
+					List<GraphSegment> segs = map.getSegmentsWith(t);
+					nodes[j] = new int[segs.size()];
+					extra[j] = new double[segs.size()];
+					for(int k = 0; k < segs.size(); k++) {
+						GraphSegment pre = segs.get(k).getPreSubsegment(t);
+						nodes[j][k] = pre.getStartNode().getIndex();
+						extra[j][k] = weights.getWeight(pre);
+					}
+				}
+				for(int n : nodes[j]) {
+					needed.add(n);
+				}
+			}
+		}
+
+		int size() {
+			return stops.size();
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package routing;
+
+import java.util.HashMap;
+
+import map_data.RoadSegment;
+import map_data.Way;
+
+/**
+ * A cost profile where the cost of a segment is the time it takes to drive, in seconds.
+ *
+ * The speed comes from the way's maxspeed tag when it has a usable one, and otherwise from
+ * a typical speed for its highway type. Motorways can be made to look slower than they are,
+ * which is how avoiding them works without making them impossible to use.
+ * @author david
+ *
+ */
+public class TravelTimeProfile implements CostProfile {
+
+	/** Speed used for road types that aren't in the table, in km/h. */
+	private static final double DEFAULT_SPEED = 30;
+	/** Typical speeds for each highway type, in km/h. */
+	private static final HashMap<String, Double> speeds = new HashMap<String, Double>();
+	static {
+		speeds.put("motorway", 105.0);
+		speeds.put("motorway_link", 60.0);
+		speeds.put("trunk", 90.0);
+		speeds.put("trunk_link", 50.0);
+		speeds.put("primary", 70.0);
+		speeds.put("primary_link", 45.0);
+		speeds.put("secondary", 60.0);
+		speeds.put("secondary_link", 40.0);
+		speeds.put("tertiary", 50.0);
+		speeds.put("tertiary_link", 35.0);
+		speeds.put("unclassified", 40.0);
+		speeds.put("roundabout", 30.0);
+		speeds.put("residential", 30.0);
+		speeds.put("living_street", 10.0);
+		speeds.put("service", 15.0);
+	}
+
+	private final String name;
+	/** Multiplier applied to the time spent on motorways. */
+	private final double motorwayFactor;
+
+	/**
+	 * Constructs a travel time profile.
+	 * @param name The name of the profile.
+	 * @param motorwayFactor Multiplier for the time spent on motorways. 1 to treat them like any other road.
+	 */
+	public TravelTimeProfile(String name, double motorwayFactor) {
+		this.name = name;
+		this.motorwayFactor = motorwayFactor;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public double getCost(RoadSegment s) {
+		Way w = s.getWay();
+		double time = s.getLength() / (getSpeed(w) / 3.6);
+		String type = w.getRoadType();
+		if(type.equals("motorway") || type.equals("motorway_link")) {
+			time *= motorwayFactor;
+		}
+		return time;
+	}
+
+	/**
+	 * Returns the speed a way is driven at.
+	 * @param w The way.
+	 * @return The speed in km/h.
+	 */
+	public static double getSpeed(Way w) {
+		double speed = w.getMaxSpeed();
+		if(speed > 0) {
+			return speed;
+		}
+		Double typical = speeds.get(w.getRoadType());
+		return typical == null ? DEFAULT_SPEED : typical;
+	}
+
+	@Override
+	public String toString() {
+		if(motorwayFactor == 1) {
+			return "Fastest";
+		}
+		return "Avoid motorways";
+	}
+
+}
@@ -0,0 +1,107 @@
+package routing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import map_data.Map;
+import map_data.OSMParser;
+import map_data.RoadSegment;
+
+/**
+ * Checks that turn restrictions ban the turn they name and nothing else, on a little crossroads
+ * written out by hand.
+ *
+ * The crossroads is an east-west way and a north-south way crossing at one node. Coming along
+ * the east-west way there's no u-turn and no left turn, and coming along the north-south way
+ * the only way on is straight. Every move through the middle is tried and compared against
+ * what the restrictions allow.
+ *
+ * Usage: java routing.TurnRestrictionCheck
+ * @author david
+ *
+ */
+public class TurnRestrictionCheck {
+
+	private static final String OSM =
+			"<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<osm version='0.6'>\n"
+			+ " <bounds minlat='44.998' minlon='9.998' maxlat='45.002' maxlon='10.002'/>\n"
+			+ " <node id='1' lat='45' lon='10'/>\n"
+			+ " <node id='2' lat='45' lon='9.999'/>\n"
+			+ " <node id='3' lat='45' lon='10.001'/>\n"
+			+ " <node id='4' lat='44.999' lon='10'/>\n"
+			+ " <node id='5' lat='45.001' lon='10'/>\n"
+			+ " <way id='10'><nd ref='2'/><nd ref='1'/><nd ref='3'/><tag k='highway' v='residential'/></way>\n"
+			+ " <way id='11'><nd ref='4'/><nd ref='1'/><nd ref='5'/><tag k='highway' v='residential'/></way>\n"
+			+ restriction(20, "no_u_turn", 10, 10)
+			+ restriction(21, "no_left_turn", 10, 11)
+			+ restriction(22, "only_straight_on", 11, 11)
+			+ "</osm>\n";
+
+	/**
+	 * The moves through the middle, as where the car comes from, where it goes and whether
+	 * it may. West is 2, east 3, south 4 and north 5.
+	 */
+	private static final String[][] MOVES = {
+		{"2", "3", "yes"}, {"2", "4", "yes"}, {"2", "2", "no"}, {"2", "5", "no"},
+		{"3", "2", "yes"}, {"3", "5", "yes"}, {"3", "3", "no"}, {"3", "4", "no"},
+		{"4", "5", "yes"}, {"4", "2", "no"}, {"4", "3", "no"}, {"4", "4", "no"},
+		{"5", "4", "yes"}, {"5", "2", "no"}, {"5", "3", "no"}, {"5", "5", "no"},
+	};
+
+	public static void main(String[] args) throws Exception {
+		File f = File.createTempFile("restrictions", ".osm");
+		f.deleteOnExit();
+		write(f);
+		Map m = new OSMParser(f).parse();
+		TurnRestrictions rules = new TurnRestrictions(m);
+		System.out.println(rules.getRestrictionCount() + " restrictions");
+
+		int failed = 0;
+		for(String[] move : MOVES) {
+			int in = find(m, move[0], "1");
+			int out = find(m, "1", move[1]);
+			boolean allowed = rules.move(in, out) >= 0;
+			boolean expected = move[2].equals("yes");
+			String result = allowed == expected ? "ok  " : "FAIL";
+			if(allowed != expected) {
+				failed++;
+			}
+			System.out.println(result + " " + move[0] + " -> 1 -> " + move[1] + (allowed ? " allowed" : " banned"));
+		}
+		System.out.println(failed == 0 ? "All moves as expected" : failed + " moves wrong");
+	}
+
+	private static String restriction(int id, String kind, int from, int to) {
+		return " <relation id='" + id + "'>"
+				+ "<member type='way' ref='" + from + "' role='from'/>"
+				+ "<member type='node' ref='1' role='via'/>"
+				+ "<member type='way' ref='" + to + "' role='to'/>"
+				+ "<tag k='type' v='restriction'/><tag k='restriction' v='" + kind + "'/>"
+				+ "</relation>\n";
+	}
+
+	private static void write(File f) throws IOException {
+		FileWriter out = new FileWriter(f);
+		try {
+			out.write(OSM);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the index of the segment between two nodes.
+	 */
+	private static int find(Map m, String start, String end) {
+		for(int i = 0; i < m.getSegmentCount(); i++) {
+			RoadSegment s = m.getSegment(i);
+			if(s.getStartNode().getID().equals(start) && s.getEndNode().getID().equals(end)) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("No segment from " + start + " to " + end);
+	}
+
+}
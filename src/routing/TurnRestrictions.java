@@ -0,0 +1,429 @@
+package routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import graph_interfaces.GraphSegment;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadSegment;
+import map_data.Relation;
+import map_data.Way;
+
+/**
+ * The turn restrictions of a map, compiled into a table over the states of an edge based search.
+ *
+ * A state is the segment a search just drove along, so a turn is a move from one state to the
+ * next segment. Most states are plain segment indices and have no rules at all. A restriction
+ * through a via way needs to remember that the car came onto the via way from the restricted
+ * road, so for those the via segments get extra shadow states, numbered after the segments.
+ * A shadow has the rules of its own restriction, and every rule of the segment it shadows is
+ * looked up as well, so other restrictions on the via ways still apply to it. When both have
+ * a shadow for the same move, the shadow's own wins, since a state can only follow one via way
+ * restriction at a time.
+ *
+ * Looking up a move from a state without rules is one array read, which is what keeps the edge
+ * based search close to the node based one.
+ * @author david
+ *
+ */
+public class TurnRestrictions {
+
+	private final int segmentCount;
+	/** The segment each shadow state drives like, by shadow number. */
+	private final int[] shadowSegment;
+	/** True for states that have banned moves or lead into shadows. */
+	private final boolean[] hasRules;
+	/** The segments each state can't move onto, sorted. */
+	private final HashMap<Integer, int[]> banned;
+	/** Moves that lead into a shadow state instead of the plain segment, keyed by state and segment. */
+	private final HashMap<Long, Integer> redirects;
+	private final int restrictionCount;
+
+	/**
+	 * Compiles the restriction relations of a map.
+	 * Restrictions that don't line up with the map's segments are skipped.
+	 * @param m The map.
+	 */
+	public TurnRestrictions(Map m) {
+		segmentCount = m.getSegmentCount();
+		Builder b = new Builder();
+		int count = 0;
+		Iterator<Relation> it = m.getRelationsIt();
+		while(it.hasNext()) {
+			if(b.add(it.next())) {
+				count++;
+			}
+		}
+		restrictionCount = count;
+		shadowSegment = new int[b.shadows.size()];
+		for(int i = 0; i < shadowSegment.length; i++) {
+			shadowSegment[i] = b.shadows.get(i);
+		}
+		hasRules = new boolean[segmentCount + shadowSegment.length];
+		banned = new HashMap<Integer, int[]>();
+		for(java.util.Map.Entry<Integer, HashSet<Integer>> e : b.banned.entrySet()) {
+			int[] segs = new int[e.getValue().size()];
+			int i = 0;
+			for(int s : e.getValue()) {
+				segs[i++] = s;
+			}
+			Arrays.sort(segs);
+			banned.put(e.getKey(), segs);
+			hasRules[e.getKey()] = true;
+		}
+		redirects = b.redirects;
+		for(long key : redirects.keySet()) {
+			hasRules[(int) (key / segmentCount)] = true;
+		}
+		for(int i = 0; i < shadowSegment.length; i++) {
+			hasRules[segmentCount + i] |= hasRules[shadowSegment[i]];
+		}
+	}
+
+	/**
+	 * Returns the number of restrictions that were compiled.
+	 * @return The number of restrictions.
+	 */
+	public int getRestrictionCount() {
+		return restrictionCount;
+	}
+
+	/**
+	 * Returns whether there are any restrictions at all. A search without any can stay node based.
+	 * @return True if there are no restrictions.
+	 */
+	public boolean isEmpty() {
+		return restrictionCount == 0;
+	}
+
+	/**
+	 * Returns the number of states, segments plus shadows.
+	 * @return The number of states.
+	 */
+	public int getStateCount() {
+		return segmentCount + shadowSegment.length;
+	}
+
+	/**
+	 * Returns the segment a state drives like.
+	 * @param state The state.
+	 * @return The segment index.
+	 */
+	public int getSegment(int state) {
+		return state < segmentCount ? state : shadowSegment[state - segmentCount];
+	}
+
+	/**
+	 * Returns the state after moving from a state onto a segment.
+	 * @param state The current state.
+	 * @param seg The index of the segment to move onto.
+	 * @return The next state, or -1 if the move is banned.
+	 */
+	public int move(int state, int seg) {
+		if(!hasRules[state]) {
+			return seg;
+		}
+		int plain = getSegment(state);
+		if(isBanned(state, seg) || (plain != state && isBanned(plain, seg))) {
+			return -1;
+		}
+		Integer shadow = redirects.get((long) state * segmentCount + seg);
+		if(shadow == null && plain != state) {
+			shadow = redirects.get((long) plain * segmentCount + seg);
+		}
+		return shadow == null ? seg : shadow;
+	}
+
+	/**
+	 * Returns whether a state's own rules ban moving onto a segment.
+	 */
+	private boolean isBanned(int state, int seg) {
+		int[] no = banned.get(state);
+		return no != null && Arrays.binarySearch(no, seg) >= 0;
+	}
+
+	/**
+	 * Collects the rules while the relations are compiled.
+	 */
+	private class Builder {
+		private final ArrayList<Integer> shadows = new ArrayList<Integer>();
+		private final HashMap<Integer, HashSet<Integer>> banned = new HashMap<Integer, HashSet<Integer>>();
+		private final HashMap<Long, Integer> redirects = new HashMap<Long, Integer>();
+
+		/**
+		 * Adds a relation if it's a turn restriction for cars.
+		 * @return True if it was added.
+		 */
+		boolean add(Relation r) {
+			if(!"restriction".equals(r.getTagVal("type"))) {
+				return false;
+			}
+			String kind = r.getTagVal("restriction");
+			if(kind == null) {
+				kind = r.getTagVal("restriction:motorcar");
+			}
+			String except = r.getTagVal("except");
+			if(kind == null || (except != null && except.contains("motorcar"))) {
+				return false;
+			}
+			boolean only = kind.startsWith("only_");
+			if(!only && !kind.startsWith("no_")) {
+				return false;
+			}
+			List<Way> from = r.getWays("from");
+			List<Way> to = r.getWays("to");
+			if(from.size() != 1 || to.size() != 1) {
+				return false;
+			}
+			List<Node> viaNodes = r.getNodes("via");
+			List<Way> viaWays = r.getWays("via");
+			if(viaNodes.size() == 1 && viaWays.isEmpty()) {
+				return addViaNode(from.get(0), viaNodes.get(0), to.get(0), kind);
+			}
+			if(viaNodes.isEmpty() && !viaWays.isEmpty()) {
+				return addViaWays(from.get(0), viaWays, to.get(0), kind);
+			}
+			return false;
+		}
+
+		/**
+		 * Bans the moves from the from way onto the to way at a node, or for only_ restrictions
+		 * the moves onto anything else.
+		 */
+		private boolean addViaNode(Way from, Node via, Way to, String kind) {
+			List<RoadSegment> in = segments(via.getIncomingSegmentIt(), from);
+			if(in.isEmpty()) {
+				return false;
+			}
+			boolean added = false;
+			for(RoadSegment s : in) {
+				added |= ban(s.getIndex(), s, to, kind);
+			}
+			return added;
+		}
+
+		/**
+		 * Makes shadow states along the via ways for cars coming off the from way, and bans the
+		 * move onto the to way, or anything else for only_ restrictions, at the end of them.
+		 */
+		private boolean addViaWays(Way from, List<Way> via, Way to, String kind) {
+			Node start = sharedNode(from, via);
+			Node end = sharedNode(to, via);
+			if(start == null || end == null || start == end) {
+				return false;
+			}
+			List<RoadSegment> path = viaPath(start, end, via);
+			List<RoadSegment> in = segments(start.getIncomingSegmentIt(), from);
+			if(path == null || in.isEmpty()) {
+				return false;
+			}
+			boolean added = false;
+			for(RoadSegment s : in) {
+				int state = s.getIndex();
+				for(RoadSegment v : path) {
+					state = shadow(state, v.getIndex());
+				}
+				added |= ban(state, path.get(path.size() - 1), to, kind);
+			}
+			return added;
+		}
+
+		/**
+		 * Bans the moves from a state at the end of the segment it came in on onto the to way,
+		 * or for only_ restrictions the moves onto anything else.
+		 */
+		private boolean ban(int state, RoadSegment in, Way to, String kind) {
+			HashSet<Integer> no = banned.get(state);
+			if(no == null) {
+				no = new HashSet<Integer>();
+			}
+			boolean only = kind.startsWith("only_");
+			List<RoadSegment> target = turns(in, to, kind);
+			boolean added = false;
+			for(RoadSegment o : segments(in.getEndNode().getSegmentIt(), null)) {
+				if(target.contains(o) != only) {
+					added |= no.add(o.getIndex());
+				}
+			}
+			if(!no.isEmpty()) {
+				banned.put(state, no);
+			}
+			return added;
+		}
+
+		/**
+		 * Returns the segments leaving the end of a segment that a restriction is about.
+		 *
+		 * When the to way is the way the car came in on, a u-turn is only turning back, the
+		 * segment that ends where the car came from, and any other kind is only going on along
+		 * the way. Otherwise the to way can go through the node, leaving it two ways, and the
+		 * kind of turn says which one is meant. A kind that doesn't say, like no_entry, means both.
+		 */
+		private List<RoadSegment> turns(RoadSegment in, Way to, String kind) {
+			List<RoadSegment> out = segments(in.getEndNode().getSegmentIt(), to);
+			ArrayList<RoadSegment> rtrn = new ArrayList<RoadSegment>();
+			if(to.equals(in.getWay())) {
+				boolean uTurn = kind.endsWith("_u_turn");
+				for(RoadSegment o : out) {
+					if(o.getEndNode().equals(in.getStartNode()) == uTurn) {
+						rtrn.add(o);
+					}
+				}
+				return rtrn;
+			}
+			if(out.size() < 2) {
+				return out;
+			}
+			RoadSegment pick = null;
+			double best = Double.NEGATIVE_INFINITY;
+			for(RoadSegment o : out) {
+				double angle = turnAngle(in, o);
+				double score;
+				if(kind.endsWith("_left_turn")) {
+					score = angle;
+				} else if(kind.endsWith("_right_turn")) {
+					score = -angle;
+				} else if(kind.endsWith("_straight_on")) {
+					score = -Math.abs(angle);
+				} else if(kind.endsWith("_u_turn")) {
+					score = Math.abs(angle);
+				} else {
+					return out;
+				}
+				if(score > best) {
+					best = score;
+					pick = o;
+				}
+			}
+			rtrn.add(pick);
+			return rtrn;
+		}
+
+		/**
+		 * Returns how far a car turns going from one segment onto the next, in degrees,
+		 * positive to the left and negative to the right.
+		 */
+		private double turnAngle(RoadSegment in, RoadSegment out) {
+			Node at = (Node) in.getEndNode();
+			GraphEdge last = null;
+			Iterator<GraphEdge> it = in.getEdgeIt();
+			while(it.hasNext()) {
+				last = it.next();
+			}
+			Node before = (Node) last.getStartNode();
+			Node after = (Node) out.getEdgeIt().next().getEndNode();
+			double turn = bearing(at, after) - bearing(before, at);
+			return Math.IEEEremainder(turn, 360);
+		}
+
+		/**
+		 * Returns the direction from one node to another, in degrees counterclockwise from east.
+		 */
+		private double bearing(Node a, Node b) {
+			double dx = (b.getLon() - a.getLon()) * Math.cos(Math.toRadians(a.getLat()));
+			return Math.toDegrees(Math.atan2(b.getLat() - a.getLat(), dx));
+		}
+
+		/**
+		 * Returns the shadow state reached by moving from a state onto a segment, making it if needed.
+		 */
+		private int shadow(int state, int seg) {
+			long key = (long) state * segmentCount + seg;
+			Integer s = redirects.get(key);
+			if(s == null) {
+				s = segmentCount + shadows.size();
+				shadows.add(seg);
+				redirects.put(key, s);
+			}
+			return s;
+		}
+
+		/**
+		 * Returns the segments from an iterator, keeping only the ones on a way unless it's null.
+		 */
+		private List<RoadSegment> segments(Iterator<GraphSegment> it, Way way) {
+			ArrayList<RoadSegment> rtrn = new ArrayList<RoadSegment>();
+			while(it.hasNext()) {
+				RoadSegment s = (RoadSegment) it.next();
+				if(s.getIndex() >= 0 && (way == null || s.getWay().equals(way))) {
+					rtrn.add(s);
+				}
+			}
+			return rtrn;
+		}
+
+		/**
+		 * Returns a node the way shares with any of the via ways, at the ends of the way first
+		 * since that's where restrictions usually join.
+		 */
+		private Node sharedNode(Way way, List<Way> via) {
+			HashSet<Node> viaNodes = new HashSet<Node>();
+			for(Way v : via) {
+				Iterator<Node> it = v.getNodeIt();
+				while(it.hasNext()) {
+					viaNodes.add(it.next());
+				}
+			}
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			Iterator<Node> it = way.getNodeIt();
+			while(it.hasNext()) {
+				nodes.add(it.next());
+			}
+			if(nodes.isEmpty()) {
+				return null;
+			}
+			if(viaNodes.contains(nodes.get(0))) {
+				return nodes.get(0);
+			}
+			if(viaNodes.contains(nodes.get(nodes.size() - 1))) {
+				return nodes.get(nodes.size() - 1);
+			}
+			for(Node n : nodes) {
+				if(viaNodes.contains(n)) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Finds the fewest segments along the via ways from one node to another.
+		 * @return The segments in order, or null if the via ways don't connect them.
+		 */
+		private List<RoadSegment> viaPath(Node start, Node end, List<Way> via) {
+			HashMap<GraphNode, RoadSegment> parent = new HashMap<GraphNode, RoadSegment>();
+			LinkedList<GraphNode> queue = new LinkedList<GraphNode>();
+			HashSet<GraphNode> seen = new HashSet<GraphNode>();
+			queue.add(start);
+			seen.add(start);
+			while(!queue.isEmpty()) {
+				GraphNode n = queue.poll();
+				if(n.equals(end)) {
+					LinkedList<RoadSegment> path = new LinkedList<RoadSegment>();
+					while(!n.equals(start)) {
+						RoadSegment s = parent.get(n);
+						path.addFirst(s);
+						n = s.getStartNode();
+					}
+					return path;
+				}
+				for(RoadSegment s : segments(n.getSegmentIt(), null)) {
+					if(via.contains(s.getWay()) && seen.add(s.getEndNode())) {
+						parent.put(s.getEndNode(), s);
+						queue.add(s.getEndNode());
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+}
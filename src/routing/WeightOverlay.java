@@ -0,0 +1,113 @@
+package routing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Changes to the cost of whole ways on top of a profile, like a closed road or a slow one.
+ *
+ * Overlays are immutable. Changing one gives back a new overlay, so a search that already
+ * picked up the old one keeps seeing the same costs until it's done.
+ * @author david
+ *
+ */
+public class WeightOverlay {
+
+	/** The factor that closes a way completely. */
+	public static final double BLOCKED = Double.POSITIVE_INFINITY;
+	/** The overlay that changes nothing. */
+	public static final WeightOverlay EMPTY = new WeightOverlay(new HashMap<String, Double>());
+
+	/** The multiplier of each changed way's cost, by way id. */
+	private final HashMap<String, Double> factors;
+
+	private WeightOverlay(HashMap<String, Double> factors) {
+		this.factors = factors;
+	}
+
+	/**
+	 * Returns an overlay with one way's cost multiplied by a factor.
+	 * @param wayID The id of the way.
+	 * @param factor The multiplier. 1 puts the way back to normal, BLOCKED closes it.
+	 * @return The new overlay.
+	 */
+	public WeightOverlay with(String wayID, double factor) {
+		if(!(factor > 0)) {
+			throw new IllegalArgumentException("Cost factors must be positive.");
+		}
+		HashMap<String, Double> next = new HashMap<String, Double>(factors);
+		if(factor == 1) {
+			next.remove(wayID);
+		} else {
+			next.put(wayID, factor);
+		}
+		return new WeightOverlay(next);
+	}
+
+	/**
+	 * Returns an overlay with one way back to normal.
+	 * @param wayID The id of the way.
+	 * @return The new overlay.
+	 */
+	public WeightOverlay without(String wayID) {
+		return with(wayID, 1);
+	}
+
+	/**
+	 * Returns the multiplier of a way's cost.
+	 * @param wayID The id of the way.
+	 * @return The factor, 1 if the way isn't changed.
+	 */
+	public double getFactor(String wayID) {
+		Double f = factors.get(wayID);
+		return f == null ? 1 : f;
+	}
+
+	/**
+	 * Returns whether a way is closed.
+	 * @param wayID The id of the way.
+	 * @return True if it's blocked.
+	 */
+	public boolean isBlocked(String wayID) {
+		return getFactor(wayID) == BLOCKED;
+	}
+
+	/**
+	 * Returns the ids of the ways this overlay changes.
+	 * @return An unmodifiable set of way ids.
+	 */
+	public Set<String> getWayIDs() {
+		return Collections.unmodifiableSet(factors.keySet());
+	}
+
+	/**
+	 * Returns the ids of the ways whose factor differs between this overlay and another.
+	 * @param other The other overlay.
+	 * @return The ids of the ways that differ.
+	 */
+	public Set<String> changedFrom(WeightOverlay other) {
+		HashSet<String> rtrn = new HashSet<String>();
+		for(String id : factors.keySet()) {
+			if(getFactor(id) != other.getFactor(id)) {
+				rtrn.add(id);
+			}
+		}
+		for(String id : other.factors.keySet()) {
+			if(getFactor(id) != other.getFactor(id)) {
+				rtrn.add(id);
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns whether this overlay changes nothing.
+	 * @return True if it's empty.
+	 */
+	public boolean isEmpty() {
+		return factors.isEmpty();
+	}
+
+}
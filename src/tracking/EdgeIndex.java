@@ -0,0 +1,322 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadEdge;
+
+/**
+ * A grid over the road edges of a map, for finding the edges near a point without looking
+ * at all of them.
+ *
+ * Points are put on a flat plane in meters around the south west corner of the roads, which
+ * is plenty accurate over a city. Each edge is listed in every cell its bounding box touches,
+ * and the cells are packed into flat arrays the same way SegmentGraph packs segments. Only the
+ * cells with edges in them are kept, in a hash table keyed by cell number, so a regional map
+ * that's mostly fields and water costs memory for its roads and not for its area.
+ *
+ * The index never changes once built, and lookups only write to their own thread's stamps,
+ * so it can be shared.
+ * @author david
+ *
+ */
+public class EdgeIndex {
+
+	/** The side of a cell when none is given, in meters. */
+	public static final double DEFAULT_CELL = 50;
+
+	private final RoadEdge[] edges;
+	/** Where each edge is in edges. It goes by identity, since hashing an edge hashes its id string. */
+	private final IdentityHashMap<RoadEdge, Integer> indices;
+	/** The planar coordinates of each edge's start and end, in meters. */
+	private final double[] x1, y1, x2, y2;
+	/** The plane around the south west corner, scaled at the middle latitude of the roads. */
+	private final FlatPlane plane;
+	private final double cell;
+	private final int cols, rows;
+	/** The number of the cell in each slot of the hash table, or -1 for an empty slot. */
+	private final long[] cellKeys;
+	/** Where each slot's edges start in cellEdges. The last entry is the length of cellEdges. */
+	private final int[] cellStart;
+	private final int[] cellEdges;
+	/**
+	 * The query each edge was last looked at in, per thread. Edges can be in more than one
+	 * cell, and stamping them skips the ones already looked at without clearing anything.
+	 */
+	private final ThreadLocal<Stamps> stamps = new ThreadLocal<Stamps>() {
+		@Override
+		protected Stamps initialValue() {
+			return new Stamps(edges.length);
+		}
+	};
+
+	/**
+	 * Builds the index of a map's road edges with the default cell size.
+	 * @param m The map.
+	 */
+	public EdgeIndex(Map m) {
+		this(m, DEFAULT_CELL);
+	}
+
+	/**
+	 * Builds the index of a map's road edges.
+	 * @param m The map.
+	 * @param cell The side of a cell, in meters.
+	 */
+	public EdgeIndex(Map m, double cell) {
+		this.cell = cell;
+		ArrayList<RoadEdge> list = new ArrayList<RoadEdge>();
+		double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < m.getNodeSize(); i++) {
+			Node n = m.getNode(i);
+			minLon = Math.min(minLon, n.getLon());
+			minLat = Math.min(minLat, n.getLat());
+			maxLon = Math.max(maxLon, n.getLon());
+			maxLat = Math.max(maxLat, n.getLat());
+			Iterator<GraphEdge> it = n.getEdgeIt();
+			while(it.hasNext()) {
+				list.add((RoadEdge) it.next());
+			}
+		}
+		if(list.isEmpty()) {
+			minLon = minLat = maxLon = maxLat = 0;
+		}
+		edges = list.toArray(new RoadEdge[list.size()]);
+		indices = new IdentityHashMap<RoadEdge, Integer>(edges.length * 2);
+		for(int i = 0; i < edges.length; i++) {
+			indices.put(edges[i], i);
+		}
+		plane = new FlatPlane(minLon, minLat, (minLat + maxLat) / 2);
+		cols = (int) (plane.x(maxLon) / cell) + 1;
+		rows = (int) (plane.y(maxLat) / cell) + 1;
+
+		int n = edges.length;
+		x1 = new double[n];
+		y1 = new double[n];
+		x2 = new double[n];
+		y2 = new double[n];
+		for(int i = 0; i < n; i++) {
+			x1[i] = plane.x(edges[i].getStartNode().getLon());
+			y1[i] = plane.y(edges[i].getStartNode().getLat());
+			x2[i] = plane.x(edges[i].getEndNode().getLon());
+			y2[i] = plane.y(edges[i].getEndNode().getLat());
+		}
+		// There can't be more cells with edges than listings of edges in cells, so that sizes
+		// the table to at most half full.
+		long listed = 0;
+		for(int i = 0; i < n; i++) {
+			listed += cellsOf(i).length;
+		}
+		int slots = Integer.highestOneBit((int) Math.max(1, Math.min(listed, 1 << 29)) * 2);
+		cellKeys = new long[slots];
+		Arrays.fill(cellKeys, -1);
+		// Count the edges in each cell, then fill them in.
+		cellStart = new int[slots + 1];
+		for(int i = 0; i < n; i++) {
+			for(long c : cellsOf(i)) {
+				cellStart[claim(c) + 1]++;
+			}
+		}
+		for(int k = 0; k < slots; k++) {
+			cellStart[k + 1] += cellStart[k];
+		}
+		cellEdges = new int[cellStart[slots]];
+		int[] fill = new int[slots];
+		for(int i = 0; i < n; i++) {
+			for(long c : cellsOf(i)) {
+				int k = slot(c);
+				cellEdges[cellStart[k] + fill[k]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of edges indexed.
+	 * @return The edge count.
+	 */
+	public int getEdgeCount() {
+		return edges.length;
+	}
+
+	/**
+	 * Returns an edge by its number in the index. Edges are numbered in the order of the map's
+	 * nodes and then each node's edges, so the same map always numbers them the same.
+	 * @param i The number of the edge.
+	 * @return The edge.
+	 */
+	public RoadEdge getEdge(int i) {
+		return edges[i];
+	}
+
+	/**
+	 * Returns the number of an edge in the index.
+	 * @param e The edge.
+	 * @return Its number, or -1 if it isn't one of the edges in the index.
+	 */
+	public int indexOf(RoadEdge e) {
+		Integer i = indices.get(e);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Finds the edges within some distance of a point, closest first.
+	 * @param lon The longitude of the point.
+	 * @param lat The latitude of the point.
+	 * @param radius How far to look, in meters.
+	 * @param max The most edges to return.
+	 * @return The closest point on each edge found, closest first.
+	 */
+	public List<EdgePosition> near(double lon, double lat, double radius, int max) {
+		double px = plane.x(lon);
+		double py = plane.y(lat);
+		int c0 = clamp((int) Math.floor((px - radius) / cell), cols);
+		int c1 = clamp((int) Math.floor((px + radius) / cell), cols);
+		int r0 = clamp((int) Math.floor((py - radius) / cell), rows);
+		int r1 = clamp((int) Math.floor((py + radius) / cell), rows);
+		ArrayList<EdgePosition> found = new ArrayList<EdgePosition>();
+		Stamps seen = stamps.get();
+		int query = seen.begin();
+		for(int r = r0; r <= r1; r++) {
+			for(int c = c0; c <= c1; c++) {
+				int k = slot((long) r * cols + c);
+				if(k < 0) {
+					continue;
+				}
+				for(int j = cellStart[k]; j < cellStart[k + 1]; j++) {
+					int e = cellEdges[j];
+					if(seen.stamp[e] == query) {
+						continue;
+					}
+					seen.stamp[e] = query;
+					EdgePosition p = project(e, px, py);
+					if(p.getOffset() <= radius) {
+						found.add(p);
+					}
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<EdgePosition>() {
+			@Override
+			public int compare(EdgePosition a, EdgePosition b) {
+				return Double.compare(a.getOffset(), b.getOffset());
+			}
+		});
+		return found.size() > max ? new ArrayList<EdgePosition>(found.subList(0, max)) : found;
+	}
+
+	/**
+	 * Returns the straight line distance between two points on the index's plane.
+	 * @return The distance in meters.
+	 */
+	public double distance(double lonA, double latA, double lonB, double latB) {
+		return Math.hypot(plane.x(lonA) - plane.x(lonB), plane.y(latA) - plane.y(latB));
+	}
+
+	/**
+	 * Returns the closest point on an edge to a point on the plane.
+	 */
+	private EdgePosition project(int e, double px, double py) {
+		double dx = x2[e] - x1[e];
+		double dy = y2[e] - y1[e];
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : ((px - x1[e]) * dx + (py - y1[e]) * dy) / len2;
+		t = Math.max(0, Math.min(1, t));
+		double off = Math.hypot(x1[e] + t * dx - px, y1[e] + t * dy - py);
+		return new EdgePosition(edges[e], t, off);
+	}
+
+	/**
+	 * Returns the numbers of the cells an edge's bounding box touches.
+	 */
+	private long[] cellsOf(int e) {
+		int c0 = clamp((int) (Math.min(x1[e], x2[e]) / cell), cols);
+		int c1 = clamp((int) (Math.max(x1[e], x2[e]) / cell), cols);
+		int r0 = clamp((int) (Math.min(y1[e], y2[e]) / cell), rows);
+		int r1 = clamp((int) (Math.max(y1[e], y2[e]) / cell), rows);
+		long[] rtrn = new long[(c1 - c0 + 1) * (r1 - r0 + 1)];
+		int i = 0;
+		for(int r = r0; r <= r1; r++) {
+			for(int c = c0; c <= c1; c++) {
+				rtrn[i++] = (long) r * cols + c;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the slot of a cell in the hash table.
+	 * @return The slot, or -1 if the cell has no edges.
+	 */
+	private int slot(long cellNumber) {
+		int mask = cellKeys.length - 1;
+		for(int k = hash(cellNumber) & mask; ; k = (k + 1) & mask) {
+			if(cellKeys[k] == cellNumber) {
+				return k;
+			}
+			if(cellKeys[k] < 0) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of a cell in the hash table, giving it an empty one if it hasn't got one.
+	 */
+	private int claim(long cellNumber) {
+		int mask = cellKeys.length - 1;
+		int k = hash(cellNumber) & mask;
+		while(cellKeys[k] >= 0 && cellKeys[k] != cellNumber) {
+			k = (k + 1) & mask;
+		}
+		cellKeys[k] = cellNumber;
+		return k;
+	}
+
+	/**
+	 * Spreads the bits of a cell number, since neighbouring cells have neighbouring numbers.
+	 */
+	private static int hash(long cellNumber) {
+		long h = cellNumber * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int clamp(int i, int size) {
+		return Math.max(0, Math.min(size - 1, i));
+	}
+
+	/**
+	 * One thread's stamps for the edges of an index.
+	 */
+	private static class Stamps {
+		private final int[] stamp;
+		private int query = 0;
+
+		Stamps(int size) {
+			stamp = new int[size];
+		}
+
+		/**
+		 * Starts a new query, so every edge reads as not looked at yet.
+		 * @return The stamp for the new query.
+		 */
+		int begin() {
+			query++;
+			if(query == Integer.MAX_VALUE) {
+				// Only happens after two billion queries, but stale stamps would look current.
+				Arrays.fill(stamp, 0);
+				query = 1;
+			}
+			return query;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package tracking;
+
+import map_data.Node;
+import map_data.RoadEdge;
+
+/**
+ * A point part way along a road edge, like where a GPS fix lands when it's snapped to the road.
+ *
+ * Positions are immutable.
+ * @author david
+ *
+ */
+public class EdgePosition {
+
+	private final RoadEdge edge;
+	/** How far along the edge, from 0 at its start to 1 at its end. */
+	private final double fraction;
+	/** How far the point that was snapped is from here, in meters. */
+	private final double offset;
+
+	/**
+	 * Constructs a position.
+	 * @param e The edge.
+	 * @param fraction How far along the edge, from 0 to 1.
+	 * @param offset How far the snapped point was from the edge, in meters.
+	 */
+	public EdgePosition(RoadEdge e, double fraction, double offset) {
+		edge = e;
+		this.fraction = fraction;
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns the edge this position is on.
+	 * @return The edge.
+	 */
+	public RoadEdge getEdge() {
+		return edge;
+	}
+
+	/**
+	 * Returns how far along the edge this is.
+	 * @return The fraction, from 0 at the start to 1 at the end.
+	 */
+	public double getFraction() {
+		return fraction;
+	}
+
+	/**
+	 * Returns how far the snapped point was from the edge.
+	 * @return The distance in meters.
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the distance left to the end of the edge.
+	 * @return The distance in meters.
+	 */
+	public double getRemaining() {
+		return (1 - fraction) * edge.getLength();
+	}
+
+	/**
+	 * Returns the longitude of this position.
+	 * @return The longitude.
+	 */
+	public double getLon() {
+		Node s = edge.getStartNode();
+		return s.getLon() + (edge.getEndNode().getLon() - s.getLon()) * fraction;
+	}
+
+	/**
+	 * Returns the latitude of this position.
+	 * @return The latitude.
+	 */
+	public double getLat() {
+		Node s = edge.getStartNode();
+		return s.getLat() + (edge.getEndNode().getLat() - s.getLat()) * fraction;
+	}
+
+	@Override
+	public String toString() {
+		return edge.getID() + "@" + String.format("%.2f", fraction);
+	}
+
+}
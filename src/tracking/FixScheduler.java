@@ -0,0 +1,289 @@
+package tracking;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+import com.starkeffect.highway.GPSEvent;
+
+import routing.RouteRequest;
+
+/**
+ * Deals with GPS fixes on one thread of its own, always working on the newest one.
+ *
+ * Fixes can come in faster than they can be dealt with, especially when dealing with one
+ * means finding a new route. Starting work for every fix just piles the work up, and all of
+ * it is out of date by the time it finishes. Here there's only ever one fix waiting. A fix
+ * that comes in while another is waiting replaces it, and the one replaced is dropped.
+ *
+ * Results are handed to a publisher, like the event dispatch thread, no more often than a
+ * set interval. The worker waits out the rest of the interval before taking the next fix, so
+ * fixes that come in meanwhile get coalesced into the newest. If the publisher still hasn't
+ * got round to the last result when the next is ready, the last one is replaced rather than
+ * queued behind it.
+ * @author david
+ *
+ * @param <T> The type of result a fix gives.
+ */
+public class FixScheduler<T> {
+
+	/** The shortest time between results, in milliseconds, when none is given. */
+	public static final long DEFAULT_INTERVAL = 100;
+	/** The lane of the requests fixes are dealt with under. */
+	public static final String LANE = "gps";
+
+	private final FixHandler<T> handler;
+	private final Executor publisher;
+	private final long interval;
+	private final Thread worker;
+
+	/** Guards everything below. */
+	private final Object lock = new Object();
+	/** The fix waiting to be dealt with, or null. */
+	private GPSEvent pending;
+	/** The request of the fix being dealt with, or null. */
+	private RouteRequest current;
+	/** The newest result not yet published. */
+	private T result;
+	/** True if the publisher has been given a result it hasn't published yet. */
+	private boolean publishing = false;
+	private boolean stopped = false;
+	private long received, dropped, processed, published, cancelled, failed;
+
+	/**
+	 * Constructs a scheduler and starts its worker.
+	 * @param h What to do with fixes.
+	 * @param interval The shortest time between results, in milliseconds.
+	 * @param publisher Where results are published, like the event dispatch thread.
+	 */
+	public FixScheduler(FixHandler<T> h, long interval, Executor publisher) {
+		handler = h;
+		this.interval = interval;
+		this.publisher = publisher;
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "gps-fixes");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Hands in a fix, replacing any fix still waiting. Returns straight away.
+	 * @param e The fix.
+	 */
+	public void offer(GPSEvent e) {
+		synchronized(lock) {
+			if(stopped) {
+				return;
+			}
+			received++;
+			if(pending != null) {
+				dropped++;
+			}
+			pending = e;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Drops the waiting fix and cancels the one being dealt with, for when their results
+	 * no longer matter, like after the destination was cleared.
+	 */
+	public void cancel() {
+		synchronized(lock) {
+			if(pending != null) {
+				dropped++;
+				pending = null;
+			}
+			if(current != null) {
+				current.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker. Fixes handed in afterwards are ignored.
+	 */
+	public void stop() {
+		synchronized(lock) {
+			stopped = true;
+			lock.notifyAll();
+		}
+		cancel();
+		worker.interrupt();
+	}
+
+	/**
+	 * Returns the number of fixes handed in.
+	 * @return The received count.
+	 */
+	public long getReceived() {
+		synchronized(lock) {
+			return received;
+		}
+	}
+
+	/**
+	 * Returns the number of fixes replaced by newer ones, or cancelled, before being dealt with.
+	 * @return The dropped count.
+	 */
+	public long getDropped() {
+		synchronized(lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Returns the number of fixes dealt with.
+	 * @return The processed count.
+	 */
+	public long getProcessed() {
+		synchronized(lock) {
+			return processed;
+		}
+	}
+
+	/**
+	 * Returns the number of results published. Results replaced before the publisher got to
+	 * them aren't counted.
+	 * @return The published count.
+	 */
+	public long getPublished() {
+		synchronized(lock) {
+			return published;
+		}
+	}
+
+	/**
+	 * Returns the number of fixes cancelled part way through being dealt with.
+	 * @return The cancelled count.
+	 */
+	public long getCancelled() {
+		synchronized(lock) {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Returns the number of fixes that failed with an exception.
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		synchronized(lock) {
+			return failed;
+		}
+	}
+
+	/**
+	 * Deals with fixes until stopped.
+	 */
+	private void work() {
+		while(true) {
+			GPSEvent e;
+			RouteRequest req;
+			synchronized(lock) {
+				try {
+					while(pending == null && !stopped) {
+						lock.wait();
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if(stopped) {
+					return;
+				}
+				e = pending;
+				pending = null;
+				req = new RouteRequest(LANE);
+				current = req;
+			}
+			long start = System.currentTimeMillis();
+			try {
+				T r = handler.process(e, req);
+				req.checkCancelled();
+				synchronized(lock) {
+					processed++;
+				}
+				publish(r);
+			} catch (CancellationException ex) {
+				synchronized(lock) {
+					cancelled++;
+				}
+			} catch (Exception ex) {
+				synchronized(lock) {
+					failed++;
+				}
+				handler.fixFailed(e, ex);
+			} finally {
+				synchronized(lock) {
+					current = null;
+				}
+			}
+			long wait = start + interval - System.currentTimeMillis();
+			if(wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands a result to the publisher, or replaces the one it hasn't got to yet.
+	 */
+	private void publish(T r) {
+		synchronized(lock) {
+			result = r;
+			if(publishing) {
+				return;
+			}
+			publishing = true;
+		}
+		publisher.execute(new Runnable() {
+			@Override
+			public void run() {
+				T r;
+				synchronized(lock) {
+					r = result;
+					result = null;
+					publishing = false;
+					published++;
+				}
+				handler.publish(r);
+			}
+		});
+	}
+
+	/**
+	 * What gets done with each fix.
+	 * @param <T> The type of result a fix gives.
+	 */
+	public interface FixHandler<T> {
+		/**
+		 * Deals with a fix, on the scheduler's worker. Long running work should check the request as it goes.
+		 * @param e The fix.
+		 * @param req The request the fix is dealt with under, cancelled if the scheduler is.
+		 * @return The result.
+		 * @throws Exception If anything goes wrong, including cancellation.
+		 */
+		public T process(GPSEvent e, RouteRequest req) throws Exception;
+
+		/**
+		 * Shows the newest result, on the publisher.
+		 * @param result The result.
+		 */
+		public void publish(T result);
+
+		/**
+		 * Called on the worker when dealing with a fix throws an exception.
+		 * @param e The fix.
+		 * @param ex The exception.
+		 */
+		public void fixFailed(GPSEvent e, Exception ex);
+	}
+
+}
@@ -0,0 +1,74 @@
+package tracking;
+
+/**
+ * Puts longitudes and latitudes on a flat plane in meters around an origin, which is plenty
+ * accurate over a city and much cheaper than working out great circle distances.
+ *
+ * A degree of latitude is always the same length, and a degree of longitude is shorter by
+ * the cosine of the latitude, which the plane takes at one latitude for everything on it.
+ * The static methods go the other way, turning meters into degrees at a given latitude, for
+ * moving a point around by some distance.
+ *
+ * Planes never change once made, so they can be shared.
+ * @author david
+ *
+ */
+public class FlatPlane {
+
+	/** Meters in a degree of latitude. */
+	public static final double METERS_PER_DEGREE = 111320;
+
+	private final double lon0, lat0;
+	/** Meters in a degree of longitude, at the latitude the plane was made for. */
+	private final double lonScale;
+
+	/**
+	 * Constructs a plane.
+	 * @param lon0 The longitude of the origin.
+	 * @param lat0 The latitude of the origin.
+	 * @param lat The latitude the length of a degree of longitude is taken at.
+	 */
+	public FlatPlane(double lon0, double lat0, double lat) {
+		this.lon0 = lon0;
+		this.lat0 = lat0;
+		lonScale = METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+	}
+
+	/**
+	 * Returns how far east of the origin a longitude is.
+	 * @param lon The longitude.
+	 * @return The distance in meters.
+	 */
+	public double x(double lon) {
+		return (lon - lon0) * lonScale;
+	}
+
+	/**
+	 * Returns how far north of the origin a latitude is.
+	 * @param lat The latitude.
+	 * @return The distance in meters.
+	 */
+	public double y(double lat) {
+		return (lat - lat0) * METERS_PER_DEGREE;
+	}
+
+	/**
+	 * Returns how many degrees of latitude a distance north is.
+	 * @param meters The distance in meters.
+	 * @return The degrees of latitude.
+	 */
+	public static double degreesLat(double meters) {
+		return meters / METERS_PER_DEGREE;
+	}
+
+	/**
+	 * Returns how many degrees of longitude a distance east is at a latitude.
+	 * @param meters The distance in meters.
+	 * @param lat The latitude.
+	 * @return The degrees of longitude.
+	 */
+	public static double degreesLon(double meters, double lat) {
+		return meters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+	}
+
+}
@@ -0,0 +1,79 @@
+package tracking;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import map_data.Map;
+import map_data.OSMParser;
+import routing.CostProfile;
+
+/**
+ * Puts a TrackingEngine under the load of a made up fleet and reports how fast it keeps up.
+ *
+ * The vehicles drive the fastest routes while the engine routes them along the shortest,
+ * so they keep leaving their routes and the rerouting gets measured too. Every vehicle
+ * sends a fix a second, and each second of fixes goes to the engine as one batch.
+ *
+ * Usage: java tracking.FleetBenchmark map.osm [vehicles] [threads] [seconds] [seed]
+ * @author david
+ *
+ */
+public class FleetBenchmark {
+
+	/** Seconds of driving dealt with before timing, so the JIT has settled. */
+	private static final int WARMUP = 30;
+	/** How fast the vehicles drive, in meters per second. */
+	private static final double SPEED = 12;
+	/** The standard deviation of the noise on each fix, in meters. */
+	private static final double SIGMA = 5;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java tracking.FleetBenchmark map.osm [vehicles] [threads] [seconds] [seed]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int vehicles = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 120;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		TrackingEngine engine = new TrackingEngine(m, CostProfile.SHORTEST, threads);
+		FleetGenerator fleet = new FleetGenerator(m, engine, CostProfile.FASTEST, vehicles, SPEED, 1, SIGMA, seed);
+		System.out.println("Vehicles: " + vehicles + ", threads: " + threads + ", seconds: " + seconds);
+		for(int i = 0; i < WARMUP; i++) {
+			engine.process(fleet.nextBatch());
+		}
+		long fixes = engine.getFixes();
+		long reroutes = engine.getReroutes();
+		// Making up the fixes isn't timed, only the engine dealing with them.
+		long[] batchNanos = new long[seconds];
+		long total = 0;
+		for(int i = 0; i < seconds; i++) {
+			List<VehicleFix> batch = fleet.nextBatch();
+			long start = System.nanoTime();
+			engine.process(batch);
+			batchNanos[i] = System.nanoTime() - start;
+			total += batchNanos[i];
+		}
+		fixes = engine.getFixes() - fixes;
+		reroutes = engine.getReroutes() - reroutes;
+		long onCourse = 0;
+		long unmatched = 0;
+		for(Vehicle v : engine.getVehicles()) {
+			if(v.isOnCourse()) {
+				onCourse++;
+			}
+			unmatched += v.getUnmatched();
+		}
+		Arrays.sort(batchNanos);
+		System.out.println(String.format("Fixes: %d in %.1f ms, %.0f fixes/s", fixes, total / 1e6, fixes / (total / 1e9)));
+		System.out.println(String.format("Batch ms: median %.2f, p95 %.2f, max %.2f", batchNanos[seconds / 2] / 1e6,
+				batchNanos[(int) (seconds * .95)] / 1e6, batchNanos[seconds - 1] / 1e6));
+		System.out.println("Reroutes: " + reroutes + ", unmatched fixes: " + unmatched + ", failed: " + engine.getFailed()
+				+ ", on course now: " + onCourse + "/" + vehicles);
+		engine.shutdown();
+	}
+
+}
@@ -0,0 +1,131 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.Map;
+import routing.CostProfile;
+import routing.EdgeBasedSearch;
+import routing.EdgeWeights;
+import routing.Route;
+import routing.TurnRestrictions;
+
+/**
+ * Makes up fixes from a fleet of vehicles driving around a map, for load testing a
+ * TrackingEngine without any real devices.
+ *
+ * Every vehicle drives from a random node to another, and picks a new one when it gets there.
+ * The vehicles plan their routes with their own profile, which doesn't have to be the
+ * engine's, so they can be made to leave the routes the engine finds for them and get
+ * rerouted. Fixes have normally distributed noise. Everything comes from the seed, so the
+ * same seed makes the same fixes.
+ * @author david
+ *
+ */
+public class FleetGenerator {
+
+	/** How many random destinations are tried before a vehicle gives up and stays put. */
+	private static final int TRIES = 20;
+
+	private final Map map;
+	private final TrackingEngine engine;
+	private final EdgeWeights weights;
+	private final EdgeBasedSearch search;
+	private final Random rand;
+	private final double speed, sigma;
+	/** The time between fixes, in milliseconds. */
+	private final long period;
+	private final String[] ids;
+	private final RouteWalker[] walkers;
+	private long time = 0;
+
+	/**
+	 * Constructs a fleet and sends each vehicle off to its first destination.
+	 * @param m The map.
+	 * @param engine The engine told where the vehicles are going.
+	 * @param p The profile the vehicles plan their routes with.
+	 * @param vehicles The number of vehicles.
+	 * @param speed How fast the vehicles drive, in meters per second.
+	 * @param rate How many fixes each vehicle sends a second.
+	 * @param sigma The standard deviation of the noise on each fix, in meters.
+	 * @param seed The seed.
+	 */
+	public FleetGenerator(Map m, TrackingEngine engine, CostProfile p, int vehicles, double speed, double rate,
+			double sigma, long seed) {
+		map = m;
+		this.engine = engine;
+		weights = new EdgeWeights(m, p);
+		search = new EdgeBasedSearch(m, weights, new TurnRestrictions(m));
+		rand = new Random(seed);
+		this.speed = speed;
+		this.sigma = sigma;
+		period = Math.max(1, Math.round(1000 / rate));
+		ids = new String[vehicles];
+		walkers = new RouteWalker[vehicles];
+		for(int i = 0; i < vehicles; i++) {
+			ids[i] = "vehicle-" + i;
+			for(int t = 0; t < TRIES && walkers[i] == null; t++) {
+				dispatch(i, map.getNode(rand.nextInt(map.getNodeSize())));
+			}
+			if(walkers[i] == null) {
+				// Nowhere on the map goes anywhere, so it never sends a fix.
+				walkers[i] = new RouteWalker(new ArrayList<GraphEdge>());
+			}
+		}
+	}
+
+	/**
+	 * Moves every vehicle on by one fix and returns their fixes.
+	 * @return One fix from each vehicle.
+	 */
+	public List<VehicleFix> nextBatch() {
+		time += period;
+		List<VehicleFix> rtrn = new ArrayList<VehicleFix>(ids.length);
+		for(int i = 0; i < ids.length; i++) {
+			RouteWalker w = walkers[i];
+			if(!w.advance(speed * period / 1000) && w.getEnd() != null) {
+				// It's there, so it's off somewhere else from the next fix.
+				dispatch(i, w.getEnd());
+			}
+			double lon = w.getLon();
+			double lat = w.getLat();
+			if(Double.isNaN(lon)) {
+				continue;
+			}
+			lat += FlatPlane.degreesLat(rand.nextGaussian() * sigma);
+			lon += FlatPlane.degreesLon(rand.nextGaussian() * sigma, lat);
+			rtrn.add(new VehicleFix(ids[i], lon, lat, w.getHeading(), time));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the ids of the vehicles.
+	 * @return The ids.
+	 */
+	public String[] getIDs() {
+		return ids.clone();
+	}
+
+	/**
+	 * Sends a vehicle from a node to a random destination it can reach, telling the engine.
+	 * If there's nowhere it can reach, it stays where it was and tries again next time.
+	 */
+	private void dispatch(int i, GraphNode from) {
+		for(int t = 0; t < TRIES; t++) {
+			GraphNode to = map.getNode(rand.nextInt(map.getNodeSize()));
+			Route r = search.route(from, to, null);
+			if(r != null && !r.getEdges().isEmpty()) {
+				walkers[i] = new RouteWalker(r.getEdges());
+				if(engine != null) {
+					engine.setDestination(ids[i], to);
+				}
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,286 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import map_data.Node;
+import map_data.Relation;
+import map_data.Way;
+
+/**
+ * An area on the map that something can be inside or outside of, like a town boundary.
+ * It's one or more rings of longitude and latitude points, and a point is inside if it's
+ * inside an odd number of them, so holes work without knowing which rings are holes.
+ *
+ * For testing points quickly the edges of the rings get sorted into slabs, the horizontal
+ * bands between one vertex's latitude and the next. Every edge in a slab crosses it from
+ * top to bottom, so a point is inside if an odd number of its slab's edges are to its west.
+ * Finding the slab is a binary search, and the edges in it are sorted by their west end,
+ * so only the ones that start west of the point get looked at.
+ *
+ * Geofences are immutable.
+ * @author david
+ *
+ */
+public class Geofence {
+
+	private final String id;
+	private final String name;
+	private final double minLon, minLat, maxLon, maxLat;
+	/** The ends of every edge, with the southern end first. */
+	private final double[] x1, y1, x2, y2;
+	/** The latitudes the slabs are between, in order. Slab i is from slabLat[i] up to slabLat[i + 1]. */
+	private final double[] slabLat;
+	/** Where each slab's edges start in slabEdges. They go up to where the next slab's edges start. */
+	private final int[] slabStart;
+	/** The edges crossing each slab, sorted by their western longitude. */
+	private final int[] slabEdges;
+
+	/**
+	 * Constructs a geofence from its rings.
+	 * A ring that doesn't end where it starts is closed with a straight line.
+	 * @param id The id of the geofence.
+	 * @param name The name of the geofence.
+	 * @param rings The rings, each as longitude and latitude pairs, like {lon, lat, lon, lat, ...}.
+	 */
+	public Geofence(String id, String name, List<double[]> rings) {
+		this.id = id;
+		this.name = name;
+		int count = 0;
+		for(double[] r : rings) {
+			count += r.length / 2;
+		}
+		x1 = new double[count];
+		y1 = new double[count];
+		x2 = new double[count];
+		y2 = new double[count];
+		double[] lats = new double[count];
+		double lonMin = Double.POSITIVE_INFINITY, latMin = Double.POSITIVE_INFINITY;
+		double lonMax = Double.NEGATIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+		int edges = 0;
+		int points = 0;
+		for(double[] r : rings) {
+			int n = r.length / 2;
+			for(int i = 0; i < n; i++) {
+				double lon = r[2 * i], lat = r[2 * i + 1];
+				double nLon = r[2 * ((i + 1) % n)], nLat = r[2 * ((i + 1) % n) + 1];
+				lats[points++] = lat;
+				lonMin = Math.min(lonMin, lon);
+				lonMax = Math.max(lonMax, lon);
+				latMin = Math.min(latMin, lat);
+				latMax = Math.max(latMax, lat);
+				// Edges running east to west never cross a slab, so they're left out.
+				if(lat == nLat) {
+					continue;
+				}
+				boolean up = lat < nLat;
+				x1[edges] = up ? lon : nLon;
+				y1[edges] = up ? lat : nLat;
+				x2[edges] = up ? nLon : lon;
+				y2[edges] = up ? nLat : lat;
+				edges++;
+			}
+		}
+		minLon = lonMin;
+		minLat = latMin;
+		maxLon = lonMax;
+		maxLat = latMax;
+
+		Arrays.sort(lats, 0, points);
+		int slabs = 0;
+		for(int i = 0; i < points; i++) {
+			if(slabs == 0 || lats[i] != lats[slabs - 1]) {
+				lats[slabs++] = lats[i];
+			}
+		}
+		slabLat = Arrays.copyOf(lats, slabs);
+
+		// Counting the edges in each slab first so they can all go in one array.
+		int[] sizes = new int[Math.max(slabs, 1)];
+		for(int e = 0; e < edges; e++) {
+			for(int s = slab(y1[e]); slabLat[s] < y2[e]; s++) {
+				sizes[s]++;
+			}
+		}
+		slabStart = new int[Math.max(slabs, 1)];
+		int total = 0;
+		for(int s = 0; s < sizes.length; s++) {
+			slabStart[s] = total;
+			total += sizes[s];
+		}
+		Integer[] all = new Integer[total];
+		int[] fill = slabStart.clone();
+		for(int e = 0; e < edges; e++) {
+			for(int s = slab(y1[e]); slabLat[s] < y2[e]; s++) {
+				all[fill[s]++] = e;
+			}
+		}
+		Comparator<Integer> west = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(Math.min(x1[a], x2[a]), Math.min(x1[b], x2[b]));
+			}
+		};
+		slabEdges = new int[total];
+		for(int s = 0; s < sizes.length; s++) {
+			Arrays.sort(all, slabStart[s], slabStart[s] + sizes[s], west);
+		}
+		for(int i = 0; i < total; i++) {
+			slabEdges[i] = all[i];
+		}
+	}
+
+	/**
+	 * Assembles a geofence from the ways of a relation, joining ways that share an end into rings.
+	 * Ways can be listed in any order, so they're joined onto whichever end of a ring they fit.
+	 * Maps are often cut off partway through a boundary, so pieces that can't be joined into
+	 * a ring get closed with a straight line.
+	 * @param r The relation.
+	 * @return The geofence, or null if none of its ways are in the map.
+	 */
+	public static Geofence fromRelation(Relation r) {
+		LinkedList<List<Node>> chains = new LinkedList<List<Node>>();
+		for(Way w : r.getWays()) {
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			Iterator<Node> it = w.getNodeIt();
+			while(it.hasNext()) {
+				nodes.add(it.next());
+			}
+			if(nodes.size() > 1) {
+				chains.add(nodes);
+			}
+		}
+		ArrayList<double[]> rings = new ArrayList<double[]>();
+		while(!chains.isEmpty()) {
+			List<Node> ring = new ArrayList<Node>(chains.removeFirst());
+			boolean joined = true;
+			while(joined && !ring.get(0).equals(ring.get(ring.size() - 1))) {
+				joined = false;
+				Iterator<List<Node>> it = chains.iterator();
+				while(it.hasNext()) {
+					List<Node> c = it.next();
+					Node start = ring.get(0);
+					Node end = ring.get(ring.size() - 1);
+					// A chain can go on either end of the ring, and either way round.
+					if(c.get(0).equals(end)) {
+						ring.addAll(c.subList(1, c.size()));
+					} else if(c.get(c.size() - 1).equals(end)) {
+						for(int i = c.size() - 2; i >= 0; i--) {
+							ring.add(c.get(i));
+						}
+					} else if(c.get(c.size() - 1).equals(start)) {
+						ring.addAll(0, c.subList(0, c.size() - 1));
+					} else if(c.get(0).equals(start)) {
+						for(int i = 1; i < c.size(); i++) {
+							ring.add(0, c.get(i));
+						}
+					} else {
+						continue;
+					}
+					it.remove();
+					joined = true;
+					break;
+				}
+			}
+			if(ring.get(0).equals(ring.get(ring.size() - 1))) {
+				ring.remove(ring.size() - 1);
+			}
+			if(ring.size() < 3) {
+				continue;
+			}
+			double[] pts = new double[ring.size() * 2];
+			for(int i = 0; i < ring.size(); i++) {
+				pts[2 * i] = ring.get(i).getLon();
+				pts[2 * i + 1] = ring.get(i).getLat();
+			}
+			rings.add(pts);
+		}
+		if(rings.isEmpty()) {
+			return null;
+		}
+		String name = r.getTagVal("name");
+		return new Geofence(r.getID(), name == null ? "Relation " + r.getID() : name, rings);
+	}
+
+	/**
+	 * Returns whether a point is inside the geofence. Points right on an edge can go either way.
+	 * @param lon The longitude of the point.
+	 * @param lat The latitude of the point.
+	 * @return True if it's inside.
+	 */
+	public boolean contains(double lon, double lat) {
+		if(lon < minLon || lon > maxLon || lat < minLat || lat >= maxLat) {
+			return false;
+		}
+		int s = slab(lat);
+		boolean inside = false;
+		for(int i = slabStart[s], end = endOf(s); i < end; i++) {
+			int e = slabEdges[i];
+			if(Math.min(x1[e], x2[e]) > lon) {
+				break;
+			}
+			double x = x1[e] + (lat - y1[e]) * (x2[e] - x1[e]) / (y2[e] - y1[e]);
+			if(x < lon) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Returns the id of the geofence, which is the relation's id for ones from the map.
+	 * @return The id.
+	 */
+	public String getID() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the geofence.
+	 * @return The name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public double getMinLon() {
+		return minLon;
+	}
+
+	public double getMinLat() {
+		return minLat;
+	}
+
+	public double getMaxLon() {
+		return maxLon;
+	}
+
+	public double getMaxLat() {
+		return maxLat;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Returns the slab a latitude is in, which is the last one starting at or below it.
+	 */
+	private int slab(double lat) {
+		int i = Arrays.binarySearch(slabLat, lat);
+		return i >= 0 ? i : Math.max(-i - 2, 0);
+	}
+
+	/**
+	 * Returns where a slab's edges end in slabEdges.
+	 */
+	private int endOf(int s) {
+		return s + 1 < slabStart.length ? slabStart[s + 1] : slabEdges.length;
+	}
+
+}
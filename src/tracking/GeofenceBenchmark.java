@@ -0,0 +1,140 @@
+package tracking;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.starkeffect.highway.GPSEvent;
+
+import map_data.Map;
+import map_data.OSMParser;
+
+/**
+ * Times a GeofenceMonitor with more and more geofences, to show how much a fix costs as
+ * the number of fences grows.
+ *
+ * Besides the boundaries on the map it makes up fences scattered over it, each a lumpy
+ * ring of points around a random center. The fixes come from something wandering around
+ * the map at driving speed, turning a little every fix, which crosses a lot more fences than
+ * a drive on the roads would without needing any routes found. The same fixes are checked
+ * against every count of fences, and for each one a sample of them is also checked against
+ * every fence the slow way, to make sure the index found the same ones.
+ *
+ * Usage: java tracking.GeofenceBenchmark map.osm [fences] [fixes] [seed]
+ * @author david
+ *
+ */
+public class GeofenceBenchmark {
+
+	/** How many points each made up fence has. */
+	private static final int POINTS = 32;
+	/** The smallest and largest made up fence, in meters across. */
+	private static final double MIN_SIZE = 100, MAX_SIZE = 800;
+	/** How many fixes get checked the slow way for each count of fences. */
+	private static final int SAMPLE = 1000;
+	/** The standard deviation of how far it turns each fix, in degrees. */
+	private static final double TURN = 10;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java tracking.GeofenceBenchmark map.osm [fences] [fixes] [seed]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		int max = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		GeofenceIndex mapFences = GeofenceIndex.fromMap(m);
+		System.out.println("Boundaries on the map: " + mapFences.size());
+		Random rand = new Random(seed);
+		ArrayList<Geofence> madeUp = new ArrayList<Geofence>();
+		for(int i = 0; i < max; i++) {
+			madeUp.add(makeFence(m, "fence " + i, rand));
+		}
+		GPSEvent[] fixes = wander(m, count, rand);
+
+		for(int n = 10; ; n = Math.min(n * 10, max)) {
+			List<Geofence> fences = new ArrayList<Geofence>(mapFences.getFences());
+			fences.addAll(madeUp.subList(0, Math.min(n, max)));
+			GeofenceIndex index = new GeofenceIndex(fences);
+			GeofenceMonitor monitor = new GeofenceMonitor(index);
+			// Once through untimed so the JIT has settled.
+			for(GPSEvent f : fixes) {
+				monitor.update(f);
+			}
+			monitor.clear();
+			long events = monitor.getEvents();
+			long start = System.nanoTime();
+			for(GPSEvent f : fixes) {
+				monitor.update(f);
+			}
+			long nanos = System.nanoTime() - start;
+			events = monitor.getEvents() - events;
+			int wrong = 0;
+			for(int i = 0; i < SAMPLE && i < count; i++) {
+				GPSEvent f = fixes[i * (count / Math.min(SAMPLE, count))];
+				List<Geofence> slow = new ArrayList<Geofence>();
+				for(Geofence g : fences) {
+					if(g.contains(f.getLongitude(), f.getLatitude())) {
+						slow.add(g);
+					}
+				}
+				if(!slow.equals(index.find(f.getLongitude(), f.getLatitude()))) {
+					wrong++;
+				}
+			}
+			System.out.println(String.format("Fences: %6d, %.0f ns/fix, %.0f fixes/s, crossings: %d, wrong: %d/%d",
+					fences.size(), (double) nanos / count, count / (nanos / 1e9), events, wrong, Math.min(SAMPLE, count)));
+			if(n >= max) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Makes up fixes from something wandering around the map, turning back when it reaches the edge.
+	 */
+	private static GPSEvent[] wander(Map m, int count, Random rand) {
+		GPSEvent[] rtrn = new GPSEvent[count];
+		double lon = (m.getLonMin() + m.getLonMax()) / 2;
+		double lat = (m.getLatMin() + m.getLatMax()) / 2;
+		double heading = rand.nextDouble() * 360;
+		for(int i = 0; i < count; i++) {
+			heading += rand.nextGaussian() * TURN;
+			double step = SimulatedGPS.DEFAULT_SPEED;
+			double nLon = lon + FlatPlane.degreesLon(step * Math.sin(Math.toRadians(heading)), lat);
+			double nLat = lat + FlatPlane.degreesLat(step * Math.cos(Math.toRadians(heading)));
+			if(nLon < m.getLonMin() || nLon > m.getLonMax() || nLat < m.getLatMin() || nLat > m.getLatMax()) {
+				heading += 180;
+			} else {
+				lon = nLon;
+				lat = nLat;
+			}
+			heading = ((heading % 360) + 360) % 360;
+			rtrn[i] = new VehicleFix("wanderer", lon, lat, heading, SimulatedGPS.START_TIME + i * 1000L);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Makes up a lumpy fence around a random point on the map.
+	 */
+	private static Geofence makeFence(Map m, String name, Random rand) {
+		double lon = m.getLonMin() + rand.nextDouble() * (m.getLonMax() - m.getLonMin());
+		double lat = m.getLatMin() + rand.nextDouble() * (m.getLatMax() - m.getLatMin());
+		double size = MIN_SIZE + rand.nextDouble() * (MAX_SIZE - MIN_SIZE);
+		double[] ring = new double[POINTS * 2];
+		for(int i = 0; i < POINTS; i++) {
+			double angle = 2 * Math.PI * i / POINTS;
+			double r = size / 2 * (0.5 + rand.nextDouble() * 0.5);
+			ring[2 * i] = lon + FlatPlane.degreesLon(r * Math.sin(angle), lat);
+			ring[2 * i + 1] = lat + FlatPlane.degreesLat(r * Math.cos(angle));
+		}
+		ArrayList<double[]> rings = new ArrayList<double[]>();
+		rings.add(ring);
+		return new Geofence(name, name, rings);
+	}
+
+}
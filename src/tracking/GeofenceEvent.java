@@ -0,0 +1,70 @@
+package tracking;
+
+import com.starkeffect.highway.GPSEvent;
+
+/**
+ * A vehicle going into or out of a geofence.
+ *
+ * Events are immutable.
+ * @author david
+ *
+ */
+public class GeofenceEvent {
+
+	private final String vehicle;
+	private final Geofence fence;
+	private final boolean entered;
+	private final GPSEvent fix;
+
+	/**
+	 * Constructs an event.
+	 * @param vehicle The id of the vehicle.
+	 * @param fence The geofence.
+	 * @param entered True if the vehicle went in, false if it went out.
+	 * @param fix The first fix on the new side of the fence.
+	 */
+	public GeofenceEvent(String vehicle, Geofence fence, boolean entered, GPSEvent fix) {
+		this.vehicle = vehicle;
+		this.fence = fence;
+		this.entered = entered;
+		this.fix = fix;
+	}
+
+	/**
+	 * Returns the id of the vehicle that crossed the fence.
+	 * @return The vehicle id.
+	 */
+	public String getVehicle() {
+		return vehicle;
+	}
+
+	/**
+	 * Returns the geofence that was crossed.
+	 * @return The geofence.
+	 */
+	public Geofence getFence() {
+		return fence;
+	}
+
+	/**
+	 * Returns whether the vehicle went into the fence or out of it.
+	 * @return True if it went in.
+	 */
+	public boolean isEntered() {
+		return entered;
+	}
+
+	/**
+	 * Returns the fix that showed the vehicle had crossed.
+	 * @return The first fix on the new side of the fence.
+	 */
+	public GPSEvent getFix() {
+		return fix;
+	}
+
+	@Override
+	public String toString() {
+		return (entered ? "Entered " : "Left ") + fence.getName();
+	}
+
+}
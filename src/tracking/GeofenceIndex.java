@@ -0,0 +1,207 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import map_data.Map;
+import map_data.Relation;
+
+/**
+ * Finds the geofences a point is inside of, out of however many there are.
+ *
+ * The fences' bounding boxes go in an R-tree, packed all at once by sorting them into
+ * vertical slices and then packing each slice from south to north, which keeps the boxes
+ * at each level from overlapping much. Looking up a point only goes down the branches whose
+ * boxes have the point in them, and only the fences at the bottom of those get tested.
+ *
+ * Indexes are immutable, so any number of threads can look things up at once.
+ * @author david
+ *
+ */
+public class GeofenceIndex {
+
+	/** How many children each box in the tree has at most. */
+	private static final int FANOUT = 16;
+
+	private final List<Geofence> fences;
+	/** The top of the tree, or null if there are no fences. */
+	private final Box root;
+
+	/**
+	 * Indexes some geofences.
+	 * @param fences The geofences.
+	 */
+	public GeofenceIndex(List<Geofence> fences) {
+		this.fences = Collections.unmodifiableList(new ArrayList<Geofence>(fences));
+		List<Box> level = new ArrayList<Box>();
+		for(int i = 0; i < this.fences.size(); i++) {
+			level.add(new Box(this.fences.get(i), i));
+		}
+		while(level.size() > FANOUT) {
+			level = pack(level);
+		}
+		root = level.isEmpty() ? null : level.size() == 1 ? level.get(0) : new Box(level);
+	}
+
+	/**
+	 * Indexes the boundaries on a map, the same relations the map panel draws as boundaries.
+	 * @param m The map.
+	 * @return The index.
+	 */
+	public static GeofenceIndex fromMap(Map m) {
+		ArrayList<Geofence> fences = new ArrayList<Geofence>();
+		Iterator<Relation> it = m.getRelationsIt();
+		while(it.hasNext()) {
+			Relation r = it.next();
+			if(r.getTagVal("boundary") != null) {
+				Geofence g = Geofence.fromRelation(r);
+				if(g != null) {
+					fences.add(g);
+				}
+			}
+		}
+		// The relations come out of a hash map, so they're sorted to always come out the same.
+		Collections.sort(fences, new Comparator<Geofence>() {
+			@Override
+			public int compare(Geofence a, Geofence b) {
+				return a.getID().compareTo(b.getID());
+			}
+		});
+		return new GeofenceIndex(fences);
+	}
+
+	/**
+	 * Returns the geofences a point is inside of.
+	 * @param lon The longitude of the point.
+	 * @param lat The latitude of the point.
+	 * @return The geofences, in the order they were indexed.
+	 */
+	public List<Geofence> find(double lon, double lat) {
+		ArrayList<Box> found = new ArrayList<Box>(2);
+		if(root != null) {
+			find(root, lon, lat, found);
+		}
+		if(found.size() > 1) {
+			// The tree doesn't keep them in order, but comparing one fix's fences with the last's is easier if they are.
+			Collections.sort(found, new Comparator<Box>() {
+				@Override
+				public int compare(Box a, Box b) {
+					return a.index - b.index;
+				}
+			});
+		}
+		ArrayList<Geofence> rtrn = new ArrayList<Geofence>(found.size());
+		for(Box b : found) {
+			rtrn.add(b.fence);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns every geofence in the index.
+	 * @return The unmodifiable list of geofences, in the order they were indexed.
+	 */
+	public List<Geofence> getFences() {
+		return fences;
+	}
+
+	/**
+	 * Returns the number of geofences in the index.
+	 * @return The count.
+	 */
+	public int size() {
+		return fences.size();
+	}
+
+	private void find(Box b, double lon, double lat, List<Box> out) {
+		if(!b.contains(lon, lat)) {
+			return;
+		}
+		if(b.fence != null) {
+			if(b.fence.contains(lon, lat)) {
+				out.add(b);
+			}
+			return;
+		}
+		for(Box c : b.children) {
+			find(c, lon, lat, out);
+		}
+	}
+
+	/**
+	 * Packs one level of the tree into the level above it.
+	 */
+	private static List<Box> pack(List<Box> level) {
+		int parents = (level.size() + FANOUT - 1) / FANOUT;
+		int slices = (int) Math.ceil(Math.sqrt(parents));
+		int perSlice = slices * FANOUT;
+		ArrayList<Box> sorted = new ArrayList<Box>(level);
+		Collections.sort(sorted, new Comparator<Box>() {
+			@Override
+			public int compare(Box a, Box b) {
+				return Double.compare(a.minLon + a.maxLon, b.minLon + b.maxLon);
+			}
+		});
+		ArrayList<Box> rtrn = new ArrayList<Box>(parents);
+		for(int s = 0; s < sorted.size(); s += perSlice) {
+			List<Box> slice = new ArrayList<Box>(sorted.subList(s, Math.min(sorted.size(), s + perSlice)));
+			Collections.sort(slice, new Comparator<Box>() {
+				@Override
+				public int compare(Box a, Box b) {
+					return Double.compare(a.minLat + a.maxLat, b.minLat + b.maxLat);
+				}
+			});
+			for(int i = 0; i < slice.size(); i += FANOUT) {
+				rtrn.add(new Box(slice.subList(i, Math.min(slice.size(), i + FANOUT))));
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * A box in the tree, which either holds a fence or the boxes below it.
+	 */
+	private static class Box {
+		final double minLon, minLat, maxLon, maxLat;
+		final Geofence fence;
+		/** Where the fence is in the index, or -1 for a box holding other boxes. */
+		final int index;
+		final Box[] children;
+
+		Box(Geofence g, int index) {
+			minLon = g.getMinLon();
+			minLat = g.getMinLat();
+			maxLon = g.getMaxLon();
+			maxLat = g.getMaxLat();
+			fence = g;
+			this.index = index;
+			children = null;
+		}
+
+		Box(List<Box> kids) {
+			double lonMin = Double.POSITIVE_INFINITY, latMin = Double.POSITIVE_INFINITY;
+			double lonMax = Double.NEGATIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+			for(Box k : kids) {
+				lonMin = Math.min(lonMin, k.minLon);
+				latMin = Math.min(latMin, k.minLat);
+				lonMax = Math.max(lonMax, k.maxLon);
+				latMax = Math.max(latMax, k.maxLat);
+			}
+			minLon = lonMin;
+			minLat = latMin;
+			maxLon = lonMax;
+			maxLat = latMax;
+			fence = null;
+			index = -1;
+			children = kids.toArray(new Box[kids.size()]);
+		}
+
+		boolean contains(double lon, double lat) {
+			return lon >= minLon && lon <= maxLon && lat >= minLat && lat <= maxLat;
+		}
+	}
+
+}
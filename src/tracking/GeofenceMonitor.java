@@ -0,0 +1,215 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.starkeffect.highway.GPSEvent;
+import com.starkeffect.highway.GPSListener;
+
+/**
+ * Watches a stream of GPS fixes and says when a vehicle goes into or out of a geofence.
+ *
+ * It remembers which fences each vehicle is inside. Each new fix gets looked up in the
+ * index, which only tests the few fences whose boxes it's in, and the fences it's inside
+ * now get compared with the ones from before. So a fix costs about the same whether there
+ * are ten fences or ten thousand, as long as they don't all overlap.
+ *
+ * Fixes from a VehicleFix are kept apart by vehicle, and everything else counts as one
+ * vehicle, like the fixes from the gps device. Fixes from different vehicles can come in
+ * on any threads, but one vehicle's fixes should come in order on one thread at a time.
+ * A vehicle starts out inside no fences.
+ *
+ * Boundaries often run right along roads, so the noise in the fixes would have a vehicle
+ * driving along one going in and out every few seconds. So a vehicle has to be seen inside
+ * the same fences for a few fixes in a row before it counts as having crossed.
+ * Listeners are told on whichever thread the fix came in on.
+ * @author david
+ *
+ */
+public class GeofenceMonitor implements GPSListener {
+
+	/** The id of fixes that don't say what vehicle they're from. */
+	public static final String DEFAULT_VEHICLE = "gps";
+	/** How many fixes in a row it takes to cross a fence when no count is given. */
+	public static final int DEFAULT_CONFIRM = 3;
+
+	/**
+	 * Something that wants to know when vehicles cross geofences.
+	 * @author david
+	 *
+	 */
+	public interface GeofenceListener {
+		/**
+		 * Called when a vehicle goes into or out of a geofence.
+		 * @param e The event.
+		 */
+		void fenceCrossed(GeofenceEvent e);
+	}
+
+	private final GeofenceIndex index;
+	private final int confirm;
+	private final CopyOnWriteArrayList<GeofenceListener> listeners = new CopyOnWriteArrayList<GeofenceListener>();
+	private final ConcurrentHashMap<String, Presence> presence = new ConcurrentHashMap<String, Presence>();
+	private final AtomicLong fixes = new AtomicLong();
+	private final AtomicLong events = new AtomicLong();
+
+	/**
+	 * Constructs a monitor that takes DEFAULT_CONFIRM fixes to cross a fence.
+	 * @param index The geofences to watch.
+	 */
+	public GeofenceMonitor(GeofenceIndex index) {
+		this(index, DEFAULT_CONFIRM);
+	}
+
+	/**
+	 * Constructs a monitor.
+	 * @param index The geofences to watch.
+	 * @param confirm How many fixes in a row a vehicle has to be seen inside the same fences to cross.
+	 */
+	public GeofenceMonitor(GeofenceIndex index, int confirm) {
+		if(confirm < 1) {
+			throw new IllegalArgumentException("It takes at least one fix to cross a fence, not " + confirm);
+		}
+		this.index = index;
+		this.confirm = confirm;
+	}
+
+	/**
+	 * Adds a listener to be told about every crossing.
+	 * @param l The listener.
+	 */
+	public void addGeofenceListener(GeofenceListener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Stops telling a listener about crossings.
+	 * @param l The listener.
+	 */
+	public void removeGeofenceListener(GeofenceListener l) {
+		listeners.remove(l);
+	}
+
+	@Override
+	public void processEvent(GPSEvent e) {
+		update(e);
+	}
+
+	/**
+	 * Checks a fix against the geofences and tells the listeners about any crossings.
+	 * @param e The fix.
+	 * @return The crossings, exits first, or an empty list if there weren't any.
+	 */
+	public List<GeofenceEvent> update(GPSEvent e) {
+		fixes.incrementAndGet();
+		String vehicle = e instanceof VehicleFix ? ((VehicleFix) e).getVehicle() : DEFAULT_VEHICLE;
+		List<Geofence> now = index.find(e.getLongitude(), e.getLatitude());
+		Presence p = presence.get(vehicle);
+		if(p == null) {
+			Presence fresh = new Presence();
+			p = presence.putIfAbsent(vehicle, fresh);
+			p = p == null ? fresh : p;
+		}
+		// Nearly every fix is inside the same fences as the last, so that's checked before anything else.
+		if(now.equals(p.inside)) {
+			p.pending = null;
+			return Collections.emptyList();
+		}
+		if(now.equals(p.pending)) {
+			p.seen++;
+		} else {
+			p.pending = now;
+			p.seen = 1;
+		}
+		if(p.seen < confirm) {
+			return Collections.emptyList();
+		}
+		List<Geofence> before = p.inside;
+		p.inside = now;
+		p.pending = null;
+		List<GeofenceEvent> rtrn = new ArrayList<GeofenceEvent>();
+		for(Geofence g : before) {
+			if(!now.contains(g)) {
+				rtrn.add(new GeofenceEvent(vehicle, g, false, e));
+			}
+		}
+		for(Geofence g : now) {
+			if(!before.contains(g)) {
+				rtrn.add(new GeofenceEvent(vehicle, g, true, e));
+			}
+		}
+		events.addAndGet(rtrn.size());
+		for(GeofenceEvent ge : rtrn) {
+			for(GeofenceListener l : listeners) {
+				l.fenceCrossed(ge);
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the geofences a vehicle counts as being inside.
+	 * @param vehicle The id of the vehicle.
+	 * @return The geofences, empty if it hasn't sent a fix.
+	 */
+	public List<Geofence> getInside(String vehicle) {
+		Presence p = presence.get(vehicle);
+		return p == null ? Collections.<Geofence>emptyList() : Collections.unmodifiableList(p.inside);
+	}
+
+	/**
+	 * Forgets a vehicle, so its next fix counts as its first.
+	 * @param vehicle The id of the vehicle.
+	 */
+	public void forget(String vehicle) {
+		presence.remove(vehicle);
+	}
+
+	/**
+	 * Forgets every vehicle.
+	 */
+	public void clear() {
+		presence.clear();
+	}
+
+	/**
+	 * Returns the geofences being watched.
+	 * @return The index of the geofences.
+	 */
+	public GeofenceIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the number of fixes checked.
+	 * @return The fix count.
+	 */
+	public long getFixes() {
+		return fixes.get();
+	}
+
+	/**
+	 * Returns the number of crossings found.
+	 * @return The crossing count.
+	 */
+	public long getEvents() {
+		return events.get();
+	}
+
+	/**
+	 * Which fences a vehicle is inside, and which it might be crossing into.
+	 */
+	private static class Presence {
+		/** The fences it's inside, in the order they were indexed. */
+		volatile List<Geofence> inside = Collections.emptyList();
+		/** The fences it's been seen inside lately, if they're different, or null. */
+		List<Geofence> pending;
+		/** How many fixes in a row it's been seen inside the pending fences. */
+		int seen;
+	}
+
+}
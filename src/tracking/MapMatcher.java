@@ -0,0 +1,402 @@
+package tracking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.starkeffect.highway.GPSEvent;
+
+import graph_interfaces.GraphEdge;
+import map_data.Map;
+import map_data.Node;
+import map_data.RoadEdge;
+import routing.IndexedHeap;
+import routing.SearchWorkspace;
+
+/**
+ * Snaps a stream of GPS fixes onto the road edges they were most likely driven on.
+ *
+ * It's a hidden Markov model, the usual one for map matching. The hidden states are points on
+ * the edges near each fix, found through an EdgeIndex. A state is more likely the closer it is
+ * to its fix, with the GPS error taken as normally distributed. Moving from one state to the
+ * next is more likely the closer the driving distance between them is to the straight line
+ * distance between the fixes, since people rarely drive somewhere out of the way and back
+ * between two fixes.
+ *
+ * The most likely states are found with the Viterbi algorithm, one fix at a time. Each fix
+ * gives the best state so far right away. Only the last few fixes are kept, so the smoothed
+ * path through them, which can change its mind about earlier fixes once later ones come in,
+ * costs the same however long the drive goes on. If no state can be reached from the ones
+ * before, like after a tunnel, matching starts over from that fix.
+ *
+ * Driving distances come from short searches over the road edges that stop once they're
+ * further than any plausible move. The last few are cached by the node they start at, since
+ * fixes on the same street keep starting from the same few nodes.
+ *
+ * For going over whole drives after the fact, the matcher can keep the positions of the
+ * fixes as they leave the window. Nothing that comes later can change them by then.
+ *
+ * Matchers keep the state of one drive and aren't meant to be shared between threads.
+ * @author david
+ *
+ */
+public class MapMatcher {
+
+	/** The standard deviation of GPS error when none is given, in meters. */
+	public static final double DEFAULT_SIGMA = 5;
+	/** How much driving distance can differ from straight line distance, in meters, when none is given. */
+	public static final double DEFAULT_BETA = 10;
+	/** The number of fixes kept for the smoothed path. */
+	public static final int DEFAULT_WINDOW = 10;
+	/** The most candidate edges per fix. */
+	private static final int MAX_CANDIDATES = 8;
+	/** Edges further than this many sigmas from a fix aren't candidates. */
+	private static final double CANDIDATE_SIGMAS = 5;
+	/** How much further than the straight line distance the searches for driving distance go. */
+	private static final double DETOUR = 200;
+	/** The number of searches kept in the cache. */
+	private static final int CACHE_SIZE = 256;
+
+	private final Map map;
+	private final EdgeIndex index;
+	private final double sigma, beta;
+	private final int window;
+	/** The fixes in the window, oldest first. */
+	private final ArrayDeque<Step> steps = new ArrayDeque<Step>();
+	/** Driving distances from recently searched nodes, least recently used first. */
+	private final LinkedHashMap<Node, Reach> cache = new LinkedHashMap<Node, Reach>(16, .75f, true);
+	private long fixes, restarts, searches;
+	/** The positions of fixes that have left the window, oldest first, or null if they aren't kept. */
+	private ArrayList<EdgePosition> settled;
+
+	/**
+	 * Constructs a matcher with the default noise and window.
+	 * @param m The map.
+	 * @param index The index of the map's edges.
+	 */
+	public MapMatcher(Map m, EdgeIndex index) {
+		this(m, index, DEFAULT_SIGMA, DEFAULT_BETA, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Constructs a matcher.
+	 * @param m The map.
+	 * @param index The index of the map's edges.
+	 * @param sigma The standard deviation of GPS error, in meters.
+	 * @param beta How much driving distance usually differs from straight line distance between fixes, in meters.
+	 * @param window The number of fixes kept for the smoothed path.
+	 */
+	public MapMatcher(Map m, EdgeIndex index, double sigma, double beta, int window) {
+		map = m;
+		this.index = index;
+		this.sigma = sigma;
+		this.beta = beta;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Matches a GPS fix.
+	 * @param e The fix.
+	 * @return The most likely position on the road so far, or null if there's no road near the fix.
+	 */
+	public EdgePosition update(GPSEvent e) {
+		return update(e.getLongitude(), e.getLatitude());
+	}
+
+	/**
+	 * Matches a position.
+	 * @param lon The longitude.
+	 * @param lat The latitude.
+	 * @return The most likely position on the road so far, or null if there's no road near it.
+	 */
+	public EdgePosition update(double lon, double lat) {
+		fixes++;
+		List<EdgePosition> cands = index.near(lon, lat, sigma * CANDIDATE_SIGMAS, MAX_CANDIDATES);
+		if(cands.isEmpty()) {
+			// Nothing to snap to. The fix is skipped and the next one carries on from the last.
+			return null;
+		}
+		Step step = new Step(lon, lat, cands);
+		Step prev = steps.peekLast();
+		boolean connected = false;
+		if(prev != null) {
+			double straight = index.distance(prev.lon, prev.lat, lon, lat);
+			for(int j = 0; j < step.size(); j++) {
+				EdgePosition b = step.cands[j];
+				for(int i = 0; i < prev.size(); i++) {
+					if(prev.score[i] == Double.NEGATIVE_INFINITY) {
+						continue;
+					}
+					double drive = drivingDistance(prev.cands[i], b, straight + DETOUR);
+					if(drive == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+					double s = prev.score[i] - Math.abs(drive - straight) / beta;
+					if(s > step.score[j]) {
+						step.score[j] = s;
+						step.back[j] = i;
+					}
+				}
+				if(step.score[j] > Double.NEGATIVE_INFINITY) {
+					connected = true;
+				}
+			}
+		}
+		if(!connected) {
+			if(prev != null) {
+				restarts++;
+			}
+			if(settled != null) {
+				settled.addAll(getPath());
+			}
+			steps.clear();
+			for(int j = 0; j < step.size(); j++) {
+				step.score[j] = 0;
+				step.back[j] = -1;
+			}
+		}
+		double best = Double.NEGATIVE_INFINITY;
+		for(int j = 0; j < step.size(); j++) {
+			if(step.score[j] > Double.NEGATIVE_INFINITY) {
+				double off = step.cands[j].getOffset() / sigma;
+				step.score[j] -= .5 * off * off;
+			}
+			best = Math.max(best, step.score[j]);
+		}
+		// Scores only matter relative to each other, so they're kept from drifting off.
+		for(int j = 0; j < step.size(); j++) {
+			step.score[j] -= best;
+		}
+		steps.addLast(step);
+		if(steps.size() > window) {
+			if(settled != null) {
+				settled.add(getPath().get(0));
+			}
+			steps.removeFirst();
+			// Nothing points back past the oldest step kept.
+			Step first = steps.peekFirst();
+			for(int j = 0; j < first.size(); j++) {
+				first.back[j] = -1;
+			}
+		}
+		return step.cands[step.best()];
+	}
+
+	/**
+	 * Returns the most likely positions of the fixes in the window, oldest first. Earlier
+	 * positions can differ from what update returned for them, since later fixes say more.
+	 * @return The smoothed positions.
+	 */
+	public List<EdgePosition> getPath() {
+		LinkedList<EdgePosition> rtrn = new LinkedList<EdgePosition>();
+		Iterator<Step> it = steps.descendingIterator();
+		int j = -1;
+		while(it.hasNext()) {
+			Step s = it.next();
+			if(j < 0) {
+				j = s.best();
+			}
+			rtrn.addFirst(s.cands[j]);
+			j = s.back[j];
+			if(j < 0) {
+				break;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Forgets the drive so far, so the next fix starts fresh.
+	 */
+	public void reset() {
+		steps.clear();
+	}
+
+	/**
+	 * Sets whether the positions of fixes are kept as they leave the window.
+	 * Turning it off throws away any that haven't been taken.
+	 * @param keep True to keep them.
+	 */
+	public void setKeepSettled(boolean keep) {
+		settled = keep ? new ArrayList<EdgePosition>() : null;
+	}
+
+	/**
+	 * Ends the drive, so the positions of the fixes still in the window are settled too,
+	 * and the next fix starts fresh.
+	 */
+	public void settle() {
+		if(settled != null) {
+			settled.addAll(getPath());
+		}
+		steps.clear();
+	}
+
+	/**
+	 * Returns the positions of the fixes that have been settled since the last time this was
+	 * called. Fixes with no road near them don't have one.
+	 * @return The positions, oldest first, or an empty list if they aren't being kept.
+	 */
+	public List<EdgePosition> takeSettled() {
+		if(settled == null || settled.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<EdgePosition> rtrn = settled;
+		settled = new ArrayList<EdgePosition>();
+		return rtrn;
+	}
+
+	/**
+	 * Returns the number of fixes matched.
+	 * @return The fix count.
+	 */
+	public long getFixes() {
+		return fixes;
+	}
+
+	/**
+	 * Returns how many times matching had to start over because no road led to the next fix.
+	 * @return The restart count.
+	 */
+	public long getRestarts() {
+		return restarts;
+	}
+
+	/**
+	 * Returns how many searches for driving distance had to be run, rather than read from the cache.
+	 * @return The search count.
+	 */
+	public long getSearches() {
+		return searches;
+	}
+
+	/**
+	 * Returns the driving distance from one position to another.
+	 * @param limit Distances past this don't matter.
+	 * @return The distance in meters, or infinity if it's past the limit.
+	 */
+	private double drivingDistance(EdgePosition a, EdgePosition b, double limit) {
+		RoadEdge ea = a.getEdge();
+		RoadEdge eb = b.getEdge();
+		if(ea.equals(eb)) {
+			double along = (b.getFraction() - a.getFraction()) * ea.getLength();
+			// A little backwards along the same edge is GPS noise, so it counts as staying put.
+			// Any more and it's a turn around, which goes through the end like any other move.
+			if(along >= 0 || -along <= 2 * sigma) {
+				return Math.max(0, along);
+			}
+		}
+		double toEnd = a.getRemaining();
+		double fromStart = b.getFraction() * eb.getLength();
+		double between = limit - toEnd - fromStart;
+		if(between < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double d = reach(ea.getEndNode(), between).get(eb.getStartNode());
+		return d == Double.POSITIVE_INFINITY ? d : toEnd + d + fromStart;
+	}
+
+	/**
+	 * Returns the driving distances from a node out to some limit, from the cache if it went far enough.
+	 */
+	private Reach reach(Node from, double limit) {
+		Reach r = cache.get(from);
+		if(r != null && r.limit >= limit) {
+			return r;
+		}
+		searches++;
+		r = new Reach(limit);
+		SearchWorkspace ws = SearchWorkspace.forThread(map.getNodeSize());
+		ws.begin();
+		IndexedHeap heap = ws.getHeap();
+		ws.reach(from.getIndex(), 0, null);
+		heap.insert(from.getIndex(), 0);
+		while(!heap.isEmpty() && heap.peekKey() <= limit) {
+			int u = heap.poll();
+			ws.settle(u);
+			double du = ws.getDist(u);
+			r.dist.put(u, du);
+			Iterator<GraphEdge> it = map.getNode(u).getEdgeIt();
+			while(it.hasNext()) {
+				GraphEdge e = it.next();
+				int v = e.getEndNode().getIndex();
+				double dv = du + e.getLength();
+				if(!ws.isSettled(v) && dv < ws.getDist(v)) {
+					ws.reach(v, dv, null);
+					heap.insertOrDecrease(v, dv);
+				}
+			}
+		}
+		cache.put(from, r);
+		if(cache.size() > CACHE_SIZE) {
+			Iterator<Node> it = cache.keySet().iterator();
+			it.next();
+			it.remove();
+		}
+		return r;
+	}
+
+	/**
+	 * The driving distances from a node to everything within a limit.
+	 */
+	private static class Reach {
+		private final double limit;
+		private final HashMap<Integer, Double> dist = new HashMap<Integer, Double>();
+
+		Reach(double limit) {
+			this.limit = limit;
+		}
+
+		/**
+		 * Returns the distance to a node, or infinity if it's past the limit.
+		 */
+		double get(Node n) {
+			Double d = dist.get(n.getIndex());
+			return d == null ? Double.POSITIVE_INFINITY : d;
+		}
+	}
+
+	/**
+	 * One fix in the window, with its candidates, their scores and where each best came from.
+	 */
+	private static class Step {
+		private final double lon, lat;
+		private final EdgePosition[] cands;
+		/** The log likelihood of the best way to each candidate. */
+		private final double[] score;
+		/** The candidate of the step before that the best way comes from, or -1. */
+		private final int[] back;
+
+		Step(double lon, double lat, List<EdgePosition> list) {
+			this.lon = lon;
+			this.lat = lat;
+			cands = list.toArray(new EdgePosition[list.size()]);
+			score = new double[cands.length];
+			back = new int[cands.length];
+			for(int i = 0; i < cands.length; i++) {
+				score[i] = Double.NEGATIVE_INFINITY;
+				back[i] = -1;
+			}
+		}
+
+		int size() {
+			return cands.length;
+		}
+
+		int best() {
+			int rtrn = 0;
+			for(int i = 1; i < cands.length; i++) {
+				if(score[i] > score[rtrn]) {
+					rtrn = i;
+				}
+			}
+			return rtrn;
+		}
+	}
+
+}
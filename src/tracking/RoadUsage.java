@@ -0,0 +1,192 @@
+package tracking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many times each road edge of a map was driven, numbered the way an EdgeIndex numbers them.
+ *
+ * Each edge's count is a LongAdder, which spreads updates from different threads over
+ * separate cells instead of having them all fight over one, so any number of threads can
+ * add to the counts at once.
+ *
+ * Counts can be written to a compact file and read back. It starts with a magic number,
+ * a version and the number of edges on the map, so counts from another map get caught.
+ * Then comes how many edges were driven, and only those edges are listed, each as the gap
+ * since the last edge listed and then its count, both as variable length numbers of 7 bits
+ * a byte. Most gaps and counts are small, so most edges take two or three bytes.
+ * @author david
+ *
+ */
+public class RoadUsage {
+
+	/** The first thing in every usage file. */
+	static final int MAGIC = 0x47505355;
+	static final short VERSION = 1;
+
+	private final LongAdder[] counts;
+
+	/**
+	 * Constructs counts of zero.
+	 * @param edges The number of edges on the map.
+	 */
+	public RoadUsage(int edges) {
+		counts = new LongAdder[edges];
+		for(int i = 0; i < edges; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Adds to an edge's count.
+	 * @param edge The number of the edge.
+	 * @param n How many more times it was driven.
+	 */
+	public void add(int edge, long n) {
+		counts[edge].add(n);
+	}
+
+	/**
+	 * Returns how many times an edge was driven.
+	 * Counts still being added to from other threads might not all be in it yet.
+	 * @param edge The number of the edge.
+	 * @return The count.
+	 */
+	public long get(int edge) {
+		return counts[edge].sum();
+	}
+
+	/**
+	 * Returns the number of edges counted.
+	 * @return The edge count.
+	 */
+	public int getEdgeCount() {
+		return counts.length;
+	}
+
+	/**
+	 * Returns how many times any edge was driven.
+	 * @return The sum of every edge's count.
+	 */
+	public long getTotal() {
+		long rtrn = 0;
+		for(LongAdder c : counts) {
+			rtrn += c.sum();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns how many edges were driven at all.
+	 * @return The number of edges with a count above zero.
+	 */
+	public int getDriven() {
+		int rtrn = 0;
+		for(LongAdder c : counts) {
+			if(c.sum() > 0) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Writes the counts to a file, replacing anything in it.
+	 * @param f The file.
+	 * @throws IOException If it can't be written.
+	 */
+	public void write(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(counts.length);
+			// The counts are summed once up front, so the number of edges driven matches what's listed.
+			long[] sums = new long[counts.length];
+			int driven = 0;
+			for(int i = 0; i < counts.length; i++) {
+				sums[i] = counts[i].sum();
+				if(sums[i] > 0) {
+					driven++;
+				}
+			}
+			out.writeInt(driven);
+			int last = -1;
+			for(int i = 0; i < sums.length; i++) {
+				if(sums[i] > 0) {
+					writeVar(out, i - last);
+					writeVar(out, sums[i]);
+					last = i;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads counts back from a file.
+	 * @param f The file.
+	 * @param edges The number of edges on the map the counts are for.
+	 * @return The counts.
+	 * @throws IOException If it can't be read, isn't a usage file, or is for a different map.
+	 */
+	public static RoadUsage read(File f, int edges) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(f + " isn't a road usage file.");
+			}
+			if(in.readShort() != VERSION) {
+				throw new IOException(f + " is a road usage file of a version this can't read.");
+			}
+			int n = in.readInt();
+			if(n != edges) {
+				throw new IOException(f + " is for a map with " + n + " edges, not " + edges + ".");
+			}
+			RoadUsage rtrn = new RoadUsage(n);
+			int driven = in.readInt();
+			int edge = -1;
+			for(int i = 0; i < driven; i++) {
+				edge += (int) readVar(in);
+				if(edge < 0 || edge >= n) {
+					throw new IOException(f + " has a count for edge " + edge + ", which isn't on the map.");
+				}
+				rtrn.add(edge, readVar(in));
+			}
+			return rtrn;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a number that isn't negative 7 bits at a time, with the top bit set on every byte but the last.
+	 */
+	private static void writeVar(DataOutputStream out, long v) throws IOException {
+		while(v >= 0x80) {
+			out.writeByte((int) (v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static long readVar(DataInputStream in) throws IOException {
+		long rtrn = 0;
+		for(int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			rtrn |= (long) (b & 0x7f) << shift;
+			if(b < 0x80) {
+				return rtrn;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import graph_interfaces.GraphEdge;
+import map_data.DistanceStrategy;
+import map_data.HaversineDistance;
+import map_data.Node;
+
+/**
+ * The area around a route where someone following it counts as on course, cut into cells,
+ * so checking a position only means testing the few edges of the route near it.
+ *
+ * Someone is on an edge if going from the edge's start to them and on to its end is less
+ * than some slack longer than the edge, or if they're within some radius of the edge's end.
+ * That's the same test Director has always used. Each edge is listed in every cell that
+ * could hold a point passing it, so looking up the cell a position is in gives every edge
+ * the position could be on, and usually none or one or two, and only those get tested.
+ *
+ * Only the cells the route goes through are kept, in a hash, since a route is a thin line
+ * across a map. Corridors never change once built.
+ * @author david
+ *
+ */
+public class RouteCorridor {
+
+	/** The side of a cell when none is given, in meters. */
+	public static final double DEFAULT_CELL = 50;
+	/** How much longer than an edge going by way of a position can be with it still on the edge, in meters, when no slack is given. */
+	public static final double DEFAULT_SLACK = .5;
+	/** How close to the end of an edge a position has to be to be on it, in meters, when no radius is given. */
+	public static final double DEFAULT_RADIUS = 20;
+	/** How many edges past the current one a position is looked for by findAhead. */
+	public static final int PROGRESS_WINDOW = 16;
+	/**
+	 * How much wider than it needs to be the corridor is made, as a fraction of its width,
+	 * so the flat plane's error can't leave anything out.
+	 */
+	private static final double MARGIN = .01;
+
+	private final List<GraphEdge> edges;
+	private final double slack, radius;
+	private final DistanceStrategy strat = new HaversineDistance();
+	/** The plane around the start of the route. */
+	private final FlatPlane plane;
+	private final double cell;
+	/** The indices of the edges each cell could hold, in order, by cell. */
+	private final HashMap<Long, int[]> cells = new HashMap<Long, int[]>();
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * Builds the corridor of a route with the default slack, radius and cell size.
+	 * @param edges The edges of the route, in order.
+	 */
+	public RouteCorridor(List<GraphEdge> edges) {
+		this(edges, DEFAULT_SLACK, DEFAULT_RADIUS, DEFAULT_CELL);
+	}
+
+	/**
+	 * Builds the corridor of a route with the default cell size.
+	 * @param edges The edges of the route, in order.
+	 * @param slack How much longer than an edge going by way of a point can be with the point still on it, in meters.
+	 * @param radius How close to the end of an edge a point has to be to be on it, in meters.
+	 */
+	public RouteCorridor(List<GraphEdge> edges, double slack, double radius) {
+		this(edges, slack, radius, DEFAULT_CELL);
+	}
+
+	/**
+	 * Builds the corridor of a route.
+	 * @param edges The edges of the route, in order.
+	 * @param slack How much longer than an edge going by way of a point can be with the point still on it, in meters.
+	 * @param radius How close to the end of an edge a point has to be to be on it, in meters.
+	 * @param cell The side of a cell, in meters.
+	 */
+	public RouteCorridor(List<GraphEdge> edges, double slack, double radius, double cell) {
+		this.edges = edges;
+		this.slack = slack;
+		this.radius = radius;
+		this.cell = cell;
+		if(edges.isEmpty()) {
+			plane = new FlatPlane(0, 0, 0);
+			return;
+		}
+		Node first = (Node) edges.get(0).getStartNode();
+		plane = new FlatPlane(first.getLon(), first.getLat(), first.getLat());
+		HashMap<Long, ArrayList<Integer>> lists = new HashMap<Long, ArrayList<Integer>>();
+		for(int i = 0; i < edges.size(); i++) {
+			GraphEdge e = edges.get(i);
+			Node s = (Node) e.getStartNode();
+			Node n = (Node) e.getEndNode();
+			// The points that pass the slack test make an ellipse around the edge. The
+			// furthest they get from it is its semi-minor axis.
+			double len = e.getLength();
+			double ellipse = .5 * Math.sqrt(slack * slack + 2 * len * slack);
+			double width = Math.max(ellipse, radius) * (1 + MARGIN) + 1;
+			double x1 = plane.x(s.getLon()), y1 = plane.y(s.getLat());
+			double x2 = plane.x(n.getLon()), y2 = plane.y(n.getLat());
+			long c0 = (long) Math.floor((Math.min(x1, x2) - width) / cell);
+			long c1 = (long) Math.floor((Math.max(x1, x2) + width) / cell);
+			long r0 = (long) Math.floor((Math.min(y1, y2) - width) / cell);
+			long r1 = (long) Math.floor((Math.max(y1, y2) + width) / cell);
+			for(long r = r0; r <= r1; r++) {
+				for(long c = c0; c <= c1; c++) {
+					if(distanceToSegment(c, r, x1, y1, x2, y2) > width) {
+						continue;
+					}
+					Long key = key(c, r);
+					ArrayList<Integer> list = lists.get(key);
+					if(list == null) {
+						list = new ArrayList<Integer>();
+						lists.put(key, list);
+					}
+					list.add(i);
+				}
+			}
+		}
+		for(Entry<Long, ArrayList<Integer>> entry : lists.entrySet()) {
+			ArrayList<Integer> list = entry.getValue();
+			int[] a = new int[list.size()];
+			for(int i = 0; i < a.length; i++) {
+				a[i] = list.get(i);
+			}
+			cells.put(entry.getKey(), a);
+		}
+	}
+
+	/**
+	 * Returns the edges a position could be on.
+	 * @param lon The longitude of the position.
+	 * @param lat The latitude of the position.
+	 * @return The indices of the edges in the route, in order. Empty if the position is outside the corridor.
+	 */
+	public int[] getEdges(double lon, double lat) {
+		int[] rtrn = cells.get(key((long) Math.floor(plane.x(lon) / cell), (long) Math.floor(plane.y(lat) / cell)));
+		return rtrn == null ? NONE : rtrn;
+	}
+
+	/**
+	 * Finds the first edge of the route in a range that a position is on.
+	 * @param lon The longitude of the position.
+	 * @param lat The latitude of the position.
+	 * @param from The index of the first edge to try.
+	 * @param to The index past the last edge to try.
+	 * @return The index of the edge, or -1 if the position isn't on any of them.
+	 */
+	public int find(double lon, double lat, int from, int to) {
+		int[] near = getEdges(lon, lat);
+		for(int k = 0; k < near.length && near[k] < to; k++) {
+			int i = near[k];
+			if(i < from) {
+				continue;
+			}
+			GraphEdge e = edges.get(i);
+			Node s = (Node) e.getStartNode();
+			Node n = (Node) e.getEndNode();
+			double distStart = strat.getDistance(lon, lat, s.getLon(), s.getLat());
+			double distEnd = strat.getDistance(lon, lat, n.getLon(), n.getLat());
+			if(distStart + distEnd - e.getLength() < slack || distEnd <= radius) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first edge a position is on from the one at a cursor up to PROGRESS_WINDOW past it,
+	 * which is as far as anyone following the route can get between two fixes.
+	 * @param lon The longitude of the position.
+	 * @param lat The latitude of the position.
+	 * @param cursor The index of the edge the position was last on.
+	 * @return The index of the edge, or -1 if the position isn't on any of them.
+	 */
+	public int findAhead(double lon, double lat, int cursor) {
+		return find(lon, lat, cursor, Math.min(edges.size(), cursor + PROGRESS_WINDOW + 1));
+	}
+
+	/**
+	 * Returns the number of cells the corridor covers.
+	 * @return The cell count.
+	 */
+	public int getCellCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Returns the distance from a cell to a segment, or something less, so cells that
+	 * the bounding box touches but the segment goes nowhere near can be left out.
+	 */
+	private double distanceToSegment(long c, long r, double x1, double y1, double x2, double y2) {
+		// The distance from the cell's center, less the distance from its center to a corner.
+		double px = (c + .5) * cell;
+		double py = (r + .5) * cell;
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : ((px - x1) * dx + (py - y1) * dy) / len2;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(x1 + t * dx - px, y1 + t * dy - py) - cell * Math.sqrt(.5);
+	}
+
+	private static Long key(long c, long r) {
+		return (c << 32) ^ (r & 0xffffffffL);
+	}
+
+}
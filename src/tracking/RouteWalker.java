@@ -0,0 +1,127 @@
+package tracking;
+
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.Node;
+
+/**
+ * Moves a point along the edges of a route, for making up fixes from something driving it.
+ * @author david
+ *
+ */
+public class RouteWalker {
+
+	private final List<GraphEdge> edges;
+	/** The index of the edge the point is on. */
+	private int edge = 0;
+	/** How far along that edge the point is, in meters. */
+	private double along = 0;
+
+	/**
+	 * Constructs a walker at the start of a route.
+	 * @param edges The edges of the route, in order.
+	 */
+	public RouteWalker(List<GraphEdge> edges) {
+		this.edges = edges;
+	}
+
+	/**
+	 * Moves the point further along the route, stopping at its end.
+	 * @param meters How far to move.
+	 * @return True if the point is still short of the end.
+	 */
+	public boolean advance(double meters) {
+		along += meters;
+		while(edge < edges.size() && along >= edges.get(edge).getLength()) {
+			along -= edges.get(edge).getLength();
+			edge++;
+		}
+		if(edge >= edges.size()) {
+			edge = edges.size();
+			along = 0;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the point has reached the end of the route.
+	 * @return True if finished.
+	 */
+	public boolean isFinished() {
+		return edge >= edges.size();
+	}
+
+	/**
+	 * Returns the edge the point is on.
+	 * @return The edge, or null if the point has reached the end.
+	 */
+	public GraphEdge getEdge() {
+		return isFinished() ? null : edges.get(edge);
+	}
+
+	/**
+	 * Returns the node the route ends at.
+	 * @return The end node, or null if the route is empty.
+	 */
+	public GraphNode getEnd() {
+		return edges.isEmpty() ? null : edges.get(edges.size() - 1).getEndNode();
+	}
+
+	/**
+	 * Returns the longitude of the point.
+	 * @return The longitude.
+	 */
+	public double getLon() {
+		if(edges.isEmpty()) {
+			return Double.NaN;
+		}
+		if(isFinished()) {
+			return ((Node) edges.get(edges.size() - 1).getEndNode()).getLon();
+		}
+		Node s = (Node) edges.get(edge).getStartNode();
+		Node n = (Node) edges.get(edge).getEndNode();
+		return s.getLon() + (n.getLon() - s.getLon()) * fraction();
+	}
+
+	/**
+	 * Returns the latitude of the point.
+	 * @return The latitude.
+	 */
+	public double getLat() {
+		if(edges.isEmpty()) {
+			return Double.NaN;
+		}
+		if(isFinished()) {
+			return ((Node) edges.get(edges.size() - 1).getEndNode()).getLat();
+		}
+		Node s = (Node) edges.get(edge).getStartNode();
+		Node n = (Node) edges.get(edge).getEndNode();
+		return s.getLat() + (n.getLat() - s.getLat()) * fraction();
+	}
+
+	/**
+	 * Returns the direction the point is moving in.
+	 * @return The heading in degrees clockwise from north.
+	 */
+	public double getHeading() {
+		if(edges.isEmpty()) {
+			return 0;
+		}
+		GraphEdge e = edges.get(Math.min(edge, edges.size() - 1));
+		Node s = (Node) e.getStartNode();
+		Node n = (Node) e.getEndNode();
+		double dx = (n.getLon() - s.getLon()) * Math.cos(Math.toRadians(s.getLat()));
+		double dy = n.getLat() - s.getLat();
+		double rtrn = Math.toDegrees(Math.atan2(dx, dy));
+		return rtrn < 0 ? rtrn + 360 : rtrn;
+	}
+
+	private double fraction() {
+		double len = edges.get(edge).getLength();
+		return len == 0 ? 0 : along / len;
+	}
+
+}
@@ -0,0 +1,263 @@
+package tracking;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import com.starkeffect.highway.GPSEvent;
+import com.starkeffect.highway.GPSListener;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.Map;
+import routing.CostProfile;
+import routing.EdgeBasedSearch;
+import routing.EdgeWeights;
+import routing.Route;
+import routing.TurnRestrictions;
+
+/**
+ * A made up gps device that drives around a map, for when the real one is too slow or too
+ * unpredictable. It tells its GPSListeners about fixes the same way GPSDevice does.
+ *
+ * It drives routes found on the map, or one it's given, at a set speed, sending fixes at a
+ * set rate with normally distributed noise. Some fixes can be dropped, like a real device
+ * losing the sky. When it gets where it was going it picks somewhere new.
+ *
+ * Everything comes from the seed, including the times on the fixes, which count up from a
+ * fixed start instead of reading the clock. So the same seed always gives the same fixes,
+ * whether they're sent in real time with start or as fast as the listeners can take them
+ * with run. The listeners are told on whichever thread is doing the stepping.
+ * @author david
+ *
+ */
+public class SimulatedGPS {
+
+	/** How fast it drives when no speed is given, in meters per second. */
+	public static final double DEFAULT_SPEED = 12;
+	/** How many fixes it sends a second when no rate is given. */
+	public static final double DEFAULT_RATE = 1;
+	/** The standard deviation of the noise on each fix when none is given, in meters. */
+	public static final double DEFAULT_SIGMA = 5;
+	/** The time on the first fix, in milliseconds since the epoch, so every replay has the same times. */
+	public static final long START_TIME = 1000000000000L;
+	/** The id fixes are sent with. */
+	public static final String ID = "simulated";
+	/** How many random destinations are tried before it gives up and stays put for a fix. */
+	private static final int TRIES = 20;
+
+	private final Map map;
+	private final EdgeWeights weights;
+	private final EdgeBasedSearch search;
+	private final Random rand;
+	private final double speed, rate, sigma, dropout;
+	private final CopyOnWriteArrayList<GPSListener> listeners = new CopyOnWriteArrayList<GPSListener>();
+	private RouteWalker walker;
+	/** How many fixes have come due, sent or dropped. */
+	private long count = 0;
+	private long sent = 0, dropped = 0;
+	private volatile Thread runner;
+
+	/**
+	 * Constructs a simulator with the default speed, rate and noise, that never drops a fix.
+	 * @param m The map to drive on.
+	 * @param seed The seed.
+	 */
+	public SimulatedGPS(Map m, long seed) {
+		this(m, CostProfile.FASTEST, DEFAULT_SPEED, DEFAULT_RATE, DEFAULT_SIGMA, 0, seed);
+	}
+
+	/**
+	 * Constructs a simulator, starting at a random node on the map.
+	 * @param m The map to drive on.
+	 * @param p The profile it plans its drives with.
+	 * @param speed How fast it drives, in meters per second.
+	 * @param rate How many fixes it sends a second, up to a thousand or so.
+	 * @param sigma The standard deviation of the noise on each fix, in meters.
+	 * @param dropout The chance of each fix being dropped, from 0 to 1.
+	 * @param seed The seed.
+	 */
+	public SimulatedGPS(Map m, CostProfile p, double speed, double rate, double sigma, double dropout, long seed) {
+		if(rate <= 0 || speed < 0 || sigma < 0 || dropout < 0 || dropout > 1) {
+			throw new IllegalArgumentException("Bad simulator settings: speed " + speed + ", rate " + rate
+					+ ", sigma " + sigma + ", dropout " + dropout);
+		}
+		map = m;
+		weights = new EdgeWeights(m, p);
+		search = new EdgeBasedSearch(m, weights, new TurnRestrictions(m));
+		rand = new Random(seed);
+		this.speed = speed;
+		this.rate = rate;
+		this.sigma = sigma;
+		this.dropout = dropout;
+		for(int t = 0; t < TRIES && walker == null; t++) {
+			dispatch(map.getNode(rand.nextInt(map.getNodeSize())));
+		}
+	}
+
+	/**
+	 * Adds a listener to be told about every fix.
+	 * @param l The listener.
+	 */
+	public void addGPSListener(GPSListener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Stops telling a listener about fixes.
+	 * @param l The listener.
+	 */
+	public void removeGPSListener(GPSListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Drives a route from its start, instead of wherever it was going.
+	 * @param route The edges of the route, in order.
+	 */
+	public synchronized void drive(List<GraphEdge> route) {
+		walker = new RouteWalker(route);
+	}
+
+	/**
+	 * Moves on to the next fix and tells the listeners about it, unless it's dropped.
+	 * @return The fix, or null if it was dropped or there's nowhere to drive.
+	 */
+	public synchronized GPSEvent step() {
+		count++;
+		if(walker == null) {
+			return null;
+		}
+		if(!walker.advance(speed / rate) && walker.getEnd() != null) {
+			dispatch(walker.getEnd());
+			// Some nodes are the end of a one way with no way out, so it starts over somewhere else
+			// instead of searching from there again every fix.
+			for(int t = 0; t < TRIES && walker.isFinished(); t++) {
+				dispatch(map.getNode(rand.nextInt(map.getNodeSize())));
+			}
+		}
+		// The noise and dropout are always drawn, so dropping a fix doesn't change the ones after.
+		double north = rand.nextGaussian() * sigma;
+		double east = rand.nextGaussian() * sigma;
+		boolean drop = rand.nextDouble() < dropout;
+		if(drop) {
+			dropped++;
+			return null;
+		}
+		double lat = walker.getLat() + FlatPlane.degreesLat(north);
+		double lon = walker.getLon() + FlatPlane.degreesLon(east, lat);
+		VehicleFix f = new VehicleFix(ID, lon, lat, walker.getHeading(), getTime());
+		sent++;
+		for(GPSListener l : listeners) {
+			l.processEvent(f);
+		}
+		return f;
+	}
+
+	/**
+	 * Steps through a number of fixes as fast as the listeners can take them.
+	 * @param fixes How many fixes to step through, dropped ones included.
+	 * @return How many were sent.
+	 */
+	public synchronized int run(int fixes) {
+		int rtrn = 0;
+		for(int i = 0; i < fixes; i++) {
+			if(step() != null) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Starts sending fixes in real time on a thread of its own, like the real device.
+	 * Does nothing if it's already going.
+	 */
+	public synchronized void start() {
+		if(runner != null) {
+			return;
+		}
+		runner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long period = (long) (1e9 / rate);
+				long next = System.nanoTime();
+				while(runner == Thread.currentThread()) {
+					step();
+					// Keeping to a schedule instead of sleeping a period each time
+					// holds the rate even when the listeners take a while.
+					next += period;
+					long wait = next - System.nanoTime();
+					if(wait > 0) {
+						LockSupport.parkNanos(wait);
+					} else if(-wait > period * 10) {
+						// It's fallen hopelessly behind, so it picks up from now.
+						next = System.nanoTime();
+					}
+				}
+			}
+		}, "simulated-gps");
+		runner.setDaemon(true);
+		runner.start();
+	}
+
+	/**
+	 * Stops sending fixes in real time.
+	 */
+	public void stop() {
+		Thread t = runner;
+		runner = null;
+		if(t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Returns where it's driving to.
+	 * @return The end of the route it's on, or null if it has nowhere to go.
+	 */
+	public synchronized GraphNode getDestination() {
+		return walker == null ? null : walker.getEnd();
+	}
+
+	/**
+	 * Returns the time on the latest fix.
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public synchronized long getTime() {
+		return START_TIME + (long) (count * 1000 / rate);
+	}
+
+	/**
+	 * Returns the number of fixes sent.
+	 * @return The sent count.
+	 */
+	public synchronized long getSent() {
+		return sent;
+	}
+
+	/**
+	 * Returns the number of fixes dropped.
+	 * @return The dropped count.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Sets off from a node to a random destination it can reach.
+	 * If there's nowhere it can reach it stays where it was and tries again next fix.
+	 */
+	private void dispatch(GraphNode from) {
+		for(int t = 0; t < TRIES; t++) {
+			GraphNode to = map.getNode(rand.nextInt(map.getNodeSize()));
+			Route r = search.route(from, to, null);
+			if(r != null && !r.getEdges().isEmpty()) {
+				walker = new RouteWalker(r.getEdges());
+				return;
+			}
+		}
+	}
+
+}
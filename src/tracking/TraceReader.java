@@ -0,0 +1,104 @@
+package tracking;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads back the fixes in a log written by TraceWriter, in order.
+ *
+ * Destinations in the log aren't handed out as fixes. Instead the reader keeps track of the
+ * latest one, so it's always the destination of the fix just read.
+ * @author david
+ *
+ */
+public class TraceReader implements Closeable {
+
+	/** The id the fixes read are given. */
+	public static final String ID = "trace";
+
+	private final File file;
+	private final DataInputStream in;
+	private long time = 0;
+	/** The latest destination, or null. */
+	private double[] destination;
+
+	/**
+	 * Opens a log.
+	 * @param f The file.
+	 * @throws IOException If the file can't be read or isn't a log.
+	 */
+	public TraceReader(File f) throws IOException {
+		file = f;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if(in.readInt() != TraceWriter.MAGIC) {
+				throw new IOException(f + " isn't a GPS trace.");
+			}
+			if(in.readShort() != TraceWriter.VERSION) {
+				throw new IOException(f + " is a GPS trace of a version this can't read.");
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the next fix.
+	 * @return The fix, or null at the end of the log.
+	 * @throws IOException If the log can't be read or is broken.
+	 */
+	public VehicleFix next() throws IOException {
+		while(true) {
+			int tag = in.read();
+			if(tag < 0) {
+				return null;
+			}
+			try {
+				switch(tag) {
+				case TraceWriter.FIX:
+					time += in.readInt();
+					double lat = in.readInt() / TraceWriter.SCALE;
+					double lon = in.readInt() / TraceWriter.SCALE;
+					double heading = in.readChar() / TraceWriter.HEADING_SCALE;
+					return new VehicleFix(ID, lon, lat, heading, time);
+				case TraceWriter.DESTINATION:
+					double dLat = in.readInt() / TraceWriter.SCALE;
+					double dLon = in.readInt() / TraceWriter.SCALE;
+					destination = new double[] {dLon, dLat};
+					break;
+				case TraceWriter.TIME:
+					time = in.readLong();
+					break;
+				case TraceWriter.NO_DESTINATION:
+					destination = null;
+					break;
+				default:
+					throw new IOException(file + " has a record this can't read, tagged " + tag + ".");
+				}
+			} catch (EOFException e) {
+				// The last record got cut off, probably when the program writing it stopped.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Returns where the driver was headed as of the last fix read.
+	 * @return The longitude and latitude of the destination, or null if there wasn't one.
+	 */
+	public double[] getDestination() {
+		return destination == null ? null : destination.clone();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
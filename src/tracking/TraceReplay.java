@@ -0,0 +1,169 @@
+package tracking;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.starkeffect.highway.GPSEvent;
+
+import application.Director;
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import map_data.Map;
+import map_data.Node;
+import map_data.OSMParser;
+import routing.CostProfile;
+
+/**
+ * Replays a GPS trace through drive there mode as fast as it'll go, to find out how long
+ * each fix takes and catch it getting slower.
+ *
+ * Each fix goes through what the application does with it: it's snapped to the road by a
+ * MapMatcher and the director checks the route against it, rerouting if it's off course.
+ * Whenever the trace says the destination changed, navigation starts over from the fix, like
+ * pressing drive there. The whole trace is replayed once untimed first, so the JIT has settled.
+ *
+ * A trace can be made up with the simulated gps instead of recorded, by giving -simulate and
+ * the number of fixes. The simulator plans its drives with the fastest profile, so with any
+ * other profile it leaves the director's routes now and then.
+ *
+ * Usage: java tracking.TraceReplay map.osm trace.gpst [profile]
+ *    or: java tracking.TraceReplay map.osm trace.gpst -simulate fixes [seed]
+ * @author david
+ *
+ */
+public class TraceReplay {
+
+	/** The chance of the simulated gps dropping a fix. */
+	private static final double SIM_DROPOUT = .02;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2) {
+			System.out.println("Usage: java tracking.TraceReplay map.osm trace.gpst [profile]");
+			System.out.println("   or: java tracking.TraceReplay map.osm trace.gpst -simulate fixes [seed]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		File trace = new File(args[1]);
+		if(args.length > 3 && args[2].equals("-simulate")) {
+			long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+			simulate(m, trace, Integer.parseInt(args[3]), seed);
+			return;
+		}
+		CostProfile p = CostProfile.SHORTEST;
+		if(args.length > 2) {
+			p = null;
+			for(CostProfile c : Director.PROFILES) {
+				if(c.getName().equals(args[2])) {
+					p = c;
+				}
+			}
+			if(p == null) {
+				System.out.println("No profile called " + args[2] + ".");
+				return;
+			}
+		}
+
+		// The trace is read up front so reading it isn't timed.
+		List<VehicleFix> fixes = new ArrayList<VehicleFix>();
+		List<double[]> destinations = new ArrayList<double[]>();
+		TraceReader in = new TraceReader(trace);
+		try {
+			VehicleFix f;
+			while((f = in.next()) != null) {
+				fixes.add(f);
+				destinations.add(in.getDestination());
+			}
+		} finally {
+			in.close();
+		}
+		System.out.println("Fixes: " + fixes.size() + ", profile: " + p);
+		if(fixes.isEmpty()) {
+			return;
+		}
+		replay(m, p, fixes, destinations, new long[fixes.size()], new int[2]);
+		long[] nanos = new long[fixes.size()];
+		int[] counts = new int[2];
+		long start = System.nanoTime();
+		replay(m, p, fixes, destinations, nanos, counts);
+		double ms = (System.nanoTime() - start) / 1e6;
+		Arrays.sort(nanos);
+		int n = nanos.length;
+		System.out.println(String.format("Replayed in %.1f ms, %.0f fixes/s", ms, n / (ms / 1000)));
+		System.out.println(String.format("Latency us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+				nanos[n / 2] / 1e3, nanos[(int) (n * .9)] / 1e3, nanos[(int) (n * .99)] / 1e3,
+				nanos[(int) (n * .999)] / 1e3, nanos[n - 1] / 1e3));
+		System.out.println("Navigations started: " + counts[0] + ", reroutes: " + counts[1]);
+	}
+
+	/**
+	 * Feeds every fix through a new director, timing each one.
+	 * @param nanos Where each fix's time goes.
+	 * @param counts Where the navigations started and the reroutes get counted.
+	 */
+	private static void replay(Map m, CostProfile p, List<VehicleFix> fixes, List<double[]> destinations,
+			long[] nanos, int[] counts) {
+		Director d = new Director(m);
+		d.setProfile(p);
+		MapMatcher matcher = new MapMatcher(m, new EdgeIndex(m));
+		double[] headedTo = null;
+		List<GraphEdge> dir = null;
+		for(int i = 0; i < fixes.size(); i++) {
+			VehicleFix f = fixes.get(i);
+			double[] dest = destinations.get(i);
+			long start = System.nanoTime();
+			EdgePosition pos = matcher.update(f);
+			double lon = pos == null ? f.getLongitude() : pos.getLon();
+			double lat = pos == null ? f.getLatitude() : pos.getLat();
+			if(!Arrays.equals(dest, headedTo)) {
+				headedTo = dest;
+				if(dest == null) {
+					d.clearDirections();
+					dir = null;
+				} else {
+					d.setEndNode(m.getNearNode(dest[0], dest[1]));
+					d.setStartNode(m.getNearNode(lon, lat));
+					dir = d.startNavigation(null);
+					counts[0]++;
+				}
+			} else if(dest != null) {
+				List<GraphEdge> next = d.updateDirections(lat, lon, f.getHeading(), null);
+				if(!Director.isProgress(dir, next)) {
+					counts[1]++;
+				}
+				dir = next;
+			}
+			nanos[i] = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Records a trace from the simulated gps, with its destinations.
+	 */
+	private static void simulate(Map m, File trace, int fixes, long seed) throws Exception {
+		SimulatedGPS sim = new SimulatedGPS(m, CostProfile.FASTEST, SimulatedGPS.DEFAULT_SPEED,
+				SimulatedGPS.DEFAULT_RATE, SimulatedGPS.DEFAULT_SIGMA, SIM_DROPOUT, seed);
+		TraceWriter out = new TraceWriter(trace);
+		try {
+			GraphNode headedTo = null;
+			for(int i = 0; i < fixes; i++) {
+				// Stepping can pick a new destination, so it's read after the step but written
+				// before the fix, which is already headed there.
+				GPSEvent e = sim.step();
+				GraphNode dest = sim.getDestination();
+				if(dest != null && dest != headedTo) {
+					headedTo = dest;
+					out.recordDestination(((Node) dest).getLon(), ((Node) dest).getLat());
+				}
+				if(e != null) {
+					out.processEvent(e);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println("Recorded " + out.getFixes() + " simulated fixes to " + trace + ", " + trace.length() + " bytes.");
+	}
+
+}
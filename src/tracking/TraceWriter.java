@@ -0,0 +1,138 @@
+package tracking;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.starkeffect.highway.GPSEvent;
+import com.starkeffect.highway.GPSListener;
+
+/**
+ * Records a stream of GPS fixes to a compact binary log, so a drive can be replayed later
+ * with TraceReader.
+ *
+ * A log starts with a magic number and a version. After that every record starts with a tag.
+ * A fix is its time as milliseconds since the record before, its latitude and longitude in
+ * ten millionths of a degree, which is about a centimeter, and its heading in hundredths of
+ * a degree, 15 bytes in all. Times that don't fit get a record of their own with the whole
+ * time in it. Where the driver was headed is recorded whenever it changes, since a drive
+ * can't be replayed without it.
+ *
+ * Writers are synchronized, so fixes can come in on any thread. It's a GPSListener, so it
+ * can be added to a gps device directly.
+ * @author david
+ *
+ */
+public class TraceWriter implements GPSListener, Closeable {
+
+	/** The first thing in every log. */
+	static final int MAGIC = 0x47505354;
+	static final short VERSION = 1;
+	/** The tag of a fix. */
+	static final byte FIX = 0;
+	/** The tag of a destination, a latitude and longitude like a fix's. */
+	static final byte DESTINATION = 1;
+	/** The tag of a whole time in milliseconds, for when the gap since the last record doesn't fit. */
+	static final byte TIME = 2;
+	/** The tag of the destination being cleared. */
+	static final byte NO_DESTINATION = 3;
+	/** Ten millionths of a degree in a degree. */
+	static final double SCALE = 1e7;
+	/** Hundredths of a degree in a degree, for headings. */
+	static final double HEADING_SCALE = 100;
+
+	private final DataOutputStream out;
+	/** The time of the last record, or Long.MIN_VALUE before the first. */
+	private long last = Long.MIN_VALUE;
+	private long fixes = 0;
+
+	/**
+	 * Starts a new log, replacing anything already in the file.
+	 * @param f The file.
+	 * @throws IOException If the file can't be written.
+	 */
+	public TraceWriter(File f) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+	}
+
+	/**
+	 * Records a fix, ignoring any problem writing it so the gps isn't held up.
+	 * Use record to find out about problems.
+	 * @param e The fix.
+	 */
+	@Override
+	public void processEvent(GPSEvent e) {
+		try {
+			record(e);
+		} catch (IOException ex) {
+			// The log is as good as it's going to get.
+		}
+	}
+
+	/**
+	 * Records a fix.
+	 * @param e The fix.
+	 * @throws IOException If it can't be written.
+	 */
+	public synchronized void record(GPSEvent e) throws IOException {
+		long time = e.getDate() != null ? e.getDate().getTime() : last == Long.MIN_VALUE ? 0 : last;
+		long gap = time - last;
+		if(last == Long.MIN_VALUE || gap < Integer.MIN_VALUE || gap > Integer.MAX_VALUE) {
+			out.writeByte(TIME);
+			out.writeLong(time);
+			gap = 0;
+		}
+		last = time;
+		out.writeByte(FIX);
+		out.writeInt((int) gap);
+		out.writeInt((int) Math.round(e.getLatitude() * SCALE));
+		out.writeInt((int) Math.round(e.getLongitude() * SCALE));
+		double heading = e.getHeading();
+		heading = Double.isNaN(heading) ? 0 : ((heading % 360) + 360) % 360;
+		out.writeChar((int) Math.round(heading * HEADING_SCALE) % 36000);
+		fixes++;
+	}
+
+	/**
+	 * Records where the driver is headed, which applies to the fixes after it.
+	 * @param lon The longitude of the destination.
+	 * @param lat The latitude of the destination.
+	 * @throws IOException If it can't be written.
+	 */
+	public synchronized void recordDestination(double lon, double lat) throws IOException {
+		out.writeByte(DESTINATION);
+		out.writeInt((int) Math.round(lat * SCALE));
+		out.writeInt((int) Math.round(lon * SCALE));
+	}
+
+	/**
+	 * Records that the driver stopped heading anywhere.
+	 * @throws IOException If it can't be written.
+	 */
+	public synchronized void clearDestination() throws IOException {
+		out.writeByte(NO_DESTINATION);
+	}
+
+	/**
+	 * Returns the number of fixes recorded.
+	 * @return The fix count.
+	 */
+	public synchronized long getFixes() {
+		return fixes;
+	}
+
+	/**
+	 * Writes out anything buffered and closes the log.
+	 * @throws IOException If it can't be written.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+}
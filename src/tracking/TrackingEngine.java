@@ -0,0 +1,227 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import graph_interfaces.GraphNode;
+import map_data.Map;
+import routing.CostProfile;
+import routing.EdgeBasedSearch;
+import routing.EdgeWeights;
+import routing.Route;
+import routing.TurnRestrictions;
+
+/**
+ * Follows a whole fleet of vehicles on one map, without a window or a gps device.
+ *
+ * Everything shared between vehicles, the map, the edge index, the weights and the search,
+ * is only ever read. Each vehicle keeps its own matcher and route in a Vehicle, and the
+ * searches work in SearchWorkspaces of their own thread, so vehicles never wait on each other.
+ *
+ * Fixes are handed in in batches. Each vehicle belongs to one worker, picked by its id, so
+ * a vehicle's fixes are always dealt with in order and by the same thread, while different
+ * vehicles' fixes are dealt with at once. A batch returns once every fix in it has been.
+ * @author david
+ *
+ */
+public class TrackingEngine {
+
+	private final Map map;
+	private final EdgeIndex index;
+	private final EdgeWeights weights;
+	/** Finds the cheapest routes that obey the turn restrictions, like the director does. */
+	private final EdgeBasedSearch search;
+	private final ExecutorService[] workers;
+	private final ConcurrentHashMap<String, Vehicle> vehicles = new ConcurrentHashMap<String, Vehicle>();
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong fixes = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Constructs an engine with a worker for each processor.
+	 * @param m The map.
+	 * @param p The profile routes are found with.
+	 */
+	public TrackingEngine(Map m, CostProfile p) {
+		this(m, p, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs an engine.
+	 * @param m The map.
+	 * @param p The profile routes are found with.
+	 * @param threads The number of workers.
+	 */
+	public TrackingEngine(Map m, CostProfile p, int threads) {
+		map = m;
+		index = new EdgeIndex(m);
+		weights = new EdgeWeights(m, p);
+		search = new EdgeBasedSearch(m, weights, new TurnRestrictions(m));
+		workers = new ExecutorService[Math.max(1, threads)];
+		for(int i = 0; i < workers.length; i++) {
+			final int worker = i;
+			workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "tracking-" + worker);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns a vehicle, starting to follow it if it's new.
+	 * @param id The id of the vehicle.
+	 * @return The vehicle.
+	 */
+	public Vehicle getVehicle(String id) {
+		Vehicle v = vehicles.get(id);
+		if(v == null) {
+			Vehicle created = new Vehicle(id, new MapMatcher(map, index));
+			v = vehicles.putIfAbsent(id, created);
+			if(v == null) {
+				v = created;
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * Returns every vehicle being followed.
+	 * @return The vehicles.
+	 */
+	public Collection<Vehicle> getVehicles() {
+		return vehicles.values();
+	}
+
+	/**
+	 * Sets where a vehicle is going. A route is found from wherever its next fix puts it.
+	 * @param id The id of the vehicle.
+	 * @param n The destination, or null to stop navigating.
+	 */
+	public void setDestination(String id, GraphNode n) {
+		getVehicle(id).setDestination(n);
+	}
+
+	/**
+	 * Deals with a batch of fixes, waiting until every one of them has been.
+	 * Fixes from the same vehicle are dealt with in the order they're in the batch.
+	 * @param batch The fixes.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void process(List<VehicleFix> batch) throws InterruptedException {
+		batches.incrementAndGet();
+		List<List<VehicleFix>> parts = new ArrayList<List<VehicleFix>>(workers.length);
+		for(int i = 0; i < workers.length; i++) {
+			parts.add(new ArrayList<VehicleFix>());
+		}
+		for(VehicleFix f : batch) {
+			parts.get(workerOf(f.getVehicle())).add(f);
+		}
+		int busy = 0;
+		for(List<VehicleFix> part : parts) {
+			if(!part.isEmpty()) {
+				busy++;
+			}
+		}
+		final CountDownLatch done = new CountDownLatch(busy);
+		for(int i = 0; i < workers.length; i++) {
+			final List<VehicleFix> part = parts.get(i);
+			if(part.isEmpty()) {
+				continue;
+			}
+			workers[i].execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for(VehicleFix f : part) {
+							try {
+								getVehicle(f.getVehicle()).update(f, TrackingEngine.this);
+							} catch (RuntimeException e) {
+								// One bad fix shouldn't hold up the rest of the fleet.
+								failed.incrementAndGet();
+							}
+						}
+						fixes.addAndGet(part.size());
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+	}
+
+	/**
+	 * Finds the cheapest route between two nodes. Safe to call from any number of threads.
+	 * @param sn The start node.
+	 * @param en The end node.
+	 * @return The route, or null if there's none.
+	 */
+	public Route route(GraphNode sn, GraphNode en) {
+		return search.route(sn, en, null);
+	}
+
+	/**
+	 * Stops the workers. Batches handed in afterwards are rejected.
+	 */
+	public void shutdown() {
+		for(ExecutorService w : workers) {
+			w.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the number of batches handed in.
+	 * @return The batch count.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * Returns the number of fixes dealt with.
+	 * @return The fix count.
+	 */
+	public long getFixes() {
+		return fixes.get();
+	}
+
+	/**
+	 * Returns the number of fixes that threw an exception.
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of routes found for all the vehicles.
+	 * @return The reroute count.
+	 */
+	public long getReroutes() {
+		long rtrn = 0;
+		for(Vehicle v : vehicles.values()) {
+			rtrn += v.getReroutes();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Returns the worker a vehicle belongs to.
+	 */
+	private int workerOf(String id) {
+		return (id.hashCode() & 0x7fffffff) % workers.length;
+	}
+
+}
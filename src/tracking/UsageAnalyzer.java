@@ -0,0 +1,393 @@
+package tracking;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import graph_interfaces.GraphEdge;
+import map_data.Map;
+import map_data.Node;
+import map_data.OSMParser;
+import map_data.RoadEdge;
+
+/**
+ * Counts how many times each road was driven in a pile of recorded GPS traces, for finding
+ * out which roads get used the most.
+ *
+ * Every trace gets snapped to the road by a MapMatcher of its own, keeping the positions of
+ * the fixes once they're settled, and every edge the drive went along is counted once each
+ * time it's driven. Fixes are usually further apart than the shortest edges, so when two
+ * fixes in a row land on edges that don't meet, the shortest way of a few edges between them
+ * gets counted too. An edge isn't counted until the drive has moved on from it to one it
+ * didn't just come from, since nobody drives back onto an edge they just drove in the same
+ * direction. Going straight back means the noise put a fix on a side street for a moment,
+ * so that side street isn't counted. A long enough gap between fixes counts as the end of
+ * one drive and the start of another.
+ *
+ * Traces are matched at once on a pool of workers, one trace to a worker. The matchers and
+ * their searches belong to the worker's thread, and the map and edge index are only ever read,
+ * so the only thing the workers share is the RoadUsage they count into.
+ *
+ * Usage: java tracking.UsageAnalyzer map.osm usage.out trace.gpst|directory... [-threads n]
+ * @author david
+ *
+ */
+public class UsageAnalyzer {
+
+	/** How long between fixes, in milliseconds, ends a drive when no gap is given. */
+	public static final long DEFAULT_GAP = 120000;
+	/** The most edges counted between two fixes that land on edges that don't meet. */
+	private static final int MAX_FILL = 4;
+	/** How many of the edges counted last a drive can't go straight back to. */
+	private static final int RECENT = 4;
+	/** How many of the most driven edges main prints. */
+	private static final int TOP = 10;
+
+	private final Map map;
+	private final EdgeIndex index;
+	private final long gap;
+	private final ExecutorService workers;
+
+	private final AtomicLong traces = new AtomicLong();
+	private final AtomicLong fixes = new AtomicLong();
+	private final AtomicLong unmatched = new AtomicLong();
+	private final AtomicLong traversals = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Constructs an analyzer with a worker for each processor.
+	 * @param m The map the traces were driven on.
+	 */
+	public UsageAnalyzer(Map m) {
+		this(m, new EdgeIndex(m), Runtime.getRuntime().availableProcessors(), DEFAULT_GAP);
+	}
+
+	/**
+	 * Constructs an analyzer.
+	 * @param m The map the traces were driven on.
+	 * @param index The index of the map's edges, which numbers them for the counts.
+	 * @param threads The number of workers.
+	 * @param gap How long between fixes, in milliseconds, ends a drive.
+	 */
+	public UsageAnalyzer(Map m, EdgeIndex index, int threads, long gap) {
+		map = m;
+		this.index = index;
+		this.gap = gap;
+		workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "usage-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Counts the roads driven in some traces, waiting until every trace has been gone through.
+	 * A trace that can't be read is counted as failed and the rest carry on, with whatever of
+	 * it was read before the problem still counted.
+	 * @param files The trace files.
+	 * @return The counts, numbered the way the edge index numbers the edges.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public RoadUsage analyze(List<File> files) throws InterruptedException {
+		final RoadUsage usage = new RoadUsage(index.getEdgeCount());
+		List<Future<Void>> done = new ArrayList<Future<Void>>(files.size());
+		for(final File f : files) {
+			done.add(workers.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					count(f, usage);
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> d : done) {
+			try {
+				d.get();
+			} catch (ExecutionException e) {
+				failed.incrementAndGet();
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * Stops the workers. Traces handed in afterwards are rejected.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Matches one trace and counts the edges it drove.
+	 */
+	private void count(File f, RoadUsage usage) throws IOException {
+		MapMatcher matcher = new MapMatcher(map, index);
+		matcher.setKeepSettled(true);
+		Tally tally = new Tally(usage);
+		TraceReader in = new TraceReader(f);
+		long n = 0;
+		try {
+			long last = Long.MIN_VALUE;
+			VehicleFix fix;
+			while((fix = in.next()) != null) {
+				n++;
+				if(last != Long.MIN_VALUE && fix.getTime() - last > gap) {
+					matcher.settle();
+					tally.add(matcher.takeSettled());
+					tally.endDrive();
+				}
+				last = fix.getTime();
+				if(matcher.update(fix) == null) {
+					unmatched.incrementAndGet();
+				}
+				tally.add(matcher.takeSettled());
+			}
+			matcher.settle();
+			tally.add(matcher.takeSettled());
+			tally.endDrive();
+		} finally {
+			in.close();
+			fixes.addAndGet(n);
+			traversals.addAndGet(tally.count);
+			traces.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of traces gone through, including ones that failed partway.
+	 * @return The trace count.
+	 */
+	public long getTraces() {
+		return traces.get();
+	}
+
+	/**
+	 * Returns the number of fixes read.
+	 * @return The fix count.
+	 */
+	public long getFixes() {
+		return fixes.get();
+	}
+
+	/**
+	 * Returns the number of fixes with no road near them.
+	 * @return The unmatched count.
+	 */
+	public long getUnmatched() {
+		return unmatched.get();
+	}
+
+	/**
+	 * Returns the number of times any edge was counted as driven.
+	 * @return The traversal count.
+	 */
+	public long getTraversals() {
+		return traversals.get();
+	}
+
+	/**
+	 * Returns the number of traces that couldn't be read.
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<File> files = new ArrayList<File>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		for(int i = 2; i < args.length; i++) {
+			if(args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+				continue;
+			}
+			File f = new File(args[i]);
+			File[] inside = f.listFiles();
+			if(inside == null) {
+				files.add(f);
+				continue;
+			}
+			// Everything in a directory gets gone through, in the same order every time.
+			Arrays.sort(inside);
+			for(File t : inside) {
+				if(t.isFile()) {
+					files.add(t);
+				}
+			}
+		}
+		if(args.length < 3 || files.isEmpty()) {
+			System.out.println("Usage: java tracking.UsageAnalyzer map.osm usage.out trace.gpst|directory... [-threads n]");
+			return;
+		}
+		Map m = new OSMParser(new File(args[0])).parse();
+		final EdgeIndex index = new EdgeIndex(m);
+		UsageAnalyzer analyzer = new UsageAnalyzer(m, index, threads, DEFAULT_GAP);
+		System.out.println("Traces: " + files.size() + ", threads: " + threads);
+		long start = System.nanoTime();
+		final RoadUsage usage = analyzer.analyze(files);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		analyzer.shutdown();
+		File out = new File(args[1]);
+		usage.write(out);
+
+		long n = analyzer.getFixes();
+		System.out.println(String.format("Fixes: %d in %.1f s, %.0f fixes/s, %.0f fixes/min", n, seconds,
+				n / seconds, n / seconds * 60));
+		System.out.println("Unmatched fixes: " + analyzer.getUnmatched() + ", failed traces: " + analyzer.getFailed());
+		System.out.println("Traversals: " + analyzer.getTraversals() + ", edges driven: " + usage.getDriven()
+				+ "/" + usage.getEdgeCount());
+		System.out.println("Wrote " + out + ", " + out.length() + " bytes.");
+		Integer[] order = new Integer[usage.getEdgeCount()];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(usage.get(b), usage.get(a));
+			}
+		});
+		System.out.println("Most driven edges:");
+		for(Integer e : Arrays.asList(order).subList(0, Math.min(TOP, order.length))) {
+			if(usage.get(e) > 0) {
+				System.out.println("  " + index.getEdge(e).getID() + ": " + usage.get(e));
+			}
+		}
+	}
+
+	/**
+	 * Counts one drive's edges as its settled positions come in.
+	 */
+	private class Tally {
+		private final RoadUsage usage;
+		/** The number of the edge last counted, or -1 at the start of a drive. */
+		private int last = -1;
+		/** The number of the edge the drive is on, which isn't counted until the drive moves on, or -1. */
+		private int pending = -1;
+		/** The edges between last and pending, counted along with pending. */
+		private final RoadEdge[] between = new RoadEdge[MAX_FILL];
+		private int betweenSize = 0;
+		/** The numbers of the edges counted last, or -1, going round. */
+		private final int[] recent = new int[RECENT];
+		private int next = 0;
+		private long count = 0;
+		private final RoadEdge[] path = new RoadEdge[MAX_FILL];
+		private final RoadEdge[] best = new RoadEdge[MAX_FILL];
+		private int bestSize;
+		private double bestDist;
+
+		Tally(RoadUsage usage) {
+			this.usage = usage;
+			Arrays.fill(recent, -1);
+		}
+
+		void add(List<EdgePosition> positions) {
+			for(EdgePosition p : positions) {
+				int e = index.indexOf(p.getEdge());
+				if(e < 0 || e == pending) {
+					continue;
+				}
+				if(isRecent(e)) {
+					// The drive came straight back, so the edge it was on was only the noise
+					// putting a fix on a side street for a moment.
+					pending = -1;
+					continue;
+				}
+				confirm();
+				betweenSize = 0;
+				if(last >= 0) {
+					Node from = index.getEdge(last).getEndNode();
+					Node to = p.getEdge().getStartNode();
+					if(!from.equals(to)) {
+						bestSize = -1;
+						fill(from, to, 0, 0);
+						betweenSize = Math.max(0, bestSize);
+						System.arraycopy(best, 0, between, 0, betweenSize);
+					}
+				}
+				pending = e;
+			}
+		}
+
+		void endDrive() {
+			confirm();
+			last = -1;
+			Arrays.fill(recent, -1);
+		}
+
+		/**
+		 * Counts the edge the drive is on, and the ones it took to get there.
+		 */
+		private void confirm() {
+			if(pending < 0) {
+				return;
+			}
+			for(int i = 0; i < betweenSize; i++) {
+				traverse(index.indexOf(between[i]));
+			}
+			traverse(pending);
+			last = pending;
+			pending = -1;
+		}
+
+		private boolean isRecent(int e) {
+			for(int r : recent) {
+				if(r == e) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void traverse(int e) {
+			if(e >= 0) {
+				usage.add(e, 1);
+				count++;
+				recent[next] = e;
+				next = (next + 1) % RECENT;
+			}
+		}
+
+		/**
+		 * Finds the shortest way of at most MAX_FILL edges from one node to another, leaving it in best.
+		 * If there's none bestSize is left at -1, and nothing between the two fixes gets counted.
+		 */
+		private void fill(Node at, Node to, int size, double dist) {
+			if(bestSize >= 0 && dist >= bestDist) {
+				return;
+			}
+			if(at.equals(to)) {
+				System.arraycopy(path, 0, best, 0, size);
+				bestSize = size;
+				bestDist = dist;
+				return;
+			}
+			if(size == MAX_FILL) {
+				return;
+			}
+			Iterator<GraphEdge> it = at.getEdgeIt();
+			while(it.hasNext()) {
+				RoadEdge e = (RoadEdge) it.next();
+				path[size] = e;
+				fill(e.getEndNode(), to, size + 1, dist + e.getLength());
+			}
+		}
+	}
+
+}
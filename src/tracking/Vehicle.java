@@ -0,0 +1,170 @@
+package tracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import graph_interfaces.GraphEdge;
+import graph_interfaces.GraphNode;
+import routing.Route;
+
+/**
+ * The navigation state of one vehicle followed by a TrackingEngine: where its fixes have
+ * been matched to, where it's going, the route it's on and how far along it is.
+ *
+ * All of it belongs to the vehicle. Nothing here writes to the map, so any number of
+ * vehicles can be updated at once on different threads. The engine only ever updates a
+ * vehicle from one thread, and the getters are synchronized so anyone can look.
+ * @author david
+ *
+ */
+public class Vehicle {
+
+	private final String id;
+	private final MapMatcher matcher;
+	private GraphNode destination;
+	/** Every edge of the route, starting with the one the vehicle was on when it was found. */
+	private List<GraphEdge> route;
+	private RouteCorridor corridor;
+	/** The index in route of the edge the vehicle is on. */
+	private int cursor;
+	private EdgePosition position;
+	private boolean onCourse = false;
+	private long fixes, unmatched, reroutes;
+
+	/**
+	 * Constructs a vehicle with nowhere to go yet.
+	 * @param id The id of the vehicle.
+	 * @param matcher The vehicle's own map matcher.
+	 */
+	Vehicle(String id, MapMatcher matcher) {
+		this.id = id;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Updates the vehicle with a fix, finding a new route if it's gone off course.
+	 * @param f The fix.
+	 * @param engine The engine, which finds the routes.
+	 */
+	synchronized void update(VehicleFix f, TrackingEngine engine) {
+		fixes++;
+		EdgePosition p = matcher.update(f);
+		if(p == null) {
+			unmatched++;
+			return;
+		}
+		position = p;
+		if(destination == null) {
+			return;
+		}
+		if(route != null) {
+			int i = corridor.findAhead(p.getLon(), p.getLat(), cursor);
+			if(i >= 0) {
+				cursor = i;
+				onCourse = true;
+				return;
+			}
+		}
+		onCourse = false;
+		reroute(p, engine);
+	}
+
+	/**
+	 * Finds a new route from the end of the edge the vehicle is on.
+	 * The edge it's on goes at the front, so the next fix on it is still on course.
+	 */
+	private void reroute(EdgePosition p, TrackingEngine engine) {
+		reroutes++;
+		Route r = engine.route(p.getEdge().getEndNode(), destination);
+		if(r == null) {
+			route = null;
+			corridor = null;
+			return;
+		}
+		ArrayList<GraphEdge> edges = new ArrayList<GraphEdge>(r.getEdges().size() + 1);
+		edges.add(p.getEdge());
+		edges.addAll(r.getEdges());
+		route = edges;
+		corridor = new RouteCorridor(route);
+		cursor = 0;
+		onCourse = true;
+	}
+
+	/**
+	 * Sets where the vehicle is going. The route is found on its next fix.
+	 * @param n The destination, or null to stop navigating.
+	 */
+	synchronized void setDestination(GraphNode n) {
+		destination = n;
+		route = null;
+		corridor = null;
+		cursor = 0;
+		onCourse = false;
+	}
+
+	/**
+	 * Returns the id of the vehicle.
+	 * @return The id.
+	 */
+	public String getID() {
+		return id;
+	}
+
+	/**
+	 * Returns where the vehicle is going.
+	 * @return The destination, or null if it isn't navigating.
+	 */
+	public synchronized GraphNode getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Returns where the vehicle's last matched fix was snapped to.
+	 * @return The position, or null if no fix has been matched yet.
+	 */
+	public synchronized EdgePosition getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns the edges of the route the vehicle still has to drive, starting with the one it's on.
+	 * @return The remaining edges, or null if there's no route.
+	 */
+	public synchronized List<GraphEdge> getRemaining() {
+		return route == null ? null : Collections.unmodifiableList(route.subList(cursor, route.size()));
+	}
+
+	/**
+	 * Returns whether the vehicle's last matched fix was on its route.
+	 * @return True if on course.
+	 */
+	public synchronized boolean isOnCourse() {
+		return onCourse;
+	}
+
+	/**
+	 * Returns the number of fixes the vehicle has sent.
+	 * @return The fix count.
+	 */
+	public synchronized long getFixes() {
+		return fixes;
+	}
+
+	/**
+	 * Returns the number of fixes that weren't near any road.
+	 * @return The unmatched count.
+	 */
+	public synchronized long getUnmatched() {
+		return unmatched;
+	}
+
+	/**
+	 * Returns the number of routes found for the vehicle, including the first.
+	 * @return The reroute count.
+	 */
+	public synchronized long getReroutes() {
+		return reroutes;
+	}
+
+}
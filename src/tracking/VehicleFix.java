@@ -0,0 +1,79 @@
+package tracking;
+
+import java.util.Date;
+
+import com.starkeffect.highway.GPSEvent;
+
+/**
+ * A GPS fix from one vehicle of a fleet. It's a GPSEvent, so everything that takes fixes
+ * from the gps device takes these too.
+ *
+ * Fixes are immutable.
+ * @author david
+ *
+ */
+public class VehicleFix implements GPSEvent {
+
+	private final String vehicle;
+	private final double lon, lat, heading;
+	/** When the fix was taken, in milliseconds since the epoch. */
+	private final long time;
+
+	/**
+	 * Constructs a fix.
+	 * @param vehicle The id of the vehicle.
+	 * @param lon The longitude.
+	 * @param lat The latitude.
+	 * @param heading The heading, in degrees.
+	 * @param time When the fix was taken, in milliseconds since the epoch.
+	 */
+	public VehicleFix(String vehicle, double lon, double lat, double heading, long time) {
+		this.vehicle = vehicle;
+		this.lon = lon;
+		this.lat = lat;
+		this.heading = heading;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the id of the vehicle the fix is from.
+	 * @return The vehicle id.
+	 */
+	public String getVehicle() {
+		return vehicle;
+	}
+
+	@Override
+	public double getLatitude() {
+		return lat;
+	}
+
+	@Override
+	public double getLongitude() {
+		return lon;
+	}
+
+	@Override
+	public double getHeading() {
+		return heading;
+	}
+
+	@Override
+	public Date getDate() {
+		return new Date(time);
+	}
+
+	/**
+	 * Returns when the fix was taken.
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return vehicle + " (" + lon + ", " + lat + ") at " + time;
+	}
+
+}